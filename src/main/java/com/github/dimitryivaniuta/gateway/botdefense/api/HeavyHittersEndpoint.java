@@ -0,0 +1,47 @@
+package com.github.dimitryivaniuta.gateway.botdefense.api;
+
+import com.github.dimitryivaniuta.gateway.botdefense.risk.HeavyHitters;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Actuator endpoint ({@code /actuator/heavyhitters}) listing the heaviest IPs, users,
+ * tenants and route groups of this node by recent requests and denials.
+ *
+ * <p>Served from memory (see {@link HeavyHitters}); unlike {@link AuditController} it does
+ * not touch the database.
+ */
+@Component
+@Endpoint(id = "heavyhitters")
+public class HeavyHittersEndpoint {
+
+    private static final int DEFAULT_LIMIT = 20;
+
+    private final HeavyHitters heavyHitters;
+
+    public HeavyHittersEndpoint(HeavyHitters heavyHitters) {
+        this.heavyHitters = heavyHitters;
+    }
+
+    /**
+     * Top entries per dimension, e.g. {@code {"ip": {"requests": [...], "denials": [...]}, ...}}.
+     */
+    @ReadOperation
+    public Map<String, Map<String, List<HeavyHitters.HeavyHitter>>> heavyHitters(@Nullable Integer limit) {
+        int k = limit == null || limit <= 0 ? DEFAULT_LIMIT : limit;
+        Map<String, Map<String, List<HeavyHitters.HeavyHitter>>> result = new LinkedHashMap<>();
+        for (HeavyHitters.Dimension d : HeavyHitters.Dimension.values()) {
+            Map<String, List<HeavyHitters.HeavyHitter>> counters = new LinkedHashMap<>();
+            counters.put("requests", heavyHitters.top(d, false, k));
+            counters.put("denials", heavyHitters.top(d, true, k));
+            result.put(d.id(), counters);
+        }
+        return result;
+    }
+}
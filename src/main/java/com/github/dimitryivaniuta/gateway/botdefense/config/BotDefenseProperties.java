@@ -36,6 +36,30 @@ public class BotDefenseProperties {
     @NotNull
     private Signals signals = new Signals();
 
+    @Valid
+    @NotNull
+    private Decision decision = new Decision();
+
+    @Valid
+    @NotNull
+    private Redis redis = new Redis();
+
+    @Valid
+    @NotNull
+    private Local local = new Local();
+
+    @Valid
+    @NotNull
+    private HeavyHitters heavyHitters = new HeavyHitters();
+
+    @Valid
+    @NotNull
+    private Reputation reputation = new Reputation();
+
+    @Valid
+    @NotNull
+    private Asn asn = new Asn();
+
     public Allowlist getAllowlist() {
         return allowlist;
     }
@@ -76,6 +100,54 @@ public class BotDefenseProperties {
         this.signals = signals;
     }
 
+    public Decision getDecision() {
+        return decision;
+    }
+
+    public void setDecision(Decision decision) {
+        this.decision = decision;
+    }
+
+    public Redis getRedis() {
+        return redis;
+    }
+
+    public void setRedis(Redis redis) {
+        this.redis = redis;
+    }
+
+    public Local getLocal() {
+        return local;
+    }
+
+    public void setLocal(Local local) {
+        this.local = local;
+    }
+
+    public HeavyHitters getHeavyHitters() {
+        return heavyHitters;
+    }
+
+    public void setHeavyHitters(HeavyHitters heavyHitters) {
+        this.heavyHitters = heavyHitters;
+    }
+
+    public Reputation getReputation() {
+        return reputation;
+    }
+
+    public void setReputation(Reputation reputation) {
+        this.reputation = reputation;
+    }
+
+    public Asn getAsn() {
+        return asn;
+    }
+
+    public void setAsn(Asn asn) {
+        this.asn = asn;
+    }
+
     /**
      * IP allow-list configuration.
      */
@@ -101,6 +173,12 @@ public class BotDefenseProperties {
         @NotNull
         private String name;
 
+        /**
+         * Numeric id used in Redis bucket keys. Defaults to the 1-based position in
+         * {@code routeGroups}; set it explicitly to keep keys stable when reordering.
+         */
+        private Integer id;
+
         @NotEmpty
         private List<String> paths = new ArrayList<>();
 
@@ -115,6 +193,14 @@ public class BotDefenseProperties {
             this.name = name;
         }
 
+        public Integer getId() {
+            return id;
+        }
+
+        public void setId(Integer id) {
+            this.id = id;
+        }
+
         public List<String> getPaths() {
             return paths;
         }
@@ -140,6 +226,14 @@ public class BotDefenseProperties {
         @NotNull
         private Bucket ip = new Bucket();
 
+        /**
+         * Per aggregate block of {@code botdefense.ip.*AggregatePrefix}, enforced next to the
+         * per-IP bucket.
+         */
+        @Valid
+        @NotNull
+        private Bucket subnet = new Bucket(240, 4.0);
+
         @Valid
         @NotNull
         private Bucket user = new Bucket();
@@ -156,6 +250,14 @@ public class BotDefenseProperties {
             this.ip = ip;
         }
 
+        public Bucket getSubnet() {
+            return subnet;
+        }
+
+        public void setSubnet(Bucket subnet) {
+            this.subnet = subnet;
+        }
+
         public Bucket getUser() {
             return user;
         }
@@ -187,6 +289,14 @@ public class BotDefenseProperties {
          */
         private double refillPerSecond = 1.0;
 
+        public Bucket() {
+        }
+
+        public Bucket(int capacity, double refillPerSecond) {
+            this.capacity = capacity;
+            this.refillPerSecond = refillPerSecond;
+        }
+
         public int getCapacity() {
             return capacity;
         }
@@ -277,9 +387,45 @@ public class BotDefenseProperties {
      * Parameters controlling signal windows and aggregation.
      */
     public static class Signals {
+
+        /**
+         * How signal counters age.
+         */
+        public enum Counter {
+            /**
+             * Weighted two-window count over the last window.
+             */
+            SLIDING_WINDOW,
+            /**
+             * Exponentially decayed count with half-life {@code window * ln 2}; a constant
+             * rate settles at the same value as its windowed count, so thresholds keep
+             * their meaning.
+             */
+            DECAYED
+        }
+
+        @NotNull
+        private Counter counter = Counter.SLIDING_WINDOW;
+
         private int loginFailureWindowSeconds = 600;
         private int requestRateWindowSeconds = 60;
 
+        @Valid
+        @NotNull
+        private Prefilter prefilter = new Prefilter();
+
+        @Valid
+        @NotNull
+        private UserAgent userAgent = new UserAgent();
+
+        public Counter getCounter() {
+            return counter;
+        }
+
+        public void setCounter(Counter counter) {
+            this.counter = counter;
+        }
+
         public int getLoginFailureWindowSeconds() {
             return loginFailureWindowSeconds;
         }
@@ -295,5 +441,1032 @@ public class BotDefenseProperties {
         public void setRequestRateWindowSeconds(int requestRateWindowSeconds) {
             this.requestRateWindowSeconds = requestRateWindowSeconds;
         }
+
+        public Prefilter getPrefilter() {
+            return prefilter;
+        }
+
+        public void setPrefilter(Prefilter prefilter) {
+            this.prefilter = prefilter;
+        }
+
+        public UserAgent getUserAgent() {
+            return userAgent;
+        }
+
+        public void setUserAgent(UserAgent userAgent) {
+            this.userAgent = userAgent;
+        }
+
+        /**
+         * User-Agent signatures, matched case-insensitively as substrings.
+         *
+         * <p>A UA scores the highest {@code score} among the categories it matches.
+         */
+        public static class UserAgent {
+
+            /**
+             * Score of a request without (or with a blank) User-Agent.
+             */
+            private int missingScore = 15;
+
+            /**
+             * Distinct User-Agent strings whose classification is cached.
+             */
+            private int cacheMaxEntries = 10_000;
+
+            /**
+             * Signature categories. The defaults are the long-standing signatures; broader
+             * ones (e.g. {@code okhttp}, {@code go-http-client}, {@code java/}, headless
+             * browsers) also match legitimate SDKs and monitoring, so they are opt-in.
+             */
+            @Valid
+            @NotNull
+            private List<Category> categories = new ArrayList<>(List.of(
+                    new Category("scripted", 20, List.of("curl/", "python-requests", "httpclient")),
+                    new Category("crawler", 20, List.of("bot"))));
+
+            public int getMissingScore() {
+                return missingScore;
+            }
+
+            public void setMissingScore(int missingScore) {
+                this.missingScore = missingScore;
+            }
+
+            public int getCacheMaxEntries() {
+                return cacheMaxEntries;
+            }
+
+            public void setCacheMaxEntries(int cacheMaxEntries) {
+                this.cacheMaxEntries = cacheMaxEntries;
+            }
+
+            public List<Category> getCategories() {
+                return categories;
+            }
+
+            public void setCategories(List<Category> categories) {
+                this.categories = categories;
+            }
+
+            /**
+             * A named group of signatures with a common score.
+             */
+            public static class Category {
+                @NotNull
+                private String name;
+
+                private int score;
+
+                @NotEmpty
+                private List<String> patterns = new ArrayList<>();
+
+                public Category() {
+                }
+
+                public Category(String name, int score, List<String> patterns) {
+                    this.name = name;
+                    this.score = score;
+                    this.patterns = new ArrayList<>(patterns);
+                }
+
+                public String getName() {
+                    return name;
+                }
+
+                public void setName(String name) {
+                    this.name = name;
+                }
+
+                public int getScore() {
+                    return score;
+                }
+
+                public void setScore(int score) {
+                    this.score = score;
+                }
+
+                public List<String> getPatterns() {
+                    return patterns;
+                }
+
+                public void setPatterns(List<String> patterns) {
+                    this.patterns = patterns;
+                }
+            }
+        }
+
+        /**
+         * Node-local Count-Min Sketch in front of the Redis request-rate counter.
+         *
+         * <p>An IP only reaches Redis once its local estimate (halved every request-rate
+         * window) passes {@code fraction} of the lowest request-rate threshold. Lower the
+         * fraction when traffic of one client is spread over many nodes. Once handed over,
+         * an IP keeps being counted in Redis until its Redis counter has expired.
+         */
+        public static class Prefilter {
+            private boolean enabled = false;
+            private double fraction = 0.5;
+
+            /**
+             * Counters per row (rounded up to a power of two) and number of rows.
+             */
+            private int width = 65_536;
+            private int depth = 4;
+
+            /**
+             * IPs remembered as handed over to Redis (least recently seen evicted first).
+             */
+            private int maxHandedOver = 65_536;
+
+            public boolean isEnabled() {
+                return enabled;
+            }
+
+            public void setEnabled(boolean enabled) {
+                this.enabled = enabled;
+            }
+
+            public double getFraction() {
+                return fraction;
+            }
+
+            public void setFraction(double fraction) {
+                this.fraction = fraction;
+            }
+
+            public int getWidth() {
+                return width;
+            }
+
+            public void setWidth(int width) {
+                this.width = width;
+            }
+
+            public int getDepth() {
+                return depth;
+            }
+
+            public void setDepth(int depth) {
+                this.depth = depth;
+            }
+
+            public int getMaxHandedOver() {
+                return maxHandedOver;
+            }
+
+            public void setMaxHandedOver(int maxHandedOver) {
+                this.maxHandedOver = maxHandedOver;
+            }
+        }
+    }
+
+    /**
+     * How a single enforcement decision is evaluated against Redis.
+     */
+    public static class Decision {
+
+        /**
+         * Evaluation strategy.
+         */
+        public enum Mode {
+            /**
+             * Risk signals and buckets are evaluated with separate Redis calls.
+             */
+            STANDARD,
+            /**
+             * Risk signals, tier and buckets are evaluated by one server-side script.
+             */
+            FUSED
+        }
+
+        @NotNull
+        private Mode mode = Mode.STANDARD;
+
+        /**
+         * Evaluate decisions without blocking the servlet thread (servlet async + reactive Redis).
+         */
+        private boolean async = false;
+
+        /**
+         * Time budget for the Redis part of one decision; when it runs out the node-local
+         * fallback decides instead. 0 waits for Redis as long as the client allows.
+         */
+        private long deadlineMillis = 250;
+
+        @Valid
+        @NotNull
+        private DenyCache denyCache = new DenyCache();
+
+        public Mode getMode() {
+            return mode;
+        }
+
+        public void setMode(Mode mode) {
+            this.mode = mode;
+        }
+
+        public boolean isAsync() {
+            return async;
+        }
+
+        public void setAsync(boolean async) {
+            this.async = async;
+        }
+
+        public long getDeadlineMillis() {
+            return deadlineMillis;
+        }
+
+        public void setDeadlineMillis(long deadlineMillis) {
+            this.deadlineMillis = deadlineMillis;
+        }
+
+        public DenyCache getDenyCache() {
+            return denyCache;
+        }
+
+        public void setDenyCache(DenyCache denyCache) {
+            this.denyCache = denyCache;
+        }
+
+        /**
+         * Node-local cache of buckets known to deny until their retry-after has passed.
+         */
+        public static class DenyCache {
+            private boolean enabled = true;
+
+            /**
+             * Upper bound of cached bucket keys.
+             */
+            private int maxEntries = 100_000;
+
+            public boolean isEnabled() {
+                return enabled;
+            }
+
+            public void setEnabled(boolean enabled) {
+                this.enabled = enabled;
+            }
+
+            public int getMaxEntries() {
+                return maxEntries;
+            }
+
+            public void setMaxEntries(int maxEntries) {
+                this.maxEntries = maxEntries;
+            }
+        }
+    }
+
+    /**
+     * Tuning of the Redis limiter client.
+     */
+    public static class Redis {
+
+        /**
+         * Limiter storage algorithm used by the Redis scripts.
+         */
+        public enum Engine {
+            /**
+             * Packed micro-tokens and last refill time.
+             */
+            TOKEN_BUCKET,
+            /**
+             * Single theoretical-arrival-time integer per key.
+             */
+            GCRA
+        }
+
+        @NotNull
+        private Engine engine = Engine.TOKEN_BUCKET;
+
+        /**
+         * Seed of the hash used for identities in bucket keys. Use the same secret value
+         * on every node so keys match across the cluster and collisions cannot be
+         * precomputed by clients. The default 0 is public and only meant for development;
+         * a warning is logged at startup while it is in use.
+         */
+        private long keyHashSeed = 0;
+
+        @Valid
+        @NotNull
+        private Leasing leasing = new Leasing();
+
+        @Valid
+        @NotNull
+        private Batching batching = new Batching();
+
+        @Valid
+        @NotNull
+        private Breaker breaker = new Breaker();
+
+        @Valid
+        @NotNull
+        private Sharding sharding = new Sharding();
+
+        @Valid
+        @NotNull
+        private Reads reads = new Reads();
+
+        @Valid
+        @NotNull
+        private Combining combining = new Combining();
+
+        public Engine getEngine() {
+            return engine;
+        }
+
+        public void setEngine(Engine engine) {
+            this.engine = engine;
+        }
+
+        public long getKeyHashSeed() {
+            return keyHashSeed;
+        }
+
+        public void setKeyHashSeed(long keyHashSeed) {
+            this.keyHashSeed = keyHashSeed;
+        }
+
+        public Leasing getLeasing() {
+            return leasing;
+        }
+
+        public void setLeasing(Leasing leasing) {
+            this.leasing = leasing;
+        }
+
+        public Batching getBatching() {
+            return batching;
+        }
+
+        public void setBatching(Batching batching) {
+            this.batching = batching;
+        }
+
+        public Reads getReads() {
+            return reads;
+        }
+
+        public void setReads(Reads reads) {
+            this.reads = reads;
+        }
+
+        public Sharding getSharding() {
+            return sharding;
+        }
+
+        public void setSharding(Sharding sharding) {
+            this.sharding = sharding;
+        }
+
+        public Breaker getBreaker() {
+            return breaker;
+        }
+
+        public void setBreaker(Breaker breaker) {
+            this.breaker = breaker;
+        }
+
+        public Combining getCombining() {
+            return combining;
+        }
+
+        public void setCombining(Combining combining) {
+            this.combining = combining;
+        }
+
+        /**
+         * Routing of read-only risk-signal lookups.
+         *
+         * <p>{@code readFrom} is a Lettuce read preference ({@code replicaPreferred},
+         * {@code replica}, {@code nearest}, ...); {@code nodes} optionally lists static
+         * primary/replica URIs, otherwise the Cluster or Sentinel setup of
+         * {@code spring.data.redis} is used.
+         */
+        public static class Reads {
+            private String readFrom;
+            private List<String> nodes = new ArrayList<>();
+
+            /**
+             * Serve signal reads from a local, server-invalidated cache (RESP3 tracking).
+             */
+            private boolean clientSideCaching = false;
+            private int cacheMaxEntries = 100_000;
+
+            public String getReadFrom() {
+                return readFrom;
+            }
+
+            public void setReadFrom(String readFrom) {
+                this.readFrom = readFrom;
+            }
+
+            public List<String> getNodes() {
+                return nodes;
+            }
+
+            public void setNodes(List<String> nodes) {
+                this.nodes = nodes;
+            }
+
+            public boolean isClientSideCaching() {
+                return clientSideCaching;
+            }
+
+            public void setClientSideCaching(boolean clientSideCaching) {
+                this.clientSideCaching = clientSideCaching;
+            }
+
+            public int getCacheMaxEntries() {
+                return cacheMaxEntries;
+            }
+
+            public void setCacheMaxEntries(int cacheMaxEntries) {
+                this.cacheMaxEntries = cacheMaxEntries;
+            }
+        }
+
+        /**
+         * Client-side sharding of all Redis keys over independent instances.
+         *
+         * <p>{@code nodes} are Redis URIs ({@code redis://[user:password@]host:port[/db]});
+         * when empty, the application's single Redis (or Redis Cluster) is used.
+         */
+        public static class Sharding {
+            private List<String> nodes = new ArrayList<>();
+
+            /**
+             * Points per node on the consistent-hash ring.
+             */
+            private int virtualNodes = 160;
+
+            public List<String> getNodes() {
+                return nodes;
+            }
+
+            public void setNodes(List<String> nodes) {
+                this.nodes = nodes;
+            }
+
+            public int getVirtualNodes() {
+                return virtualNodes;
+            }
+
+            public void setVirtualNodes(int virtualNodes) {
+                this.virtualNodes = virtualNodes;
+            }
+        }
+
+        /**
+         * Circuit breaker switching decisions to the node-local fallback while Redis is
+         * failing or slow.
+         *
+         * <p>After {@code failureThreshold} consecutive errors, timeouts or calls slower than
+         * {@code slowCallMillis} it opens for {@code openMillis}; then a single probe request
+         * goes to Redis and closes it again on success.
+         */
+        public static class Breaker {
+            private boolean enabled = true;
+            private int failureThreshold = 5;
+            private long slowCallMillis = 100;
+            private long openMillis = 1000;
+
+            public boolean isEnabled() {
+                return enabled;
+            }
+
+            public void setEnabled(boolean enabled) {
+                this.enabled = enabled;
+            }
+
+            public int getFailureThreshold() {
+                return failureThreshold;
+            }
+
+            public void setFailureThreshold(int failureThreshold) {
+                this.failureThreshold = failureThreshold;
+            }
+
+            public long getSlowCallMillis() {
+                return slowCallMillis;
+            }
+
+            public void setSlowCallMillis(long slowCallMillis) {
+                this.slowCallMillis = slowCallMillis;
+            }
+
+            public long getOpenMillis() {
+                return openMillis;
+            }
+
+            public void setOpenMillis(long openMillis) {
+                this.openMillis = openMillis;
+            }
+        }
+
+        /**
+         * In-flight combining of concurrent consume calls for the same buckets.
+         *
+         * <p>While a call for a set of keys is in flight, further requests for the same keys
+         * wait and are then served by one call asking for several permits at once.
+         */
+        public static class Combining {
+            private boolean enabled = false;
+
+            /**
+             * Most requests served by one combined call.
+             */
+            private int maxPermits = 64;
+
+            public boolean isEnabled() {
+                return enabled;
+            }
+
+            public void setEnabled(boolean enabled) {
+                this.enabled = enabled;
+            }
+
+            public int getMaxPermits() {
+                return maxPermits;
+            }
+
+            public void setMaxPermits(int maxPermits) {
+                this.maxPermits = maxPermits;
+            }
+        }
+
+        /**
+         * Cross-request pipelining of limiter script calls.
+         *
+         * <p>Calls arriving within {@code maxWaitMicros} of each other are sent to Redis as
+         * one pipeline of at most {@code maxBatchSize} commands.
+         */
+        public static class Batching {
+            private boolean enabled = false;
+
+            /**
+             * Longest time a call waits for others to join its batch, in microseconds.
+             */
+            private long maxWaitMicros = 200;
+
+            private int maxBatchSize = 64;
+
+            /**
+             * Threads flushing batches concurrently (each on its own connection).
+             */
+            private int flushThreads = 2;
+
+            /**
+             * Pending calls beyond this run directly on the caller thread.
+             */
+            private int queueCapacity = 10_000;
+
+            public boolean isEnabled() {
+                return enabled;
+            }
+
+            public void setEnabled(boolean enabled) {
+                this.enabled = enabled;
+            }
+
+            public long getMaxWaitMicros() {
+                return maxWaitMicros;
+            }
+
+            public void setMaxWaitMicros(long maxWaitMicros) {
+                this.maxWaitMicros = maxWaitMicros;
+            }
+
+            public int getMaxBatchSize() {
+                return maxBatchSize;
+            }
+
+            public void setMaxBatchSize(int maxBatchSize) {
+                this.maxBatchSize = maxBatchSize;
+            }
+
+            public int getFlushThreads() {
+                return flushThreads;
+            }
+
+            public void setFlushThreads(int flushThreads) {
+                this.flushThreads = flushThreads;
+            }
+
+            public int getQueueCapacity() {
+                return queueCapacity;
+            }
+
+            public void setQueueCapacity(int queueCapacity) {
+                this.queueCapacity = queueCapacity;
+            }
+        }
+
+        /**
+         * Node-local token leasing for high-volume buckets.
+         *
+         * <p>A node reserves a batch of tokens for a key and serves requests from it
+         * until the batch is used up or the lease expires; unused tokens are returned.
+         */
+        public static class Leasing {
+            private boolean enabled = false;
+
+            /**
+             * Bucket key prefixes eligible for leasing.
+             */
+            private List<String> keyPrefixes = new ArrayList<>(List.of("rl:t:"));
+
+            /**
+             * Lease lifetime in milliseconds.
+             */
+            private long leaseMillis = 500;
+
+            /**
+             * Smallest batch reserved per lease.
+             */
+            private int minTokens = 1;
+
+            /**
+             * Largest batch reserved per lease. This bounds how many tokens one node may
+             * hold for a key, i.e. how far it can run ahead of the shared bucket.
+             */
+            private int maxTokens = 20;
+
+            public boolean isEnabled() {
+                return enabled;
+            }
+
+            public void setEnabled(boolean enabled) {
+                this.enabled = enabled;
+            }
+
+            public List<String> getKeyPrefixes() {
+                return keyPrefixes;
+            }
+
+            public void setKeyPrefixes(List<String> keyPrefixes) {
+                this.keyPrefixes = keyPrefixes;
+            }
+
+            public long getLeaseMillis() {
+                return leaseMillis;
+            }
+
+            public void setLeaseMillis(long leaseMillis) {
+                this.leaseMillis = leaseMillis;
+            }
+
+            public int getMinTokens() {
+                return minTokens;
+            }
+
+            public void setMinTokens(int minTokens) {
+                this.minTokens = minTokens;
+            }
+
+            public int getMaxTokens() {
+                return maxTokens;
+            }
+
+            public void setMaxTokens(int maxTokens) {
+                this.maxTokens = maxTokens;
+            }
+        }
+    }
+
+    /**
+     * In-process token buckets (no Redis round trip for bucket state).
+     *
+     * <p>Slots are rounded up to a power of two per stripe; with {@code offHeap} they are
+     * kept in direct memory, 24 bytes per bucket.
+     */
+    public static class Local {
+        private boolean enabled = false;
+
+        /**
+         * Buckets tracked before the least recently used ones are evicted.
+         */
+        private long maxBuckets = 1_000_000;
+
+        /**
+         * Independently locked table segments.
+         */
+        private int stripes = 64;
+
+        private boolean offHeap = false;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getMaxBuckets() {
+            return maxBuckets;
+        }
+
+        public void setMaxBuckets(long maxBuckets) {
+            this.maxBuckets = maxBuckets;
+        }
+
+        public int getStripes() {
+            return stripes;
+        }
+
+        public void setStripes(int stripes) {
+            this.stripes = stripes;
+        }
+
+        public boolean isOffHeap() {
+            return offHeap;
+        }
+
+        public void setOffHeap(boolean offHeap) {
+            this.offHeap = offHeap;
+        }
+    }
+
+    /**
+     * Node-local top-K tracking of the heaviest IPs, users, tenants and route groups
+     * (actuator endpoint {@code heavyhitters}).
+     */
+    public static class HeavyHitters {
+        private boolean enabled = true;
+
+        /**
+         * Entries tracked per dimension and counter (rounded up to a power of two).
+         */
+        private int capacity = 1_024;
+
+        /**
+         * Counts are halved every window, so the ranking follows recent traffic.
+         */
+        private int windowSeconds = 300;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public void setCapacity(int capacity) {
+            this.capacity = capacity;
+        }
+
+        public int getWindowSeconds() {
+            return windowSeconds;
+        }
+
+        public void setWindowSeconds(int windowSeconds) {
+            this.windowSeconds = windowSeconds;
+        }
+    }
+
+    /**
+     * IP reputation feeds (hosting providers, Tor exits, threat feeds).
+     *
+     * <p>Feeds are text files with one IP or CIDR per line ({@code #} starts a comment).
+     * They are compiled into one memory-mapped table at {@code tablePath}, reused across
+     * restarts while the feeds are unchanged, and recompiled and swapped in when a feed
+     * changes (checked every {@code reloadSeconds}).
+     */
+    public static class Reputation {
+
+        /**
+         * What a listed address gets.
+         */
+        public enum Action {
+            /**
+             * Adds the feed's score to the risk score.
+             */
+            SCORE,
+            /**
+             * Rejected by the filter with 403 before any Redis work.
+             */
+            BLOCK
+        }
+
+        private boolean enabled = false;
+
+        /**
+         * Compiled table; written atomically, so nodes may share a directory.
+         */
+        @NotNull
+        private String tablePath = System.getProperty("java.io.tmpdir") + "/botdefense-reputation.iprt";
+
+        private int reloadSeconds = 30;
+
+        @Valid
+        @NotNull
+        private List<Feed> feeds = new ArrayList<>();
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getTablePath() {
+            return tablePath;
+        }
+
+        public void setTablePath(String tablePath) {
+            this.tablePath = tablePath;
+        }
+
+        public int getReloadSeconds() {
+            return reloadSeconds;
+        }
+
+        public void setReloadSeconds(int reloadSeconds) {
+            this.reloadSeconds = reloadSeconds;
+        }
+
+        public List<Feed> getFeeds() {
+            return feeds;
+        }
+
+        public void setFeeds(List<Feed> feeds) {
+            this.feeds = feeds;
+        }
+
+        /**
+         * One feed file. An address listed by several feeds gets the strongest verdict
+         * (a block, otherwise the highest score).
+         */
+        public static class Feed {
+            @NotNull
+            private String name;
+
+            @NotNull
+            private String path;
+
+            @NotNull
+            private Action action = Action.SCORE;
+
+            private int score = 30;
+
+            public String getName() {
+                return name;
+            }
+
+            public void setName(String name) {
+                this.name = name;
+            }
+
+            public String getPath() {
+                return path;
+            }
+
+            public void setPath(String path) {
+                this.path = path;
+            }
+
+            public Action getAction() {
+                return action;
+            }
+
+            public void setAction(Action action) {
+                this.action = action;
+            }
+
+            public int getScore() {
+                return score;
+            }
+
+            public void setScore(int score) {
+                this.score = score;
+            }
+        }
+    }
+
+    /**
+     * Offline IP-to-ASN database.
+     *
+     * <p>{@code databasePath} is a text file with one announcement per line, either
+     * {@code <cidr> <asn> ...} or {@code <first-ip> <last-ip> <asn> ...} (the ip2asn TSV
+     * layout); AS 0 means not routed. It is compiled into a memory-mapped table at
+     * {@code tablePath} (the most specific announcement wins) and reloaded when it changes.
+     */
+    public static class Asn {
+        private boolean enabled = false;
+
+        private String databasePath;
+
+        @NotNull
+        private String tablePath = System.getProperty("java.io.tmpdir") + "/botdefense-asn.iprt";
+
+        private int reloadSeconds = 300;
+
+        @Valid
+        @NotNull
+        private List<Group> groups = new ArrayList<>();
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getDatabasePath() {
+            return databasePath;
+        }
+
+        public void setDatabasePath(String databasePath) {
+            this.databasePath = databasePath;
+        }
+
+        public String getTablePath() {
+            return tablePath;
+        }
+
+        public void setTablePath(String tablePath) {
+            this.tablePath = tablePath;
+        }
+
+        public int getReloadSeconds() {
+            return reloadSeconds;
+        }
+
+        public void setReloadSeconds(int reloadSeconds) {
+            this.reloadSeconds = reloadSeconds;
+        }
+
+        public List<Group> getGroups() {
+            return groups;
+        }
+
+        public void setGroups(List<Group> groups) {
+            this.groups = groups;
+        }
+
+        /**
+         * AS numbers sharing a risk score (e.g. hosting providers); an AS listed in several
+         * groups gets the highest score.
+         */
+        public static class Group {
+            @NotNull
+            private String name;
+
+            private int score;
+
+            @NotEmpty
+            private List<Integer> asns = new ArrayList<>();
+
+            /**
+             * Optional extra bucket per AS of the group and route group, which holds when a
+             * client rotates addresses within its provider; an AS listed in several groups
+             * gets the one with the lowest refill rate. Unset: no AS bucket.
+             */
+            @Valid
+            private Bucket bucket;
+
+            public String getName() {
+                return name;
+            }
+
+            public void setName(String name) {
+                this.name = name;
+            }
+
+            public int getScore() {
+                return score;
+            }
+
+            public void setScore(int score) {
+                this.score = score;
+            }
+
+            public List<Integer> getAsns() {
+                return asns;
+            }
+
+            public void setAsns(List<Integer> asns) {
+                this.asns = asns;
+            }
+
+            public Bucket getBucket() {
+                return bucket;
+            }
+
+            public void setBucket(Bucket bucket) {
+                this.bucket = bucket;
+            }
+        }
     }
 }
@@ -1,9 +1,15 @@
 package com.github.dimitryivaniuta.gateway.botdefense.config;
 
+import com.github.dimitryivaniuta.gateway.botdefense.redis.GcraEngine;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.LimiterEngine;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.LuaScript;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.TokenBucketEngine;
+import org.springframework.boot.autoconfigure.data.redis.LettuceClientConfigurationBuilderCustomizer;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.core.io.ClassPathResource;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.time.Duration;
 
 /**
  * Redis configuration for token-bucket enforcement.
@@ -11,20 +17,82 @@ import org.springframework.data.redis.core.script.DefaultRedisScript;
 @Configuration
 public class RedisConfig {
 
+    private static final String SLIDING_WINDOW_LIBRARY = "redis/lib/sliding_window.lua";
+    private static final String DECAYED_COUNTER_LIBRARY = "redis/lib/decayed_counter.lua";
+
     /**
-     * Lua script implementing an atomic token-bucket.
+     * Storage algorithm used by all limiter scripts ({@code botdefense.redis.engine}).
+     */
+    @Bean
+    public LimiterEngine limiterEngine(BotDefenseProperties props) {
+        return switch (props.getRedis().getEngine()) {
+            case TOKEN_BUCKET -> new TokenBucketEngine();
+            case GCRA -> new GcraEngine();
+        };
+    }
+
+    /**
+     * Caps the Redis command timeout at {@code botdefense.decision.deadlineMillis}.
      *
-     * <p>Hash fields:
-     * <ul>
-     *   <li>t = current tokens (double)</li>
-     *   <li>ts = last refill timestamp millis (long)</li>
-     * </ul>
+     * <p>The synchronous check calls Redis on the request thread; a slow Redis then fails
+     * the call at the deadline and the local fallback decides, instead of the thread
+     * waiting for the client's default timeout.
+     */
+    @Bean
+    public LettuceClientConfigurationBuilderCustomizer decisionDeadlineCommandTimeout(BotDefenseProperties props,
+                                                                                     RedisProperties redis) {
+        return builder -> {
+            long deadline = props.getDecision().getDeadlineMillis();
+            Duration configured = redis.getTimeout();
+            if (deadline > 0 && (configured == null || configured.toMillis() > deadline)) {
+                builder.commandTimeout(Duration.ofMillis(deadline));
+            }
+        };
+    }
+
+    /**
+     * Lua script checking several token buckets atomically in one round trip.
+     *
+     * <p>Tokens are debited only when every bucket admits the request. Bucket state
+     * layout depends on the {@link LimiterEngine}.
+     */
+    @Bean
+    public LuaScript multiTokenBucketScript(LimiterEngine limiterEngine) {
+        return limiterEngine.script("redis/multi_token_bucket.lua");
+    }
+
+    /**
+     * Lua script evaluating risk signals, tier and buckets in one call
+     * (fused decision mode).
+     */
+    @Bean
+    public LuaScript fusedDecisionScript(LimiterEngine limiterEngine) {
+        return new LuaScript(limiterEngine.library(), SLIDING_WINDOW_LIBRARY, DECAYED_COUNTER_LIBRARY,
+                "redis/fused_decision.lua");
+    }
+
+    /**
+     * Lua script adding hits to a sliding-window signal counter and returning the
+     * windowed count.
+     */
+    @Bean
+    public LuaScript slidingWindowScript() {
+        return new LuaScript(SLIDING_WINDOW_LIBRARY, "redis/sliding_window.lua");
+    }
+
+    /**
+     * Lua script adding to exponentially decayed signal counters and returning their values.
+     */
+    @Bean
+    public LuaScript decayedCounterScript() {
+        return new LuaScript(DECAYED_COUNTER_LIBRARY, "redis/decayed_counter.lua");
+    }
+
+    /**
+     * Lua script reserving (and returning) batches of tokens for node-local leases.
      */
     @Bean
-    public DefaultRedisScript<String> tokenBucketScript() {
-        DefaultRedisScript<String> script = new DefaultRedisScript<>();
-        script.setLocation(new ClassPathResource("redis/token_bucket.lua"));
-        script.setResultType(String.class);
-        return script;
+    public LuaScript tokenLeaseScript(LimiterEngine limiterEngine) {
+        return limiterEngine.script("redis/token_lease.lua");
     }
 }
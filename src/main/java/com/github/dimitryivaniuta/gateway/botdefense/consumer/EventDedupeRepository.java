@@ -1,6 +1,6 @@
 package com.github.dimitryivaniuta.gateway.botdefense.consumer;
 
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.RedisShards;
 import org.springframework.stereotype.Repository;
 
 import java.time.Duration;
@@ -13,11 +13,11 @@ import java.time.Duration;
 @Repository
 public class EventDedupeRepository {
 
-    private final StringRedisTemplate redis;
+    private final RedisShards shards;
     private final ConsumerProperties props;
 
-    public EventDedupeRepository(StringRedisTemplate redis, ConsumerProperties props) {
-        this.redis = redis;
+    public EventDedupeRepository(RedisShards shards, ConsumerProperties props) {
+        this.shards = shards;
         this.props = props;
     }
 
@@ -31,7 +31,7 @@ public class EventDedupeRepository {
             return true; // nothing to dedupe
         }
         String key = "botdefense:dedupe:event:" + eventId;
-        Boolean ok = redis.opsForValue().setIfAbsent(key, "1", Duration.ofSeconds(props.getDedupeTtlSeconds()));
+        Boolean ok = shards.forKey(key).opsForValue().setIfAbsent(key, "1", Duration.ofSeconds(props.getDedupeTtlSeconds()));
         return Boolean.TRUE.equals(ok);
     }
 }
@@ -0,0 +1,210 @@
+package com.github.dimitryivaniuta.gateway.botdefense.local;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed-size, striped open-addressing table of token-bucket state.
+ *
+ * <p>Each slot is three primitive longs: the 64-bit key hash, the stored micro-tokens
+ * and the timestamp of the last write. Slots live in one {@link LongBuffer} per stripe,
+ * either on the heap or in a direct (off-heap) buffer, so tracking a bucket allocates
+ * nothing and the garbage collector never has to trace bucket state.
+ *
+ * <p>A key may only sit in the {@link #PROBE} slots following its home slot. When all
+ * of them are taken by other keys, the least recently written one is overwritten
+ * (sampled LRU). Since slots are never cleared, a lookup can stop at the first empty
+ * slot. An evicted bucket simply starts again full, the same as an expired Redis key.
+ *
+ * <p>Not thread-safe by itself: callers hold the lock of every stripe they touch (see
+ * {@link #lock}), acquired in ascending stripe order.
+ */
+final class LocalBucketTable {
+
+    /**
+     * Slots examined per key; also the sample size of the LRU eviction.
+     */
+    static final int PROBE = 8;
+
+    private static final int HASH = 0;
+    private static final int TOKENS = 1;
+    private static final int STAMP = 2;
+    private static final int STRIDE = 3;
+
+    /**
+     * Largest stripe whose slots still fit in one direct buffer.
+     */
+    private static final int MAX_STRIPE_SLOTS = 1 << 26;
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+
+    LocalBucketTable(long maxBuckets, int stripes, boolean offHeap) {
+        int stripeCount = ceilPow2(Math.max(1, stripes));
+        int slots = (int) Math.min(MAX_STRIPE_SLOTS, ceilPow2(Math.max(PROBE, (maxBuckets + stripeCount - 1) / stripeCount)));
+        this.stripes = new Stripe[stripeCount];
+        this.stripeMask = stripeCount - 1;
+        for (int i = 0; i < stripeCount; i++) {
+            this.stripes[i] = new Stripe(slots, offHeap);
+        }
+    }
+
+    /**
+     * Stripe holding the given key hash.
+     */
+    int stripeOf(long hash) {
+        return (int) (hash >>> 40) & stripeMask;
+    }
+
+    void lock(int stripe) {
+        stripes[stripe].lock.lock();
+    }
+
+    void unlock(int stripe) {
+        stripes[stripe].lock.unlock();
+    }
+
+    /**
+     * Refilled micro-tokens of the bucket at {@code now}; a bucket not in the table is full.
+     */
+    long read(long hash, long capacity, long refill, long now) {
+        hash = nonZero(hash);
+        Stripe s = stripes[stripeOf(hash)];
+        int slot = s.find(hash);
+        if (slot < 0) {
+            return capacity;
+        }
+        long tokens = s.get(slot, TOKENS);
+        long elapsed = now - s.get(slot, STAMP);
+        if (elapsed <= 0 || tokens >= capacity) {
+            return Math.min(tokens, capacity);
+        }
+        if (refill <= 0) {
+            return tokens;
+        }
+        // Compare before multiplying: long idle times would overflow.
+        if (elapsed >= (capacity - tokens) / refill + 1) {
+            return capacity;
+        }
+        return Math.min(capacity, tokens + elapsed * refill);
+    }
+
+    /**
+     * Stores the bucket's micro-tokens as of {@code now}, evicting the least recently
+     * written neighbour if the key is new and its probe window is full.
+     */
+    void write(long hash, long tokens, long now) {
+        hash = nonZero(hash);
+        Stripe s = stripes[stripeOf(hash)];
+        int mask = s.mask;
+        int home = (int) hash & mask;
+        int victim = home;
+        long oldest = Long.MAX_VALUE;
+        for (int i = 0; i < PROBE; i++) {
+            int slot = (home + i) & mask;
+            long h = s.get(slot, HASH);
+            if (h == hash) {
+                victim = slot;
+                break;
+            }
+            if (h == 0) {
+                victim = slot;
+                s.size++;
+                break;
+            }
+            long stamp = s.get(slot, STAMP);
+            if (stamp < oldest) {
+                oldest = stamp;
+                victim = slot;
+            }
+            if (i == PROBE - 1) {
+                s.evictions++;
+            }
+        }
+        s.put(victim, HASH, hash);
+        s.put(victim, TOKENS, tokens);
+        s.put(victim, STAMP, now);
+    }
+
+    /**
+     * Buckets currently tracked (approximate: read without locking).
+     */
+    long size() {
+        long n = 0;
+        for (Stripe s : stripes) {
+            n += s.size;
+        }
+        return n;
+    }
+
+    /**
+     * Buckets dropped to make room for new ones (approximate: read without locking).
+     */
+    long evictions() {
+        long n = 0;
+        for (Stripe s : stripes) {
+            n += s.evictions;
+        }
+        return n;
+    }
+
+    /**
+     * Total slots across all stripes.
+     */
+    long slots() {
+        return (long) stripes.length * (stripes[0].mask + 1);
+    }
+
+    private static long nonZero(long hash) {
+        // 0 marks an empty slot.
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static long ceilPow2(long n) {
+        return n <= 1 ? 1 : Long.highestOneBit(n - 1) << 1;
+    }
+
+    private static int ceilPow2(int n) {
+        return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    private static final class Stripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LongBuffer slots;
+        private final int mask;
+        private volatile long size;
+        private volatile long evictions;
+
+        private Stripe(int slotCount, boolean offHeap) {
+            this.mask = slotCount - 1;
+            this.slots = offHeap
+                    ? ByteBuffer.allocateDirect(slotCount * STRIDE * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer()
+                    : LongBuffer.allocate(slotCount * STRIDE);
+        }
+
+        private int find(long hash) {
+            int home = (int) hash & mask;
+            for (int i = 0; i < PROBE; i++) {
+                int slot = (home + i) & mask;
+                long h = get(slot, HASH);
+                if (h == hash) {
+                    return slot;
+                }
+                if (h == 0) {
+                    return -1;
+                }
+            }
+            return -1;
+        }
+
+        private long get(int slot, int field) {
+            return slots.get(slot * STRIDE + field);
+        }
+
+        private void put(int slot, int field, long value) {
+            slots.put(slot * STRIDE + field, value);
+        }
+    }
+}
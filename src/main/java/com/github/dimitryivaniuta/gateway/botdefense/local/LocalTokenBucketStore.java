@@ -0,0 +1,130 @@
+package com.github.dimitryivaniuta.gateway.botdefense.local;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.BucketKeys;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.BucketLimit;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.TokenBucketRedisClient;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * In-process token buckets with the same contract as {@link TokenBucketRedisClient}.
+ *
+ * <p>Meant for single-replica deployments where Redis is not worth running
+ * ({@code botdefense.local.enabled}) and as a stand-in while Redis is unavailable.
+ * State lives in a {@link LocalBucketTable}: primitive slots, optionally off-heap,
+ * bounded by {@code botdefense.local.maxBuckets} with approximate LRU eviction.
+ *
+ * <p>Semantics follow {@code multi_token_bucket.lua}: every bucket is refilled and
+ * checked, and tokens are debited only when all of them admit the request. The
+ * stripes of all buckets of a call are locked together, so the check is atomic.
+ */
+@Component
+public class LocalTokenBucketStore {
+
+    /**
+     * Retry-after reported for a bucket that never refills (same as the scripts).
+     */
+    private static final long NO_REFILL_RETRY_MILLIS = 60_000;
+
+    private final boolean enabled;
+    private final LocalBucketTable table;
+
+    public LocalTokenBucketStore(BotDefenseProperties props, MeterRegistry metrics) {
+        BotDefenseProperties.Local config = props.getLocal();
+        this.enabled = config.isEnabled();
+        this.table = new LocalBucketTable(config.getMaxBuckets(), config.getStripes(), config.isOffHeap());
+
+        metrics.gauge("botdefense.local.buckets", table, LocalBucketTable::size);
+        metrics.gauge("botdefense.local.evictions", table, LocalBucketTable::evictions);
+    }
+
+    /**
+     * Returns true if buckets are enforced in-process instead of in Redis.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Attempts to consume one token from every bucket, atomically.
+     *
+     * @param specs buckets to check (at least one)
+     * @param nowMillis current time millis
+     * @return combined result, shaped like the Redis one
+     */
+    public TokenBucketRedisClient.BucketResult consumeAll(List<TokenBucketRedisClient.BucketSpec> specs, long nowMillis) {
+        int n = specs.size();
+        if (n == 0) {
+            throw new IllegalArgumentException("At least one bucket is required");
+        }
+
+        long[] hashes = new long[n];
+        int[] stripes = new int[n];
+        for (int i = 0; i < n; i++) {
+            byte[] key = specs.get(i).key();
+            hashes[i] = BucketKeys.hash64(key, key.length, 0);
+            stripes[i] = table.stripeOf(hashes[i]);
+        }
+        // A fixed lock order keeps concurrent multi-bucket calls deadlock-free.
+        Arrays.sort(stripes);
+
+        lockAll(stripes);
+        try {
+            long[] tokens = new long[n];
+            boolean allowed = true;
+            for (int i = 0; i < n; i++) {
+                BucketLimit limit = specs.get(i).limit();
+                tokens[i] = table.read(hashes[i], limit.capacityMicros(), limit.refillMicrosPerMilli(), nowMillis);
+                if (tokens[i] < BucketLimit.SCALE) {
+                    allowed = false;
+                }
+            }
+
+            int minRemaining = Integer.MAX_VALUE;
+            long retryAfter = 0;
+            int denied = -1;
+            for (int i = 0; i < n; i++) {
+                long t = tokens[i];
+                if (allowed) {
+                    t -= BucketLimit.SCALE;
+                    table.write(hashes[i], t, nowMillis);
+                } else if (t < BucketLimit.SCALE) {
+                    long refill = specs.get(i).limit().refillMicrosPerMilli();
+                    long wait = refill > 0 ? (BucketLimit.SCALE - t + refill - 1) / refill : NO_REFILL_RETRY_MILLIS;
+                    if (wait > retryAfter) {
+                        retryAfter = wait;
+                        denied = i;
+                    }
+                }
+                minRemaining = (int) Math.min(minRemaining, t / BucketLimit.SCALE);
+            }
+            return new TokenBucketRedisClient.BucketResult(allowed, minRemaining, retryAfter, denied);
+        } finally {
+            unlockAll(stripes);
+        }
+    }
+
+    LocalBucketTable table() {
+        return table;
+    }
+
+    private void lockAll(int[] sortedStripes) {
+        for (int i = 0; i < sortedStripes.length; i++) {
+            if (i == 0 || sortedStripes[i] != sortedStripes[i - 1]) {
+                table.lock(sortedStripes[i]);
+            }
+        }
+    }
+
+    private void unlockAll(int[] sortedStripes) {
+        for (int i = sortedStripes.length - 1; i >= 0; i--) {
+            if (i == 0 || sortedStripes[i] != sortedStripes[i - 1]) {
+                table.unlock(sortedStripes[i]);
+            }
+        }
+    }
+}
@@ -1,11 +1,14 @@
 package com.github.dimitryivaniuta.gateway.botdefense.model;
 
+import com.github.dimitryivaniuta.gateway.botdefense.net.IpAddress;
 import jakarta.annotation.Nullable;
 
 /**
  * Request context extracted from an incoming HTTP request.
  *
  * <p>Tenant/user identifiers are optional depending on the endpoint (e.g. login).
+ * {@code ip} is the canonical text of {@code address}, which is parsed once per request
+ * and shared by everything that needs the numeric form.
  */
 public record RequestContext(
         String correlationId,
@@ -15,6 +18,15 @@ public record RequestContext(
         String routeGroup,
         @Nullable String tenantId,
         @Nullable String userId,
-        @Nullable String userAgent
+        @Nullable String userAgent,
+        @Nullable IpAddress address
 ) {
+
+    /**
+     * Context whose address is parsed from {@code ip}.
+     */
+    public RequestContext(String correlationId, String ip, String method, String path, String routeGroup,
+                          @Nullable String tenantId, @Nullable String userId, @Nullable String userAgent) {
+        this(correlationId, ip, method, path, routeGroup, tenantId, userId, userAgent, IpAddress.parse(ip));
+    }
 }
@@ -1,23 +1,34 @@
 package com.github.dimitryivaniuta.gateway.botdefense.net;
 
 import java.net.InetAddress;
-import java.net.UnknownHostException;
-import java.util.Arrays;
 
 /**
  * Immutable CIDR block for IPv4/IPv6.
  * <p>
  * Supports inputs like {@code 10.0.0.0/8}, {@code 192.168.1.10/32},
- * {@code 2001:db8::/32}, {@code ::1/128}.
+ * {@code 2001:db8::/32}, {@code ::1/128}. IPv4-mapped blocks such as
+ * {@code ::ffff:10.0.0.0/104} are normalised to their IPv4 form.
+ * <p>
+ * Network and mask are kept as two longs each (see {@link IpAddress}), so
+ * {@link #contains(IpAddress)} is a mask-and-compare without allocation.
  */
 public final class CidrBlock {
 
-    private final byte[] network;
+    private final long networkHigh;
+    private final long networkLow;
+    private final long maskHigh;
+    private final long maskLow;
     private final int prefix;
+    private final boolean ipv4;
 
-    private CidrBlock(byte[] network, int prefix) {
-        this.network = network;
+    private CidrBlock(IpAddress address, int prefix, boolean ipv4) {
+        int bits = ipv4 ? prefix + 96 : prefix;
+        this.maskHigh = bits >= 64 ? -1L : bits == 0 ? 0 : -1L << (64 - bits);
+        this.maskLow = bits <= 64 ? 0 : bits == 128 ? -1L : -1L << (128 - bits);
+        this.networkHigh = address.high() & maskHigh;
+        this.networkLow = address.low() & maskLow;
         this.prefix = prefix;
+        this.ipv4 = ipv4;
     }
 
     /**
@@ -30,40 +41,63 @@ public final class CidrBlock {
         if (cidr == null || cidr.isBlank()) {
             throw new IllegalArgumentException("CIDR is blank");
         }
-        String[] parts = cidr.trim().split("/");
-        if (parts.length != 2) {
+        String s = cidr.trim();
+        int slash = s.indexOf('/');
+        if (slash < 0 || slash != s.lastIndexOf('/')) {
             throw new IllegalArgumentException("Invalid CIDR: " + cidr);
         }
-        InetAddress addr = inet(parts[0]);
-        int max = addr.getAddress().length * 8;
+        IpAddress addr = IpAddress.parse(s, 0, slash);
+        if (addr == null) {
+            throw new IllegalArgumentException("Invalid IP: " + cidr);
+        }
         int p;
         try {
-            p = Integer.parseInt(parts[1]);
+            p = Integer.parseInt(s, slash + 1, s.length(), 10);
         } catch (NumberFormatException e) {
             throw new IllegalArgumentException("Invalid prefix: " + cidr, e);
         }
+
+        boolean v4Literal = s.lastIndexOf(':', slash) < 0;
+        int max = v4Literal ? 32 : 128;
         if (p < 0 || p > max) {
             throw new IllegalArgumentException("Prefix out of range: " + cidr);
         }
+        if (!v4Literal && addr.isIpv4() && p >= 96) {
+            return new CidrBlock(addr, p - 96, true);
+        }
+        return new CidrBlock(addr, p, v4Literal);
+    }
 
-        byte[] normalized = mask(addr.getAddress(), p);
-        return new CidrBlock(normalized, p);
+    /**
+     * Block of the given prefix length around an address.
+     *
+     * @param prefix prefix length within the address family (0..32 or 0..128)
+     */
+    public static CidrBlock of(IpAddress address, int prefix) {
+        int max = address.isIpv4() ? 32 : 128;
+        if (prefix < 0 || prefix > max) {
+            throw new IllegalArgumentException("Prefix out of range: " + prefix);
+        }
+        return new CidrBlock(address, prefix, address.isIpv4());
     }
 
     /**
      * Check whether the given string IP is in this CIDR.
+     * <p>
+     * Only address literals match; host names are never resolved.
      */
     public boolean contains(String ip) {
-        if (ip == null || ip.isBlank()) {
-            return false;
-        }
-        InetAddress addr;
-        try {
-            addr = InetAddress.getByName(stripBrackets(ip.trim()));
-        } catch (Exception e) {
-            return false;
-        }
-        return contains(addr);
+        return contains(IpAddress.parse(ip));
+    }
+
+    /**
+     * Check whether the given address is in this CIDR.
+     */
+    public boolean contains(IpAddress addr) {
+        return addr != null
+                && addr.isIpv4() == ipv4
+                && ((addr.high() ^ networkHigh) & maskHigh) == 0
+                && ((addr.low() ^ networkLow) & maskLow) == 0;
     }
 
     /**
@@ -73,48 +107,45 @@ public final class CidrBlock {
         if (addr == null) {
             return false;
         }
-        byte[] a = addr.getAddress();
-        if (a.length != network.length) {
-            return false;
-        }
-        return Arrays.equals(mask(a, prefix), network);
+        return contains(IpAddress.parse(addr.getHostAddress()));
     }
 
     public int prefix() {
         return prefix;
     }
 
-    public byte[] network() {
-        return network.clone();
+    public boolean isIpv4() {
+        return ipv4;
     }
 
-    private static InetAddress inet(String raw) {
-        try {
-            return InetAddress.getByName(stripBrackets(raw.trim()));
-        } catch (UnknownHostException e) {
-            throw new IllegalArgumentException("Invalid IP: " + raw, e);
-        }
+    /**
+     * Prefix length in the 128-bit (IPv4-mapped) address space.
+     */
+    int bits() {
+        return ipv4 ? prefix + 96 : prefix;
     }
 
-    private static String stripBrackets(String s) {
-        if (s.startsWith("[") && s.endsWith("]")) {
-            return s.substring(1, s.length() - 1);
-        }
-        return s;
+    long networkHigh() {
+        return networkHigh;
+    }
+
+    long networkLow() {
+        return networkLow;
     }
 
-    private static byte[] mask(byte[] input, int prefix) {
-        byte[] out = input.clone();
-        int fullBytes = prefix / 8;
-        int remBits = prefix % 8;
+    @Override
+    public String toString() {
+        IpAddress network = IpAddress.ofIpv6(networkHigh, networkLow);
+        return network + "/" + prefix;
+    }
 
-        // Zero all bytes after the prefix.
-        for (int i = fullBytes + (remBits == 0 ? 0 : 1); i < out.length; i++) {
-            out[i] = 0;
-        }
-        if (remBits != 0 && fullBytes < out.length) {
-            int mask = 0xFF << (8 - remBits);
-            out[fullBytes] = (byte) (out[fullBytes] & mask);
+    public byte[] network() {
+        int length = ipv4 ? 4 : 16;
+        byte[] out = new byte[length];
+        for (int i = 0; i < length; i++) {
+            int bit = (16 - length + i) * 8;
+            long half = bit < 64 ? networkHigh : networkLow;
+            out[i] = (byte) (half >>> (56 - (bit & 63)));
         }
         return out;
     }
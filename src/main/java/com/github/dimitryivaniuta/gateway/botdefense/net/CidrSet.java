@@ -0,0 +1,252 @@
+package com.github.dimitryivaniuta.gateway.botdefense.net;
+
+import jakarta.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Immutable set of CIDR blocks with longest-prefix lookup.
+ * <p>
+ * Blocks are kept in a compressed binary radix (Patricia) trie over the 128-bit
+ * {@link IpAddress} space, one trie per address family. A lookup visits at most one
+ * node per distinct prefix length on the address's path, so its cost depends on the
+ * prefix lengths (at most 33 or 129 nodes) and not on how many blocks the set holds.
+ * <p>
+ * The trie is flattened into arrays after building; instances are safe to share
+ * between threads.
+ */
+public final class CidrSet {
+
+    private final long[] networkHigh;
+    private final long[] networkLow;
+    private final long[] maskHigh;
+    private final long[] maskLow;
+    private final int[] bits;
+    /**
+     * Child node indexes, {@code 2 * node + bit}; -1 if absent.
+     */
+    private final int[] children;
+    /**
+     * Block ending at the node, or {@code null} for a pure branching node.
+     */
+    private final CidrBlock[] blocks;
+    private final int ipv4Root;
+    private final int ipv6Root;
+    private final int size;
+
+    private CidrSet(List<Node> nodes, int ipv4Root, int ipv6Root, int size) {
+        int n = nodes.size();
+        this.networkHigh = new long[n];
+        this.networkLow = new long[n];
+        this.maskHigh = new long[n];
+        this.maskLow = new long[n];
+        this.bits = new int[n];
+        this.children = new int[2 * n];
+        this.blocks = new CidrBlock[n];
+        for (int i = 0; i < n; i++) {
+            Node node = nodes.get(i);
+            networkHigh[i] = node.high;
+            networkLow[i] = node.low;
+            maskHigh[i] = maskHigh(node.bits);
+            maskLow[i] = maskLow(node.bits);
+            bits[i] = node.bits;
+            children[2 * i] = node.zero == null ? -1 : node.zero.index;
+            children[2 * i + 1] = node.one == null ? -1 : node.one.index;
+            blocks[i] = node.block;
+        }
+        this.ipv4Root = ipv4Root;
+        this.ipv6Root = ipv6Root;
+        this.size = size;
+    }
+
+    /**
+     * Build a set; duplicate blocks are stored once.
+     */
+    public static CidrSet of(Collection<CidrBlock> cidrs) {
+        Node ipv4 = new Node(0, IpAddress.ofIpv4(0).low(), 96);
+        Node ipv6 = new Node(0, 0, 0);
+        int size = 0;
+        for (CidrBlock c : cidrs) {
+            if (insert(c.isIpv4() ? ipv4 : ipv6, c)) {
+                size++;
+            }
+        }
+
+        List<Node> nodes = new ArrayList<>();
+        number(ipv4, nodes);
+        number(ipv6, nodes);
+        return new CidrSet(nodes, ipv4.index, ipv6.index, size);
+    }
+
+    /**
+     * Parse CIDR strings, ignoring invalid values to avoid startup failures.
+     */
+    public static CidrSet parse(Collection<String> cidrs) {
+        List<CidrBlock> parsed = new ArrayList<>(cidrs.size());
+        for (String c : cidrs) {
+            try {
+                parsed.add(CidrBlock.parse(c));
+            } catch (IllegalArgumentException ignored) {
+                // Skip.
+            }
+        }
+        return of(parsed);
+    }
+
+    /**
+     * Returns true if any block contains the address.
+     */
+    public boolean contains(@Nullable IpAddress addr) {
+        return longestMatch(addr) != null;
+    }
+
+    /**
+     * Most specific block containing the address.
+     *
+     * @return matching block, or {@code null}
+     */
+    @Nullable
+    public CidrBlock longestMatch(@Nullable IpAddress addr) {
+        if (addr == null) {
+            return null;
+        }
+        long high = addr.high();
+        long low = addr.low();
+        CidrBlock best = null;
+        int node = addr.isIpv4() ? ipv4Root : ipv6Root;
+        while (node >= 0
+                && ((high ^ networkHigh[node]) & maskHigh[node]) == 0
+                && ((low ^ networkLow[node]) & maskLow[node]) == 0) {
+            if (blocks[node] != null) {
+                best = blocks[node];
+            }
+            int b = bits[node];
+            if (b == 128) {
+                break;
+            }
+            node = children[2 * node + bit(high, low, b)];
+        }
+        return best;
+    }
+
+    /**
+     * Number of distinct blocks.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private static boolean insert(Node root, CidrBlock block) {
+        long high = block.networkHigh();
+        long low = block.networkLow();
+        int length = block.bits();
+        Node node = root;
+        while (true) {
+            // Invariant: the block lies within node's prefix and is not shorter.
+            if (length == node.bits) {
+                if (node.block != null) {
+                    return false;
+                }
+                node.block = block;
+                return true;
+            }
+            int b = bit(high, low, node.bits);
+            Node child = node.child(b);
+            if (child == null) {
+                node.setChild(b, new Node(high, low, length, block));
+                return true;
+            }
+            int common = Math.min(commonPrefix(high, low, child.high, child.low), Math.min(length, child.bits));
+            if (common == child.bits) {
+                node = child;
+                continue;
+            }
+            // Split the edge at the first differing bit (or at the new block's end).
+            Node split = new Node(high & maskHigh(common), low & maskLow(common), common);
+            split.setChild(bit(child.high, child.low, common), child);
+            node.setChild(b, split);
+            if (common == length) {
+                split.block = block;
+            } else {
+                split.setChild(bit(high, low, common), new Node(high, low, length, block));
+            }
+            return true;
+        }
+    }
+
+    private static void number(Node node, List<Node> out) {
+        node.index = out.size();
+        out.add(node);
+        if (node.zero != null) {
+            number(node.zero, out);
+        }
+        if (node.one != null) {
+            number(node.one, out);
+        }
+    }
+
+    /**
+     * Bit {@code i} (0 = most significant) of a 128-bit value.
+     */
+    private static int bit(long high, long low, int i) {
+        return i < 64 ? (int) (high >>> (63 - i)) & 1 : (int) (low >>> (127 - i)) & 1;
+    }
+
+    private static int commonPrefix(long high1, long low1, long high2, long low2) {
+        long x = high1 ^ high2;
+        if (x != 0) {
+            return Long.numberOfLeadingZeros(x);
+        }
+        return 64 + Long.numberOfLeadingZeros(low1 ^ low2);
+    }
+
+    private static long maskHigh(int bits) {
+        return bits >= 64 ? -1L : bits == 0 ? 0 : -1L << (64 - bits);
+    }
+
+    private static long maskLow(int bits) {
+        return bits <= 64 ? 0 : bits == 128 ? -1L : -1L << (128 - bits);
+    }
+
+    /**
+     * Mutable build-time node.
+     */
+    private static final class Node {
+        final long high;
+        final long low;
+        final int bits;
+        CidrBlock block;
+        Node zero;
+        Node one;
+        int index;
+
+        Node(long high, long low, int bits) {
+            this(high, low, bits, null);
+        }
+
+        Node(long high, long low, int bits, CidrBlock block) {
+            this.high = high;
+            this.low = low;
+            this.bits = bits;
+            this.block = block;
+        }
+
+        Node child(int bit) {
+            return bit == 0 ? zero : one;
+        }
+
+        void setChild(int bit, Node child) {
+            if (bit == 0) {
+                zero = child;
+            } else {
+                one = child;
+            }
+        }
+    }
+}
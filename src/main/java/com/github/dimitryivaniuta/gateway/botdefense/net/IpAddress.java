@@ -0,0 +1,330 @@
+package com.github.dimitryivaniuta.gateway.botdefense.net;
+
+import jakarta.annotation.Nullable;
+
+/**
+ * Immutable IPv4/IPv6 address held as two primitive longs.
+ * <p>
+ * Addresses live in the IPv6 space: IPv4 addresses are stored IPv4-mapped
+ * ({@code ::ffff:a.b.c.d}), so {@code 10.0.0.1} and {@code ::ffff:10.0.0.1} are the same
+ * value and both print as {@code 10.0.0.1}. IPv6 addresses print in RFC 5952 form
+ * (lowercase, no leading zeros, longest zero run compressed).
+ * <p>
+ * {@link #parse} only accepts address literals and never resolves host names, unlike
+ * {@link java.net.InetAddress#getByName}.
+ */
+public final class IpAddress {
+
+    private static final long IPV4_MAPPED = 0xFFFF_0000_0000L;
+
+    private final long high;
+    private final long low;
+
+    private IpAddress(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * IPv4 address from its 32-bit value.
+     */
+    public static IpAddress ofIpv4(int address) {
+        return new IpAddress(0, IPV4_MAPPED | (address & 0xFFFF_FFFFL));
+    }
+
+    /**
+     * IPv6 address from its upper and lower 64 bits.
+     */
+    public static IpAddress ofIpv6(long high, long low) {
+        return new IpAddress(high, low);
+    }
+
+    /**
+     * Parse an address literal.
+     * <p>
+     * Accepts dotted-quad IPv4 (no leading zeros) and IPv6 with {@code ::} compression,
+     * an embedded IPv4 tail, optional surrounding brackets and an ignored {@code %zone}.
+     *
+     * @param text address literal
+     * @return parsed address, or {@code null} if the text is not an address literal
+     */
+    @Nullable
+    public static IpAddress parse(@Nullable CharSequence text) {
+        if (text == null) {
+            return null;
+        }
+        return parse(text, 0, text.length());
+    }
+
+    /**
+     * Parse the address literal in {@code text[from, to)}, see {@link #parse(CharSequence)}.
+     */
+    @Nullable
+    public static IpAddress parse(CharSequence text, int from, int to) {
+        while (from < to && text.charAt(from) == ' ') {
+            from++;
+        }
+        while (to > from && text.charAt(to - 1) == ' ') {
+            to--;
+        }
+        if (to - from >= 2 && text.charAt(from) == '[' && text.charAt(to - 1) == ']') {
+            from++;
+            to--;
+        }
+        if (from >= to) {
+            return null;
+        }
+        boolean ipv6 = false;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c == ':') {
+                ipv6 = true;
+            } else if (c == '%' && ipv6) {
+                to = i;
+                break;
+            }
+        }
+        if (!ipv6) {
+            long v4 = parseIpv4(text, from, to);
+            return v4 < 0 ? null : ofIpv4((int) v4);
+        }
+        return parseIpv6(text, from, to);
+    }
+
+    public boolean isIpv4() {
+        return high == 0 && (low & 0xFFFF_FFFF_0000_0000L) == IPV4_MAPPED;
+    }
+
+    /**
+     * The 32-bit IPv4 value; only meaningful if {@link #isIpv4()}.
+     */
+    public int ipv4() {
+        return (int) low;
+    }
+
+    /**
+     * Upper 64 bits of the (IPv4-mapped) IPv6 address.
+     */
+    public long high() {
+        return high;
+    }
+
+    /**
+     * Lower 64 bits of the (IPv4-mapped) IPv6 address.
+     */
+    public long low() {
+        return low;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof IpAddress other && other.high == high && other.low == low;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(high * 31 + low);
+    }
+
+    /**
+     * Canonical text form.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(39);
+        if (isIpv4()) {
+            int v = ipv4();
+            sb.append(v >>> 24).append('.').append((v >>> 16) & 0xFF).append('.')
+                    .append((v >>> 8) & 0xFF).append('.').append(v & 0xFF);
+            return sb.toString();
+        }
+
+        // Longest run of at least two zero groups; the first one wins a tie.
+        int bestStart = -1;
+        int bestLength = 1;
+        int runStart = -1;
+        for (int g = 0; g <= 8; g++) {
+            if (g < 8 && group(g) == 0) {
+                if (runStart < 0) {
+                    runStart = g;
+                }
+            } else if (runStart >= 0) {
+                if (g - runStart > bestLength) {
+                    bestStart = runStart;
+                    bestLength = g - runStart;
+                }
+                runStart = -1;
+            }
+        }
+
+        for (int g = 0; g < 8; g++) {
+            if (g == bestStart) {
+                sb.append("::");
+                g += bestLength - 1;
+                continue;
+            }
+            if (g > 0 && g != bestStart + bestLength) {
+                sb.append(':');
+            }
+            sb.append(Integer.toHexString(group(g)));
+        }
+        return sb.toString();
+    }
+
+    private int group(int g) {
+        long half = g < 4 ? high : low;
+        return (int) (half >>> (48 - 16 * (g & 3))) & 0xFFFF;
+    }
+
+    /**
+     * Parse a dotted quad; returns the unsigned 32-bit value or -1.
+     */
+    static long parseIpv4(CharSequence text, int from, int to) {
+        long result = 0;
+        int octets = 0;
+        int value = 0;
+        int digits = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (digits > 0 && value == 0) {
+                    // Leading zeros read as octal in some stacks; reject the ambiguity.
+                    return -1;
+                }
+                value = value * 10 + (c - '0');
+                if (value > 255) {
+                    return -1;
+                }
+                digits++;
+            } else if (c == '.') {
+                if (digits == 0 || octets == 3) {
+                    return -1;
+                }
+                result = (result << 8) | value;
+                octets++;
+                value = 0;
+                digits = 0;
+            } else {
+                return -1;
+            }
+        }
+        if (digits == 0 || octets != 3) {
+            return -1;
+        }
+        return (result << 8) | value;
+    }
+
+    @Nullable
+    private static IpAddress parseIpv6(CharSequence text, int from, int to) {
+        // Groups before "::" accumulate in head, groups after it in tail (128 bits each).
+        long headHigh = 0;
+        long headLow = 0;
+        int head = 0;
+        long tailHigh = 0;
+        long tailLow = 0;
+        int tail = 0;
+        boolean compressed = false;
+
+        int i = from;
+        if (text.charAt(i) == ':') {
+            if (to - i < 2 || text.charAt(i + 1) != ':') {
+                return null;
+            }
+            compressed = true;
+            i += 2;
+        }
+
+        while (i < to) {
+            int end = i;
+            boolean dotted = false;
+            while (end < to && text.charAt(end) != ':') {
+                dotted |= text.charAt(end) == '.';
+                end++;
+            }
+
+            long value;
+            int bits;
+            if (dotted) {
+                // Embedded IPv4 must be the last part.
+                value = end == to ? parseIpv4(text, i, end) : -1;
+                bits = 32;
+            } else {
+                value = end - i <= 4 ? parseHex(text, i, end) : -1;
+                bits = 16;
+            }
+            if (value < 0 || (head + tail) * 16 + bits > 128) {
+                return null;
+            }
+            if (compressed) {
+                tailHigh = (tailHigh << bits) | (tailLow >>> (64 - bits));
+                tailLow = (tailLow << bits) | value;
+                tail += bits / 16;
+            } else {
+                headHigh = (headHigh << bits) | (headLow >>> (64 - bits));
+                headLow = (headLow << bits) | value;
+                head += bits / 16;
+            }
+
+            i = end;
+            if (i == to) {
+                break;
+            }
+            i++;
+            if (i < to && text.charAt(i) == ':') {
+                if (compressed) {
+                    return null;
+                }
+                compressed = true;
+                i++;
+            } else if (i == to) {
+                // Trailing single colon.
+                return null;
+            }
+        }
+
+        int groups = head + tail;
+        if (compressed ? groups > 7 : groups != 8) {
+            return null;
+        }
+        // Move the head groups to the top; "::" fills the gap with zeros.
+        int shift = 16 * (8 - head);
+        long high;
+        long low;
+        if (shift >= 128) {
+            high = 0;
+            low = 0;
+        } else if (shift >= 64) {
+            high = headLow << (shift - 64);
+            low = 0;
+        } else if (shift > 0) {
+            high = (headHigh << shift) | (headLow >>> (64 - shift));
+            low = headLow << shift;
+        } else {
+            high = headHigh;
+            low = headLow;
+        }
+        return new IpAddress(high | tailHigh, low | tailLow);
+    }
+
+    private static long parseHex(CharSequence text, int from, int to) {
+        if (from == to) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            int d;
+            if (c >= '0' && c <= '9') {
+                d = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                d = c - 'a' + 10;
+            } else if (c >= 'A' && c <= 'F') {
+                d = c - 'A' + 10;
+            } else {
+                return -1;
+            }
+            value = (value << 4) | d;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,422 @@
+package com.github.dimitryivaniuta.gateway.botdefense.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, memory-mapped table of disjoint IP ranges with an {@code int} value each.
+ * <p>
+ * A table is compiled once from CIDR blocks (or address ranges) by a {@link Builder}:
+ * overlapping blocks are flattened into sorted, non-overlapping ranges whose value is,
+ * depending on the {@link Overlap} policy, the largest value of the blocks covering them
+ * (so {@link #BLOCK} wins over any score) or that of the most specific one. Opening a
+ * compiled file only maps it, so it takes milliseconds whatever the size, and the ranges
+ * stay off-heap in the page cache. A lookup is a binary search over the mapping and allocates nothing.
+ * <p>
+ * File layout (big-endian):
+ * <pre>
+ * header  int magic "IPRT", int version, long fingerprint, int ipv4Count, int ipv6Count
+ * ipv4    ipv4Count x (int start, int end, int value)                          12 bytes
+ * ipv6    ipv6Count x (long startHigh, startLow, endHigh, endLow, int value)   36 bytes
+ * </pre>
+ */
+public final class IpRangeTable {
+
+    /**
+     * Value of ranges that must be rejected outright; larger than any score.
+     */
+    public static final int BLOCK = Integer.MAX_VALUE;
+
+    /**
+     * How the value of an address covered by several blocks is chosen.
+     */
+    public enum Overlap {
+        /**
+         * Largest value (reputation: a block beats any score).
+         */
+        STRONGEST,
+        /**
+         * Value of the longest prefix (routing data: a more specific announcement wins).
+         */
+        MOST_SPECIFIC
+    }
+
+    private static final int MAGIC = 0x49505254;
+    private static final int VERSION = 1;
+    private static final int HEADER = 24;
+    private static final int IPV4_ROW = 12;
+    private static final int IPV6_ROW = 36;
+
+    private final ByteBuffer buffer;
+    private final long fingerprint;
+    private final int ipv4Count;
+    private final int ipv6Count;
+    private final int ipv6Offset;
+
+    private IpRangeTable(ByteBuffer buffer) {
+        if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Not an IP range table");
+        }
+        this.buffer = buffer;
+        this.fingerprint = buffer.getLong(8);
+        this.ipv4Count = buffer.getInt(16);
+        this.ipv6Count = buffer.getInt(20);
+        this.ipv6Offset = HEADER + ipv4Count * IPV4_ROW;
+        if (ipv4Count < 0 || ipv6Count < 0 || (long) ipv6Offset + (long) ipv6Count * IPV6_ROW != buffer.capacity()) {
+            throw new IllegalArgumentException("Truncated IP range table");
+        }
+    }
+
+    /**
+     * Map a compiled table file.
+     */
+    public static IpRangeTable open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new IpRangeTable(mapped);
+        }
+    }
+
+    /**
+     * Caller-defined identity of the sources the table was compiled from.
+     */
+    public long fingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Number of disjoint ranges.
+     */
+    public int size() {
+        return ipv4Count + ipv6Count;
+    }
+
+    /**
+     * Value of the range containing the address.
+     *
+     * @return the value, or 0 if no range contains it
+     */
+    public int lookup(IpAddress addr) {
+        if (addr == null) {
+            return 0;
+        }
+        return addr.isIpv4() ? lookupIpv4(addr.ipv4()) : lookupIpv6(addr.high(), addr.low());
+    }
+
+    private int lookupIpv4(int ip) {
+        // Last range starting at or before ip.
+        int lo = 0;
+        int hi = ipv4Count - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Integer.compareUnsigned(buffer.getInt(HEADER + mid * IPV4_ROW), ip) <= 0) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (found < 0) {
+            return 0;
+        }
+        int row = HEADER + found * IPV4_ROW;
+        return Integer.compareUnsigned(ip, buffer.getInt(row + 4)) <= 0 ? buffer.getInt(row + 8) : 0;
+    }
+
+    private int lookupIpv6(long high, long low) {
+        int lo = 0;
+        int hi = ipv6Count - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int row = ipv6Offset + mid * IPV6_ROW;
+            if (compare(buffer.getLong(row), buffer.getLong(row + 8), high, low) <= 0) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (found < 0) {
+            return 0;
+        }
+        int row = ipv6Offset + found * IPV6_ROW;
+        return compare(high, low, buffer.getLong(row + 16), buffer.getLong(row + 24)) <= 0
+                ? buffer.getInt(row + 32) : 0;
+    }
+
+    private static int compare(long high1, long low1, long high2, long low2) {
+        int c = Long.compareUnsigned(high1, high2);
+        return c != 0 ? c : Long.compareUnsigned(low1, low2);
+    }
+
+    /**
+     * Collects CIDR blocks and writes them as a compiled table.
+     * <p>
+     * IPv4 blocks, which make up most of typical feeds, are packed into one {@code long}
+     * each so that millions of them sort without per-entry objects.
+     */
+    public static final class Builder {
+
+        private static final int MAX_VALUES = 1 << 26;
+
+        private final Overlap overlap;
+        private long[] ipv4 = new long[1_024];
+        private int ipv4Size;
+        private final List<Ipv6Block> ipv6 = new ArrayList<>();
+        private final List<Integer> values = new ArrayList<>();
+        private final Map<Integer, Integer> valueIndex = new HashMap<>();
+
+        public Builder() {
+            this(Overlap.STRONGEST);
+        }
+
+        public Builder(Overlap overlap) {
+            this.overlap = overlap;
+        }
+
+        /**
+         * Add a block with a positive value (e.g. a score, {@link #BLOCK} or an AS number).
+         */
+        public Builder add(CidrBlock block, int value) {
+            if (value <= 0) {
+                throw new IllegalArgumentException("Value must be positive: " + value);
+            }
+            int index = valueIndex.computeIfAbsent(value, v -> values.size());
+            if (index == values.size()) {
+                if (index == MAX_VALUES) {
+                    throw new IllegalArgumentException("Too many distinct values");
+                }
+                values.add(value);
+            }
+            if (block.isIpv4()) {
+                if (ipv4Size == ipv4.length) {
+                    ipv4 = Arrays.copyOf(ipv4, ipv4Size * 2);
+                }
+                // Unsigned start (sign bit flipped for a signed sort), then prefix, then value index.
+                long start = block.networkLow() & 0xFFFF_FFFFL;
+                ipv4[ipv4Size++] = ((start << 32) ^ Long.MIN_VALUE) | ((long) block.prefix() << 26) | index;
+            } else {
+                ipv6.add(new Ipv6Block(block.networkHigh(), block.networkLow(), block.prefix(), index));
+            }
+            return this;
+        }
+
+        /**
+         * Add the inclusive range {@code [from, to]} as the smallest set of CIDR blocks
+         * covering it; both ends must be of the same family.
+         */
+        public Builder addRange(IpAddress from, IpAddress to, int value) {
+            boolean v4 = from.isIpv4();
+            if (v4 != to.isIpv4() || compare(from.high(), from.low(), to.high(), to.low()) > 0) {
+                throw new IllegalArgumentException("Invalid range: " + from + " - " + to);
+            }
+            int maxBits = v4 ? 32 : 128;
+            long high = from.high();
+            long low = from.low();
+            while (true) {
+                // Largest block aligned at the current start that does not pass the end.
+                int size = Math.min(maxBits, low != 0 ? Long.numberOfTrailingZeros(low)
+                        : high != 0 ? 64 + Long.numberOfTrailingZeros(high) : 128);
+                long lastHigh;
+                long lastLow;
+                while (true) {
+                    lastHigh = size > 64 ? high | (-1L >>> (128 - size)) : high;
+                    lastLow = size >= 64 ? -1L : size == 0 ? low : low | (-1L >>> (64 - size));
+                    if (compare(lastHigh, lastLow, to.high(), to.low()) <= 0) {
+                        break;
+                    }
+                    size--;
+                }
+                IpAddress start = v4 ? IpAddress.ofIpv4((int) low) : IpAddress.ofIpv6(high, low);
+                add(CidrBlock.of(start, maxBits - size), value);
+                if (lastHigh == to.high() && lastLow == to.low()) {
+                    return this;
+                }
+                low = lastLow + 1;
+                high = low == 0 ? lastHigh + 1 : lastHigh;
+            }
+        }
+
+        /**
+         * Number of blocks added so far.
+         */
+        public int size() {
+            return ipv4Size + ipv6.size();
+        }
+
+        /**
+         * Compile into {@code target}. The table is written to a temporary file and moved into
+         * place atomically, so readers never see a partial table and existing mappings of the
+         * previous file stay valid.
+         */
+        public void write(Path target, long fingerprint) throws IOException {
+            Flattener v4 = new Flattener(overlap);
+            Arrays.sort(ipv4, 0, ipv4Size);
+            for (int i = 0; i < ipv4Size; i++) {
+                long row = ipv4[i] ^ Long.MIN_VALUE;
+                long start = row >>> 32;
+                int prefix = (int) (row >>> 26) & 0x3F;
+                v4.add(0, IpAddress.ofIpv4((int) start).low(), prefix + 96, values.get((int) row & (MAX_VALUES - 1)));
+            }
+            v4.finish();
+
+            Flattener v6 = new Flattener(overlap);
+            ipv6.sort(Comparator.comparing(Ipv6Block::high, Long::compareUnsigned)
+                    .thenComparing(Ipv6Block::low, Long::compareUnsigned)
+                    .thenComparingInt(Ipv6Block::prefix));
+            for (Ipv6Block b : ipv6) {
+                v6.add(b.high(), b.low(), b.prefix(), values.get(b.value()));
+            }
+            v6.finish();
+
+            long size = HEADER + (long) v4.size * IPV4_ROW + (long) v6.size * IPV6_ROW;
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("IP range table too large: " + size + " bytes");
+            }
+            Path dir = target.toAbsolutePath().getParent();
+            Files.createDirectories(dir);
+            Path tmp = Files.createTempFile(dir, target.getFileName().toString(), ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                    out.putInt(MAGIC).putInt(VERSION).putLong(fingerprint).putInt(v4.size).putInt(v6.size);
+                    for (int i = 0; i < v4.size; i++) {
+                        out.putInt((int) v4.startLow[i]).putInt((int) v4.endLow[i]).putInt(v4.value[i]);
+                    }
+                    for (int i = 0; i < v6.size; i++) {
+                        out.putLong(v6.startHigh[i]).putLong(v6.startLow[i])
+                                .putLong(v6.endHigh[i]).putLong(v6.endLow[i]).putInt(v6.value[i]);
+                    }
+                    out.force();
+                }
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+
+        private record Ipv6Block(long high, long low, int prefix, int value) {
+        }
+    }
+
+    /**
+     * Turns CIDR blocks, given in ascending order (shorter prefix first on equal starts),
+     * into disjoint ranges carrying the value chosen by the {@link Overlap} policy.
+     * <p>
+     * Two CIDR blocks are either nested or disjoint, so the open blocks form a stack
+     * (at most 129 deep); each range is emitted once its extent is known. Adjacent
+     * ranges with the same value are merged.
+     */
+    static final class Flattener {
+
+        private final Overlap overlap;
+        private final long[] openEndHigh = new long[130];
+        private final long[] openEndLow = new long[130];
+        private final int[] openValue = new int[130];
+        private int depth;
+
+        // First address not yet emitted; "exhausted" once the top of the space was emitted.
+        private long nextHigh;
+        private long nextLow;
+        private boolean exhausted;
+
+        long[] startHigh = new long[64];
+        long[] startLow = new long[64];
+        long[] endHigh = new long[64];
+        long[] endLow = new long[64];
+        int[] value = new int[64];
+        int size;
+
+        Flattener(Overlap overlap) {
+            this.overlap = overlap;
+        }
+
+        /**
+         * Add a block; {@code bits} is its prefix length in the 128-bit space.
+         */
+        void add(long high, long low, int bits, int v) {
+            long lastHigh = high | ~(bits >= 64 ? -1L : bits == 0 ? 0 : -1L << (64 - bits));
+            long lastLow = low | ~(bits <= 64 ? 0 : bits == 128 ? -1L : -1L << (128 - bits));
+
+            while (depth > 0 && compare(openEndHigh[depth - 1], openEndLow[depth - 1], high, low) < 0) {
+                close();
+            }
+            if (depth > 0 && !exhausted && compare(nextHigh, nextLow, high, low) < 0) {
+                // Part of the enclosing block before this one.
+                long beforeLow = low - 1;
+                long beforeHigh = low == 0 ? high - 1 : high;
+                emit(nextHigh, nextLow, beforeHigh, beforeLow, openValue[depth - 1]);
+            }
+            nextHigh = high;
+            nextLow = low;
+            exhausted = false;
+
+            openEndHigh[depth] = lastHigh;
+            openEndLow[depth] = lastLow;
+            openValue[depth] = depth > 0 && overlap == Overlap.STRONGEST ? Math.max(v, openValue[depth - 1]) : v;
+            depth++;
+        }
+
+        void finish() {
+            while (depth > 0) {
+                close();
+            }
+        }
+
+        private void close() {
+            depth--;
+            long lastHigh = openEndHigh[depth];
+            long lastLow = openEndLow[depth];
+            if (exhausted || compare(nextHigh, nextLow, lastHigh, lastLow) > 0) {
+                return;
+            }
+            emit(nextHigh, nextLow, lastHigh, lastLow, openValue[depth]);
+            if (lastHigh == -1L && lastLow == -1L) {
+                exhausted = true;
+            } else {
+                nextLow = lastLow + 1;
+                nextHigh = nextLow == 0 ? lastHigh + 1 : lastHigh;
+            }
+        }
+
+        private void emit(long fromHigh, long fromLow, long toHigh, long toLow, int v) {
+            if (size > 0 && value[size - 1] == v) {
+                long prevLow = endLow[size - 1] + 1;
+                long prevHigh = prevLow == 0 ? endHigh[size - 1] + 1 : endHigh[size - 1];
+                if (prevHigh == fromHigh && prevLow == fromLow) {
+                    endHigh[size - 1] = toHigh;
+                    endLow[size - 1] = toLow;
+                    return;
+                }
+            }
+            if (size == value.length) {
+                int n = size * 2;
+                startHigh = Arrays.copyOf(startHigh, n);
+                startLow = Arrays.copyOf(startLow, n);
+                endHigh = Arrays.copyOf(endHigh, n);
+                endLow = Arrays.copyOf(endLow, n);
+                value = Arrays.copyOf(value, n);
+            }
+            startHigh[size] = fromHigh;
+            startLow[size] = fromLow;
+            endHigh[size] = toHigh;
+            endLow[size] = toLow;
+            value[size] = v;
+            size++;
+        }
+    }
+}
@@ -19,6 +19,18 @@ public class IpResolverProperties {
      */
     private List<String> trustedProxyCidrs = new ArrayList<>();
 
+    /**
+     * IPv4 clients are rate limited and counted per block of this prefix length as well
+     * as per address; 32 disables aggregation.
+     */
+    private int ipv4AggregatePrefix = 32;
+
+    /**
+     * IPv6 clients are rate limited and counted per block of this prefix length as well
+     * as per address (a /64 is usually one subscriber); 128 disables aggregation.
+     */
+    private int ipv6AggregatePrefix = 64;
+
     public List<String> getTrustedProxyCidrs() {
         return trustedProxyCidrs;
     }
@@ -26,4 +38,20 @@ public class IpResolverProperties {
     public void setTrustedProxyCidrs(List<String> trustedProxyCidrs) {
         this.trustedProxyCidrs = trustedProxyCidrs;
     }
+
+    public int getIpv4AggregatePrefix() {
+        return ipv4AggregatePrefix;
+    }
+
+    public void setIpv4AggregatePrefix(int ipv4AggregatePrefix) {
+        this.ipv4AggregatePrefix = ipv4AggregatePrefix;
+    }
+
+    public int getIpv6AggregatePrefix() {
+        return ipv6AggregatePrefix;
+    }
+
+    public void setIpv6AggregatePrefix(int ipv6AggregatePrefix) {
+        this.ipv6AggregatePrefix = ipv6AggregatePrefix;
+    }
 }
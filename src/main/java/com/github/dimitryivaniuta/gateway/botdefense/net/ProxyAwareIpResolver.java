@@ -3,10 +3,6 @@ package com.github.dimitryivaniuta.gateway.botdefense.net;
 import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.stereotype.Component;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Locale;
-
 /**
  * Resolve the real client IP in a proxy-aware way.
  * <p>
@@ -15,27 +11,34 @@ import java.util.Locale;
 @Component
 public class ProxyAwareIpResolver {
 
-    private final List<CidrBlock> trustedProxies;
+    private final CidrSet trustedProxies;
 
     public ProxyAwareIpResolver(IpResolverProperties props) {
-        List<CidrBlock> blocks = new ArrayList<>();
-        for (String cidr : props.getTrustedProxyCidrs()) {
-            try {
-                blocks.add(CidrBlock.parse(cidr));
-            } catch (Exception ignored) {
-                // Ignore invalid CIDRs.
-            }
-        }
-        this.trustedProxies = List.copyOf(blocks);
+        this.trustedProxies = CidrSet.parse(props.getTrustedProxyCidrs());
     }
 
     /**
      * Resolve best-effort client IP.
+     *
+     * @return canonical address text, or {@code "unknown"}
      */
     public String resolve(HttpServletRequest request) {
-        String remote = safeIp(request.getRemoteAddr());
+        IpAddress address = resolveAddress(request);
+        return address == null ? "unknown" : address.toString();
+    }
+
+    /**
+     * Resolve best-effort client address.
+     * <p>
+     * Only address literals are accepted from the peer and forwarding headers; anything
+     * else (host names, garbage) is skipped without a lookup.
+     *
+     * @return client address, or {@code null} if the peer address is not a literal
+     */
+    public IpAddress resolveAddress(HttpServletRequest request) {
+        IpAddress remote = IpAddress.parse(request.getRemoteAddr());
         if (remote == null) {
-            return "unknown";
+            return null;
         }
 
         // If peer is not a trusted proxy, ignore forwarding headers.
@@ -44,38 +47,32 @@ public class ProxyAwareIpResolver {
         }
 
         // 1) RFC 7239 Forwarded header
-        String forwarded = request.getHeader("Forwarded");
-        String fromForwarded = parseForwardedFor(forwarded);
+        IpAddress fromForwarded = parseForwardedFor(request.getHeader("Forwarded"));
         if (fromForwarded != null) {
             return fromForwarded;
         }
 
         // 2) X-Forwarded-For chain (peel trusted proxies from the right)
-        String xff = request.getHeader("X-Forwarded-For");
-        String fromXff = parseXffChain(xff, remote);
+        IpAddress fromXff = parseXffChain(request.getHeader("X-Forwarded-For"));
         if (fromXff != null) {
             return fromXff;
         }
 
         // 3) X-Real-IP
-        String xReal = safeIp(request.getHeader("X-Real-IP"));
-        if (xReal != null) {
-            return xReal;
+        String xReal = request.getHeader("X-Real-IP");
+        IpAddress fromXReal = xReal == null ? null : parseHop(xReal, 0, xReal.length());
+        if (fromXReal != null) {
+            return fromXReal;
         }
 
         return remote;
     }
 
-    private boolean isTrusted(String ip) {
-        for (CidrBlock b : trustedProxies) {
-            if (b.contains(ip)) {
-                return true;
-            }
-        }
-        return false;
+    private boolean isTrusted(IpAddress ip) {
+        return trustedProxies.contains(ip);
     }
 
-    private String parseForwardedFor(String forwarded) {
+    private static IpAddress parseForwardedFor(String forwarded) {
         if (forwarded == null || forwarded.isBlank()) {
             return null;
         }
@@ -87,13 +84,9 @@ public class ProxyAwareIpResolver {
             for (String p : parts) {
                 String[] kv = p.trim().split("=", 2);
                 if (kv.length == 2 && "for".equalsIgnoreCase(kv[0].trim())) {
-                    String raw = kv[1].trim();
-                    raw = trimQuotes(raw);
-                    raw = stripPort(raw);
-                    raw = stripBrackets(raw);
-                    raw = safeIp(raw);
-                    if (raw != null) {
-                        return raw;
+                    IpAddress ip = parseHop(kv[1], 0, kv[1].length());
+                    if (ip != null) {
+                        return ip;
                     }
                 }
             }
@@ -101,78 +94,50 @@ public class ProxyAwareIpResolver {
         return null;
     }
 
-    private String parseXffChain(String xff, String remote) {
+    /**
+     * Walks the chain from the right (the immediate peer is already known to be trusted)
+     * and returns the first hop that is not a trusted proxy.
+     */
+    private IpAddress parseXffChain(String xff) {
         if (xff == null || xff.isBlank()) {
             return null;
         }
-        String[] parts = xff.split(",");
-        List<String> chain = new ArrayList<>();
-        for (String p : parts) {
-            String ip = safeIp(stripBrackets(stripPort(p.trim())));
-            if (ip != null) {
-                chain.add(ip);
+        int end = xff.length();
+        while (end > 0) {
+            int start = xff.lastIndexOf(',', end - 1) + 1;
+            IpAddress ip = parseHop(xff, start, end);
+            if (ip != null && !isTrusted(ip)) {
+                return ip;
             }
-        }
-        // Append the immediate peer as the last hop.
-        chain.add(remote);
-
-        // Peel trusted proxies from the right.
-        int i = chain.size() - 1;
-        while (i >= 0 && isTrusted(chain.get(i))) {
-            i--;
-        }
-        if (i >= 0) {
-            return chain.get(i);
+            end = start - 1;
         }
         return null;
     }
 
-    private static String safeIp(String raw) {
-        if (raw == null || raw.isBlank()) {
-            return null;
-        }
-        String s = raw.trim();
-        if ("unknown".equalsIgnoreCase(s)) {
-            return null;
-        }
-        // Very lightweight sanitation – avoid spaces and commas.
-        s = s.replace(" ", "").replace(",", "");
-        return s.isBlank() ? null : s;
-    }
-
-    private static String stripPort(String v) {
-        if (v == null) {
-            return null;
+    /**
+     * Parse one hop of a forwarding header: an address literal, optionally quoted,
+     * bracketed, or followed by a port ({@code 192.0.2.1:8080}, {@code [2001:db8::1]:443}).
+     */
+    static IpAddress parseHop(String s, int from, int to) {
+        while (from < to && s.charAt(from) == ' ') {
+            from++;
         }
-        String s = v.trim();
-        // IPv6 with port uses brackets, handled elsewhere.
-        int idx = s.lastIndexOf(':');
-        if (idx > 0 && s.indexOf(':') == idx) {
-            // likely IPv4:port
-            String maybePort = s.substring(idx + 1);
-            if (maybePort.chars().allMatch(Character::isDigit)) {
-                return s.substring(0, idx);
-            }
+        while (to > from && s.charAt(to - 1) == ' ') {
+            to--;
         }
-        return s;
-    }
-
-    private static String stripBrackets(String v) {
-        if (v == null) {
-            return null;
+        if (to - from >= 2 && s.charAt(from) == '"' && s.charAt(to - 1) == '"') {
+            from++;
+            to--;
         }
-        String s = v.trim();
-        if (s.startsWith("[") && s.contains("]")) {
-            return s.substring(1, s.indexOf(']'));
+        if (from < to && s.charAt(from) == '[') {
+            int close = s.indexOf(']', from);
+            return close < 0 || close >= to ? null : IpAddress.parse(s, from + 1, close);
         }
-        return s;
-    }
-
-    private static String trimQuotes(String v) {
-        String s = v;
-        if (s.startsWith("\"") && s.endsWith("\"") && s.length() >= 2) {
-            s = s.substring(1, s.length() - 1);
+        int colon = s.indexOf(':', from);
+        if (colon >= 0 && colon < to && s.lastIndexOf(':', to - 1) == colon) {
+            // IPv4:port
+            to = colon;
         }
-        return s;
+        return IpAddress.parse(s, from, to);
     }
 }
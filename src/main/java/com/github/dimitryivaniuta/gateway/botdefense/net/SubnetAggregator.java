@@ -0,0 +1,61 @@
+package com.github.dimitryivaniuta.gateway.botdefense.net;
+
+import jakarta.annotation.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * Maps client addresses to the aggregate block they are limited under.
+ * <p>
+ * A client holding a whole IPv6 /64 (or an IPv4 /24) can spray requests from fresh
+ * addresses, each starting with a full bucket and an empty request-rate counter. Keying an
+ * additional bucket and the request-rate counter by the enclosing block caps how many keys
+ * such a client can create and how many requests it gets through.
+ * <p>
+ * Prefixes are configured per address family ({@code botdefense.ip.*AggregatePrefix});
+ * a family whose prefix is its full address length is not aggregated.
+ */
+@Component
+public class SubnetAggregator {
+
+    private final int ipv4Prefix;
+    private final int ipv6Prefix;
+
+    public SubnetAggregator(IpResolverProperties props) {
+        this(props.getIpv4AggregatePrefix(), props.getIpv6AggregatePrefix());
+    }
+
+    SubnetAggregator(int ipv4Prefix, int ipv6Prefix) {
+        // Out-of-range values are clamped rather than failing startup.
+        this.ipv4Prefix = Math.max(1, Math.min(32, ipv4Prefix));
+        this.ipv6Prefix = Math.max(1, Math.min(128, ipv6Prefix));
+    }
+
+    /**
+     * Returns true if the address's family is aggregated.
+     */
+    public boolean isAggregated(@Nullable IpAddress address) {
+        return address != null && (address.isIpv4() ? ipv4Prefix < 32 : ipv6Prefix < 128);
+    }
+
+    /**
+     * Aggregate block containing the address.
+     *
+     * @return the block, or {@code null} if the address is unknown or its family is not aggregated
+     */
+    @Nullable
+    public CidrBlock subnet(@Nullable IpAddress address) {
+        if (!isAggregated(address)) {
+            return null;
+        }
+        return CidrBlock.of(address, address.isIpv4() ? ipv4Prefix : ipv6Prefix);
+    }
+
+    /**
+     * Identity under which per-client counters are kept: the aggregate block in CIDR
+     * notation, or {@code ip} if the address is not aggregated.
+     */
+    public String counterIdentity(String ip, @Nullable IpAddress address) {
+        CidrBlock subnet = subnet(address);
+        return subnet == null ? ip : subnet.toString();
+    }
+}
@@ -0,0 +1,296 @@
+package com.github.dimitryivaniuta.gateway.botdefense.redis;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import com.github.dimitryivaniuta.gateway.botdefense.net.CidrBlock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds compact binary bucket keys: {@code rl:<dim>:{<id>}:<group>}, or
+ * {@code rl:<dim>:{<tag>}<id>:<group>} for buckets nested in a wider one.
+ *
+ * <ul>
+ *   <li>{@code dim} is {@code i} (IP), {@code s} (IP subnet), {@code u} (tenant + user),
+ *       {@code t} (tenant) or {@code a} (autonomous system)</li>
+ *   <li>{@code id} is a seeded 64-bit hash of the identity, base64url-encoded to a fixed
+ *       11 characters, so unbounded header values never reach Redis; in braces it is the
+ *       key's hash tag, so all route groups of an identity share a shard or cluster slot</li>
+ *   <li>{@code tag} is the id of the enclosing bucket: an IP takes the tag of its subnet
+ *       bucket and a user that of its tenant bucket, so those pairs are checked by one
+ *       atomic script on partitioned Redis too</li>
+ *   <li>{@code group} is the numeric route-group id</li>
+ * </ul>
+ *
+ * <p>A request's buckets thus fall into at most three co-location groups (IP and subnet,
+ * user and tenant, AS) instead of one per bucket. The IP, subnet and AS buckets are shared
+ * across tenants, so no single tag can cover all of them.
+ *
+ * <p>Identities are encoded and hashed in a reusable per-thread buffer; only the final,
+ * exact-length {@code byte[]} handed to Redis is allocated.
+ */
+@Component
+public class BucketKeys {
+
+    /**
+     * Key prefix of tenant buckets.
+     */
+    public static final String TENANT_PREFIX = "rl:t:";
+
+    private static final byte[] IP = ascii("rl:i:");
+    private static final byte[] SUBNET = ascii("rl:s:");
+    private static final byte[] USER = ascii("rl:u:");
+    private static final byte[] TENANT = ascii(TENANT_PREFIX);
+    private static final byte[] ASN = ascii("rl:a:");
+    private static final byte[] NONE = ascii("-");
+    private static final byte[] BASE64URL = ascii("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_");
+
+    private static final Logger log = LoggerFactory.getLogger(BucketKeys.class);
+
+    private static final ThreadLocal<Buffer> BUFFER = ThreadLocal.withInitial(Buffer::new);
+
+    private final long seed;
+    private final Map<String, byte[]> groupSuffixes = new HashMap<>();
+    private final byte[] unknownGroup = ascii(":0");
+
+    public BucketKeys(BotDefenseProperties props) {
+        this.seed = props.getRedis().getKeyHashSeed();
+        if (seed == 0) {
+            // The default seed is public: clients could search for identities sharing a bucket.
+            log.warn("botdefense.redis.keyHashSeed is not set; bucket key collisions can be precomputed. "
+                    + "Configure the same secret seed on every node.");
+        }
+        List<BotDefenseProperties.RouteGroup> groups = props.getRouteGroups();
+        for (int i = 0; i < groups.size(); i++) {
+            BotDefenseProperties.RouteGroup g = groups.get(i);
+            int id = g.getId() != null ? g.getId() : i + 1;
+            groupSuffixes.put(g.getName(), ascii(":" + id));
+        }
+    }
+
+    /**
+     * {@code rl:i:{<hash(ip)>}:<group>}.
+     */
+    public byte[] ip(String ip, String routeGroup) {
+        return ip(ip, null, routeGroup);
+    }
+
+    /**
+     * {@code rl:i:{<hash(subnet)>}<hash(ip)>:<group>}, co-located with the subnet bucket, or
+     * {@code rl:i:{<hash(ip)>}:<group>} if the address is not aggregated ({@code subnet} null).
+     */
+    public byte[] ip(String ip, CidrBlock subnet, String routeGroup) {
+        long id = hash(BUFFER.get().reset().putUtf8(ip));
+        if (subnet == null) {
+            return key(IP, id, false, 0, routeGroup);
+        }
+        return key(IP, hash(subnet(BUFFER.get().reset(), subnet)), true, id, routeGroup);
+    }
+
+    /**
+     * {@code rl:s:{<hash(network, prefix)>}:<group>}.
+     */
+    public byte[] subnet(CidrBlock subnet, String routeGroup) {
+        return key(SUBNET, hash(subnet(BUFFER.get().reset(), subnet)), false, 0, routeGroup);
+    }
+
+    /**
+     * {@code rl:u:{<hash(tenant)>}<hash(tenant, user)>:<group>}, co-located with the tenant
+     * bucket, or {@code rl:u:{<hash(-, user)>}:<group>} without a tenant.
+     */
+    public byte[] user(String tenantId, String userId, String routeGroup) {
+        Buffer b = BUFFER.get().reset();
+        boolean tenant = tenantId != null && !tenantId.isBlank();
+        if (tenant) {
+            b.putUtf8(tenantId);
+        } else {
+            b.put(NONE);
+        }
+        long id = hash(b.put((byte) 0).putUtf8(userId));
+        if (!tenant) {
+            return key(USER, id, false, 0, routeGroup);
+        }
+        return key(USER, hash(BUFFER.get().reset().putUtf8(tenantId)), true, id, routeGroup);
+    }
+
+    /**
+     * {@code rl:t:{<hash(tenant)>}:<group>}.
+     */
+    public byte[] tenant(String tenantId, String routeGroup) {
+        return key(TENANT, hash(BUFFER.get().reset().putUtf8(tenantId)), false, 0, routeGroup);
+    }
+
+    /**
+     * {@code rl:a:{<hash(asn)>}:<group>}.
+     */
+    public byte[] asn(int asn, String routeGroup) {
+        return key(ASN, hash(BUFFER.get().reset().putInt(asn)), false, 0, routeGroup);
+    }
+
+    private static Buffer subnet(Buffer b, CidrBlock subnet) {
+        return b.put(subnet.network()).put((byte) subnet.prefix());
+    }
+
+    private long hash(Buffer identity) {
+        return hash64(identity.buf, identity.len, seed);
+    }
+
+    /**
+     * @param tag    hash tag: the identity's own hash, or that of the enclosing bucket
+     * @param nested whether {@code id} follows the tag
+     */
+    private byte[] key(byte[] prefix, long tag, boolean nested, long id, String routeGroup) {
+        byte[] group = groupSuffixes.getOrDefault(routeGroup, unknownGroup);
+
+        byte[] key = new byte[prefix.length + 13 + (nested ? 11 : 0) + group.length];
+        System.arraycopy(prefix, 0, key, 0, prefix.length);
+        int p = prefix.length;
+        // The tag decides the shard or slot: all route groups of an identity share it.
+        key[p++] = '{';
+        p = encode(key, p, tag);
+        key[p++] = '}';
+        if (nested) {
+            p = encode(key, p, id);
+        }
+        System.arraycopy(group, 0, key, p, group.length);
+        return key;
+    }
+
+    /**
+     * 64 bits as 11 base64url characters (6 bits each, the last one carries 4).
+     */
+    private static int encode(byte[] key, int p, long h) {
+        for (int shift = 58; shift >= 0; shift -= 6) {
+            key[p++] = BASE64URL[(int) (h >>> shift) & 0x3F];
+        }
+        key[p++] = BASE64URL[(int) (h << 2) & 0x3F];
+        return p;
+    }
+
+    /**
+     * 64-bit Murmur3-style hash; with a secret {@code seed} shared by all nodes,
+     * colliding identities cannot be chosen in advance.
+     */
+    public static long hash64(byte[] data, int len, long seed) {
+        final long c1 = 0x87c37b91114253d5L;
+        final long c2 = 0x4cf5ad432745937fL;
+        long h = seed ^ (len * c1);
+        int i = 0;
+        for (; i + 8 <= len; i += 8) {
+            long k = (data[i] & 0xFFL)
+                    | (data[i + 1] & 0xFFL) << 8
+                    | (data[i + 2] & 0xFFL) << 16
+                    | (data[i + 3] & 0xFFL) << 24
+                    | (data[i + 4] & 0xFFL) << 32
+                    | (data[i + 5] & 0xFFL) << 40
+                    | (data[i + 6] & 0xFFL) << 48
+                    | (data[i + 7] & 0xFFL) << 56;
+            k *= c1;
+            k = Long.rotateLeft(k, 31);
+            k *= c2;
+            h ^= k;
+            h = Long.rotateLeft(h, 27) * 5 + 0x52dce729;
+        }
+        long k = 0;
+        for (int shift = 0; i < len; i++, shift += 8) {
+            k |= (data[i] & 0xFFL) << shift;
+        }
+        k *= c1;
+        k = Long.rotateLeft(k, 31);
+        k *= c2;
+        h ^= k;
+        return fmix64(h ^ len);
+    }
+
+    private static long fmix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Growable byte buffer with an inline UTF-8 encoder.
+     */
+    static final class Buffer {
+        private byte[] buf = new byte[128];
+        private int len;
+
+        Buffer reset() {
+            len = 0;
+            return this;
+        }
+
+        Buffer put(byte b) {
+            ensure(1);
+            buf[len++] = b;
+            return this;
+        }
+
+        Buffer put(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, len, bytes.length);
+            len += bytes.length;
+            return this;
+        }
+
+        Buffer putInt(int v) {
+            ensure(4);
+            buf[len++] = (byte) (v >>> 24);
+            buf[len++] = (byte) (v >>> 16);
+            buf[len++] = (byte) (v >>> 8);
+            buf[len++] = (byte) v;
+            return this;
+        }
+
+        Buffer putUtf8(String s) {
+            if (s == null) {
+                return put(NONE);
+            }
+            int n = s.length();
+            // Worst case is 3 bytes per UTF-16 unit.
+            ensure(n * 3);
+            for (int i = 0; i < n; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    buf[len++] = (byte) c;
+                } else if (c < 0x800) {
+                    buf[len++] = (byte) (0xC0 | (c >> 6));
+                    buf[len++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    buf[len++] = (byte) (0xF0 | (cp >> 18));
+                    buf[len++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    buf[len++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    buf[len++] = (byte) (0x80 | (cp & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    // Unpaired surrogate: same replacement as String#getBytes.
+                    buf[len++] = '?';
+                } else {
+                    buf[len++] = (byte) (0xE0 | (c >> 12));
+                    buf[len++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buf[len++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            return this;
+        }
+
+        private void ensure(int extra) {
+            if (len + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.github.dimitryivaniuta.gateway.botdefense.redis;
+
+/**
+ * Integer-scaled token-bucket parameters together with their pre-encoded script arguments.
+ *
+ * <p>Tokens are expressed in micro-tokens and refill in micro-tokens per millisecond,
+ * so the Lua side works with exact integers and nothing is formatted per request.
+ * Instances are immutable and meant to be created once per limit profile.
+ */
+public final class BucketLimit {
+
+    /**
+     * Micro-tokens per token.
+     */
+    public static final long SCALE = 1_000_000L;
+
+    private final long capacityMicros;
+    private final long refillMicrosPerMilli;
+    private final byte[] capacityArg;
+    private final byte[] refillArg;
+
+    private BucketLimit(long capacityMicros, long refillMicrosPerMilli) {
+        this.capacityMicros = capacityMicros;
+        this.refillMicrosPerMilli = refillMicrosPerMilli;
+        this.capacityArg = RedisArgs.of(capacityMicros);
+        this.refillArg = RedisArgs.of(refillMicrosPerMilli);
+    }
+
+    /**
+     * Creates a limit from a capacity in tokens and a refill rate in tokens per second.
+     */
+    public static BucketLimit of(double capacity, double refillPerSecond) {
+        // tokens/s * 1e6 micro-tokens / 1e3 ms = tokens/s * 1e3 micro-tokens per ms
+        return new BucketLimit(Math.round(capacity * SCALE), Math.max(0, Math.round(refillPerSecond * 1000.0)));
+    }
+
+    /**
+     * Whole-token capacity.
+     */
+    public int capacity() {
+        return (int) (capacityMicros / SCALE);
+    }
+
+    public long capacityMicros() {
+        return capacityMicros;
+    }
+
+    public long refillMicrosPerMilli() {
+        return refillMicrosPerMilli;
+    }
+
+    byte[] capacityArg() {
+        return capacityArg;
+    }
+
+    byte[] refillArg() {
+        return refillArg;
+    }
+}
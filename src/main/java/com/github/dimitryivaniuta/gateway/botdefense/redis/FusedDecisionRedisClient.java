@@ -0,0 +1,181 @@
+package com.github.dimitryivaniuta.gateway.botdefense.redis;
+
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Evaluates risk signals, tier and token buckets with a single Redis script call.
+ *
+ * <p>Uses the same binary, integer-scaled protocol (and optional batching) as
+ * {@link TokenBucketRedisClient}.
+ */
+@Component
+public class FusedDecisionRedisClient {
+
+    private final StringRedisTemplate redis;
+    private final ReactiveStringRedisTemplate reactiveRedis;
+    private final LuaScript fusedDecisionScript;
+    private final RedisScriptBatcher batcher;
+
+    public FusedDecisionRedisClient(StringRedisTemplate redis,
+                                    ReactiveStringRedisTemplate reactiveRedis,
+                                    LuaScript fusedDecisionScript,
+                                    RedisScriptBatcher batcher) {
+        this.redis = redis;
+        this.reactiveRedis = reactiveRedis;
+        this.fusedDecisionScript = fusedDecisionScript;
+        this.batcher = batcher;
+    }
+
+    /**
+     * Runs the fused decision script.
+     *
+     * @param request script inputs
+     * @param nowMillis current time millis
+     * @return decision evaluated server-side, or {@code null} if Redis returned nothing
+     */
+    public FusedResult evaluate(FusedRequest request, long nowMillis) {
+        int numKeys = 2 + request.buckets().size();
+        byte[][] keysAndArgs = keysAndArgs(request, nowMillis);
+        List<Object> reply = batcher.isEnabled()
+                ? batcher.execute(fusedDecisionScript, numKeys, keysAndArgs)
+                : redis.execute((RedisCallback<List<Object>>) connection ->
+                fusedDecisionScript.execute(connection, ReturnType.MULTI, numKeys, keysAndArgs));
+        return decode(reply);
+    }
+
+    /**
+     * Non-blocking variant of {@link #evaluate}.
+     *
+     * @return future completed with the decision, or with {@code null} if Redis returned nothing
+     */
+    public CompletableFuture<FusedResult> evaluateAsync(FusedRequest request, long nowMillis) {
+        int numKeys = 2 + request.buckets().size();
+        byte[][] keysAndArgs = keysAndArgs(request, nowMillis);
+        CompletableFuture<List<Object>> reply = batcher.isEnabled()
+                ? batcher.submit(fusedDecisionScript, numKeys, keysAndArgs)
+                : reactiveRedis.execute(connection ->
+                fusedDecisionScript.executeReactive(connection, numKeys, keysAndArgs)).next().toFuture();
+        return reply.thenApply(FusedDecisionRedisClient::decode);
+    }
+
+    private static byte[][] keysAndArgs(FusedRequest request, long nowMillis) {
+        List<TokenBucketRedisClient.BucketSpec> buckets = request.buckets();
+        int numKeys = 2 + buckets.size();
+        byte[][] fixed = request.thresholds().args;
+
+        byte[][] keysAndArgs = new byte[numKeys + 4 + fixed.length + buckets.size() * 2][];
+        keysAndArgs[0] = request.requestRateKey().getBytes(StandardCharsets.UTF_8);
+        keysAndArgs[1] = request.loginFailureKey().getBytes(StandardCharsets.UTF_8);
+        int a = numKeys;
+        keysAndArgs[a++] = RedisArgs.of(nowMillis);
+        keysAndArgs[a++] = RedisArgs.of(request.requestRateWindowSeconds());
+        keysAndArgs[a++] = RedisArgs.of(request.login());
+        keysAndArgs[a++] = RedisArgs.of(request.localScore());
+        System.arraycopy(fixed, 0, keysAndArgs, a, fixed.length);
+        a += fixed.length;
+        for (int i = 0; i < buckets.size(); i++) {
+            TokenBucketRedisClient.BucketSpec b = buckets.get(i);
+            keysAndArgs[2 + i] = b.key();
+            keysAndArgs[a++] = b.limit().capacityArg();
+            keysAndArgs[a++] = b.limit().refillArg();
+        }
+        return keysAndArgs;
+    }
+
+    private static FusedResult decode(List<Object> reply) {
+        if (reply == null || reply.size() < 6) {
+            return null;
+        }
+        return new FusedResult(
+                (int) TokenBucketRedisClient.asLong(reply.get(0)),
+                (int) TokenBucketRedisClient.asLong(reply.get(1)),
+                TokenBucketRedisClient.asLong(reply.get(2)) == 1L,
+                TokenBucketRedisClient.asLong(reply.get(3)) == 1L,
+                (int) TokenBucketRedisClient.asLong(reply.get(4)),
+                TokenBucketRedisClient.asLong(reply.get(5)),
+                reply.size() > 6 ? (int) TokenBucketRedisClient.asLong(reply.get(6)) - 1 : -1
+        );
+    }
+
+    /**
+     * Scoring thresholds and risk configuration mirrored into the script.
+     *
+     * <p>Encoded once; the same instance is reused for every request. A
+     * {@code requestRateHalfLifeMillis} of 0 selects sliding-window signal counters,
+     * otherwise decayed counters with that half-life.
+     */
+    public static final class Thresholds {
+
+        private final byte[][] args;
+
+        public Thresholds(long requestRateHigh,
+                          int requestRateHighScore,
+                          long requestRateMedium,
+                          int requestRateMediumScore,
+                          long loginFailuresHigh,
+                          int loginFailuresHighScore,
+                          long loginFailuresMedium,
+                          int loginFailuresMediumScore,
+                          int tightenMediumAt,
+                          int tightenHighAt,
+                          int stepUpAt,
+                          double factorMedium,
+                          double factorHigh,
+                          long requestRateHalfLifeMillis) {
+            this.args = new byte[][]{
+                    RedisArgs.of(requestRateHigh),
+                    RedisArgs.of(requestRateHighScore),
+                    RedisArgs.of(requestRateMedium),
+                    RedisArgs.of(requestRateMediumScore),
+                    RedisArgs.of(loginFailuresHigh),
+                    RedisArgs.of(loginFailuresHighScore),
+                    RedisArgs.of(loginFailuresMedium),
+                    RedisArgs.of(loginFailuresMediumScore),
+                    RedisArgs.of(tightenMediumAt),
+                    RedisArgs.of(tightenHighAt),
+                    RedisArgs.of(stepUpAt),
+                    Double.toString(factorMedium).getBytes(StandardCharsets.US_ASCII),
+                    Double.toString(factorHigh).getBytes(StandardCharsets.US_ASCII),
+                    RedisArgs.of(requestRateHalfLifeMillis)
+            };
+        }
+    }
+
+    /**
+     * Inputs of one fused evaluation.
+     *
+     * @param buckets buckets with their base (un-tightened) limits; the script applies the tier factor
+     */
+    public record FusedRequest(String requestRateKey,
+                               String loginFailureKey,
+                               int requestRateWindowSeconds,
+                               boolean login,
+                               int localScore,
+                               Thresholds thresholds,
+                               List<TokenBucketRedisClient.BucketSpec> buckets) {
+    }
+
+    /**
+     * Script output decoded into a typed result.
+     *
+     * @param tierOrdinal ordinal of {@code RiskTier}
+     * @param deniedBucket index (in {@link FusedRequest#buckets()}) of the bucket with the
+     *                     longest wait when denied, {@code -1} otherwise
+     */
+    public record FusedResult(int riskScore,
+                              int tierOrdinal,
+                              boolean stepUpRequired,
+                              boolean allowed,
+                              int remainingTokens,
+                              long retryAfterMillis,
+                              int deniedBucket) {
+    }
+}
@@ -0,0 +1,22 @@
+package com.github.dimitryivaniuta.gateway.botdefense.redis;
+
+/**
+ * GCRA: the bucket is a single integer theoretical arrival time per key.
+ *
+ * <p>Admission decisions match {@link TokenBucketEngine} for the same capacity and
+ * refill rate, but the value is a short decimal integer instead of a packed
+ * tokens/timestamp pair.
+ * A refill rate of zero is treated as the smallest representable rate.
+ */
+public final class GcraEngine implements LimiterEngine {
+
+    @Override
+    public String name() {
+        return "gcra";
+    }
+
+    @Override
+    public String library() {
+        return "redis/engine/gcra.lua";
+    }
+}
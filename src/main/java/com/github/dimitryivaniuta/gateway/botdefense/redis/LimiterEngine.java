@@ -0,0 +1,31 @@
+package com.github.dimitryivaniuta.gateway.botdefense.redis;
+
+/**
+ * Storage algorithm behind the Redis limiter scripts.
+ *
+ * <p>An engine is a Lua library defining {@code read_bucket} and {@code write_bucket};
+ * it is prepended to each entry script (multi-bucket check, token leases, fused
+ * decision), so all of them share one on-the-wire protocol and one result shape
+ * regardless of how the bucket state is stored.
+ */
+public interface LimiterEngine {
+
+    /**
+     * Short name used in configuration and logs.
+     */
+    String name();
+
+    /**
+     * Classpath location of the engine's Lua library.
+     */
+    String library();
+
+    /**
+     * Composes the engine library with an entry script.
+     *
+     * @param location classpath location of the entry script
+     */
+    default LuaScript script(String location) {
+        return new LuaScript(library(), location);
+    }
+}
@@ -0,0 +1,158 @@
+package com.github.dimitryivaniuta.gateway.botdefense.redis;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReactiveRedisConnection;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.util.StreamUtils;
+import reactor.core.publisher.Mono;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Lua script executed through the binary connection API.
+ *
+ * <p>The script is invoked with {@code EVALSHA}; when Redis answers {@code NOSCRIPT}
+ * (restart, failover, {@code SCRIPT FLUSH}) it is re-sent once with {@code EVAL},
+ * which also caches it again server-side. Body and digest are kept as bytes so no
+ * per-call conversion is needed.
+ *
+ * <p>A script may be composed of several classpath files concatenated in order,
+ * e.g. a limiter engine library followed by the entry script using it.
+ */
+public final class LuaScript {
+
+    private final String location;
+    private final byte[] body;
+    private final byte[] sha1;
+
+    /**
+     * Loads a script from the classpath.
+     *
+     * @param locations classpath locations concatenated into one script,
+     *                  e.g. {@code redis/engine/gcra.lua}, {@code redis/multi_token_bucket.lua}
+     */
+    public LuaScript(String... locations) {
+        if (locations.length == 0) {
+            throw new IllegalArgumentException("At least one script location is required");
+        }
+        this.location = String.join("+", locations);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String l : locations) {
+            try (InputStream in = new ClassPathResource(l).getInputStream()) {
+                StreamUtils.copy(in, out);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot load Lua script " + l, e);
+            }
+            out.write('\n');
+        }
+        this.body = out.toByteArray();
+        this.sha1 = sha1Hex(body).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Executes the script on the given connection.
+     *
+     * @param connection Redis connection
+     * @param returnType expected reply type
+     * @param numKeys number of leading key arguments
+     * @param keysAndArgs keys followed by arguments
+     * @return script reply
+     */
+    public <T> T execute(RedisConnection connection, ReturnType returnType, int numKeys, byte[]... keysAndArgs) {
+        try {
+            return connection.scriptingCommands().evalSha(sha1, returnType, numKeys, keysAndArgs);
+        } catch (RuntimeException e) {
+            if (!isNoScript(e)) {
+                throw e;
+            }
+            return connection.scriptingCommands().eval(body, returnType, numKeys, keysAndArgs);
+        }
+    }
+
+    /**
+     * Executes the script on a reactive connection, with the same {@code NOSCRIPT}
+     * fallback as {@link #execute}.
+     *
+     * @param connection reactive Redis connection
+     * @param numKeys number of leading key arguments
+     * @param keysAndArgs keys followed by arguments
+     * @return multi-bulk script reply
+     */
+    public Mono<List<Object>> executeReactive(ReactiveRedisConnection connection, int numKeys, byte[]... keysAndArgs) {
+        String sha = sha1();
+        return connection.scriptingCommands().<Object>evalSha(sha, ReturnType.MULTI, numKeys, wrap(keysAndArgs))
+                .onErrorResume(LuaScript::isNoScript, e -> connection.scriptingCommands()
+                        .<Object>eval(ByteBuffer.wrap(body), ReturnType.MULTI, numKeys, wrap(keysAndArgs)))
+                .collectList()
+                .map(LuaScript::unwrap);
+    }
+
+    public String location() {
+        return location;
+    }
+
+    public byte[] body() {
+        return body.clone();
+    }
+
+    public String sha1() {
+        return new String(sha1, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * SHA-1 hex digest as bytes, shared (not copied) for the hot path.
+     */
+    byte[] digest() {
+        return sha1;
+    }
+
+    static boolean isNoScript(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            String msg = t.getMessage();
+            if (msg != null && msg.contains("NOSCRIPT")) {
+                return true;
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    private static ByteBuffer[] wrap(byte[][] keysAndArgs) {
+        ByteBuffer[] buffers = new ByteBuffer[keysAndArgs.length];
+        for (int i = 0; i < keysAndArgs.length; i++) {
+            buffers[i] = ByteBuffer.wrap(keysAndArgs[i]);
+        }
+        return buffers;
+    }
+
+    /**
+     * The reactive driver may emit a multi-bulk reply either element by element or as
+     * one list; normalize to the list of elements.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Object> unwrap(List<Object> reply) {
+        if (reply.size() == 1 && reply.get(0) instanceof List<?> inner) {
+            return (List<Object>) inner;
+        }
+        return reply;
+    }
+
+    private static String sha1Hex(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.github.dimitryivaniuta.gateway.botdefense.redis;
+
+/**
+ * Encodes script arguments straight into the byte form Redis expects,
+ * without going through {@link String}.
+ */
+final class RedisArgs {
+
+    private static final byte[] ZERO = {'0'};
+    private static final byte[] ONE = {'1'};
+
+    private RedisArgs() {
+    }
+
+    /**
+     * Decimal ASCII representation of a long.
+     */
+    static byte[] of(long value) {
+        if (value == 0) {
+            return ZERO;
+        }
+        if (value == 1) {
+            return ONE;
+        }
+        boolean negative = value < 0;
+        // Long.MIN_VALUE cannot be negated; work with negative numbers throughout.
+        long v = negative ? value : -value;
+        int len = negative ? 1 : 0;
+        for (long t = v; t != 0; t /= 10) {
+            len++;
+        }
+        byte[] out = new byte[len];
+        int pos = len;
+        while (v != 0) {
+            out[--pos] = (byte) ('0' - (v % 10));
+            v /= 10;
+        }
+        if (negative) {
+            out[0] = '-';
+        }
+        return out;
+    }
+
+    /**
+     * {@code 1} or {@code 0}.
+     */
+    static byte[] of(boolean value) {
+        return value ? ONE : ZERO;
+    }
+}
@@ -0,0 +1,109 @@
+package com.github.dimitryivaniuta.gateway.botdefense.redis;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tracks errors and latency of Redis decisions and stops sending traffic to Redis
+ * while it is failing or slow.
+ *
+ * <p>Closed: every decision goes to Redis. After {@code failureThreshold} consecutive
+ * failures (errors, deadline misses or calls slower than {@code slowCallMillis}) the
+ * breaker opens and callers use the node-local fallback. After {@code openMillis} one
+ * caller is let through as a probe (half-open): success closes the breaker, failure
+ * opens it again. A probe that never reports is replaced after another
+ * {@code openMillis}.
+ */
+@Component
+public class RedisCircuitBreaker {
+
+    /**
+     * Breaker state; the ordinal is exported as {@code botdefense.redis.breaker.state}.
+     */
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(RedisCircuitBreaker.class);
+
+    private final BotDefenseProperties.Redis.Breaker config;
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicLong changedAt = new AtomicLong();
+    private final Counter trips;
+
+    public RedisCircuitBreaker(BotDefenseProperties props, MeterRegistry metrics) {
+        this.config = props.getRedis().getBreaker();
+        this.trips = metrics.counter("botdefense.redis.breaker.trips");
+        metrics.gauge("botdefense.redis.breaker.state", state, s -> s.get().ordinal());
+    }
+
+    public State state() {
+        return state.get();
+    }
+
+    /**
+     * Returns true if the caller may go to Redis; every such caller must report back
+     * with {@link #onSuccess} or {@link #onFailure}.
+     */
+    public boolean tryAcquire(long nowMillis) {
+        if (!config.isEnabled() || state.get() == State.CLOSED) {
+            return true;
+        }
+        long at = changedAt.get();
+        if (nowMillis - at < config.getOpenMillis() || !changedAt.compareAndSet(at, nowMillis)) {
+            return false;
+        }
+        state.set(State.HALF_OPEN);
+        return true;
+    }
+
+    /**
+     * Records a completed Redis decision; slow ones count as failures.
+     */
+    public void onSuccess(long latencyMillis, long nowMillis) {
+        if (!config.isEnabled()) {
+            return;
+        }
+        if (latencyMillis > config.getSlowCallMillis()) {
+            onFailure(nowMillis);
+            return;
+        }
+        failures.set(0);
+        if (state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+            log.info("Redis circuit breaker closed");
+        }
+    }
+
+    /**
+     * Records a failed or timed-out Redis decision.
+     */
+    public void onFailure(long nowMillis) {
+        if (!config.isEnabled()) {
+            return;
+        }
+        State s = state.get();
+        if (s == State.OPEN) {
+            // Late reports of calls started before the breaker opened.
+            return;
+        }
+        if (s == State.HALF_OPEN || failures.incrementAndGet() >= config.getFailureThreshold()) {
+            changedAt.set(nowMillis);
+            failures.set(0);
+            if (state.getAndSet(State.OPEN) == State.CLOSED) {
+                trips.increment();
+                log.warn("Redis circuit breaker opened; deciding locally for {} ms", config.getOpenMillis());
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.github.dimitryivaniuta.gateway.botdefense.redis;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import io.lettuce.core.RedisCredentials;
+import io.lettuce.core.RedisCredentialsProvider;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.cluster.SlotHash;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisPassword;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Routes keys to Redis instances.
+ *
+ * <p>Without {@code botdefense.redis.sharding.nodes} everything goes to the application's
+ * {@link StringRedisTemplate} (a single Redis or a Redis Cluster). With nodes configured,
+ * keys are spread over independent Redis instances by consistent hashing (a ring of
+ * {@code virtualNodes} points per node), so adding a node moves only its share of keys.
+ *
+ * <p>Both modes honour Redis hash tags: only the part between the first <code>{</code> and the
+ * following <code>}</code> is hashed, so keys sharing a tag always land together. Multi-key
+ * scripts must only combine keys of the same {@link #groupOf group} (same shard, or the
+ * same slot on a cluster).
+ */
+@Component
+public class RedisShards implements AutoCloseable {
+
+    private final StringRedisTemplate[] templates;
+    private final List<LettuceConnectionFactory> owned = new ArrayList<>();
+    private final boolean cluster;
+    private final long[] ring;
+    private final int[] owners;
+
+    public RedisShards(StringRedisTemplate redis, BotDefenseProperties props) {
+        BotDefenseProperties.Redis.Sharding config = props.getRedis().getSharding();
+        RedisConnectionFactory factory = redis.getRequiredConnectionFactory();
+        this.cluster = factory instanceof LettuceConnectionFactory f && f.isClusterAware();
+
+        List<String> nodes = config.getNodes();
+        if (nodes.isEmpty()) {
+            this.templates = new StringRedisTemplate[]{redis};
+            this.ring = new long[0];
+            this.owners = new int[0];
+            return;
+        }
+
+        this.templates = new StringRedisTemplate[nodes.size()];
+        Map<Long, Integer> points = new TreeMap<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            templates[i] = template(nodes.get(i), factory);
+            for (int v = 0; v < config.getVirtualNodes(); v++) {
+                byte[] point = (nodeId(nodes.get(i)) + "#" + v).getBytes(StandardCharsets.UTF_8);
+                points.putIfAbsent(BucketKeys.hash64(point, point.length, 0), i);
+            }
+        }
+        this.ring = new long[points.size()];
+        this.owners = new int[points.size()];
+        int p = 0;
+        for (Map.Entry<Long, Integer> e : points.entrySet()) {
+            ring[p] = e.getKey();
+            owners[p++] = e.getValue();
+        }
+    }
+
+    /**
+     * Returns true if keys may live on different Redis instances or slots, so a
+     * multi-key call has to be split by {@link #groupOf}.
+     */
+    public boolean isPartitioned() {
+        return templates.length > 1 || cluster;
+    }
+
+    /**
+     * Returns true if keys are spread over several independent Redis instances
+     * (the application-wide templates then only reach one of them).
+     */
+    public boolean isSharded() {
+        return templates.length > 1;
+    }
+
+    /**
+     * Co-location group of a key: the shard index, the cluster slot, or 0 on a single Redis.
+     */
+    public int groupOf(byte[] key) {
+        if (templates.length > 1) {
+            return shardOf(key);
+        }
+        return cluster ? SlotHash.getSlot(key) : 0;
+    }
+
+    /**
+     * Template serving the given key.
+     */
+    public StringRedisTemplate forKey(byte[] key) {
+        return templates.length > 1 ? templates[shardOf(key)] : templates[0];
+    }
+
+    /**
+     * Template serving the given key.
+     */
+    public StringRedisTemplate forKey(String key) {
+        return templates.length > 1 ? forKey(key.getBytes(StandardCharsets.UTF_8)) : templates[0];
+    }
+
+    private int shardOf(byte[] key) {
+        int from = 0;
+        int to = key.length;
+        int open = indexOf(key, (byte) '{', 0);
+        if (open >= 0) {
+            int close = indexOf(key, (byte) '}', open + 1);
+            if (close > open + 1) {
+                from = open + 1;
+                to = close;
+            }
+        }
+        byte[] tag = from == 0 && to == key.length ? key : Arrays.copyOfRange(key, from, to);
+        long h = BucketKeys.hash64(tag, tag.length, 0);
+        int i = Arrays.binarySearch(ring, h);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return owners[i == ring.length ? 0 : i];
+    }
+
+    private static int indexOf(byte[] key, byte b, int from) {
+        for (int i = from; i < key.length; i++) {
+            if (key[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private StringRedisTemplate template(String uri, RedisConnectionFactory main) {
+        RedisURI u = RedisURI.create(uri);
+        RedisStandaloneConfiguration standalone = new RedisStandaloneConfiguration(u.getHost(), u.getPort());
+        standalone.setDatabase(u.getDatabase());
+        RedisCredentials credentials = credentials(u);
+        if (credentials.hasUsername()) {
+            standalone.setUsername(credentials.getUsername());
+        }
+        if (credentials.hasPassword()) {
+            standalone.setPassword(RedisPassword.of(credentials.getPassword()));
+        }
+        LettuceClientConfiguration.LettuceClientConfigurationBuilder client = LettuceClientConfiguration.builder();
+        if (main instanceof LettuceConnectionFactory f) {
+            // Same command timeout as the main connection, which is bounded by the decision deadline.
+            client.commandTimeout(f.getClientConfiguration().getCommandTimeout());
+        }
+        if (u.isSsl()) {
+            client.useSsl();
+        }
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(standalone, client.build());
+        factory.afterPropertiesSet();
+        owned.add(factory);
+
+        StringRedisTemplate template = new StringRedisTemplate(factory);
+        template.afterPropertiesSet();
+        return template;
+    }
+
+    /**
+     * Credentials given in a node URI (none if the URI has no user info).
+     */
+    public static RedisCredentials credentials(RedisURI uri) {
+        RedisCredentialsProvider provider = uri.getCredentialsProvider();
+        if (provider instanceof RedisCredentialsProvider.ImmediateRedisCredentialsProvider immediate) {
+            return immediate.resolveCredentialsNow();
+        }
+        // Only at startup, while the node connections are created.
+        return provider.resolveCredentials().block();
+    }
+
+    /**
+     * Ring identity of a node: host, port and database only, so credentials can rotate
+     * without moving keys.
+     */
+    private static String nodeId(String uri) {
+        RedisURI u = RedisURI.create(uri);
+        return u.getHost() + ":" + u.getPort() + "/" + u.getDatabase();
+    }
+
+    @Override
+    public void close() {
+        owned.forEach(LettuceConnectionFactory::destroy);
+    }
+}
@@ -0,0 +1,143 @@
+package com.github.dimitryivaniuta.gateway.botdefense.redis;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-flight combining of concurrent consume calls for the same set of buckets.
+ *
+ * <p>The first caller for a group becomes the leader and runs the script. Callers
+ * arriving while that call is in flight queue up; when it returns, the oldest of
+ * them becomes the next leader and issues one call asking for as many permits as
+ * callers are queued (bounded by {@code maxPermits}). The granted permits are handed
+ * out in arrival order; the rest of the batch is denied. Under a single-source flood
+ * this turns one Redis call per request into one per round trip.
+ */
+final class RequestCombiner {
+
+    /**
+     * Runs one script call for {@code permits} permits.
+     */
+    @FunctionalInterface
+    interface Call {
+        Grant execute(int permits);
+    }
+
+    /**
+     * Outcome of a combined call.
+     *
+     * @param granted permits granted (0..requested)
+     * @param remainingTokens tokens left after the grant
+     * @param retryAfterMillis wait until the next permit could be granted (0 if all were granted)
+     * @param deniedBucket 0-based index of the bucket with the longest wait, {@code -1} if none
+     */
+    record Grant(int granted, int remainingTokens, long retryAfterMillis, int deniedBucket) {
+    }
+
+    private static final Object LEAD = new Object();
+
+    private final int maxPermits;
+    private final Map<ByteBuffer, Slot> slots = new ConcurrentHashMap<>();
+
+    RequestCombiner(int maxPermits) {
+        this.maxPermits = Math.max(1, maxPermits);
+    }
+
+    /**
+     * Consumes one permit of the bucket group identified by {@code groupKey}, combining
+     * with concurrent callers of the same group.
+     */
+    TokenBucketRedisClient.BucketResult consume(byte[] groupKey, Call call) {
+        ByteBuffer k = ByteBuffer.wrap(groupKey);
+        Waiter me = new Waiter();
+        Slot slot;
+        boolean lead;
+        while (true) {
+            slot = slots.computeIfAbsent(k, x -> new Slot());
+            synchronized (slot) {
+                if (slot.removed) {
+                    continue;
+                }
+                slot.pending.add(me);
+                lead = !slot.busy;
+                slot.busy = true;
+            }
+            break;
+        }
+
+        if (!lead) {
+            Object r = join(me.result);
+            if (r != LEAD) {
+                return (TokenBucketRedisClient.BucketResult) r;
+            }
+            // Our turn: the call below completes a fresh future for us as part of the batch.
+            me.result = new CompletableFuture<>();
+        }
+
+        lead(k, slot, call);
+        return (TokenBucketRedisClient.BucketResult) join(me.result);
+    }
+
+    private static Object join(CompletableFuture<Object> f) {
+        try {
+            return f.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw e;
+        }
+    }
+
+    private void lead(ByteBuffer k, Slot slot, Call call) {
+        List<Waiter> batch = new ArrayList<>();
+        synchronized (slot) {
+            while (!slot.pending.isEmpty() && batch.size() < maxPermits) {
+                batch.add(slot.pending.poll());
+            }
+        }
+
+        try {
+            Grant g = call.execute(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                boolean allowed = i < g.granted();
+                // Later waiters' permits still count as available for earlier ones.
+                int remaining = allowed ? g.remainingTokens() + (g.granted() - 1 - i) : g.remainingTokens();
+                batch.get(i).result.complete(new TokenBucketRedisClient.BucketResult(
+                        allowed, remaining, allowed ? 0 : g.retryAfterMillis(), allowed ? -1 : g.deniedBucket()));
+            }
+        } catch (RuntimeException e) {
+            for (Waiter w : batch) {
+                w.result.completeExceptionally(e);
+            }
+        } finally {
+            synchronized (slot) {
+                Waiter next = slot.pending.peek();
+                if (next == null) {
+                    slot.busy = false;
+                    slot.removed = true;
+                    slots.remove(k, slot);
+                } else {
+                    next.result.complete(LEAD);
+                }
+            }
+        }
+    }
+
+    private static final class Slot {
+        private final ArrayDeque<Waiter> pending = new ArrayDeque<>();
+        private boolean busy;
+        private boolean removed;
+    }
+
+    private static final class Waiter {
+        // Completed with the caller's BucketResult, or with LEAD to run the next call.
+        private CompletableFuture<Object> result = new CompletableFuture<>();
+    }
+}
@@ -0,0 +1,18 @@
+package com.github.dimitryivaniuta.gateway.botdefense.redis;
+
+/**
+ * Token bucket packed into one 16-byte string (micro-tokens and last refill time),
+ * expiring when the bucket would be full again.
+ */
+public final class TokenBucketEngine implements LimiterEngine {
+
+    @Override
+    public String name() {
+        return "token-bucket";
+    }
+
+    @Override
+    public String library() {
+        return "redis/engine/token_bucket.lua";
+    }
+}
@@ -1,24 +1,58 @@
 package com.github.dimitryivaniuta.gateway.botdefense.redis;
 
-import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * Redis-backed token bucket using an atomic Lua script.
+ *
+ * <p>Talks to Redis through the binary connection API: keys and arguments are
+ * {@code byte[]}, numbers are integer-scaled (see {@link BucketLimit}) and the script
+ * replies with an integer array that is decoded straight into {@link BucketResult}.
+ * With {@code botdefense.redis.batching.enabled} calls from concurrent requests are
+ * pipelined together by {@link RedisScriptBatcher}; with
+ * {@code botdefense.redis.combining.enabled} concurrent calls for the same buckets are
+ * merged into one multi-permit call by {@link RequestCombiner}. Keys are routed by
+ * {@link RedisShards}; buckets of one request that live on different shards are checked
+ * per shard and compensated on denial.
  */
 @Component
 public class TokenBucketRedisClient {
 
-    private final StringRedisTemplate redis;
-    private final DefaultRedisScript<String> tokenBucketScript;
+    private final RedisShards shards;
+    private final ReactiveStringRedisTemplate reactiveRedis;
+    private final LuaScript multiTokenBucketScript;
+    private final TokenLeaseManager leases;
+    private final RedisScriptBatcher batcher;
+    private final RequestCombiner combiner;
+    private final Executor applicationTaskExecutor;
 
-    public TokenBucketRedisClient(StringRedisTemplate redis,
-                                 DefaultRedisScript<String> tokenBucketScript) {
-        this.redis = redis;
-        this.tokenBucketScript = tokenBucketScript;
+    public TokenBucketRedisClient(RedisShards shards,
+                                 ReactiveStringRedisTemplate reactiveRedis,
+                                 LuaScript multiTokenBucketScript,
+                                 TokenLeaseManager leases,
+                                 RedisScriptBatcher batcher,
+                                 BotDefenseProperties props,
+                                 Executor applicationTaskExecutor) {
+        this.shards = shards;
+        this.reactiveRedis = reactiveRedis;
+        this.multiTokenBucketScript = multiTokenBucketScript;
+        this.leases = leases;
+        this.batcher = batcher;
+        this.applicationTaskExecutor = applicationTaskExecutor;
+        BotDefenseProperties.Redis.Combining combining = props.getRedis().getCombining();
+        this.combiner = combining.isEnabled() ? new RequestCombiner(combining.getMaxPermits()) : null;
     }
 
     /**
@@ -31,26 +65,240 @@ public class TokenBucketRedisClient {
      * @return result
      */
     public BucketResult consume(String key, double capacity, double refillPerSecond, long nowMillis) {
-        String raw = redis.execute(tokenBucketScript, List.of(key),
-                Double.toString(capacity),
-                Double.toString(refillPerSecond),
-                Long.toString(nowMillis));
+        return consumeAll(List.of(new BucketSpec(key.getBytes(StandardCharsets.UTF_8),
+                BucketLimit.of(capacity, refillPerSecond))), nowMillis);
+    }
+
+    /**
+     * Attempts to consume one token from every bucket in a single round trip.
+     *
+     * <p>All buckets are checked atomically and debited only if each of them admits
+     * the request. The result carries the minimum remaining tokens and the maximum
+     * retry-after across the buckets.
+     *
+     * <p>Buckets eligible for leasing (see {@link TokenLeaseManager}) are served from the
+     * node-local lease first; the remaining buckets go to Redis. If Redis denies, the
+     * leased tokens are given back so the all-or-nothing semantics are preserved.
+     *
+     * @param specs buckets to check (at least one)
+     * @param nowMillis current time millis
+     * @return combined result
+     */
+    public BucketResult consumeAll(List<BucketSpec> specs, long nowMillis) {
+        if (specs.isEmpty()) {
+            throw new IllegalArgumentException("At least one bucket is required");
+        }
+
+        if (!anyLeased(specs)) {
+            return remote(specs, nowMillis);
+        }
+
+        List<BucketSpec> remote = new ArrayList<>(specs.size());
+        int[] remoteIndex = new int[specs.size()];
+        List<TokenLeaseManager.Lease> taken = new ArrayList<>(specs.size());
+        int leasedRemaining = Integer.MAX_VALUE;
+        for (int i = 0; i < specs.size(); i++) {
+            BucketSpec spec = specs.get(i);
+            if (!leases.isLeased(spec.key())) {
+                remoteIndex[remote.size()] = i;
+                remote.add(spec);
+                continue;
+            }
+            TokenLeaseManager.Grant grant = leases.acquire(spec, nowMillis);
+            if (!grant.allowed()) {
+                taken.forEach(leases::release);
+                return new BucketResult(false, 0, grant.retryAfterMillis(), i);
+            }
+            taken.add(grant.lease());
+            leasedRemaining = Math.min(leasedRemaining, grant.remainingTokens());
+        }
+
+        if (remote.isEmpty()) {
+            return new BucketResult(true, leasedRemaining, 0, -1);
+        }
+        BucketResult r = remote(remote, nowMillis);
+        if (!r.allowed()) {
+            taken.forEach(leases::release);
+        }
+        return new BucketResult(r.allowed(), Math.min(r.remainingTokens(), leasedRemaining), r.retryAfterMillis(),
+                r.deniedBucket() < 0 ? -1 : remoteIndex[r.deniedBucket()]);
+    }
+
+    private boolean anyLeased(List<BucketSpec> specs) {
+        for (BucketSpec spec : specs) {
+            if (leases.isLeased(spec.key())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private BucketResult remote(List<BucketSpec> specs, long nowMillis) {
+        if (!colocated(specs)) {
+            return consumeSplit(specs, nowMillis);
+        }
+        if (combiner == null) {
+            RequestCombiner.Grant g = consumeRemote(specs, nowMillis, 1);
+            return new BucketResult(g.granted() == 1, g.remainingTokens(), g.retryAfterMillis(), g.deniedBucket());
+        }
+        return combiner.consume(groupKey(specs), permits -> consumeRemote(specs, nowMillis, permits));
+    }
 
-        if (raw == null || raw.isBlank()) {
+    /**
+     * Buckets on different shards (or cluster slots) cannot be checked by one script:
+     * each co-located group is checked atomically on its own and, if a group denies,
+     * the permits already granted by the others are given back (negative permits).
+     */
+    private BucketResult consumeSplit(List<BucketSpec> specs, long nowMillis) {
+        Map<Integer, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < specs.size(); i++) {
+            groups.computeIfAbsent(shards.groupOf(specs.get(i).key()), g -> new ArrayList<>(specs.size())).add(i);
+        }
+
+        List<List<BucketSpec>> granted = new ArrayList<>(groups.size());
+        int remaining = Integer.MAX_VALUE;
+        for (List<Integer> indexes : groups.values()) {
+            List<BucketSpec> group = new ArrayList<>(indexes.size());
+            indexes.forEach(i -> group.add(specs.get(i)));
+            RequestCombiner.Grant g = consumeRemote(group, nowMillis, 1);
+            if (g.granted() < 1) {
+                for (List<BucketSpec> done : granted) {
+                    consumeRemote(done, nowMillis, -1);
+                }
+                return new BucketResult(false, g.remainingTokens(), g.retryAfterMillis(),
+                        g.deniedBucket() < 0 ? -1 : indexes.get(g.deniedBucket()));
+            }
+            granted.add(group);
+            remaining = Math.min(remaining, g.remainingTokens());
+        }
+        return new BucketResult(true, remaining, 0, -1);
+    }
+
+    private boolean colocated(List<BucketSpec> specs) {
+        if (!shards.isPartitioned()) {
+            return true;
+        }
+        int group = shards.groupOf(specs.get(0).key());
+        for (int i = 1; i < specs.size(); i++) {
+            if (shards.groupOf(specs.get(i).key()) != group) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private RequestCombiner.Grant consumeRemote(List<BucketSpec> specs, long nowMillis, int permits) {
+        byte[][] keysAndArgs = keysAndArgs(specs, nowMillis, permits);
+        // Pipelines go to the default connection only, which is not cluster- or shard-aware.
+        List<Object> reply = batcher.isEnabled() && !shards.isPartitioned()
+                ? batcher.execute(multiTokenBucketScript, specs.size(), keysAndArgs)
+                : shards.forKey(specs.get(0).key()).execute((RedisCallback<List<Object>>) connection ->
+                multiTokenBucketScript.execute(connection, ReturnType.MULTI, specs.size(), keysAndArgs));
+        return grant(specs, permits, reply);
+    }
+
+    /**
+     * Non-blocking variant of {@link #consumeAll}: the script runs on the reactive
+     * connection (or in the next batch) and no thread waits for Redis.
+     *
+     * <p>Leased and combined buckets, calls to sharded Redis instances (which the
+     * application's reactive connection does not reach) and buckets spread over several
+     * shards go through the blocking {@link #consumeAll} on the application task executor.
+     * Callers may continue on a Redis I/O thread, which must never wait for Redis itself.
+     */
+    public CompletableFuture<BucketResult> consumeAllAsync(List<BucketSpec> specs, long nowMillis) {
+        if (specs.isEmpty()) {
+            throw new IllegalArgumentException("At least one bucket is required");
+        }
+        if (combiner != null || anyLeased(specs) || shards.isSharded() || !colocated(specs)) {
+            return CompletableFuture.supplyAsync(() -> consumeAll(specs, nowMillis), applicationTaskExecutor);
+        }
+
+        byte[][] keysAndArgs = keysAndArgs(specs, nowMillis, 1);
+        CompletableFuture<List<Object>> reply = batcher.isEnabled() && !shards.isPartitioned()
+                ? batcher.submit(multiTokenBucketScript, specs.size(), keysAndArgs)
+                : reactiveRedis.execute(connection ->
+                multiTokenBucketScript.executeReactive(connection, specs.size(), keysAndArgs)).next().toFuture();
+        return reply.thenApply(r -> {
+            RequestCombiner.Grant g = grant(specs, 1, r);
+            return new BucketResult(g.granted() == 1, g.remainingTokens(), g.retryAfterMillis(), g.deniedBucket());
+        });
+    }
+
+    private static byte[][] keysAndArgs(List<BucketSpec> specs, long nowMillis, int permits) {
+        int n = specs.size();
+        byte[][] keysAndArgs = new byte[n + 2 + n * 2][];
+        keysAndArgs[n] = RedisArgs.of(nowMillis);
+        keysAndArgs[n + 1] = RedisArgs.of(permits);
+        for (int i = 0; i < n; i++) {
+            BucketSpec spec = specs.get(i);
+            keysAndArgs[i] = spec.key();
+            keysAndArgs[n + 2 + i * 2] = spec.limit().capacityArg();
+            keysAndArgs[n + 3 + i * 2] = spec.limit().refillArg();
+        }
+        return keysAndArgs;
+    }
+
+    private static RequestCombiner.Grant grant(List<BucketSpec> specs, int permits, List<Object> reply) {
+        if (reply == null || reply.size() < 3) {
             // Fail-open: do not block users if Redis misbehaves.
-            return new BucketResult(true, (int) Math.floor(capacity), 0);
+            int minCapacity = Integer.MAX_VALUE;
+            for (BucketSpec spec : specs) {
+                minCapacity = Math.min(minCapacity, spec.limit().capacity());
+            }
+            return new RequestCombiner.Grant(permits, minCapacity, 0, -1);
         }
+        return new RequestCombiner.Grant(
+                (int) asLong(reply.get(0)),
+                (int) asLong(reply.get(1)),
+                asLong(reply.get(2)),
+                reply.size() > 3 ? (int) asLong(reply.get(3)) - 1 : -1);
+    }
+
+    /**
+     * Identifies requests that may be combined: same bucket keys with the same limits
+     * (limits differ per risk tier).
+     */
+    private static byte[] groupKey(List<BucketSpec> specs) {
+        int len = 0;
+        for (BucketSpec spec : specs) {
+            len += spec.key().length + spec.limit().capacityArg().length + spec.limit().refillArg().length + 3;
+        }
+        byte[] k = new byte[len];
+        int p = 0;
+        for (BucketSpec spec : specs) {
+            p = append(k, p, spec.key());
+            p = append(k, p, spec.limit().capacityArg());
+            p = append(k, p, spec.limit().refillArg());
+        }
+        return k;
+    }
 
-        String[] parts = raw.split("\\|");
-        int allowed = Integer.parseInt(parts[0]);
-        int remaining = Integer.parseInt(parts[1]);
-        long retryAfter = Long.parseLong(parts[2]);
-        return new BucketResult(allowed == 1, remaining, retryAfter);
+    private static int append(byte[] dst, int p, byte[] src) {
+        System.arraycopy(src, 0, dst, p, src.length);
+        dst[p + src.length] = 0;
+        return p + src.length + 1;
+    }
+
+    static long asLong(Object o) {
+        return o instanceof Long l ? l : ((Number) o).longValue();
     }
 
     /**
-     * Lua-script output parsed into a typed result.
+     * A single bucket taking part in a multi-bucket check.
+     *
+     * @param key binary bucket key (see {@link BucketKeys})
+     * @param limit integer-scaled bucket parameters
+     */
+    public record BucketSpec(byte[] key, BucketLimit limit) {
+    }
+
+    /**
+     * Lua-script output decoded into a typed result.
+     *
+     * @param deniedBucket index (in the checked specs) of the bucket with the longest wait
+     *                     when denied, {@code -1} when allowed or unknown
      */
-    public record BucketResult(boolean allowed, int remainingTokens, long retryAfterMillis) {
+    public record BucketResult(boolean allowed, int remainingTokens, long retryAfterMillis, int deniedBucket) {
     }
 }
@@ -0,0 +1,310 @@
+package com.github.dimitryivaniuta.gateway.botdefense.redis;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Node-local token leases for high-volume buckets (e.g. tenant buckets, {@code rl:t:*}).
+ *
+ * <p>Instead of calling Redis for every request, a node atomically reserves a small
+ * batch of tokens for a key and serves requests from it until the batch is used up
+ * or the lease expires. Unused tokens are given back on the next reservation or by a
+ * background sweep. The batch size follows the observed per-key rate and is bounded
+ * by {@code botdefense.redis.leasing.maxTokens}.
+ *
+ * <p>A lease belongs to a key and a {@link BucketLimit}: requests whose risk tier tightens
+ * the bucket are served from a lease reserved with their own limit, never from tokens a
+ * looser tier reserved. The Redis round trip of a reservation runs outside the lease
+ * monitor; its tokens are added to the lease once the reply arrives.
+ */
+@Component
+public final class TokenLeaseManager implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenLeaseManager.class);
+
+    /**
+     * Leases idle for this many lifetimes are dropped by the sweep.
+     */
+    private static final int IDLE_LEASE_LIFETIMES = 20;
+
+    private final RedisShards shards;
+    private final LuaScript tokenLeaseScript;
+    private final BotDefenseProperties.Redis.Leasing config;
+    private final byte[][] prefixes;
+    private final Map<LeaseId, Lease> leases = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sweeper;
+
+    public TokenLeaseManager(RedisShards shards,
+                             LuaScript tokenLeaseScript,
+                             BotDefenseProperties props) {
+        this.shards = shards;
+        this.tokenLeaseScript = tokenLeaseScript;
+        this.config = props.getRedis().getLeasing();
+
+        List<String> p = config.getKeyPrefixes();
+        this.prefixes = new byte[p.size()][];
+        for (int i = 0; i < p.size(); i++) {
+            prefixes[i] = p.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+
+        if (config.isEnabled()) {
+            this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "token-lease-sweeper");
+                t.setDaemon(true);
+                return t;
+            });
+            long period = Math.max(50, config.getLeaseMillis());
+            sweeper.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            this.sweeper = null;
+        }
+    }
+
+    /**
+     * Returns true if leasing is on and the key matches a configured prefix.
+     */
+    public boolean isLeased(byte[] key) {
+        if (!config.isEnabled()) {
+            return false;
+        }
+        for (byte[] prefix : prefixes) {
+            if (startsWith(key, prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Takes one token for the bucket, from the local lease if possible and otherwise by
+     * reserving a new batch from Redis.
+     *
+     * @return grant; when allowed, {@link Grant#lease()} must be passed to
+     * {@link #release(Lease)} if the request is later denied by another bucket
+     */
+    public Grant acquire(TokenBucketRedisClient.BucketSpec spec, long nowMillis) {
+        LeaseId id = LeaseId.of(spec);
+        while (true) {
+            Lease lease = leases.computeIfAbsent(id, k -> new Lease(k, spec.key(), spec.limit(), nowMillis));
+            int returned;
+            int size;
+            synchronized (lease) {
+                if (lease.removed) {
+                    continue;
+                }
+                lease.lastUsedAt = nowMillis;
+                if (lease.tokens > 0 && nowMillis < lease.expiresAt) {
+                    return take(lease);
+                }
+                returned = nowMillis >= lease.expiresAt ? lease.tokens : 0;
+                lease.tokens -= returned;
+                size = nextSize(lease, nowMillis);
+                lease.reserving++;
+            }
+            return reserveAndTake(lease, spec, returned, size, nowMillis);
+        }
+    }
+
+    /**
+     * Reserves a batch without holding the lease monitor, so other requests for the key are
+     * not held up by the round trip, then adds the batch to the lease and takes one token.
+     */
+    private Grant reserveAndTake(Lease lease, TokenBucketRedisClient.BucketSpec spec, int returned, int size,
+                                 long nowMillis) {
+        long[] r;
+        try {
+            r = reserve(spec, returned, size, nowMillis);
+        } catch (RuntimeException e) {
+            synchronized (lease) {
+                lease.reserving--;
+                lease.tokens += returned;
+            }
+            throw e;
+        }
+        synchronized (lease) {
+            lease.reserving--;
+            if (r == null) {
+                // Fail-open like the non-leased path; keep the unused tokens for the next attempt.
+                lease.tokens += returned;
+                return new Grant(true, spec.limit().capacity(), 0, null);
+            }
+            // Concurrent reservations for the key add up.
+            lease.tokens += (int) r[0];
+            lease.remoteRemaining = (int) r[1];
+            lease.expiresAt = Math.max(lease.expiresAt, nowMillis + config.getLeaseMillis());
+            if (lease.tokens == 0) {
+                return new Grant(false, 0, r[2], null);
+            }
+            return take(lease);
+        }
+    }
+
+    private static Grant take(Lease lease) {
+        lease.tokens--;
+        lease.served++;
+        return new Grant(true, lease.remoteRemaining + lease.tokens, 0, lease);
+    }
+
+    /**
+     * Gives a token taken by {@link #acquire} back to its lease.
+     */
+    public void release(Lease lease) {
+        if (lease == null) {
+            return;
+        }
+        synchronized (lease) {
+            lease.tokens++;
+            lease.served--;
+        }
+    }
+
+    /**
+     * Returns unused tokens of expired leases to Redis and forgets idle keys.
+     */
+    void sweep() {
+        long now = System.currentTimeMillis();
+        for (Lease lease : leases.values()) {
+            int returned;
+            synchronized (lease) {
+                if (now < lease.expiresAt || lease.reserving > 0) {
+                    continue;
+                }
+                returned = lease.tokens;
+                lease.tokens = 0;
+                if (now - lease.lastUsedAt > IDLE_LEASE_LIFETIMES * config.getLeaseMillis()) {
+                    lease.removed = true;
+                    leases.remove(lease.id, lease);
+                }
+            }
+            if (returned == 0) {
+                continue;
+            }
+            try {
+                reserve(new TokenBucketRedisClient.BucketSpec(lease.key, lease.limit), returned, 0, now);
+            } catch (RuntimeException e) {
+                log.debug("Token lease sweep failed", e);
+                synchronized (lease) {
+                    // Retried by the next sweep.
+                    lease.tokens += returned;
+                }
+            }
+        }
+    }
+
+    /**
+     * Next batch size: expected demand over one lease lifetime, bounded by configuration
+     * and by the bucket capacity.
+     */
+    private int nextSize(Lease lease, long nowMillis) {
+        long elapsed = nowMillis - lease.windowStart;
+        if (elapsed > 0) {
+            double observed = (double) lease.served / elapsed;
+            lease.ratePerMilli = lease.ratePerMilli == 0 ? observed : 0.5 * lease.ratePerMilli + 0.5 * observed;
+        }
+        lease.served = 0;
+        lease.windowStart = nowMillis;
+
+        long wanted = (long) Math.ceil(lease.ratePerMilli * config.getLeaseMillis());
+        long max = Math.min(config.getMaxTokens(), Math.max(1, lease.limit.capacity() / 2));
+        return (int) Math.max(Math.min(config.getMinTokens(), max), Math.min(wanted, max));
+    }
+
+    private long[] reserve(TokenBucketRedisClient.BucketSpec spec, int returned, int requested, long nowMillis) {
+        byte[][] keysAndArgs = {
+                spec.key(),
+                RedisArgs.of(nowMillis),
+                spec.limit().capacityArg(),
+                spec.limit().refillArg(),
+                RedisArgs.of(returned),
+                RedisArgs.of(requested)
+        };
+        List<Object> reply = shards.forKey(spec.key()).execute((RedisCallback<List<Object>>) connection ->
+                tokenLeaseScript.execute(connection, ReturnType.MULTI, 1, keysAndArgs));
+        if (reply == null || reply.size() < 3) {
+            return null;
+        }
+        return new long[]{
+                TokenBucketRedisClient.asLong(reply.get(0)),
+                TokenBucketRedisClient.asLong(reply.get(1)),
+                TokenBucketRedisClient.asLong(reply.get(2))
+        };
+    }
+
+    private static boolean startsWith(byte[] key, byte[] prefix) {
+        if (key.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (key[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+
+    /**
+     * Outcome of {@link #acquire}.
+     *
+     * @param remainingTokens tokens left in Redis at the last reservation plus those still leased locally
+     * @param lease lease the token was taken from ({@code null} if nothing needs to be released)
+     */
+    public record Grant(boolean allowed, int remainingTokens, long retryAfterMillis, Lease lease) {
+    }
+
+    /**
+     * Identity of a lease: the bucket key and the limit the tokens were reserved with.
+     */
+    private record LeaseId(ByteBuffer key, long capacityMicros, long refillMicrosPerMilli) {
+
+        static LeaseId of(TokenBucketRedisClient.BucketSpec spec) {
+            return new LeaseId(ByteBuffer.wrap(spec.key()), spec.limit().capacityMicros(),
+                    spec.limit().refillMicrosPerMilli());
+        }
+    }
+
+    /**
+     * Mutable per-key, per-limit lease state; guarded by its own monitor.
+     */
+    public static final class Lease {
+        private final LeaseId id;
+        private final byte[] key;
+        private final BucketLimit limit;
+        private int tokens;
+        private int remoteRemaining;
+        private long expiresAt;
+        private long lastUsedAt;
+        private long windowStart;
+        private int served;
+        private double ratePerMilli;
+        private int reserving;
+        private boolean removed;
+
+        private Lease(LeaseId id, byte[] key, BucketLimit limit, long nowMillis) {
+            this.id = id;
+            this.key = key;
+            this.limit = limit;
+            this.windowStart = nowMillis;
+            this.lastUsedAt = nowMillis;
+        }
+    }
+}
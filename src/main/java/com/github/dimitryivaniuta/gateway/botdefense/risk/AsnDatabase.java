@@ -0,0 +1,132 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import com.github.dimitryivaniuta.gateway.botdefense.net.CidrBlock;
+import com.github.dimitryivaniuta.gateway.botdefense.net.IpAddress;
+import com.github.dimitryivaniuta.gateway.botdefense.net.IpRangeTable;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Offline IP-to-ASN lookups.
+ *
+ * <p>The database file is compiled into an {@link IpRangeTable} whose values are AS
+ * numbers and kept up to date by a {@link RangeTableLoader}; a lookup is a binary search
+ * over the mapped table and allocates nothing.
+ */
+@Component
+public class AsnDatabase implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(AsnDatabase.class);
+
+    private final Path database;
+    private final RangeTableLoader loader;
+
+    public AsnDatabase(BotDefenseProperties props, MeterRegistry metrics) {
+        BotDefenseProperties.Asn config = props.getAsn();
+        if (!config.isEnabled() || config.getDatabasePath() == null || config.getDatabasePath().isBlank()) {
+            this.database = null;
+            this.loader = null;
+            return;
+        }
+        this.database = Path.of(config.getDatabasePath());
+        this.loader = new RangeTableLoader("asn", Path.of(config.getTablePath()), List.of(database), 0,
+                config.getReloadSeconds(), this::compile, metrics);
+    }
+
+    /**
+     * Returns true if lookups are configured.
+     */
+    public boolean isEnabled() {
+        return loader != null;
+    }
+
+    /**
+     * AS number announcing the address.
+     *
+     * @return the AS number, or 0 if unknown or not routed
+     */
+    public int asn(IpAddress address) {
+        return loader == null ? 0 : loader.lookup(address);
+    }
+
+    private IpRangeTable.Builder compile() throws IOException {
+        IpRangeTable.Builder builder = new IpRangeTable.Builder(IpRangeTable.Overlap.MOST_SPECIFIC);
+        int invalid = 0;
+        try (BufferedReader in = Files.newBufferedReader(database, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!addLine(builder, line)) {
+                    invalid++;
+                }
+            }
+        }
+        log.info("ASN database {}: {} blocks, {} invalid lines", database, builder.size(), invalid);
+        return builder;
+    }
+
+    /**
+     * Adds {@code <cidr> <asn> ...} or {@code <first-ip> <last-ip> <asn> ...}; blank lines,
+     * {@code #} comments and AS 0 (not routed) are skipped.
+     *
+     * @return false if the line could not be parsed
+     */
+    static boolean addLine(IpRangeTable.Builder builder, String line) {
+        String s = line.strip();
+        if (s.isEmpty() || s.charAt(0) == '#') {
+            return true;
+        }
+        String[] f = s.split("\\s+", 4);
+        try {
+            if (f[0].indexOf('/') >= 0) {
+                int asn = f.length > 1 ? parseAsn(f[1]) : -1;
+                if (asn > 0) {
+                    builder.add(CidrBlock.parse(f[0]), asn);
+                }
+                return asn >= 0;
+            }
+            IpAddress first = IpAddress.parse(f[0]);
+            IpAddress last = f.length > 1 ? IpAddress.parse(f[1]) : null;
+            int asn = f.length > 2 ? parseAsn(f[2]) : -1;
+            if (first == null || last == null || asn < 0) {
+                return false;
+            }
+            if (asn > 0) {
+                builder.addRange(first, last, asn);
+            }
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Parses {@code 64500} or {@code AS64500}; -1 if invalid.
+     */
+    private static int parseAsn(String s) {
+        String digits = s.regionMatches(true, 0, "AS", 0, 2) ? s.substring(2) : s;
+        try {
+            long asn = Long.parseLong(digits);
+            // 32-bit AS numbers above 2^31 are reserved for private use; not tracked.
+            return asn >= 0 && asn <= Integer.MAX_VALUE ? (int) asn : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (loader != null) {
+            loader.close();
+        }
+    }
+}
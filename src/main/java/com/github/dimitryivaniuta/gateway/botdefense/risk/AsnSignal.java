@@ -0,0 +1,65 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import com.github.dimitryivaniuta.gateway.botdefense.model.RequestContext;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.TreeMap;
+
+/**
+ * Score of the autonomous system announcing the client address (e.g. hosting providers).
+ */
+@Component
+public class AsnSignal implements RiskSignal {
+
+    private final AsnDatabase database;
+    // Sorted AS numbers and their scores; binary search keeps lookups allocation-free.
+    private final int[] asns;
+    private final int[] scores;
+    private final int maxScore;
+
+    public AsnSignal(AsnDatabase database, BotDefenseProperties props) {
+        this.database = database;
+        TreeMap<Integer, Integer> byAsn = new TreeMap<>();
+        for (BotDefenseProperties.Asn.Group g : props.getAsn().getGroups()) {
+            int score = Math.max(0, Math.min(100, g.getScore()));
+            for (Integer asn : g.getAsns()) {
+                byAsn.merge(asn, score, Math::max);
+            }
+        }
+        this.asns = byAsn.keySet().stream().mapToInt(Integer::intValue).toArray();
+        this.scores = byAsn.values().stream().mapToInt(Integer::intValue).toArray();
+        this.maxScore = database.isEnabled() ? Arrays.stream(scores).max().orElse(0) : 0;
+    }
+
+    @Override
+    public String name() {
+        return "asn";
+    }
+
+    @Override
+    public Cost cost() {
+        return Cost.LOCAL;
+    }
+
+    @Override
+    public int maxScore() {
+        return maxScore;
+    }
+
+    @Override
+    public boolean appliesTo(RequestContext ctx) {
+        return maxScore > 0 && database.isEnabled() && ctx.address() != null;
+    }
+
+    @Override
+    public int score(RequestContext ctx) {
+        int asn = database.asn(ctx.address());
+        if (asn == 0) {
+            return 0;
+        }
+        int i = Arrays.binarySearch(asns, asn);
+        return i >= 0 ? scores[i] : 0;
+    }
+}
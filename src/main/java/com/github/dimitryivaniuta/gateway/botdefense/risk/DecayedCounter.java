@@ -0,0 +1,54 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+/**
+ * Client-side reader of the exponentially decayed counters written by
+ * {@code redis/lib/decayed_counter.lua}.
+ *
+ * <p>A counter is one string {@code <halfLifeMs>:<value>:<updatedMillis>}, worth
+ * {@code value * 2^(-(now - updated) / halfLifeMs)} at {@code now}. This mirrors
+ * {@code decayed_get} so that plain {@code GET}s give the same result as the script.
+ */
+final class DecayedCounter {
+
+    private DecayedCounter() {
+    }
+
+    /**
+     * Half-life at which a constant rate settles at the count it would reach in a
+     * window of the given length ({@code window * ln 2}).
+     */
+    static long halfLifeMillis(int windowSeconds) {
+        return Math.max(1, Math.round(windowSeconds * 1000L * Math.log(2)));
+    }
+
+    /**
+     * Value of the counter at {@code nowMillis}, rounded down.
+     *
+     * @param value stored counter value, or {@code null} if the key does not exist
+     * @return decayed value, 0 for absent or unrecognized values
+     */
+    static long estimate(String value, long nowMillis) {
+        if (value == null) {
+            return 0;
+        }
+        String[] parts = value.split(":");
+        if (parts.length != 3) {
+            return 0;
+        }
+        long halfLife;
+        double stored;
+        long updated;
+        try {
+            halfLife = Long.parseLong(parts[0]);
+            stored = Double.parseDouble(parts[1]);
+            updated = Long.parseLong(parts[2]);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+        if (halfLife <= 0) {
+            return 0;
+        }
+        long elapsed = Math.max(0, nowMillis - updated);
+        return (long) Math.floor(stored * Math.pow(2, -(double) elapsed / halfLife));
+    }
+}
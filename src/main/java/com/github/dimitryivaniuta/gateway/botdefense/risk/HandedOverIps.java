@@ -0,0 +1,83 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * IPs whose request rate is counted in Redis rather than by the {@link RequestRateSketch}.
+ *
+ * <p>Once an IP crosses the pre-filter cut-off it stays handed over while it keeps
+ * sending requests: the sketch halves its counters every window, and an IP dropping back
+ * below the cut-off would otherwise stop being counted in Redis and be seeded again
+ * (counted twice) on the next crossing. An IP is forgotten once it has been idle for
+ * as long as its Redis counter lives (two request-rate windows).
+ *
+ * <p>Bounded and split into lock-striped LRU segments, like the deny cache.
+ */
+final class HandedOverIps {
+
+    private static final int SEGMENTS = 16;
+
+    private final long idleMillis;
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    HandedOverIps(int maxEntries, long idleMillis) {
+        this.idleMillis = idleMillis;
+        int perSegment = Math.max(1, (maxEntries + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    /**
+     * Returns true if the IP is handed over, and records the request.
+     */
+    boolean touch(String ip, long nowMillis) {
+        Segment s = segmentOf(ip);
+        synchronized (s) {
+            Long seen = s.get(ip);
+            if (seen == null) {
+                return false;
+            }
+            if (nowMillis - seen >= idleMillis) {
+                s.remove(ip);
+                return false;
+            }
+            s.put(ip, Math.max(seen, nowMillis));
+            return true;
+        }
+    }
+
+    /**
+     * Hands the IP over; returns false if a concurrent request already did.
+     */
+    boolean handOver(String ip, long nowMillis) {
+        Segment s = segmentOf(ip);
+        synchronized (s) {
+            Long seen = s.put(ip, nowMillis);
+            return seen == null || nowMillis - seen >= idleMillis;
+        }
+    }
+
+    private Segment segmentOf(String ip) {
+        int h = ip == null ? 0 : ip.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Access-ordered map evicting its least recently seen IP when full.
+     */
+    private static final class Segment extends LinkedHashMap<String, Long> {
+        private final int maxEntries;
+
+        Segment(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > maxEntries;
+        }
+    }
+}
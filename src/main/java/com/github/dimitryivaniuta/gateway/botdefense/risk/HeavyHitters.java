@@ -0,0 +1,117 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import com.github.dimitryivaniuta.gateway.botdefense.model.RequestContext;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Node-local real-time ranking of the heaviest IPs, users, tenants and route groups by
+ * requests and by denials.
+ *
+ * <p>One {@link SpaceSaving} summary per dimension and counter, all in fixed memory.
+ * Counts are halved every {@code windowSeconds}, so the ranking follows recent traffic.
+ * Read through the {@code heavyhitters} actuator endpoint.
+ */
+@Component
+public class HeavyHitters {
+
+    /**
+     * What is ranked.
+     */
+    public enum Dimension {
+        IP("ip"),
+        USER("user"),
+        TENANT("tenant"),
+        ROUTE_GROUP("routeGroup");
+
+        private final String id;
+
+        Dimension(String id) {
+            this.id = id;
+        }
+
+        public String id() {
+            return id;
+        }
+    }
+
+    private final boolean enabled;
+    private final long windowMillis;
+    private final SpaceSaving[] requests = new SpaceSaving[Dimension.values().length];
+    private final SpaceSaving[] denials = new SpaceSaving[Dimension.values().length];
+    private final AtomicLong decayedAt = new AtomicLong();
+
+    public HeavyHitters(BotDefenseProperties props) {
+        BotDefenseProperties.HeavyHitters config = props.getHeavyHitters();
+        this.enabled = config.isEnabled();
+        this.windowMillis = Math.max(1, config.getWindowSeconds()) * 1000L;
+        long seed = ThreadLocalRandom.current().nextLong();
+        int capacity = enabled ? config.getCapacity() : SpaceSaving.WAYS;
+        for (int d = 0; d < requests.length; d++) {
+            requests[d] = new SpaceSaving(capacity, seed + d);
+            denials[d] = new SpaceSaving(capacity, ~(seed + d));
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Counts a decided request.
+     */
+    public void record(RequestContext ctx, boolean denied, long nowMillis) {
+        if (!enabled) {
+            return;
+        }
+        decayIfDue(nowMillis);
+        add(Dimension.IP, ctx.ip(), denied);
+        add(Dimension.USER, ctx.userId(), denied);
+        add(Dimension.TENANT, ctx.tenantId(), denied);
+        add(Dimension.ROUTE_GROUP, ctx.routeGroup(), denied);
+    }
+
+    /**
+     * The {@code k} heaviest keys of a dimension by requests (or by denials).
+     */
+    public List<HeavyHitter> top(Dimension dimension, boolean byDenials, int k) {
+        return (byDenials ? denials : requests)[dimension.ordinal()].top(k);
+    }
+
+    private void add(Dimension dimension, String key, boolean denied) {
+        if (key == null || key.isBlank()) {
+            return;
+        }
+        requests[dimension.ordinal()].add(key, 1);
+        if (denied) {
+            denials[dimension.ordinal()].add(key, 1);
+        }
+    }
+
+    private void decayIfDue(long nowMillis) {
+        long at = decayedAt.get();
+        if (at == 0) {
+            decayedAt.compareAndSet(0, nowMillis);
+            return;
+        }
+        long windows = (nowMillis - at) / windowMillis;
+        if (windows < 1 || !decayedAt.compareAndSet(at, at + windows * windowMillis)) {
+            return;
+        }
+        int shift = (int) Math.min(63, windows);
+        for (int d = 0; d < requests.length; d++) {
+            requests[d].halve(shift);
+            denials[d].halve(shift);
+        }
+    }
+
+    /**
+     * A ranked key; the true (decayed) count lies in {@code [count - error, count]}.
+     */
+    public record HeavyHitter(String key, long count, long error) {
+    }
+}
@@ -0,0 +1,148 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import com.github.dimitryivaniuta.gateway.botdefense.net.CidrBlock;
+import com.github.dimitryivaniuta.gateway.botdefense.net.IpAddress;
+import com.github.dimitryivaniuta.gateway.botdefense.net.IpRangeTable;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * IP reputation from local feed files.
+ *
+ * <p>The feeds are compiled into one {@link IpRangeTable} (an address listed by several
+ * feeds gets the strongest verdict) and kept up to date by a {@link RangeTableLoader}.
+ */
+@Component
+public class IpReputation implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(IpReputation.class);
+
+    private final BotDefenseProperties.Reputation config;
+    private final RangeTableLoader loader;
+    private final Counter blocked;
+
+    public IpReputation(BotDefenseProperties props, MeterRegistry metrics) {
+        this.config = props.getReputation();
+        this.blocked = metrics.counter("botdefense.reputation.blocked");
+
+        if (!config.isEnabled() || config.getFeeds().isEmpty()) {
+            this.loader = null;
+            return;
+        }
+        List<Path> sources = new ArrayList<>();
+        long settings = 0;
+        for (BotDefenseProperties.Reputation.Feed feed : config.getFeeds()) {
+            sources.add(Path.of(feed.getPath()));
+            settings = RangeTableLoader.mix(settings, feed.getAction().ordinal());
+            settings = RangeTableLoader.mix(settings, feed.getScore());
+        }
+        this.loader = new RangeTableLoader("reputation", Path.of(config.getTablePath()), sources, settings,
+                config.getReloadSeconds(), this::compile, metrics);
+    }
+
+    /**
+     * Reputation of an address.
+     *
+     * @return 0 if unlisted, the highest listed score, or {@link IpRangeTable#BLOCK}
+     */
+    public int lookup(IpAddress address) {
+        return loader == null ? 0 : loader.lookup(address);
+    }
+
+    /**
+     * Returns true if a {@code BLOCK} feed lists the address.
+     */
+    public boolean isBlocked(IpAddress address) {
+        if (lookup(address) != IpRangeTable.BLOCK) {
+            return false;
+        }
+        blocked.increment();
+        return true;
+    }
+
+    private IpRangeTable.Builder compile() throws IOException {
+        IpRangeTable.Builder builder = new IpRangeTable.Builder(IpRangeTable.Overlap.STRONGEST);
+        for (BotDefenseProperties.Reputation.Feed feed : config.getFeeds()) {
+            int value = feed.getAction() == BotDefenseProperties.Reputation.Action.BLOCK
+                    ? IpRangeTable.BLOCK
+                    : Math.max(1, Math.min(100, feed.getScore()));
+            int before = builder.size();
+            int invalid = 0;
+            try (BufferedReader in = Files.newBufferedReader(Path.of(feed.getPath()), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    CidrBlock block = parseLine(line);
+                    if (block != null) {
+                        builder.add(block, value);
+                    } else if (!isBlankOrComment(line)) {
+                        invalid++;
+                    }
+                }
+            }
+            log.info("IP reputation feed {}: {} entries, {} invalid lines", feed.getName(),
+                    builder.size() - before, invalid);
+        }
+        return builder;
+    }
+
+    /**
+     * Parses {@code ip}, {@code ip/prefix}, optionally followed by whitespace or a {@code #} comment.
+     */
+    static CidrBlock parseLine(String line) {
+        int end = line.indexOf('#');
+        String s = (end < 0 ? line : line.substring(0, end)).strip();
+        int space = indexOfWhitespace(s);
+        if (space >= 0) {
+            s = s.substring(0, space);
+        }
+        if (s.isEmpty()) {
+            return null;
+        }
+        int slash = s.indexOf('/');
+        if (slash >= 0) {
+            try {
+                return CidrBlock.parse(s);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        IpAddress address = IpAddress.parse(s);
+        if (address == null) {
+            return null;
+        }
+        return CidrBlock.of(address, address.isIpv4() ? 32 : 128);
+    }
+
+    private static boolean isBlankOrComment(String line) {
+        String s = line.strip();
+        return s.isEmpty() || s.charAt(0) == '#';
+    }
+
+    private static int indexOfWhitespace(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.isWhitespace(s.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() {
+        if (loader != null) {
+            loader.close();
+        }
+    }
+}
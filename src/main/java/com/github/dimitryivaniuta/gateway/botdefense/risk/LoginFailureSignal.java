@@ -0,0 +1,66 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import com.github.dimitryivaniuta.gateway.botdefense.model.RequestContext;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+
+import static com.github.dimitryivaniuta.gateway.botdefense.risk.RiskScoringService.LOGIN_FAILURES_HIGH;
+import static com.github.dimitryivaniuta.gateway.botdefense.risk.RiskScoringService.LOGIN_FAILURES_HIGH_SCORE;
+import static com.github.dimitryivaniuta.gateway.botdefense.risk.RiskScoringService.LOGIN_FAILURES_MEDIUM;
+import static com.github.dimitryivaniuta.gateway.botdefense.risk.RiskScoringService.LOGIN_FAILURES_MEDIUM_SCORE;
+
+/**
+ * Repeated login failures for the tenant/user/IP - a strong signal, login route only.
+ */
+@Component
+public class LoginFailureSignal implements RiskSignal {
+
+    private final RiskSignalStore store;
+
+    public LoginFailureSignal(RiskSignalStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public String name() {
+        return "loginFailures";
+    }
+
+    @Override
+    public Cost cost() {
+        return Cost.REDIS_READ;
+    }
+
+    @Override
+    public int maxScore() {
+        return LOGIN_FAILURES_HIGH_SCORE;
+    }
+
+    @Override
+    public boolean appliesTo(RequestContext ctx) {
+        return RiskScoringService.isLogin(ctx);
+    }
+
+    @Override
+    public int score(RequestContext ctx) {
+        return scoreOf(store.getLoginFailures(safe(ctx.tenantId()), safe(ctx.userId()), ctx.ip()));
+    }
+
+    @Override
+    public CompletableFuture<Integer> scoreAsync(RequestContext ctx) {
+        return store.getLoginFailuresAsync(safe(ctx.tenantId()), safe(ctx.userId()), ctx.ip())
+                .thenApply(LoginFailureSignal::scoreOf);
+    }
+
+    private static int scoreOf(long fails) {
+        if (fails > LOGIN_FAILURES_HIGH) {
+            return LOGIN_FAILURES_HIGH_SCORE;
+        }
+        return fails > LOGIN_FAILURES_MEDIUM ? LOGIN_FAILURES_MEDIUM_SCORE : 0;
+    }
+
+    private static String safe(String s) {
+        return s == null || s.isBlank() ? "-" : s;
+    }
+}
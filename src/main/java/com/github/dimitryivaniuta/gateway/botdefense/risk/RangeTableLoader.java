@@ -0,0 +1,141 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import com.github.dimitryivaniuta.gateway.botdefense.net.IpAddress;
+import com.github.dimitryivaniuta.gateway.botdefense.net.IpRangeTable;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps a memory-mapped {@link IpRangeTable} compiled from local source files up to date.
+ *
+ * <p>The compiled file carries a fingerprint of the sources (paths, sizes, modification
+ * times) and of the settings that shape the table; if the file on disk matches at startup
+ * it is only mapped. A background thread re-checks the fingerprint every
+ * {@code reloadSeconds} and swaps in a recompiled table atomically; lookups in flight keep
+ * using the previous mapping.
+ *
+ * <p>Fail-open: a missing or unreadable source keeps the previous table (or none).
+ */
+final class RangeTableLoader implements AutoCloseable {
+
+    /**
+     * Reads the sources into a builder.
+     */
+    interface Compiler {
+        IpRangeTable.Builder compile() throws IOException;
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(RangeTableLoader.class);
+
+    private final String name;
+    private final Path target;
+    private final List<Path> sources;
+    private final long settings;
+    private final Compiler compiler;
+    private final AtomicReference<IpRangeTable> table = new AtomicReference<>();
+    private final ScheduledExecutorService reloader;
+    private final Counter reloads;
+
+    /**
+     * Loads the table and starts watching the sources.
+     *
+     * @param name     metric prefix and thread name, e.g. {@code reputation}
+     * @param settings hash of the configuration that affects the compiled table
+     */
+    RangeTableLoader(String name, Path target, List<Path> sources, long settings, int reloadSeconds,
+                     Compiler compiler, MeterRegistry metrics) {
+        this.name = name;
+        this.target = target;
+        this.sources = List.copyOf(sources);
+        this.settings = settings;
+        this.compiler = compiler;
+        this.reloads = metrics.counter("botdefense." + name + ".reloads");
+        metrics.gauge("botdefense." + name + ".ranges", table, t -> t.get() == null ? 0 : t.get().size());
+        reload();
+
+        this.reloader = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, name + "-table-reloader");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1, reloadSeconds);
+        reloader.scheduleWithFixedDelay(this::reload, period, period, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Value for the address in the current table, or 0 if none is loaded.
+     */
+    int lookup(IpAddress address) {
+        IpRangeTable t = table.get();
+        return t == null ? 0 : t.lookup(address);
+    }
+
+    /**
+     * Loads the table if the sources changed since the current one was compiled.
+     */
+    void reload() {
+        try {
+            long fingerprint = fingerprint();
+            IpRangeTable current = table.get();
+            if (current != null && current.fingerprint() == fingerprint) {
+                return;
+            }
+
+            long started = System.nanoTime();
+            IpRangeTable loaded = existing(fingerprint);
+            if (loaded == null) {
+                compiler.compile().write(target, fingerprint);
+                loaded = IpRangeTable.open(target);
+            }
+            table.set(loaded);
+            reloads.increment();
+            log.info("Loaded {} table {}: {} ranges in {} ms", name, target, loaded.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not load {} sources; keeping the previous table", name, e);
+        }
+    }
+
+    private IpRangeTable existing(long fingerprint) {
+        if (!Files.isRegularFile(target)) {
+            return null;
+        }
+        try {
+            IpRangeTable t = IpRangeTable.open(target);
+            return t.fingerprint() == fingerprint ? t : null;
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private long fingerprint() throws IOException {
+        long h = mix(0x9E3779B97F4A7C15L, settings);
+        for (Path source : sources) {
+            h = mix(h, source.toString().hashCode());
+            h = mix(h, Files.size(source));
+            h = mix(h, Files.getLastModifiedTime(source).toMillis());
+        }
+        return h;
+    }
+
+    static long mix(long h, long v) {
+        h ^= v + 0x9E3779B97F4A7C15L + (h << 6) + (h >>> 2);
+        return h * 0xBF58476D1CE4E5B9L;
+    }
+
+    @Override
+    public void close() {
+        reloader.shutdownNow();
+    }
+}
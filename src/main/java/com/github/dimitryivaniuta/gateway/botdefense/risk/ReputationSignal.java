@@ -0,0 +1,55 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import com.github.dimitryivaniuta.gateway.botdefense.model.RequestContext;
+import com.github.dimitryivaniuta.gateway.botdefense.net.IpRangeTable;
+import org.springframework.stereotype.Component;
+
+/**
+ * Score of the client address in the IP reputation feeds.
+ */
+@Component
+public class ReputationSignal implements RiskSignal {
+
+    private final IpReputation reputation;
+    private final int maxScore;
+
+    public ReputationSignal(IpReputation reputation, BotDefenseProperties props) {
+        this.reputation = reputation;
+        BotDefenseProperties.Reputation config = props.getReputation();
+        int max = 0;
+        if (config.isEnabled()) {
+            for (BotDefenseProperties.Reputation.Feed feed : config.getFeeds()) {
+                max = Math.max(max, feed.getAction() == BotDefenseProperties.Reputation.Action.BLOCK
+                        ? 100 : Math.min(100, feed.getScore()));
+            }
+        }
+        this.maxScore = max;
+    }
+
+    @Override
+    public String name() {
+        return "reputation";
+    }
+
+    @Override
+    public Cost cost() {
+        return Cost.LOCAL;
+    }
+
+    @Override
+    public int maxScore() {
+        return maxScore;
+    }
+
+    @Override
+    public boolean appliesTo(RequestContext ctx) {
+        return maxScore > 0 && ctx.address() != null;
+    }
+
+    @Override
+    public int score(RequestContext ctx) {
+        int value = reputation.lookup(ctx.address());
+        return value == IpRangeTable.BLOCK ? maxScore : value;
+    }
+}
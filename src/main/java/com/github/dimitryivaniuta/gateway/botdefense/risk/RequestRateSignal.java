@@ -0,0 +1,63 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import com.github.dimitryivaniuta.gateway.botdefense.model.RequestContext;
+import com.github.dimitryivaniuta.gateway.botdefense.net.SubnetAggregator;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+
+import static com.github.dimitryivaniuta.gateway.botdefense.risk.RiskScoringService.REQUEST_RATE_HIGH;
+import static com.github.dimitryivaniuta.gateway.botdefense.risk.RiskScoringService.REQUEST_RATE_HIGH_SCORE;
+import static com.github.dimitryivaniuta.gateway.botdefense.risk.RiskScoringService.REQUEST_RATE_MEDIUM;
+import static com.github.dimitryivaniuta.gateway.botdefense.risk.RiskScoringService.REQUEST_RATE_MEDIUM_SCORE;
+
+/**
+ * Per-IP request rate - coarse signal. Evaluating it counts the request.
+ *
+ * <p>Addresses of aggregated families are counted per aggregate block (see
+ * {@link SubnetAggregator}), so spraying fresh addresses does not reset the count.
+ */
+@Component
+public class RequestRateSignal implements RiskSignal {
+
+    private final RiskSignalStore store;
+    private final SubnetAggregator aggregator;
+
+    public RequestRateSignal(RiskSignalStore store, SubnetAggregator aggregator) {
+        this.store = store;
+        this.aggregator = aggregator;
+    }
+
+    @Override
+    public String name() {
+        return "requestRate";
+    }
+
+    @Override
+    public Cost cost() {
+        return Cost.REDIS_WRITE;
+    }
+
+    @Override
+    public int maxScore() {
+        return REQUEST_RATE_HIGH_SCORE;
+    }
+
+    @Override
+    public int score(RequestContext ctx) {
+        return scoreOf(store.incrementIpRequestRate(aggregator.counterIdentity(ctx.ip(), ctx.address())));
+    }
+
+    @Override
+    public CompletableFuture<Integer> scoreAsync(RequestContext ctx) {
+        return store.incrementIpRequestRateAsync(aggregator.counterIdentity(ctx.ip(), ctx.address()))
+                .thenApply(RequestRateSignal::scoreOf);
+    }
+
+    private static int scoreOf(long rpmCount) {
+        if (rpmCount > REQUEST_RATE_HIGH) {
+            return REQUEST_RATE_HIGH_SCORE;
+        }
+        return rpmCount > REQUEST_RATE_MEDIUM ? REQUEST_RATE_MEDIUM_SCORE : 0;
+    }
+}
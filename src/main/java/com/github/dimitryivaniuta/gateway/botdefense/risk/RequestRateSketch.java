@@ -0,0 +1,115 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.BucketKeys;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Node-local Count-Min Sketch of per-IP request counts in fixed memory.
+ *
+ * <p>{@code depth} rows of {@code width} counters; an IP maps to one counter per row and
+ * its estimate is the smallest of them, which never undercounts (collisions only add).
+ * Updates are conservative (only the counters equal to the minimum are raised), which
+ * keeps the overestimate for light IPs small. Every request-rate window all counters
+ * are halved, so the estimate tracks the recent rate: between one and two windows'
+ * worth of requests for a constant rate.
+ *
+ * <p>Counters are updated without locks; concurrent updates of one IP may lose an
+ * increment, which only matters for a pre-filter in the harmless direction of a
+ * slightly later hand-over to Redis.
+ */
+@Component
+public class RequestRateSketch {
+
+    private final boolean enabled;
+    private final int depth;
+    private final int mask;
+    private final long seed = ThreadLocalRandom.current().nextLong();
+    private final long decayIntervalMillis;
+    private final AtomicIntegerArray counters;
+    private final AtomicLong decayedAt = new AtomicLong();
+
+    public RequestRateSketch(BotDefenseProperties props) {
+        BotDefenseProperties.Signals.Prefilter config = props.getSignals().getPrefilter();
+        this.enabled = config.isEnabled();
+        this.depth = Math.max(1, config.getDepth());
+        int width = config.getWidth() <= 1 ? 1 : Integer.highestOneBit(config.getWidth() - 1) << 1;
+        this.mask = width - 1;
+        this.decayIntervalMillis = props.getSignals().getRequestRateWindowSeconds() * 1000L;
+        this.counters = new AtomicIntegerArray(enabled ? depth * width : 0);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Counts one request from the IP and returns its estimated recent count.
+     */
+    public int add(String ip, long nowMillis) {
+        decayIfDue(nowMillis);
+        long h = hash(ip);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, counters.get(index(row, h1, h2)));
+        }
+        for (int row = 0; row < depth; row++) {
+            int i = index(row, h1, h2);
+            if (counters.get(i) == min) {
+                counters.compareAndSet(i, min, min + 1);
+            }
+        }
+        return min + 1;
+    }
+
+    /**
+     * Estimated recent count of the IP without counting a request.
+     */
+    public int estimate(String ip) {
+        long h = hash(ip);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, counters.get(index(row, h1, h2)));
+        }
+        return min;
+    }
+
+    private int index(int row, int h1, int h2) {
+        return row * (mask + 1) + ((h1 + row * h2) & mask);
+    }
+
+    private long hash(String ip) {
+        byte[] b = (ip == null ? "" : ip).getBytes(StandardCharsets.UTF_8);
+        return BucketKeys.hash64(b, b.length, seed);
+    }
+
+    /**
+     * Halves all counters once per elapsed window; the caller that wins the race does
+     * the work (one pass over the table per window).
+     */
+    private void decayIfDue(long nowMillis) {
+        long at = decayedAt.get();
+        if (at == 0) {
+            decayedAt.compareAndSet(0, nowMillis);
+            return;
+        }
+        if (nowMillis - at < decayIntervalMillis
+                || !decayedAt.compareAndSet(at, at + (nowMillis - at) / decayIntervalMillis * decayIntervalMillis)) {
+            return;
+        }
+        int shift = (int) Math.min(31, (nowMillis - at) / decayIntervalMillis);
+        for (int i = 0; i < counters.length(); i++) {
+            counters.getAndUpdate(i, c -> c >>> shift);
+        }
+    }
+}
@@ -1,22 +1,53 @@
 package com.github.dimitryivaniuta.gateway.botdefense.risk;
 
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
 import com.github.dimitryivaniuta.gateway.botdefense.model.RequestContext;
 import org.springframework.stereotype.Service;
 
-import java.util.Locale;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Simple, explainable risk scoring.
  *
- * <p>Weights are intentionally conservative to keep false positives low.
+ * <p>Weights are intentionally conservative to keep false positives low. Request-rate and
+ * login-failure counts come from {@link RiskSignalStore}, either windowed or exponentially
+ * decayed ({@code botdefense.signals.counter}); the thresholds apply to both.
+ *
+ * <p>The score is the capped sum of all {@link RiskSignal} beans. They are evaluated in
+ * stages of increasing {@link RiskSignal.Cost}, the signals of one stage concurrently.
+ * Before each stage the scorer checks whether the remaining signals could still move the
+ * score across a tier or step-up threshold; if not, they are skipped and the returned
+ * score is a lower bound that leads to the same decision. {@link RiskSignal.Cost#REDIS_WRITE}
+ * signals change state (e.g. count the request) and are never skipped.
  */
 @Service
 public class RiskScoringService {
 
-    private final RiskSignalStore signals;
+    /** Requests per window above which the request-rate signal is strong. */
+    public static final long REQUEST_RATE_HIGH = 300;
+    public static final int REQUEST_RATE_HIGH_SCORE = 70;
+    /** Requests per window above which the request-rate signal is moderate. */
+    public static final long REQUEST_RATE_MEDIUM = 100;
+    public static final int REQUEST_RATE_MEDIUM_SCORE = 30;
+
+    /** Login failures above which the failure signal is strong. */
+    public static final long LOGIN_FAILURES_HIGH = 10;
+    public static final int LOGIN_FAILURES_HIGH_SCORE = 80;
+    /** Login failures above which the failure signal is moderate. */
+    public static final long LOGIN_FAILURES_MEDIUM = 3;
+    public static final int LOGIN_FAILURES_MEDIUM_SCORE = 40;
 
-    public RiskScoringService(RiskSignalStore signals) {
-        this.signals = signals;
+    private final List<RiskSignal> signals;
+    private final BotDefenseProperties.Risk risk;
+
+    public RiskScoringService(List<RiskSignal> signals, BotDefenseProperties props) {
+        List<RiskSignal> ordered = new ArrayList<>(signals);
+        ordered.sort(Comparator.comparing(RiskSignal::cost));
+        this.signals = List.copyOf(ordered);
+        this.risk = props.getRisk();
     }
 
     /**
@@ -26,42 +57,139 @@ public class RiskScoringService {
      * @return risk score
      */
     public int score(RequestContext ctx) {
+        List<RiskSignal> applicable = applicable(ctx);
+        int[] remaining = remainingMax(applicable);
         int score = 0;
-
-        // Request rate - coarse signal.
-        long rpmCount = signals.incrementIpRequestRate(ctx.ip());
-        if (rpmCount > 300) {
-            score += 70;
-        } else if (rpmCount > 100) {
-            score += 30;
+        for (int i = 0; i < applicable.size(); ) {
+            int end = stageEnd(applicable, i);
+            if (skippable(applicable, i) && decided(ctx, score, remaining[i])) {
+                i = end;
+                continue;
+            }
+            if (end - i == 1) {
+                score += applicable.get(i).score(ctx);
+            } else {
+                score += stage(ctx, applicable, i, end).join();
+            }
+            i = end;
         }
+        return cap(score);
+    }
+
+    /**
+     * Non-blocking variant of {@link #score}: the signals of each stage are evaluated concurrently.
+     *
+     * @param ctx request context
+     * @return future risk score
+     */
+    public CompletableFuture<Integer> scoreAsync(RequestContext ctx) {
+        List<RiskSignal> applicable = applicable(ctx);
+        return scoreFrom(ctx, applicable, remainingMax(applicable), 0, 0).thenApply(RiskScoringService::cap);
+    }
 
-        // Missing or obviously scripted UA.
-        String ua = ctx.userAgent();
-        if (ua == null || ua.isBlank()) {
-            score += 15;
-        } else {
-            String ual = ua.toLowerCase(Locale.ROOT);
-            if (ual.contains("curl/") || ual.contains("python-requests") || ual.contains("httpclient") || ual.contains("bot")) {
-                score += 20;
+    /**
+     * Score contributed by signals that need no Redis access (e.g. user agent).
+     *
+     * <p>Used by the fused decision mode, where the Redis-backed signals are
+     * evaluated server-side, and by the node-local fallback.
+     *
+     * @param ctx request context
+     * @return partial risk score
+     */
+    public int localScore(RequestContext ctx) {
+        int score = 0;
+        for (RiskSignal s : signals) {
+            if (s.cost() == RiskSignal.Cost.LOCAL && s.appliesTo(ctx)) {
+                score += s.score(ctx);
             }
         }
+        return score;
+    }
+
+    static boolean isLogin(RequestContext ctx) {
+        return "login".equals(ctx.routeGroup());
+    }
+
+    private CompletableFuture<Integer> scoreFrom(RequestContext ctx, List<RiskSignal> applicable, int[] remaining,
+                                                 int from, int score) {
+        if (from >= applicable.size()) {
+            return CompletableFuture.completedFuture(score);
+        }
+        int end = stageEnd(applicable, from);
+        if (skippable(applicable, from) && decided(ctx, score, remaining[from])) {
+            return scoreFrom(ctx, applicable, remaining, end, score);
+        }
+        return stage(ctx, applicable, from, end)
+                .thenCompose(s -> scoreFrom(ctx, applicable, remaining, end, score + s));
+    }
 
-        // For login route, repeated failures are a strong signal.
-        if ("login".equals(ctx.routeGroup())) {
-            long fails = signals.getLoginFailures(safe(ctx.tenantId()), safe(ctx.userId()), ctx.ip());
-            if (fails > 10) {
-                score += 80;
-            } else if (fails > 3) {
-                score += 40;
+    /**
+     * Sum of the signals {@code [from, to)}, evaluated concurrently.
+     */
+    private static CompletableFuture<Integer> stage(RequestContext ctx, List<RiskSignal> applicable, int from, int to) {
+        CompletableFuture<Integer> sum = CompletableFuture.completedFuture(0);
+        for (int i = from; i < to; i++) {
+            sum = sum.thenCombine(applicable.get(i).scoreAsync(ctx), Integer::sum);
+        }
+        return sum;
+    }
+
+    /**
+     * Returns true if no outcome threshold lies within {@code (score, score + remainingMax]}:
+     * whatever the remaining signals add, tier and step-up stay the same.
+     */
+    private boolean decided(RequestContext ctx, int score, int remainingMax) {
+        if (remainingMax <= 0 || score >= 100) {
+            return true;
+        }
+        int highest = Math.min(100, score + remainingMax);
+        return !crosses(score, highest, risk.getTightenMediumAt())
+                && !crosses(score, highest, risk.getTightenHighAt())
+                && !(isLogin(ctx) && crosses(score, highest, risk.getStepUpAt()));
+    }
+
+    private static boolean crosses(int from, int to, int threshold) {
+        return from < threshold && to >= threshold;
+    }
+
+    private List<RiskSignal> applicable(RequestContext ctx) {
+        List<RiskSignal> applicable = new ArrayList<>(signals.size());
+        for (RiskSignal s : signals) {
+            if (s.appliesTo(ctx)) {
+                applicable.add(s);
             }
         }
+        return applicable;
+    }
 
-        // Cap to 100.
-        return Math.min(100, Math.max(0, score));
+    /**
+     * {@code remaining[i]} = sum of {@link RiskSignal#maxScore()} of the signals from {@code i} on.
+     */
+    private static int[] remainingMax(List<RiskSignal> applicable) {
+        int[] remaining = new int[applicable.size() + 1];
+        for (int i = applicable.size() - 1; i >= 0; i--) {
+            remaining[i] = remaining[i + 1] + applicable.get(i).maxScore();
+        }
+        return remaining;
+    }
+
+    /**
+     * Returns true if the stage starting at {@code from} has no side effects.
+     */
+    private static boolean skippable(List<RiskSignal> applicable, int from) {
+        return applicable.get(from).cost() != RiskSignal.Cost.REDIS_WRITE;
+    }
+
+    private static int stageEnd(List<RiskSignal> applicable, int from) {
+        RiskSignal.Cost cost = applicable.get(from).cost();
+        int end = from + 1;
+        while (end < applicable.size() && applicable.get(end).cost() == cost) {
+            end++;
+        }
+        return end;
     }
 
-    private static String safe(String s) {
-        return s == null || s.isBlank() ? "-" : s;
+    private static int cap(int score) {
+        return Math.min(100, Math.max(0, score));
     }
 }
@@ -0,0 +1,68 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import com.github.dimitryivaniuta.gateway.botdefense.model.RequestContext;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One contribution to the risk score.
+ *
+ * <p>Every {@code RiskSignal} bean is picked up by {@link RiskScoringService}, which runs
+ * them cheapest {@link Cost} first, signals of the same cost concurrently, and skips the
+ * rest as soon as the remaining signals' {@link #maxScore()} can no longer change the
+ * outcome. {@link Cost#REDIS_WRITE} signals are always evaluated.
+ *
+ * <p>In fused decision mode the built-in Redis signals are evaluated server-side; only
+ * {@link Cost#LOCAL} signals are taken from here.
+ */
+public interface RiskSignal {
+
+    /**
+     * What evaluating the signal costs, cheapest first.
+     */
+    enum Cost {
+        /**
+         * In-process only.
+         */
+        LOCAL,
+        /**
+         * One Redis read.
+         */
+        REDIS_READ,
+        /**
+         * One Redis write (e.g. counting the request); never skipped.
+         */
+        REDIS_WRITE
+    }
+
+    /**
+     * Short name for logs and metrics.
+     */
+    String name();
+
+    Cost cost();
+
+    /**
+     * Largest score the signal can contribute; used to decide when evaluation can stop.
+     */
+    int maxScore();
+
+    /**
+     * Returns false if the signal is irrelevant for the request (it is then not evaluated).
+     */
+    default boolean appliesTo(RequestContext ctx) {
+        return true;
+    }
+
+    /**
+     * Score contribution (0..{@link #maxScore()}) for the request.
+     */
+    int score(RequestContext ctx);
+
+    /**
+     * Non-blocking variant of {@link #score}; remote signals should override it.
+     */
+    default CompletableFuture<Integer> scoreAsync(RequestContext ctx) {
+        return CompletableFuture.completedFuture(score(ctx));
+    }
+}
@@ -1,73 +1,235 @@
 package com.github.dimitryivaniuta.gateway.botdefense.risk;
 
 import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.LuaScript;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.RedisShards;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.stereotype.Component;
 
-import java.time.Duration;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * Stores and aggregates simple risk signals in Redis.
  *
- * <p>Signals are lightweight counters with TTLs (windows). They are intentionally
- * coarse to reduce false positives.
+ * <p>Signals are lightweight counters updated and read back in one atomic script call:
+ * sliding-window counts ({@code redis/lib/sliding_window.lua}) or, with
+ * {@code botdefense.signals.counter=DECAYED}, exponentially decayed counts
+ * ({@code redis/lib/decayed_counter.lua}). They are intentionally coarse to reduce false
+ * positives.
+ *
+ * <p>With {@code botdefense.signals.prefilter.enabled} the request rate of an IP is first
+ * estimated by the node-local {@link RequestRateSketch}; Redis is only involved once the
+ * estimate reaches a fraction of the lowest request-rate threshold, and is then seeded
+ * with the local count. From then on every request of the IP is counted in Redis until
+ * its Redis counter has expired ({@link HandedOverIps}).
  */
 @Component
 public class RiskSignalStore {
 
-    private final StringRedisTemplate redis;
+    private final RedisShards shards;
+    private final SignalReader reader;
+    private final ReactiveStringRedisTemplate reactiveRedis;
+    private final LuaScript slidingWindowScript;
+    private final LuaScript decayedCounterScript;
+    private final RequestRateSketch sketch;
+    private final HandedOverIps handedOver;
     private final BotDefenseProperties properties;
+    private final boolean decayed;
+    private final int prefilterCutoff;
+    private final Counter prefiltered;
+    private final Executor applicationTaskExecutor;
 
-    public RiskSignalStore(StringRedisTemplate redis, BotDefenseProperties properties) {
-        this.redis = redis;
+    public RiskSignalStore(RedisShards shards,
+                           SignalReader reader,
+                           ReactiveStringRedisTemplate reactiveRedis,
+                           LuaScript slidingWindowScript,
+                           LuaScript decayedCounterScript,
+                           RequestRateSketch sketch,
+                           BotDefenseProperties properties,
+                           MeterRegistry metrics,
+                           Executor applicationTaskExecutor) {
+        this.shards = shards;
+        this.reader = reader;
+        this.reactiveRedis = reactiveRedis;
+        this.slidingWindowScript = slidingWindowScript;
+        this.decayedCounterScript = decayedCounterScript;
+        this.sketch = sketch;
+        this.handedOver = new HandedOverIps(properties.getSignals().getPrefilter().getMaxHandedOver(),
+                2 * properties.getSignals().getRequestRateWindowSeconds() * 1000L);
         this.properties = properties;
+        this.decayed = properties.getSignals().getCounter() == BotDefenseProperties.Signals.Counter.DECAYED;
+        this.prefilterCutoff = (int) Math.max(1, Math.ceil(
+                properties.getSignals().getPrefilter().getFraction() * RiskScoringService.REQUEST_RATE_MEDIUM));
+        this.prefiltered = metrics.counter("botdefense.signals.prefiltered");
+        this.applicationTaskExecutor = applicationTaskExecutor;
     }
 
     /**
      * Records a login failure for the given key.
      */
     public void recordLoginFailure(String tenantId, String userId, String ip) {
-        String key = "sig:loginFail:" + safe(tenantId) + ":" + safe(userId) + ":" + safe(ip);
-        long ttl = properties.getSignals().getLoginFailureWindowSeconds();
-        redis.opsForValue().increment(key);
-        redis.expire(key, Duration.ofSeconds(ttl));
+        add(loginFailureKey(tenantId, userId, ip), properties.getSignals().getLoginFailureWindowSeconds(), 1);
     }
 
     /**
      * Clears recorded login failures after a successful authentication.
      */
     public void clearLoginFailures(String tenantId, String userId, String ip) {
-        String key = "sig:loginFail:" + safe(tenantId) + ":" + safe(userId) + ":" + safe(ip);
-        redis.delete(key);
+        String key = loginFailureKey(tenantId, userId, ip);
+        shards.forKey(key).delete(key);
     }
 
     /**
      * Returns the number of login failures within the configured window.
      */
     public long getLoginFailures(String tenantId, String userId, String ip) {
-        String key = "sig:loginFail:" + safe(tenantId) + ":" + safe(userId) + ":" + safe(ip);
-        String v = redis.opsForValue().get(key);
-        return v == null ? 0 : Long.parseLong(v);
+        String key = loginFailureKey(tenantId, userId, ip);
+        return estimate(reader.get(key));
     }
 
     /**
-     * Increments and returns a per-IP request counter for a short window.
+     * Counts a request and returns the number of requests from the IP within the
+     * request-rate window.
      */
     public long incrementIpRequestRate(String ip) {
-        String key = "sig:reqRate:" + safe(ip);
-        long ttl = properties.getSignals().getRequestRateWindowSeconds();
-        Long v = redis.opsForValue().increment(key);
-        redis.expire(key, Duration.ofSeconds(ttl));
-        return v == null ? 0 : v;
+        long hits = 1;
+        if (sketch.isEnabled()) {
+            long now = System.currentTimeMillis();
+            int local = sketch.add(ip, now);
+            hits = handOver(ip, local, now);
+            if (hits == 0) {
+                prefiltered.increment();
+                return local;
+            }
+        }
+        return add(requestRateKey(ip), properties.getSignals().getRequestRateWindowSeconds(), hits);
+    }
+
+    /**
+     * Non-blocking variant of {@link #getLoginFailures}. When client-side sharded or when
+     * reads are routed by {@link SignalReader} (the reactive connection only reaches the
+     * default Redis primary) the blocking read runs on the application task executor.
+     */
+    public CompletableFuture<Long> getLoginFailuresAsync(String tenantId, String userId, String ip) {
+        if (shards.isSharded() || reader.isRouted()) {
+            return CompletableFuture.supplyAsync(() -> getLoginFailures(tenantId, userId, ip), applicationTaskExecutor);
+        }
+        String key = loginFailureKey(tenantId, userId, ip);
+        return reactiveRedis.opsForValue().get(key)
+                .map(this::estimate)
+                .defaultIfEmpty(0L)
+                .toFuture();
+    }
+
+    /**
+     * Non-blocking variant of {@link #incrementIpRequestRate} (run on the application task
+     * executor when client-side sharded).
+     */
+    public CompletableFuture<Long> incrementIpRequestRateAsync(String ip) {
+        if (shards.isSharded()) {
+            return CompletableFuture.supplyAsync(() -> incrementIpRequestRate(ip), applicationTaskExecutor);
+        }
+        long hits = 1;
+        if (sketch.isEnabled()) {
+            long now = System.currentTimeMillis();
+            int local = sketch.add(ip, now);
+            hits = handOver(ip, local, now);
+            if (hits == 0) {
+                prefiltered.increment();
+                return CompletableFuture.completedFuture((long) local);
+            }
+        }
+        byte[][] keysAndArgs = addArgs(requestRateKey(ip), properties.getSignals().getRequestRateWindowSeconds(), hits);
+        LuaScript script = decayed ? decayedCounterScript : slidingWindowScript;
+        return reactiveRedis.execute(connection -> script.executeReactive(connection, 1, keysAndArgs))
+                .next()
+                .map(RiskSignalStore::decode)
+                .defaultIfEmpty(0L)
+                .toFuture();
     }
 
     /**
      * Returns the current per-IP request counter (may be 0 if key not present).
      */
     public long getIpRequestRate(String ip) {
-        String key = "sig:reqRate:" + safe(ip);
-        String v = redis.opsForValue().get(key);
-        return v == null ? 0 : Long.parseLong(v);
+        return estimate(reader.get(requestRateKey(ip)));
+    }
+
+    /**
+     * Half-life used for a signal window of the given length when counters are
+     * {@code DECAYED} (so a constant rate settles at its windowed count).
+     */
+    public static long decayHalfLifeMillis(int windowSeconds) {
+        return DecayedCounter.halfLifeMillis(windowSeconds);
+    }
+
+    /**
+     * Redis key of the login-failure counter.
+     */
+    public String loginFailureKey(String tenantId, String userId, String ip) {
+        return "sig:loginFail:" + safe(tenantId) + ":" + safe(userId) + ":" + safe(ip);
+    }
+
+    /**
+     * Redis key of the per-IP request-rate counter.
+     */
+    public String requestRateKey(String ip) {
+        return "sig:reqRate:" + safe(ip);
+    }
+
+    /**
+     * Hits to add in Redis for a request counted by the sketch, or 0 if the sketch
+     * answers alone: the whole local count when the IP has just crossed the cut-off, so
+     * Redis starts from the same level, and 1 for an IP already handed over, even if its
+     * decayed local estimate is back below the cut-off.
+     */
+    private long handOver(String ip, int local, long now) {
+        if (handedOver.touch(ip, now)) {
+            return 1;
+        }
+        if (local < prefilterCutoff) {
+            return 0;
+        }
+        return handedOver.handOver(ip, now) ? local : 1;
+    }
+
+    private long add(String key, int windowSeconds, long hits) {
+        byte[][] keysAndArgs = addArgs(key, windowSeconds, hits);
+        LuaScript script = decayed ? decayedCounterScript : slidingWindowScript;
+        List<Object> reply = shards.forKey(key).execute((RedisCallback<List<Object>>) connection ->
+                script.execute(connection, ReturnType.MULTI, 1, keysAndArgs));
+        return decode(reply);
+    }
+
+    /**
+     * Arguments counting hits on the counter of a signal with the given window.
+     */
+    private byte[][] addArgs(String key, int windowSeconds, long hits) {
+        byte[] now = ascii(System.currentTimeMillis());
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        return decayed
+                ? new byte[][]{keyBytes, now, ascii(hits), ascii(DecayedCounter.halfLifeMillis(windowSeconds))}
+                : new byte[][]{keyBytes, now, ascii(windowSeconds * 1000L), ascii(hits)};
+    }
+
+    private long estimate(String value) {
+        long now = System.currentTimeMillis();
+        return decayed ? DecayedCounter.estimate(value, now) : SlidingWindowCounter.estimate(value, now);
+    }
+
+    private static long decode(List<Object> reply) {
+        return reply == null || reply.isEmpty() ? 0 : ((Number) reply.get(0)).longValue();
+    }
+
+    private static byte[] ascii(long value) {
+        return Long.toString(value).getBytes(StandardCharsets.US_ASCII);
     }
 
     private static String safe(String s) {
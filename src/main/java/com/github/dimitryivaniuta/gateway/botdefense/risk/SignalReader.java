@@ -0,0 +1,221 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.RedisShards;
+import io.lettuce.core.ReadFrom;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisCredentials;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.TrackingArgs;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.support.caching.CacheAccessor;
+import io.lettuce.core.support.caching.CacheFrontend;
+import io.lettuce.core.support.caching.ClientSideCaching;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.RedisConfiguration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisPassword;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.RedisStaticMasterReplicaConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Read path for non-mutating signal lookups (plain {@code GET}s).
+ *
+ * <p>With {@code botdefense.redis.reads.readFrom} (e.g. {@code replicaPreferred}) reads use
+ * a separate connection that Lettuce routes to replicas: the static primary/replica
+ * {@code nodes} if given, otherwise the application's Cluster or Sentinel setup. Writes
+ * (counters, buckets) stay on the primary.
+ *
+ * <p>With {@code botdefense.redis.reads.clientSideCaching} values are kept in local memory
+ * using RESP3 client-side caching: Redis tracks the keys this node has read and pushes an
+ * invalidation when they change, so a hot key is served locally until it is modified.
+ * The local map is bounded by {@code cacheMaxEntries}; when full, new keys are simply
+ * not cached. Client-side caching needs a standalone (or static primary) connection.
+ *
+ * <p>Neither applies with client-side sharding; reads then go to the key's shard.
+ */
+@Component
+public class SignalReader implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(SignalReader.class);
+
+    private final RedisShards shards;
+    private final LettuceConnectionFactory readFactory;
+    private final StringRedisTemplate readTemplate;
+    private final StatefulRedisConnection<String, String> trackingConnection;
+    private final CacheFrontend<String, String> cache;
+    private final Map<String, String> cached = new ConcurrentHashMap<>();
+
+    public SignalReader(StringRedisTemplate redis,
+                        RedisShards shards,
+                        BotDefenseProperties props,
+                        MeterRegistry metrics) {
+        this.shards = shards;
+        BotDefenseProperties.Redis.Reads config = props.getRedis().getReads();
+        RedisConnectionFactory factory = redis.getRequiredConnectionFactory();
+        LettuceConnectionFactory main = factory instanceof LettuceConnectionFactory f ? f : null;
+
+        if (shards.isSharded() || main == null) {
+            this.readFactory = null;
+            this.readTemplate = null;
+            this.trackingConnection = null;
+            this.cache = null;
+            return;
+        }
+
+        this.readFactory = config.getReadFrom() == null ? null : readFactory(main, config);
+        if (readFactory != null) {
+            this.readTemplate = new StringRedisTemplate(readFactory);
+            readTemplate.afterPropertiesSet();
+        } else {
+            this.readTemplate = null;
+        }
+
+        if (config.isClientSideCaching() && main.getNativeClient() instanceof RedisClient client) {
+            int max = config.getCacheMaxEntries();
+            this.trackingConnection = client.connect(StringCodec.UTF8);
+            this.cache = ClientSideCaching.enable(new BoundedAccessor(cached, max), trackingConnection,
+                    TrackingArgs.Builder.enabled());
+            metrics.gaugeMapSize("botdefense.signals.cache.size", Tags.empty(), cached);
+        } else {
+            if (config.isClientSideCaching()) {
+                log.warn("Client-side caching needs a standalone Redis connection; signal reads are not cached");
+            }
+            this.trackingConnection = null;
+            this.cache = null;
+        }
+    }
+
+    /**
+     * Returns the value of a signal key, or {@code null} if it does not exist.
+     */
+    public String get(String key) {
+        if (cache != null) {
+            return cache.get(key);
+        }
+        StringRedisTemplate template = readTemplate != null ? readTemplate : shards.forKey(key);
+        return template.opsForValue().get(key);
+    }
+
+    /**
+     * Returns true if reads bypass the application's primary connection (replica
+     * routing or local cache).
+     */
+    public boolean isRouted() {
+        return cache != null || readTemplate != null;
+    }
+
+    private static LettuceConnectionFactory readFactory(LettuceConnectionFactory main,
+                                                        BotDefenseProperties.Redis.Reads config) {
+        boolean ssl = false;
+        RedisConfiguration target;
+        if (!config.getNodes().isEmpty()) {
+            RedisStaticMasterReplicaConfiguration nodes = null;
+            for (String uri : config.getNodes()) {
+                RedisURI u = RedisURI.create(uri);
+                if (nodes == null) {
+                    nodes = new RedisStaticMasterReplicaConfiguration(u.getHost(), u.getPort());
+                    nodes.setDatabase(u.getDatabase());
+                    RedisCredentials credentials = RedisShards.credentials(u);
+                    if (credentials.hasPassword()) {
+                        nodes.setUsername(credentials.getUsername());
+                        nodes.setPassword(RedisPassword.of(credentials.getPassword()));
+                    } else {
+                        // Same credentials as the primary connection unless the URI has its own.
+                        RedisStandaloneConfiguration primary = main.getStandaloneConfiguration();
+                        nodes.setUsername(primary.getUsername());
+                        nodes.setPassword(primary.getPassword());
+                    }
+                    ssl = u.isSsl();
+                } else {
+                    nodes.node(u.getHost(), u.getPort());
+                }
+            }
+            target = nodes;
+        } else if (main.getClusterConfiguration() != null) {
+            target = main.getClusterConfiguration();
+        } else if (main.getSentinelConfiguration() != null) {
+            target = main.getSentinelConfiguration();
+        } else {
+            log.warn("botdefense.redis.reads.readFrom needs replica nodes, a Cluster or Sentinel; reading from the primary");
+            return null;
+        }
+
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(target,
+                readClientConfiguration(main.getClientConfiguration(), ReadFrom.valueOf(config.getReadFrom()), ssl));
+        factory.afterPropertiesSet();
+        return factory;
+    }
+
+    /**
+     * Client settings of the read connection: those of the application's connection
+     * (timeouts, TLS, client name, options, credentials) with replica routing added.
+     */
+    static LettuceClientConfiguration readClientConfiguration(LettuceClientConfiguration main, ReadFrom readFrom,
+                                                              boolean ssl) {
+        LettuceClientConfiguration.LettuceClientConfigurationBuilder client = LettuceClientConfiguration.builder()
+                .readFrom(readFrom)
+                .commandTimeout(main.getCommandTimeout())
+                .shutdownTimeout(main.getShutdownTimeout())
+                .shutdownQuietPeriod(main.getShutdownQuietPeriod());
+        main.getClientName().ifPresent(client::clientName);
+        main.getClientOptions().ifPresent(client::clientOptions);
+        main.getClientResources().ifPresent(client::clientResources);
+        main.getRedisCredentialsProviderFactory().ifPresent(client::redisCredentialsProviderFactory);
+        if (main.isUseSsl() || ssl) {
+            LettuceClientConfiguration.LettuceSslClientConfigurationBuilder tls = client.useSsl();
+            tls.verifyPeer(main.getVerifyMode());
+            if (main.isStartTls()) {
+                tls.startTls();
+            }
+        }
+        return client.build();
+    }
+
+    @Override
+    public void close() {
+        if (cache != null) {
+            cache.close();
+        }
+        if (trackingConnection != null) {
+            trackingConnection.close();
+        }
+        if (readFactory != null) {
+            readFactory.destroy();
+        }
+    }
+
+    /**
+     * Size-bounded cache storage; invalidations from Redis arrive as {@link #evict}.
+     */
+    private record BoundedAccessor(Map<String, String> map, int maxEntries) implements CacheAccessor<String, String> {
+
+        @Override
+        public String get(String key) {
+            return map.get(key);
+        }
+
+        @Override
+        public void put(String key, String value) {
+            if (map.size() < maxEntries || map.containsKey(key)) {
+                map.put(key, value);
+            }
+        }
+
+        @Override
+        public void evict(String key) {
+            map.remove(key);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Aho-Corasick automaton finding which of many signatures occur in a text, in one pass
+ * and case-insensitively, without copying the text.
+ *
+ * <p>Failure links are resolved at build time into a full transition table over the
+ * characters that occur in signatures (every other character leads back to the root),
+ * so matching costs one table lookup per character regardless of the number of
+ * signatures. Each signature carries a group index (up to 64 groups); a match reports
+ * the set of groups found.
+ */
+final class SignatureMatcher {
+
+    private static final int MAX_GROUPS = Long.SIZE;
+
+    /** Character class per ASCII character; 0 = not in any signature. */
+    private final int[] asciiClass = new int[128];
+    private final Map<Character, Integer> otherClass = new HashMap<>();
+    private final int classes;
+    private final int[] next;
+    private final long[] groups;
+
+    /**
+     * @param signatures signatures per group index; blank ones are ignored
+     */
+    SignatureMatcher(List<List<String>> signatures) {
+        if (signatures.size() > MAX_GROUPS) {
+            throw new IllegalArgumentException("At most " + MAX_GROUPS + " signature groups are supported");
+        }
+        List<String> folded = new ArrayList<>();
+        List<Integer> owners = new ArrayList<>();
+        int nextClass = 1;
+        for (int g = 0; g < signatures.size(); g++) {
+            for (String s : signatures.get(g)) {
+                if (s == null || s.isBlank()) {
+                    continue;
+                }
+                String f = s.toLowerCase(Locale.ROOT);
+                for (int i = 0; i < f.length(); i++) {
+                    char c = f.charAt(i);
+                    if (c < 128) {
+                        if (asciiClass[c] == 0) {
+                            asciiClass[c] = nextClass++;
+                        }
+                    } else if (!otherClass.containsKey(c)) {
+                        otherClass.put(c, nextClass++);
+                    }
+                }
+                folded.add(f);
+                owners.add(g);
+            }
+        }
+        this.classes = nextClass;
+
+        // Trie.
+        List<int[]> trie = new ArrayList<>();
+        List<Long> out = new ArrayList<>();
+        trie.add(new int[classes]);
+        out.add(0L);
+        for (int p = 0; p < folded.size(); p++) {
+            String f = folded.get(p);
+            int state = 0;
+            for (int i = 0; i < f.length(); i++) {
+                int c = classOf(f.charAt(i));
+                if (trie.get(state)[c] == 0) {
+                    trie.get(state)[c] = trie.size();
+                    trie.add(new int[classes]);
+                    out.add(0L);
+                }
+                state = trie.get(state)[c];
+            }
+            out.set(state, out.get(state) | 1L << owners.get(p));
+        }
+
+        // Breadth-first: resolve failure links into direct transitions and merge outputs.
+        int states = trie.size();
+        this.next = new int[states * classes];
+        this.groups = new long[states];
+        int[] fail = new int[states];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int c = 1; c < classes; c++) {
+            int s = trie.get(0)[c];
+            next[c] = s;
+            if (s != 0) {
+                queue.add(s);
+            }
+        }
+        groups[0] = out.get(0);
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            groups[state] = out.get(state) | groups[fail[state]];
+            for (int c = 1; c < classes; c++) {
+                int child = trie.get(state)[c];
+                if (child != 0) {
+                    fail[child] = next[fail[state] * classes + c];
+                    next[state * classes + c] = child;
+                    queue.add(child);
+                } else {
+                    next[state * classes + c] = next[fail[state] * classes + c];
+                }
+            }
+        }
+    }
+
+    /**
+     * Bit set of the groups with at least one signature occurring in {@code text}.
+     */
+    long match(CharSequence text) {
+        long found = 0;
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            int c = classOf(fold(text.charAt(i)));
+            state = c == 0 ? 0 : next[state * classes + c];
+            found |= groups[state];
+        }
+        return found;
+    }
+
+    int states() {
+        return groups.length;
+    }
+
+    private int classOf(char c) {
+        if (c < 128) {
+            return asciiClass[c];
+        }
+        Integer k = otherClass.get(c);
+        return k == null ? 0 : k;
+    }
+
+    private static char fold(char c) {
+        if (c < 128) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return Character.toLowerCase(c);
+    }
+}
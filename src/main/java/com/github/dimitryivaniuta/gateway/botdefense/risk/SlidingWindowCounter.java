@@ -0,0 +1,60 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+/**
+ * Client-side reader of the sliding-window counters written by
+ * {@code redis/lib/sliding_window.lua}.
+ *
+ * <p>A counter is one string {@code <windowMs>:<windowIndex>:<current>:<previous>}; the
+ * count over the last window is {@code current + floor(previous * timeLeft / windowMs)}.
+ * This mirrors {@code sliding_window_get} so that plain {@code GET}s (replicas, client-side
+ * cache) give the same result as the script.
+ */
+final class SlidingWindowCounter {
+
+    private SlidingWindowCounter() {
+    }
+
+    /**
+     * Estimated number of hits in the window ending at {@code nowMillis}.
+     *
+     * @param value stored counter value, or {@code null} if the key does not exist
+     * @return estimate, 0 for absent or unrecognized values
+     */
+    static long estimate(String value, long nowMillis) {
+        if (value == null) {
+            return 0;
+        }
+        String[] parts = value.split(":");
+        if (parts.length != 4) {
+            return 0;
+        }
+        long windowMs;
+        long stored;
+        long current;
+        long previous;
+        try {
+            windowMs = Long.parseLong(parts[0]);
+            stored = Long.parseLong(parts[1]);
+            current = Long.parseLong(parts[2]);
+            previous = Long.parseLong(parts[3]);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+        if (windowMs <= 0) {
+            return 0;
+        }
+
+        long index = Math.floorDiv(nowMillis, windowMs);
+        if (stored >= index) {
+            index = stored;
+        } else if (stored == index - 1) {
+            previous = current;
+            current = 0;
+        } else {
+            return 0;
+        }
+
+        long left = Math.max(0, Math.min(windowMs, windowMs - (nowMillis - index * windowMs)));
+        return current + (long) Math.floor((double) previous * left / windowMs);
+    }
+}
@@ -0,0 +1,106 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import com.github.dimitryivaniuta.gateway.botdefense.redis.BucketKeys;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-size, lock-free Space-Saving summary of the most frequent keys.
+ *
+ * <p>Slots are grouped into sets of {@link #WAYS}; a key lives in the set chosen by its
+ * (seeded) hash. A tracked key is counted in place. An untracked key takes over the set's
+ * smallest slot and inherits its count, which becomes the key's error bound: a reported
+ * count {@code c} with error {@code e} means the true count is within {@code [c - e, c]}.
+ * Keys heavier than the lightest entry of their set are never lost.
+ *
+ * <p>Updates are plain atomics without locks; racing takeovers of one slot may misattribute
+ * a few increments, which is within the approximation anyway. Two requests taking over
+ * different slots for the same new key may leave it in both; {@link #top} merges them.
+ */
+final class SpaceSaving {
+
+    static final int WAYS = 8;
+
+    private final int setMask;
+    private final long seed;
+    private final AtomicReferenceArray<String> keys;
+    private final AtomicLongArray counts;
+    private final AtomicLongArray errors;
+
+    SpaceSaving(int capacity, long seed) {
+        int sets = Math.max(1, capacity / WAYS);
+        sets = sets == 1 ? 1 : Integer.highestOneBit(sets - 1) << 1;
+        this.setMask = sets - 1;
+        this.seed = seed;
+        this.keys = new AtomicReferenceArray<>(sets * WAYS);
+        this.counts = new AtomicLongArray(sets * WAYS);
+        this.errors = new AtomicLongArray(sets * WAYS);
+    }
+
+    /**
+     * Adds {@code weight} occurrences of the key.
+     */
+    void add(String key, long weight) {
+        byte[] b = key.getBytes(StandardCharsets.UTF_8);
+        int base = (int) (BucketKeys.hash64(b, b.length, seed) & setMask) * WAYS;
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            int victim = -1;
+            long min = Long.MAX_VALUE;
+            for (int i = base; i < base + WAYS; i++) {
+                String k = keys.get(i);
+                if (key.equals(k)) {
+                    counts.addAndGet(i, weight);
+                    return;
+                }
+                long c = k == null ? -1 : counts.get(i);
+                if (c < min) {
+                    min = c;
+                    victim = i;
+                }
+            }
+            String old = keys.get(victim);
+            if (keys.compareAndSet(victim, old, key)) {
+                long inherited = counts.getAndAdd(victim, weight);
+                errors.set(victim, old == null ? 0 : inherited);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Divides all counts and errors by {@code 2^shift}.
+     */
+    void halve(int shift) {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.getAndUpdate(i, c -> c >>> shift);
+            errors.getAndUpdate(i, e -> e >>> shift);
+        }
+    }
+
+    /**
+     * The {@code k} keys with the highest counts, heaviest first.
+     */
+    List<HeavyHitters.HeavyHitter> top(int k) {
+        Map<String, HeavyHitters.HeavyHitter> merged = new HashMap<>();
+        for (int i = 0; i < keys.length(); i++) {
+            String key = keys.get(i);
+            long count = counts.get(i);
+            if (key != null && count > 0) {
+                // Counts and errors of duplicate slots add up: the true count is their sum.
+                merged.merge(key, new HeavyHitters.HeavyHitter(key, count, Math.min(count, errors.get(i))),
+                        (a, b) -> new HeavyHitters.HeavyHitter(key, a.count() + b.count(), a.error() + b.error()));
+            }
+        }
+        List<HeavyHitters.HeavyHitter> all = new ArrayList<>(merged.values());
+        all.sort(Comparator.comparingLong(HeavyHitters.HeavyHitter::count).reversed());
+        return all.size() > k ? List.copyOf(all.subList(0, k)) : all;
+    }
+}
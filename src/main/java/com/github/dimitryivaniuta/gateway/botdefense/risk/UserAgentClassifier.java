@@ -0,0 +1,89 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Scores User-Agent strings against the configured signature categories
+ * ({@code botdefense.signals.userAgent}).
+ *
+ * <p>All signatures are compiled into one {@link SignatureMatcher}, so a UA is scanned
+ * once whatever the number of signatures. Real traffic has few distinct UAs, so results
+ * are cached per UA string; the cache is bounded by {@code cacheMaxEntries} (when full,
+ * new UAs are simply not cached) and very long UAs are never cached.
+ */
+@Component
+public class UserAgentClassifier {
+
+    private static final int MAX_CACHED_LENGTH = 512;
+
+    private final BotDefenseProperties.Signals.UserAgent config;
+    private final List<BotDefenseProperties.Signals.UserAgent.Category> categories;
+    private final SignatureMatcher matcher;
+    private final Map<String, Classification> cache = new ConcurrentHashMap<>();
+
+    public UserAgentClassifier(BotDefenseProperties props) {
+        this.config = props.getSignals().getUserAgent();
+        this.categories = List.copyOf(config.getCategories());
+        List<List<String>> signatures = new ArrayList<>(categories.size());
+        for (BotDefenseProperties.Signals.UserAgent.Category c : categories) {
+            signatures.add(c.getPatterns());
+        }
+        this.matcher = new SignatureMatcher(signatures);
+    }
+
+    /**
+     * Classifies a User-Agent header value.
+     *
+     * @param userAgent header value, may be {@code null}
+     */
+    public Classification classify(String userAgent) {
+        if (userAgent == null || userAgent.isBlank()) {
+            return new Classification(config.getMissingScore(), List.of("missing"));
+        }
+        Classification c = cache.get(userAgent);
+        if (c != null) {
+            return c;
+        }
+        c = classification(matcher.match(userAgent));
+        if (userAgent.length() <= MAX_CACHED_LENGTH && cache.size() < config.getCacheMaxEntries()) {
+            cache.put(userAgent, c);
+        }
+        return c;
+    }
+
+    private Classification classification(long matched) {
+        if (matched == 0) {
+            return Classification.NONE;
+        }
+        int score = 0;
+        List<String> names = new ArrayList<>(Long.bitCount(matched));
+        for (int g = 0; g < categories.size(); g++) {
+            if ((matched & 1L << g) != 0) {
+                score = Math.max(score, categories.get(g).getScore());
+                names.add(categories.get(g).getName());
+            }
+        }
+        return new Classification(score, List.copyOf(names));
+    }
+
+    int cacheSize() {
+        return cache.size();
+    }
+
+    /**
+     * Result of a classification.
+     *
+     * @param score risk score contributed by the User-Agent
+     * @param categories matched category names ({@code missing} for an absent UA)
+     */
+    public record Classification(int score, List<String> categories) {
+
+        static final Classification NONE = new Classification(0, List.of());
+    }
+}
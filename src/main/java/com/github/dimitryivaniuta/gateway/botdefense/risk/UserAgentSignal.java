@@ -0,0 +1,45 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import com.github.dimitryivaniuta.gateway.botdefense.model.RequestContext;
+import org.springframework.stereotype.Component;
+
+/**
+ * Missing User-Agent or one matching a configured signature category (scripted clients, crawlers, ...).
+ */
+@Component
+public class UserAgentSignal implements RiskSignal {
+
+    private final UserAgentClassifier classifier;
+    private final int maxScore;
+
+    public UserAgentSignal(UserAgentClassifier classifier, BotDefenseProperties props) {
+        this.classifier = classifier;
+        BotDefenseProperties.Signals.UserAgent config = props.getSignals().getUserAgent();
+        int max = config.getMissingScore();
+        for (BotDefenseProperties.Signals.UserAgent.Category c : config.getCategories()) {
+            max = Math.max(max, c.getScore());
+        }
+        this.maxScore = max;
+    }
+
+    @Override
+    public String name() {
+        return "userAgent";
+    }
+
+    @Override
+    public Cost cost() {
+        return Cost.LOCAL;
+    }
+
+    @Override
+    public int maxScore() {
+        return maxScore;
+    }
+
+    @Override
+    public int score(RequestContext ctx) {
+        return classifier.classify(ctx.userAgent()).score();
+    }
+}
@@ -2,26 +2,50 @@ package com.github.dimitryivaniuta.gateway.botdefense.service;
 
 import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
 import com.github.dimitryivaniuta.gateway.botdefense.kafka.BotDefenseEventPublisher;
+import com.github.dimitryivaniuta.gateway.botdefense.local.LocalTokenBucketStore;
 import com.github.dimitryivaniuta.gateway.botdefense.model.RateLimitDecision;
 import com.github.dimitryivaniuta.gateway.botdefense.model.RequestContext;
 import com.github.dimitryivaniuta.gateway.botdefense.model.RiskTier;
+import com.github.dimitryivaniuta.gateway.botdefense.net.CidrBlock;
+import com.github.dimitryivaniuta.gateway.botdefense.net.SubnetAggregator;
 import com.github.dimitryivaniuta.gateway.botdefense.persistence.RateLimitDecisionEntity;
 import com.github.dimitryivaniuta.gateway.botdefense.persistence.RateLimitDecisionRepository;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.BucketKeys;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.BucketLimit;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.FusedDecisionRedisClient;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.RedisCircuitBreaker;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.RedisShards;
 import com.github.dimitryivaniuta.gateway.botdefense.redis.TokenBucketRedisClient;
+import com.github.dimitryivaniuta.gateway.botdefense.risk.AsnDatabase;
+import com.github.dimitryivaniuta.gateway.botdefense.risk.HeavyHitters;
 import com.github.dimitryivaniuta.gateway.botdefense.risk.RiskScoringService;
+import com.github.dimitryivaniuta.gateway.botdefense.risk.RiskSignalStore;
+import io.lettuce.core.RedisCommandInterruptedException;
 import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.dao.QueryTimeoutException;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Central enforcement logic. It combines:
  * <ul>
  *   <li>risk scoring</li>
- *   <li>three token buckets (IP, user, tenant)</li>
+ *   <li>up to five token buckets (IP, IP subnet, user, tenant and, optionally, autonomous system)</li>
  *   <li>step-up trigger when risk is extreme</li>
  * </ul>
  */
@@ -32,23 +56,94 @@ public class AdaptiveRateLimiterService {
 
     private final BotDefenseProperties props;
     private final RiskScoringService riskScoring;
+    private final RiskSignalStore signalStore;
     private final TokenBucketRedisClient buckets;
+    private final LocalTokenBucketStore localBuckets;
+    private final BucketKeys bucketKeys;
+    private final LocalDenyCache denyCache;
+    private final FusedDecisionRedisClient fused;
+    private final RedisCircuitBreaker breaker;
+    private final RedisShards shards;
+    private final HeavyHitters heavyHitters;
+    private final SubnetAggregator aggregator;
+    private final AsnDatabase asnDatabase;
+    private final boolean asnBucket;
+    // AS numbers with a bucket (sorted) and its limits; binary search keeps lookups allocation-free.
+    private final int[] asnBucketAsns;
+    private final List<Map<RiskTier, BucketLimit>> asnBucketLimits;
+    private final FusedDecisionRedisClient.Thresholds fusedThresholds;
+    private final Map<RiskTier, BucketLimit> ipLimits;
+    private final Map<RiskTier, BucketLimit> subnetLimits;
+    private final Map<RiskTier, BucketLimit> userLimits;
+    private final Map<RiskTier, BucketLimit> tenantLimits;
     private final BotDefenseEventPublisher eventPublisher;
     private final RateLimitDecisionRepository decisionRepository;
     private final MeterRegistry metrics;
+    private final Executor applicationTaskExecutor;
 
     public AdaptiveRateLimiterService(BotDefenseProperties props,
                                     RiskScoringService riskScoring,
+                                    RiskSignalStore signalStore,
                                     TokenBucketRedisClient buckets,
+                                    LocalTokenBucketStore localBuckets,
+                                    BucketKeys bucketKeys,
+                                    LocalDenyCache denyCache,
+                                    FusedDecisionRedisClient fused,
+                                    RedisCircuitBreaker breaker,
+                                    RedisShards shards,
+                                    HeavyHitters heavyHitters,
+                                    SubnetAggregator aggregator,
+                                    AsnDatabase asnDatabase,
                                     BotDefenseEventPublisher eventPublisher,
                                     RateLimitDecisionRepository decisionRepository,
-                                    MeterRegistry metrics) {
+                                    MeterRegistry metrics,
+                                    Executor applicationTaskExecutor) {
         this.props = props;
         this.riskScoring = riskScoring;
+        this.signalStore = signalStore;
         this.buckets = buckets;
+        this.localBuckets = localBuckets;
+        this.bucketKeys = bucketKeys;
+        this.denyCache = denyCache;
+        this.fused = fused;
+        this.breaker = breaker;
+        this.shards = shards;
+        this.heavyHitters = heavyHitters;
+        this.aggregator = aggregator;
+        this.asnDatabase = asnDatabase;
+        TreeMap<Integer, BotDefenseProperties.Bucket> asnBuckets = new TreeMap<>();
+        for (BotDefenseProperties.Asn.Group g : props.getAsn().getGroups()) {
+            if (g.getBucket() != null) {
+                for (Integer asn : g.getAsns()) {
+                    asnBuckets.merge(asn, g.getBucket(),
+                            (a, b) -> b.getRefillPerSecond() < a.getRefillPerSecond() ? b : a);
+                }
+            }
+        }
+        this.asnBucketAsns = asnBuckets.keySet().stream().mapToInt(Integer::intValue).toArray();
+        this.asnBucketLimits = asnBuckets.values().stream().map(this::limitsByTier).toList();
+        this.asnBucket = asnBucketAsns.length > 0 && asnDatabase.isEnabled();
+        this.fusedThresholds = new FusedDecisionRedisClient.Thresholds(
+                RiskScoringService.REQUEST_RATE_HIGH, RiskScoringService.REQUEST_RATE_HIGH_SCORE,
+                RiskScoringService.REQUEST_RATE_MEDIUM, RiskScoringService.REQUEST_RATE_MEDIUM_SCORE,
+                RiskScoringService.LOGIN_FAILURES_HIGH, RiskScoringService.LOGIN_FAILURES_HIGH_SCORE,
+                RiskScoringService.LOGIN_FAILURES_MEDIUM, RiskScoringService.LOGIN_FAILURES_MEDIUM_SCORE,
+                props.getRisk().getTightenMediumAt(),
+                props.getRisk().getTightenHighAt(),
+                props.getRisk().getStepUpAt(),
+                props.getRisk().getFactors().getMedium(),
+                props.getRisk().getFactors().getHigh(),
+                props.getSignals().getCounter() == BotDefenseProperties.Signals.Counter.DECAYED
+                        ? RiskSignalStore.decayHalfLifeMillis(props.getSignals().getRequestRateWindowSeconds())
+                        : 0);
+        this.ipLimits = limitsByTier(props.getLimits().getIp());
+        this.subnetLimits = limitsByTier(props.getLimits().getSubnet());
+        this.userLimits = limitsByTier(props.getLimits().getUser());
+        this.tenantLimits = limitsByTier(props.getLimits().getTenant());
         this.eventPublisher = eventPublisher;
         this.decisionRepository = decisionRepository;
         this.metrics = metrics;
+        this.applicationTaskExecutor = applicationTaskExecutor;
 
         metrics.counter("botdefense.decisions", "result", "init").increment(0.0);
     }
@@ -56,59 +151,388 @@ public class AdaptiveRateLimiterService {
     /**
      * Checks whether the request should be allowed.
      *
-     * <p>Fail-open design: if Redis is down or returns unexpected output, we allow.
+     * <p>Requests touching a bucket that recently denied are answered from the
+     * {@link LocalDenyCache} without scoring or Redis calls, except on step-up eligible
+     * routes, where a high-risk request must get its challenge rather than a 429.
+     *
+     * <p>Fail-open design: if Redis is down, slow (past {@code botdefense.decision.deadlineMillis})
+     * or returns unexpected output, the node-local fallback decides instead of waiting.
      */
     public RateLimitDecision check(RequestContext ctx) {
         long now = System.currentTimeMillis();
+        List<byte[]> keys = bucketKeys(ctx);
+
+        RateLimitDecision cached = cachedDenial(ctx, keys, now);
+        if (cached != null) {
+            return track(ctx, cached, now);
+        }
+
+        return track(ctx, decide(ctx, keys, evaluate(ctx, keys, now), now), now);
+    }
+
+    /**
+     * Non-blocking variant of {@link #check}: Redis calls run on the reactive connection
+     * and independent signal reads are issued concurrently, so no thread waits for Redis.
+     *
+     * <p>Decisions that must be persisted or published (denials, step-up) are finished on
+     * the application task executor, never on the Redis I/O thread.
+     */
+    public CompletableFuture<RateLimitDecision> checkAsync(RequestContext ctx) {
+        long now = System.currentTimeMillis();
+        List<byte[]> keys = bucketKeys(ctx);
+
+        RateLimitDecision cached = cachedDenial(ctx, keys, now);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(track(ctx, cached, now));
+        }
+
+        return evaluateAsync(ctx, keys, now).thenCompose(o -> {
+            boolean blocking = o.stepUp() || !o.bucket().allowed();
+            return blocking
+                    ? CompletableFuture.supplyAsync(() -> decide(ctx, keys, o, now), applicationTaskExecutor)
+                    : CompletableFuture.completedFuture(decide(ctx, keys, o, now));
+        }).thenApply(d -> track(ctx, d, now));
+    }
+
+    /**
+     * Evaluates signals and buckets in Redis within the decision deadline, or locally
+     * while the circuit breaker is open or when Redis fails.
+     *
+     * <p>The blocking calls run on the caller thread. Each Redis command is bounded by the
+     * client command timeout, which {@code RedisConfig} caps at the deadline, and the
+     * buckets are not touched once the signals used up the deadline, so a request that
+     * falls back is never debited both in Redis and locally.
+     */
+    private Outcome evaluate(RequestContext ctx, List<byte[]> keys, long now) {
+        if (!breaker.tryAcquire(now)) {
+            return fallback("open", ctx, keys, now);
+        }
+        long start = System.nanoTime();
+        try {
+            Outcome o = evaluateRemote(ctx, keys, now, start);
+            breaker.onSuccess(elapsedMillis(start), System.currentTimeMillis());
+            return o;
+        } catch (QueryTimeoutException e) {
+            breaker.onFailure(System.currentTimeMillis());
+            return fallback("timeout", ctx, keys, now);
+        } catch (RuntimeException e) {
+            breaker.onFailure(System.currentTimeMillis());
+            if (isInterruption(e)) {
+                Thread.currentThread().interrupt();
+                return fallback("interrupted", ctx, keys, now);
+            }
+            log.debug("Redis decision failed, deciding locally", e);
+            return fallback("error", ctx, keys, now);
+        }
+    }
+
+    private static boolean isInterruption(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof RedisCommandInterruptedException || t instanceof InterruptedException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Non-blocking variant of {@link #evaluate}.
+     */
+    private CompletableFuture<Outcome> evaluateAsync(RequestContext ctx, List<byte[]> keys, long now) {
+        if (!breaker.tryAcquire(now)) {
+            return CompletableFuture.completedFuture(fallback("open", ctx, keys, now));
+        }
+        long deadline = props.getDecision().getDeadlineMillis();
+        long start = System.nanoTime();
+        CompletableFuture<Outcome> remote;
+        try {
+            remote = evaluateRemoteAsync(ctx, keys, now, start);
+        } catch (RuntimeException e) {
+            remote = CompletableFuture.failedFuture(e);
+        }
+        if (deadline > 0) {
+            remote = remote.orTimeout(deadline, TimeUnit.MILLISECONDS);
+        }
+        return remote.handle((o, error) -> {
+            if (error == null) {
+                breaker.onSuccess(elapsedMillis(start), System.currentTimeMillis());
+                return o;
+            }
+            breaker.onFailure(System.currentTimeMillis());
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof TimeoutException) {
+                return fallback("timeout", ctx, keys, now);
+            }
+            log.debug("Redis decision failed, deciding locally", cause);
+            return fallback("error", ctx, keys, now);
+        });
+    }
+
+    /**
+     * Blocking Redis evaluation.
+     *
+     * @param startNanos start of the evaluation, for the deadline check before the buckets
+     */
+    private Outcome evaluateRemote(RequestContext ctx, List<byte[]> keys, long now, long startNanos) {
+        if (isFused()) {
+            int localScore = riskScoring.localScore(ctx);
+            return fusedOutcome(localScore, fused.evaluate(fusedRequest(ctx, keys, localScore), now));
+        }
 
         int riskScore = riskScoring.score(ctx);
         RiskTier tier = tierOf(riskScore);
-        double factor = factorOf(tier);
 
         // Step-up action: only for very high risk on login.
-        boolean stepUpRequired = "login".equals(ctx.routeGroup()) && riskScore >= props.getRisk().getStepUpAt();
-        if (stepUpRequired) {
-            String action = "CAPTCHA_REQUIRED";
-            String reason = "high_risk_login";
-            publishStepUp(ctx, riskScore, action, reason);
-            RateLimitDecision decision = new RateLimitDecision(false, riskScore, tier, 0, 0, true, action, reason);
-            persistIfNeeded(ctx, decision, now);
-            metrics.counter("botdefense.decisions", "result", "stepup").increment();
-            return decision;
-        }
-
-        // Enforce 3 buckets: ip, user (if present), tenant (if present).
-        TokenBucketRedisClient.BucketResult ipR = buckets.consume(
-                keyIp(ctx),
-                effCapacity(props.getLimits().getIp().getCapacity(), factor),
-                effRefill(props.getLimits().getIp().getRefillPerSecond(), factor),
-                now
+        if (isStepUp(ctx, riskScore)) {
+            return new Outcome(riskScore, tier, true, null);
+        }
+
+        if (pastDeadline(startNanos)) {
+            throw new QueryTimeoutException("Deadline passed before the bucket check");
+        }
+
+        // Enforce up to 4 buckets in one round trip.
+        // Tokens are debited only if every bucket admits the request.
+        List<TokenBucketRedisClient.BucketSpec> specs = specs(ctx, keys, tier);
+        TokenBucketRedisClient.BucketResult result = localBuckets.isEnabled()
+                ? localBuckets.consumeAll(specs, now)
+                : buckets.consumeAll(specs, now);
+        return new Outcome(riskScore, tier, false, result);
+    }
+
+    private CompletableFuture<Outcome> evaluateRemoteAsync(RequestContext ctx, List<byte[]> keys, long now,
+                                                           long startNanos) {
+        if (isFused()) {
+            int localScore = riskScoring.localScore(ctx);
+            return fused.evaluateAsync(fusedRequest(ctx, keys, localScore), now)
+                    .thenApply(r -> fusedOutcome(localScore, r));
+        }
+
+        return riskScoring.scoreAsync(ctx).thenCompose(riskScore -> {
+            RiskTier tier = tierOf(riskScore);
+            if (isStepUp(ctx, riskScore)) {
+                return CompletableFuture.completedFuture(new Outcome(riskScore, tier, true, null));
+            }
+            if (pastDeadline(startNanos)) {
+                return CompletableFuture.failedFuture(new TimeoutException("Deadline passed before the bucket check"));
+            }
+            List<TokenBucketRedisClient.BucketSpec> specs = specs(ctx, keys, tier);
+            CompletableFuture<TokenBucketRedisClient.BucketResult> consumed = localBuckets.isEnabled()
+                    ? CompletableFuture.completedFuture(localBuckets.consumeAll(specs, now))
+                    : buckets.consumeAllAsync(specs, now);
+            return consumed.thenApply(result -> new Outcome(riskScore, tier, false, result));
+        });
+    }
+
+    /**
+     * Node-local approximation used while Redis is unavailable: only signals that need
+     * no Redis are scored and the buckets are enforced per node by {@link LocalTokenBucketStore}.
+     */
+    private Outcome fallback(String reason, RequestContext ctx, List<byte[]> keys, long now) {
+        metrics.counter("botdefense.decisions.fallback", "reason", reason).increment();
+        int riskScore = Math.min(100, riskScoring.localScore(ctx));
+        RiskTier tier = tierOf(riskScore);
+        return new Outcome(riskScore, tier, false, localBuckets.consumeAll(specs(ctx, keys, tier), now));
+    }
+
+    private RateLimitDecision decide(RequestContext ctx, List<byte[]> keys, Outcome o, long now) {
+        if (o.stepUp()) {
+            return stepUp(ctx, o.riskScore(), o.tier(), now);
+        }
+        TokenBucketRedisClient.BucketResult result = o.bucket();
+        rememberDenial(ctx, keys, o.tier(), result, now);
+        return bucketDecision(ctx, o.riskScore(), o.tier(), result.allowed(), result.remainingTokens(), result.retryAfterMillis(), now);
+    }
+
+    /**
+     * Feeds the decision into the heavy-hitter ranking.
+     */
+    private RateLimitDecision track(RequestContext ctx, RateLimitDecision decision, long now) {
+        heavyHitters.record(ctx, !decision.allowed(), now);
+        return decision;
+    }
+
+    /**
+     * Returns true if the Redis buckets should no longer be touched: the deadline is used
+     * up and the fallback will debit the local buckets instead.
+     */
+    private boolean pastDeadline(long startNanos) {
+        long deadline = props.getDecision().getDeadlineMillis();
+        return deadline > 0 && !localBuckets.isEnabled() && elapsedMillis(startNanos) >= deadline;
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Bucket keys in enforcement order: ip, ip subnet (if the address family is aggregated),
+     * user (if present), tenant (if present), autonomous system (if its AS group has a bucket).
+     */
+    private List<byte[]> bucketKeys(RequestContext ctx) {
+        List<byte[]> keys = new ArrayList<>(5);
+        CidrBlock subnet = aggregator.subnet(ctx.address());
+        keys.add(bucketKeys.ip(ctx.ip(), subnet, ctx.routeGroup()));
+        if (subnet != null) {
+            keys.add(bucketKeys.subnet(subnet, ctx.routeGroup()));
+        }
+        if (hasUser(ctx)) {
+            keys.add(keyUser(ctx));
+        }
+        if (hasTenant(ctx)) {
+            keys.add(keyTenant(ctx));
+        }
+        int asn = bucketedAsn(ctx);
+        if (asn != 0) {
+            keys.add(bucketKeys.asn(asn, ctx.routeGroup()));
+        }
+        return keys;
+    }
+
+    /**
+     * AS number of the client if one of the configured AS groups gives it a bucket, else 0.
+     */
+    private int bucketedAsn(RequestContext ctx) {
+        if (!asnBucket) {
+            return 0;
+        }
+        int asn = asnDatabase.asn(ctx.address());
+        return asn != 0 && Arrays.binarySearch(asnBucketAsns, asn) >= 0 ? asn : 0;
+    }
+
+    /**
+     * Fused mode needs the signal and bucket keys in one Redis; with in-process buckets or
+     * partitioned Redis the standard path is used.
+     */
+    private boolean isFused() {
+        return props.getDecision().getMode() == BotDefenseProperties.Decision.Mode.FUSED
+                && !localBuckets.isEnabled()
+                && !shards.isPartitioned();
+    }
+
+    private boolean isStepUp(RequestContext ctx, int riskScore) {
+        return isStepUpEligible(ctx) && riskScore >= props.getRisk().getStepUpAt();
+    }
+
+    private static boolean isStepUpEligible(RequestContext ctx) {
+        return "login".equals(ctx.routeGroup());
+    }
+
+    /**
+     * Fused mode: signals, tier and buckets are evaluated by a single server-side script,
+     * so the hot path costs one Redis round trip.
+     */
+    private FusedDecisionRedisClient.FusedRequest fusedRequest(RequestContext ctx, List<byte[]> keys, int localScore) {
+        return new FusedDecisionRedisClient.FusedRequest(
+                signalStore.requestRateKey(aggregator.counterIdentity(ctx.ip(), ctx.address())),
+                signalStore.loginFailureKey(ctx.tenantId(), ctx.userId(), ctx.ip()),
+                props.getSignals().getRequestRateWindowSeconds(),
+                isStepUpEligible(ctx),
+                localScore,
+                fusedThresholds,
+                specs(ctx, keys, RiskTier.NORMAL)
         );
+    }
 
-        TokenBucketRedisClient.BucketResult userR = null;
-        if (ctx.userId() != null && !ctx.userId().isBlank()) {
-            userR = buckets.consume(
-                    keyUser(ctx),
-                    effCapacity(props.getLimits().getUser().getCapacity(), factor),
-                    effRefill(props.getLimits().getUser().getRefillPerSecond(), factor),
-                    now
-            );
+    private Outcome fusedOutcome(int localScore, FusedDecisionRedisClient.FusedResult r) {
+        if (r == null) {
+            // Fail-open: do not block users if Redis misbehaves.
+            int riskScore = Math.min(100, localScore);
+            return new Outcome(riskScore, tierOf(riskScore), false,
+                    new TokenBucketRedisClient.BucketResult(true, props.getLimits().getIp().getCapacity(), 0, -1));
+        }
+        if (r.stepUpRequired()) {
+            return new Outcome(r.riskScore(), RiskTier.values()[r.tierOrdinal()], true, null);
         }
+        return new Outcome(r.riskScore(), RiskTier.values()[r.tierOrdinal()], false,
+                new TokenBucketRedisClient.BucketResult(r.allowed(), r.remainingTokens(), r.retryAfterMillis(), r.deniedBucket()));
+    }
 
-        TokenBucketRedisClient.BucketResult tenantR = null;
-        if (ctx.tenantId() != null && !ctx.tenantId().isBlank()) {
-            tenantR = buckets.consume(
-                    keyTenant(ctx),
-                    effCapacity(props.getLimits().getTenant().getCapacity(), factor),
-                    effRefill(props.getLimits().getTenant().getRefillPerSecond(), factor),
-                    now
-            );
+    /**
+     * Bucket specs for the keys built by {@link #bucketKeys}, with the limits of the given tier
+     * (fused mode passes the NORMAL-tier limits; the script tightens them).
+     */
+    private List<TokenBucketRedisClient.BucketSpec> specs(RequestContext ctx, List<byte[]> keys, RiskTier tier) {
+        List<TokenBucketRedisClient.BucketSpec> specs = new ArrayList<>(keys.size());
+        int i = 0;
+        specs.add(new TokenBucketRedisClient.BucketSpec(keys.get(i++), ipLimits.get(tier)));
+        if (aggregator.isAggregated(ctx.address())) {
+            specs.add(new TokenBucketRedisClient.BucketSpec(keys.get(i++), subnetLimits.get(tier)));
+        }
+        if (hasUser(ctx)) {
+            specs.add(new TokenBucketRedisClient.BucketSpec(keys.get(i++), userLimits.get(tier)));
         }
+        if (hasTenant(ctx)) {
+            specs.add(new TokenBucketRedisClient.BucketSpec(keys.get(i++), tenantLimits.get(tier)));
+        }
+        if (i < keys.size()) {
+            // Skipped if a table reload since the key was built left the AS without a bucket.
+            int g = Arrays.binarySearch(asnBucketAsns, asnDatabase.asn(ctx.address()));
+            if (g >= 0) {
+                specs.add(new TokenBucketRedisClient.BucketSpec(keys.get(i), asnBucketLimits.get(g).get(tier)));
+            }
+        }
+        return specs;
+    }
+
+    private RateLimitDecision cachedDenial(RequestContext ctx, List<byte[]> keys, long now) {
+        if (!denyCache.isEnabled() || isStepUpEligible(ctx)) {
+            return null;
+        }
+        for (byte[] key : keys) {
+            LocalDenyCache.Denial d = denyCache.get(key, now);
+            if (d != null) {
+                metrics.counter("botdefense.decisions", "result", "limited_cached").increment();
+                // Not scored and not persisted (the original denial already was); the risk of
+                // whoever emptied a shared bucket is not reported to this requester.
+                return new RateLimitDecision(false, 0, RiskTier.NORMAL, 0, d.deniedUntil() - now, false, null, "rate_limited");
+            }
+        }
+        return null;
+    }
 
-        boolean allowed = ipR.allowed() && (userR == null || userR.allowed()) && (tenantR == null || tenantR.allowed());
-        int remaining = minRemaining(ipR, userR, tenantR);
-        long retryAfter = maxRetryAfter(ipR, userR, tenantR);
+    /**
+     * Caches the bucket that denied the request. The retry-after reflects the refill of the
+     * request's tier, so a shared bucket (subnet, tenant, AS) is only cached when denied at
+     * the NORMAL tier: a tightened denial would otherwise lock out normal clients of the
+     * same bucket for longer than their own limit does.
+     */
+    private void rememberDenial(RequestContext ctx, List<byte[]> keys, RiskTier tier,
+                                TokenBucketRedisClient.BucketResult result, long now) {
+        int denied = result.deniedBucket();
+        if (result.allowed() || !denyCache.isEnabled() || isStepUpEligible(ctx)
+                || denied < 0 || denied >= keys.size()) {
+            return;
+        }
+        if (tier != RiskTier.NORMAL && !isPerClient(ctx, denied)) {
+            return;
+        }
+        denyCache.put(keys.get(denied), now, result.retryAfterMillis());
+    }
 
+    /**
+     * Whether the bucket at the given index of {@link #bucketKeys} is the IP or the user bucket.
+     */
+    private boolean isPerClient(RequestContext ctx, int bucket) {
+        if (bucket == 0) {
+            return true;
+        }
+        int user = aggregator.isAggregated(ctx.address()) ? 2 : 1;
+        return hasUser(ctx) && bucket == user;
+    }
+
+    private RateLimitDecision stepUp(RequestContext ctx, int riskScore, RiskTier tier, long now) {
+        String action = "CAPTCHA_REQUIRED";
+        String reason = "high_risk_login";
+        publishStepUp(ctx, riskScore, action, reason);
+        RateLimitDecision decision = new RateLimitDecision(false, riskScore, tier, 0, 0, true, action, reason);
+        persistIfNeeded(ctx, decision, now);
+        metrics.counter("botdefense.decisions", "result", "stepup").increment();
+        return decision;
+    }
+
+    private RateLimitDecision bucketDecision(RequestContext ctx, int riskScore, RiskTier tier,
+                                             boolean allowed, int remaining, long retryAfter, long now) {
         RateLimitDecision decision;
         if (allowed) {
             decision = new RateLimitDecision(true, riskScore, tier, remaining, 0, false, null, null);
@@ -183,34 +607,42 @@ public class AdaptiveRateLimiterService {
         return Math.max(0.05, base * factor);
     }
 
-    private String keyIp(RequestContext ctx) {
-        return "rl:ip:" + ctx.ip() + ":rg:" + ctx.routeGroup();
+    private static boolean hasUser(RequestContext ctx) {
+        return ctx.userId() != null && !ctx.userId().isBlank();
     }
 
-    private String keyUser(RequestContext ctx) {
-        String tenant = ctx.tenantId() == null || ctx.tenantId().isBlank() ? "-" : ctx.tenantId();
-        return "rl:user:" + tenant + ":" + ctx.userId() + ":rg:" + ctx.routeGroup();
+    private static boolean hasTenant(RequestContext ctx) {
+        return ctx.tenantId() != null && !ctx.tenantId().isBlank();
     }
 
-    private String keyTenant(RequestContext ctx) {
-        return "rl:tenant:" + ctx.tenantId() + ":rg:" + ctx.routeGroup();
+    /**
+     * Pre-computes the tier-adjusted, integer-scaled limits of one dimension so
+     * nothing is recomputed or re-encoded per request.
+     */
+    private Map<RiskTier, BucketLimit> limitsByTier(BotDefenseProperties.Bucket bucket) {
+        Map<RiskTier, BucketLimit> limits = new EnumMap<>(RiskTier.class);
+        for (RiskTier tier : RiskTier.values()) {
+            double factor = factorOf(tier);
+            limits.put(tier, BucketLimit.of(
+                    effCapacity(bucket.getCapacity(), factor),
+                    effRefill(bucket.getRefillPerSecond(), factor)));
+        }
+        return limits;
+    }
+
+    private byte[] keyUser(RequestContext ctx) {
+        return bucketKeys.user(ctx.tenantId(), ctx.userId(), ctx.routeGroup());
     }
 
-    private static int minRemaining(TokenBucketRedisClient.BucketResult a,
-                                    TokenBucketRedisClient.BucketResult b,
-                                    TokenBucketRedisClient.BucketResult c) {
-        int min = a.remainingTokens();
-        if (b != null) min = Math.min(min, b.remainingTokens());
-        if (c != null) min = Math.min(min, c.remainingTokens());
-        return min;
+    private byte[] keyTenant(RequestContext ctx) {
+        return bucketKeys.tenant(ctx.tenantId(), ctx.routeGroup());
     }
 
-    private static long maxRetryAfter(TokenBucketRedisClient.BucketResult a,
-                                     TokenBucketRedisClient.BucketResult b,
-                                     TokenBucketRedisClient.BucketResult c) {
-        long max = a.retryAfterMillis();
-        if (b != null) max = Math.max(max, b.retryAfterMillis());
-        if (c != null) max = Math.max(max, c.retryAfterMillis());
-        return max;
+    /**
+     * Result of evaluating signals and buckets, before it is turned into a decision.
+     *
+     * @param bucket bucket check result, {@code null} when step-up is required
+     */
+    private record Outcome(int riskScore, RiskTier tier, boolean stepUp, TokenBucketRedisClient.BucketResult bucket) {
     }
 }
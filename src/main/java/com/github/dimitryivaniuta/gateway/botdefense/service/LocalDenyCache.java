@@ -0,0 +1,114 @@
+package com.github.dimitryivaniuta.gateway.botdefense.service;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Node-local "denied until" cache keyed by bucket key.
+ *
+ * <p>When a bucket denies a request, Redis already tells us how long it will stay
+ * empty. Until then every request touching that bucket would be denied again, so it
+ * is answered from memory without scoring or Redis calls.
+ *
+ * <p>The cache is bounded and split into lock-striped LRU segments: a full segment
+ * evicts its least recently used entry, so a put costs O(1) even while an attack keeps
+ * the cache full.
+ *
+ * <p>Only the deadline is cached, not the risk assessment of the request that caused
+ * the denial: a bucket key can be shared by several clients (tenant, user, subnet).
+ */
+@Component
+public class LocalDenyCache {
+
+    private static final int SEGMENTS = 16;
+
+    private final BotDefenseProperties.Decision.DenyCache config;
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    public LocalDenyCache(BotDefenseProperties props) {
+        this.config = props.getDecision().getDenyCache();
+        int perSegment = Math.max(1, (config.getMaxEntries() + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    /**
+     * Returns the active denial for the bucket key, or {@code null}.
+     */
+    public Denial get(byte[] bucketKey, long nowMillis) {
+        ByteBuffer k = ByteBuffer.wrap(bucketKey);
+        Segment s = segmentOf(k);
+        synchronized (s) {
+            Denial d = s.get(k);
+            if (d == null) {
+                return null;
+            }
+            if (d.deniedUntil() <= nowMillis) {
+                s.remove(k);
+                return null;
+            }
+            return d;
+        }
+    }
+
+    /**
+     * Remembers that the bucket key denies requests until {@code nowMillis + retryAfterMillis}.
+     */
+    public void put(byte[] bucketKey, long nowMillis, long retryAfterMillis) {
+        if (retryAfterMillis <= 0) {
+            return;
+        }
+        ByteBuffer k = ByteBuffer.wrap(bucketKey);
+        Segment s = segmentOf(k);
+        synchronized (s) {
+            s.put(k, new Denial(nowMillis + retryAfterMillis));
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment s : segments) {
+            synchronized (s) {
+                size += s.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment segmentOf(ByteBuffer key) {
+        int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * A cached denial.
+     */
+    public record Denial(long deniedUntil) {
+    }
+
+    /**
+     * Access-ordered map evicting its least recently used entry when full.
+     */
+    private static final class Segment extends LinkedHashMap<ByteBuffer, Denial> {
+        private final int maxEntries;
+
+        Segment(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Denial> eldest) {
+            return size() > maxEntries;
+        }
+    }
+}
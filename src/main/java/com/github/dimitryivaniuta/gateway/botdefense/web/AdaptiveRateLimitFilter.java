@@ -1,14 +1,21 @@
 package com.github.dimitryivaniuta.gateway.botdefense.web;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
 import com.github.dimitryivaniuta.gateway.botdefense.model.RateLimitDecision;
 import com.github.dimitryivaniuta.gateway.botdefense.model.RequestContext;
+import com.github.dimitryivaniuta.gateway.botdefense.model.RiskTier;
+import com.github.dimitryivaniuta.gateway.botdefense.net.IpAddress;
 import com.github.dimitryivaniuta.gateway.botdefense.net.ProxyAwareIpResolver;
+import com.github.dimitryivaniuta.gateway.botdefense.risk.IpReputation;
 import com.github.dimitryivaniuta.gateway.botdefense.service.AdaptiveRateLimiterService;
+import jakarta.servlet.AsyncContext;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
@@ -16,7 +23,9 @@ import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
 import java.time.Instant;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * HTTP filter enforcing adaptive bot-defense limits.
@@ -27,39 +36,77 @@ public class AdaptiveRateLimitFilter extends OncePerRequestFilter {
     public static final String TENANT_HEADER = "X-Tenant-Id";
     public static final String USER_HEADER = "X-User-Id";
 
+    /**
+     * Request attribute carrying an async decision to the async dispatch.
+     */
+    static final String DECISION_ATTRIBUTE = AdaptiveRateLimitFilter.class.getName() + ".decision";
+
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveRateLimitFilter.class);
+
     private final RouteGroupMatcher matcher;
     private final IpAllowlist allowlist;
     private final ProxyAwareIpResolver ipResolver;
+    private final IpReputation reputation;
     private final AdaptiveRateLimiterService limiter;
     private final ObjectMapper om;
+    private final boolean async;
 
     public AdaptiveRateLimitFilter(RouteGroupMatcher matcher,
                                    IpAllowlist allowlist,
                                    ProxyAwareIpResolver ipResolver,
+                                   IpReputation reputation,
                                    AdaptiveRateLimiterService limiter,
-                                   ObjectMapper om) {
+                                   ObjectMapper om,
+                                   BotDefenseProperties props) {
         this.matcher = matcher;
         this.allowlist = allowlist;
         this.ipResolver = ipResolver;
+        this.reputation = reputation;
         this.limiter = limiter;
         this.om = om;
+        this.async = props.getDecision().isAsync();
+    }
+
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        // The async decision path re-enters the filter to apply its result.
+        return false;
     }
 
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
             throws ServletException, IOException {
 
+        if (isAsyncDispatch(request)) {
+            Object pending = request.getAttribute(DECISION_ATTRIBUTE);
+            request.removeAttribute(DECISION_ATTRIBUTE);
+            if (pending instanceof RateLimitDecision decision) {
+                enforce(decision, request, response, filterChain);
+            } else {
+                // Either a fail-open async decision or a later async dispatch of the application.
+                filterChain.doFilter(request, response);
+            }
+            return;
+        }
+
         String group = matcher.match(request.getMethod(), request.getRequestURI());
         if (group == null) {
             filterChain.doFilter(request, response);
             return;
         }
 
-        String ip = ipResolver.resolve(request);
-        if (allowlist.isAllowed(ip)) {
+        IpAddress address = ipResolver.resolveAddress(request);
+        if (allowlist.isAllowed(address)) {
             filterChain.doFilter(request, response);
             return;
         }
+        if (reputation.isBlocked(address)) {
+            // Known-bad source: rejected without any Redis work.
+            response.setStatus(403);
+            writeJson(response, "BLOCKED", "Access denied.",
+                    new RateLimitDecision(false, 100, RiskTier.HIGH, 0, 0, false, null, "reputation"));
+            return;
+        }
 
         String correlationId = MDC.get("correlationId");
         String tenantId = request.getHeader(TENANT_HEADER);
@@ -68,16 +115,43 @@ public class AdaptiveRateLimitFilter extends OncePerRequestFilter {
 
         RequestContext ctx = new RequestContext(
                 correlationId,
-                ip,
+                address == null ? "unknown" : address.toString(),
                 request.getMethod(),
                 request.getRequestURI(),
                 group,
                 tenantId,
                 userId,
-                ua
+                ua,
+                address
         );
 
-        RateLimitDecision decision = limiter.check(ctx);
+        if (async && request.isAsyncSupported()) {
+            // Release the request thread; the decision is applied on the async dispatch.
+            AsyncContext asyncContext = request.startAsync(request, response);
+            CompletableFuture<RateLimitDecision> pending;
+            try {
+                pending = limiter.checkAsync(ctx);
+            } catch (RuntimeException e) {
+                // Still dispatch, or the request would hang until the async timeout.
+                pending = CompletableFuture.failedFuture(e);
+            }
+            pending.whenComplete((decision, error) -> {
+                if (error != null) {
+                    // Fail-open, like the synchronous path on unexpected Redis output.
+                    log.warn("Async rate-limit decision failed, allowing request", error);
+                } else {
+                    request.setAttribute(DECISION_ATTRIBUTE, decision);
+                }
+                asyncContext.dispatch();
+            });
+            return;
+        }
+
+        enforce(limiter.check(ctx), request, response, filterChain);
+    }
+
+    private void enforce(RateLimitDecision decision, HttpServletRequest request, HttpServletResponse response,
+                         FilterChain filterChain) throws ServletException, IOException {
         response.setHeader("X-Risk-Score", Integer.toString(decision.riskScore()));
         response.setHeader("X-Risk-Tier", decision.riskTier().name());
         response.setHeader("X-RateLimit-Remaining", Integer.toString(decision.remainingTokens()));
@@ -108,16 +182,18 @@ public class AdaptiveRateLimitFilter extends OncePerRequestFilter {
     private void writeJson(HttpServletResponse response, String code, String message, RateLimitDecision decision)
             throws IOException {
         response.setContentType(MediaType.APPLICATION_JSON_VALUE);
-        Map<String, Object> body = Map.of(
-                "code", code,
-                "message", message,
-                "riskScore", decision.riskScore(),
-                "riskTier", decision.riskTier().name(),
-                "retryAfterMillis", decision.retryAfterMillis(),
-                "stepUpRequired", decision.stepUpRequired(),
-                "stepUpAction", decision.stepUpAction(),
-                "timestamp", Instant.now().toString()
-        );
+        // Insertion-ordered; absent values (e.g. no step-up action) are left out.
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("code", code);
+        body.put("message", message);
+        body.put("riskScore", decision.riskScore());
+        body.put("riskTier", decision.riskTier().name());
+        body.put("retryAfterMillis", decision.retryAfterMillis());
+        body.put("stepUpRequired", decision.stepUpRequired());
+        if (decision.stepUpAction() != null) {
+            body.put("stepUpAction", decision.stepUpAction());
+        }
+        body.put("timestamp", Instant.now().toString());
         om.writeValue(response.getWriter(), body);
     }
 
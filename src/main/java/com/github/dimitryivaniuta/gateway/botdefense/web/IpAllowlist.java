@@ -1,46 +1,38 @@
 package com.github.dimitryivaniuta.gateway.botdefense.web;
 
 import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
-import com.github.dimitryivaniuta.gateway.botdefense.net.CidrBlock;
+import com.github.dimitryivaniuta.gateway.botdefense.net.CidrSet;
+import com.github.dimitryivaniuta.gateway.botdefense.net.IpAddress;
 import org.springframework.stereotype.Component;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * Allowlist of CIDR blocks exempt from rate limiting.
  * <p>
- * Supports IPv4 and IPv6 CIDRs.
+ * Supports IPv4 and IPv6 CIDRs; lookups go through a {@link CidrSet} trie.
  */
 @Component
 public class IpAllowlist {
 
-    private final List<CidrBlock> cidrs;
+    private final CidrSet cidrs;
 
     /**
      * Create from configuration.
      */
     public IpAllowlist(BotDefenseProperties props) {
-        List<CidrBlock> parsed = new ArrayList<>();
-        for (String c : props.getAllowlist().getIpCidrs()) {
-            try {
-                parsed.add(CidrBlock.parse(c));
-            } catch (IllegalArgumentException ignored) {
-                // Ignore invalid values to avoid startup failures.
-            }
-        }
-        this.cidrs = List.copyOf(parsed);
+        this.cidrs = CidrSet.parse(props.getAllowlist().getIpCidrs());
     }
 
     /**
      * Returns true if the IP is exempt.
      */
     public boolean isAllowed(String ip) {
-        for (CidrBlock c : cidrs) {
-            if (c.contains(ip)) {
-                return true;
-            }
-        }
-        return false;
+        return isAllowed(IpAddress.parse(ip));
+    }
+
+    /**
+     * Returns true if the address is exempt.
+     */
+    public boolean isAllowed(IpAddress ip) {
+        return cidrs.contains(ip);
     }
 }
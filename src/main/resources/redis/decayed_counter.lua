@@ -0,0 +1,20 @@
+-- Adds to one or more exponentially decayed counters (typically the same signal
+-- tracked with several half-lives) and returns their values, in one atomic call
+-- (see lib/decayed_counter.lua, prepended to this script).
+--
+-- KEYS[i] = counter key i
+--
+-- ARGV[1]     = now_millis (long)
+-- ARGV[2]     = amount to add
+-- ARGV[2 + i] = half-life millis of counter i
+--
+-- Returns integer array: {floor(value_i)}
+
+local now = tonumber(ARGV[1])
+local delta = tonumber(ARGV[2])
+
+local values = {}
+for i = 1, #KEYS do
+  values[i] = math.floor(decayed_add(KEYS[i], now, tonumber(ARGV[2 + i]), delta))
+end
+return values
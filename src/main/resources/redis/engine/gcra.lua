@@ -0,0 +1,47 @@
+-- Limiter engine: GCRA (generic cell rate algorithm).
+--
+-- A bucket is a single integer string holding the theoretical arrival time
+-- (TAT, epoch millis) at which the bucket would be full again:
+--
+--   available = capacity - (tat - now) * refill
+--
+-- which is exactly the token-bucket state in one value. A key whose TAT has
+-- passed is indistinguishable from a new bucket, so it expires at its TAT.
+--
+-- Defines read_bucket / write_bucket with the same contract as
+-- engine/token_bucket.lua. A zero refill is clamped to 1 micro-token per
+-- millisecond (one token per ~17 minutes) because GCRA needs a finite
+-- emission interval.
+
+local function gcra_rate(refill)
+  if refill < 1 then
+    return 1
+  end
+  return refill
+end
+
+local function read_bucket(key, capacity, refill, now)
+  local tat = redis.call('GET', key)
+  if not tat then
+    return capacity
+  end
+  local ahead = tonumber(tat) - now
+  if ahead <= 0 then
+    return capacity
+  end
+  local tokens = capacity - ahead * gcra_rate(refill)
+  if tokens < 0 then
+    tokens = 0
+  end
+  return tokens
+end
+
+local function write_bucket(key, tokens, capacity, refill, now)
+  local ahead = math.ceil((capacity - tokens) / gcra_rate(refill))
+  if ahead <= 0 then
+    -- Full bucket: nothing worth remembering.
+    redis.call('DEL', key)
+  else
+    redis.call('SET', key, now + ahead, 'PX', ahead)
+  end
+end
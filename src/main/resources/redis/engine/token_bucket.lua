@@ -0,0 +1,49 @@
+-- Limiter engine: classic token bucket packed into a single string value.
+--
+-- Value: 16 bytes, struct '<i8i8' = {micro-tokens, last refill timestamp millis}.
+--
+-- The key expires when the bucket would be full again: at that point it is
+-- indistinguishable from a new bucket, so idle keys disappear as early as possible.
+--
+-- Every engine library defines the same two functions used by the entry
+-- scripts (multi_token_bucket.lua, token_lease.lua, fused_decision.lua):
+--
+--   read_bucket(key, capacity, refill, now)          -> available micro-tokens
+--   write_bucket(key, tokens, capacity, refill, now) -> persists micro-tokens
+--
+-- capacity is in micro-tokens, refill in micro-tokens per millisecond.
+
+-- Idle lifetime of buckets that never refill.
+local NO_REFILL_TTL_MS = 3600000
+
+local function read_bucket(key, capacity, refill, now)
+  local packed = redis.call('GET', key)
+  if not packed then
+    return capacity
+  end
+  local current_tokens, last_ts = struct.unpack('<i8i8', packed)
+
+  local elapsed_ms = now - last_ts
+  if elapsed_ms < 0 then
+    elapsed_ms = 0
+  end
+
+  local tokens = current_tokens + elapsed_ms * refill
+  if tokens > capacity then
+    tokens = capacity
+  end
+  return tokens
+end
+
+local function write_bucket(key, tokens, capacity, refill, now)
+  local ttl = NO_REFILL_TTL_MS
+  if refill > 0 then
+    ttl = math.ceil((capacity - tokens) / refill)
+  end
+  if ttl <= 0 then
+    -- Full bucket: nothing worth remembering.
+    redis.call('DEL', key)
+  else
+    redis.call('SET', key, struct.pack('<i8i8', tokens, now), 'PX', ttl)
+  end
+end
@@ -0,0 +1,147 @@
+-- Fused risk-signal + token-bucket decision in a single atomic call.
+--
+-- Bumps the per-IP request-rate counter, reads the login-failure counter
+-- (login route only), derives the risk score/tier exactly like
+-- RiskScoringService + AdaptiveRateLimiterService, and then consumes the
+-- buckets with the tier-adjusted capacity/refill (all-or-nothing, same
+-- micro-token scaling as multi_token_bucket.lua). Step-up decisions do not
+-- touch buckets.
+--
+-- Bucket state goes through read_bucket / write_bucket of the limiter engine
+-- library prepended to this script (see redis/engine/*.lua); both signals are
+-- sliding-window or decayed counters (lib/sliding_window.lua,
+-- lib/decayed_counter.lua, also prepended).
+--
+-- KEYS[1]      = request-rate counter key
+-- KEYS[2]      = login-failure counter key
+-- KEYS[2 + i]  = bucket key i
+--
+-- ARGV[1]  = now_millis (long)
+-- ARGV[2]  = request-rate window seconds
+-- ARGV[3]  = is_login (0/1)
+-- ARGV[4]  = score of local-only signals (e.g. user agent)
+-- ARGV[5]  = request-rate thresholds: high
+-- ARGV[6]  = request-rate score above high
+-- ARGV[7]  = request-rate thresholds: medium
+-- ARGV[8]  = request-rate score above medium
+-- ARGV[9]  = login-failure thresholds: high
+-- ARGV[10] = login-failure score above high
+-- ARGV[11] = login-failure thresholds: medium
+-- ARGV[12] = login-failure score above medium
+-- ARGV[13] = tighten_medium_at
+-- ARGV[14] = tighten_high_at
+-- ARGV[15] = step_up_at
+-- ARGV[16] = factor_medium (double)
+-- ARGV[17] = factor_high (double)
+-- ARGV[18] = request-rate half-life millis of decayed counters (0 = sliding windows)
+-- ARGV[17 + 2i] = base capacity of bucket i in micro-tokens
+-- ARGV[18 + 2i] = base refill of bucket i in micro-tokens per millisecond
+--
+-- Returns integer array:
+--   {risk_score, tier(0=NORMAL,1=MEDIUM,2=HIGH), step_up, allowed, min_remaining_tokens,
+--    max_retry_after_millis, denying_bucket (1-based index among the buckets, 0 if none)}
+
+local SCALE = 1000000
+
+local now = tonumber(ARGV[1])
+local is_login = ARGV[3] == '1'
+local half_life = tonumber(ARGV[18])
+
+-- 1) Signals.
+local score = tonumber(ARGV[4])
+
+local rpm
+if half_life > 0 then
+  rpm = math.floor(decayed_add(KEYS[1], now, half_life, 1))
+else
+  rpm = sliding_window_add(KEYS[1], now, tonumber(ARGV[2]) * 1000, 1)
+end
+if rpm > tonumber(ARGV[5]) then
+  score = score + tonumber(ARGV[6])
+elseif rpm > tonumber(ARGV[7]) then
+  score = score + tonumber(ARGV[8])
+end
+
+if is_login then
+  local fails
+  if half_life > 0 then
+    fails = math.floor(decayed_get(KEYS[2], now))
+  else
+    fails = sliding_window_get(KEYS[2], now)
+  end
+  if fails > tonumber(ARGV[9]) then
+    score = score + tonumber(ARGV[10])
+  elseif fails > tonumber(ARGV[11]) then
+    score = score + tonumber(ARGV[12])
+  end
+end
+
+if score > 100 then
+  score = 100
+elseif score < 0 then
+  score = 0
+end
+
+-- 2) Tier and step-up.
+local tier = 0
+local factor = 1.0
+if score >= tonumber(ARGV[14]) then
+  tier = 2
+  factor = tonumber(ARGV[17])
+elseif score >= tonumber(ARGV[13]) then
+  tier = 1
+  factor = tonumber(ARGV[16])
+end
+
+if is_login and score >= tonumber(ARGV[15]) then
+  return {score, tier, 1, 0, 0, 0, 0}
+end
+
+-- 3) Buckets (all-or-nothing).
+local n = #KEYS - 2
+local tokens = {}
+local capacities = {}
+local refills = {}
+local allowed = 1
+local retry_after = 0
+local denied = 0
+
+for i = 1, n do
+  local key = KEYS[2 + i]
+  -- Same floors as AdaptiveRateLimiterService: at least 1 token and 0.05 tokens/s (50 micro-tokens/ms).
+  local capacity = math.max(1, math.floor(tonumber(ARGV[17 + 2 * i]) / SCALE * factor + 0.5)) * SCALE
+  local refill = math.floor(math.max(50, tonumber(ARGV[18 + 2 * i]) * factor) + 0.5)
+
+  local new_tokens = read_bucket(key, capacity, refill, now)
+  capacities[i] = capacity
+  refills[i] = refill
+  tokens[i] = new_tokens
+
+  if new_tokens < SCALE then
+    allowed = 0
+    local wait = math.ceil((SCALE - new_tokens) / refill)
+    if wait > retry_after then
+      retry_after = wait
+      denied = i
+    end
+  end
+end
+
+local min_remaining = nil
+for i = 1, n do
+  local new_tokens = tokens[i]
+  if allowed == 1 then
+    new_tokens = new_tokens - SCALE
+    write_bucket(KEYS[2 + i], new_tokens, capacities[i], refills[i], now)
+  end
+  local remaining_int = math.floor(new_tokens / SCALE)
+  if min_remaining == nil or remaining_int < min_remaining then
+    min_remaining = remaining_int
+  end
+end
+
+if min_remaining == nil then
+  min_remaining = 0
+end
+
+return {score, tier, 0, allowed, min_remaining, retry_after, denied}
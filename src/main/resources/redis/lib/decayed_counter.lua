@@ -0,0 +1,50 @@
+-- Exponentially decayed counter in one string value.
+--
+-- Value: '<half_life_ms>:<value>:<updated_millis>'. Reads and writes first decay
+-- the stored value to `now`:
+--
+--   value * 2 ^ (-(now - updated) / half_life_ms)
+--
+-- so the count fades continuously instead of dropping to zero at a window edge.
+-- The key only carries a memory-bounding expiry, set on write to when the value
+-- will have decayed below 1/1024.
+--
+-- The value is self-describing so that plain GET readers can evaluate it;
+-- DecayedCounter.estimate mirrors this code.
+--
+--   decayed_add(key, now, half_life_ms, delta) -> value after adding delta
+--   decayed_get(key, now)                      -> current value (0 if absent)
+
+-- Returns half_life_ms, value decayed to `now` (nil, 0 if nothing is stored and
+-- no half-life is given).
+local function decayed_state(stored, now, half_life_ms)
+  local h, v, t
+  if stored then
+    h, v, t = string.match(stored, '^(%d+):([%d%.eE%+%-]+):(%d+)$')
+  end
+  half_life_ms = half_life_ms or tonumber(h)
+  if not half_life_ms then
+    return nil, 0
+  end
+  if not h or tonumber(h) ~= half_life_ms or not tonumber(v) then
+    return half_life_ms, 0
+  end
+  local elapsed = now - tonumber(t)
+  if elapsed < 0 then
+    elapsed = 0
+  end
+  return half_life_ms, tonumber(v) * math.pow(2, -elapsed / half_life_ms)
+end
+
+local function decayed_add(key, now, half_life_ms, delta)
+  local _, value = decayed_state(redis.call('GET', key), now, half_life_ms)
+  value = value + delta
+  local ttl = math.ceil(half_life_ms * (math.log(math.max(value, 1)) / math.log(2) + 10))
+  redis.call('SET', key, half_life_ms .. ':' .. string.format('%.17g', value) .. ':' .. now, 'PX', ttl)
+  return value
+end
+
+local function decayed_get(key, now)
+  local _, value = decayed_state(redis.call('GET', key), now, nil)
+  return value
+end
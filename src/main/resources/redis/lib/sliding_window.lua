@@ -0,0 +1,68 @@
+-- Sliding-window counter (weighted two-window approximation) in one string value.
+--
+-- Value: '<window_ms>:<window_index>:<current_count>:<previous_count>', where
+-- window_index = floor(now / window_ms). The count over the last window_ms is
+-- estimated as
+--
+--   current + floor(previous * (time left in the current window) / window_ms)
+--
+-- i.e. hits of the previous window are assumed to be spread evenly. Hits do not
+-- extend the life of old ones: the key expires when the current window has rolled
+-- over twice and both counts would be zero.
+--
+-- The value is self-describing so that plain GET readers (replicas, client-side
+-- cache) can evaluate it; SlidingWindowCounter.estimate mirrors this code.
+--
+--   sliding_window_add(key, now, window_ms, delta) -> estimate after adding delta
+--   sliding_window_get(key, now)                   -> current estimate (0 if absent)
+
+-- Returns window_ms, index, current, previous as of `now` (nil if nothing is stored
+-- and no window is given).
+local function sliding_window_state(value, now, window_ms)
+  local w, i, c, p
+  if value then
+    w, i, c, p = string.match(value, '^(%d+):(%d+):(%d+):(%d+)$')
+  end
+  window_ms = window_ms or tonumber(w)
+  if not window_ms then
+    return nil
+  end
+  local index = math.floor(now / window_ms)
+  if not w or tonumber(w) ~= window_ms then
+    return window_ms, index, 0, 0
+  end
+  i = tonumber(i)
+  if i >= index then
+    -- Same window (or a caller whose clock is slightly behind).
+    return window_ms, i, tonumber(c), tonumber(p)
+  elseif i == index - 1 then
+    return window_ms, index, 0, tonumber(c)
+  end
+  return window_ms, index, 0, 0
+end
+
+local function sliding_window_estimate(now, window_ms, index, current, previous)
+  local left = window_ms - (now - index * window_ms)
+  if left > window_ms then
+    left = window_ms
+  elseif left < 0 then
+    left = 0
+  end
+  return current + math.floor(previous * left / window_ms)
+end
+
+local function sliding_window_add(key, now, window_ms, delta)
+  local _, index, current, previous = sliding_window_state(redis.call('GET', key), now, window_ms)
+  current = current + delta
+  redis.call('SET', key, window_ms .. ':' .. index .. ':' .. current .. ':' .. previous,
+      'PX', (index + 2) * window_ms - now)
+  return sliding_window_estimate(now, window_ms, index, current, previous)
+end
+
+local function sliding_window_get(key, now)
+  local window_ms, index, current, previous = sliding_window_state(redis.call('GET', key), now, nil)
+  if not window_ms then
+    return 0
+  end
+  return sliding_window_estimate(now, window_ms, index, current, previous)
+end
@@ -0,0 +1,104 @@
+-- Atomic multi-bucket token-bucket check.
+--
+-- Every bucket is refilled and checked first; tokens are debited only when
+-- all buckets admit the request, so a denial by one dimension (e.g. tenant)
+-- never drains another one (e.g. IP).
+--
+-- Several requests for the same buckets may be combined into one call asking
+-- for N permits: as many permits as every bucket can cover are granted (each
+-- permit debits one token from every bucket), the rest are denied.
+--
+-- Bucket state is read and written through read_bucket / write_bucket,
+-- provided by the limiter engine library prepended to this script
+-- (see redis/engine/*.lua).
+--
+-- All numbers are integers: tokens are micro-tokens (1 token = 1000000) and
+-- refill is given in micro-tokens per millisecond.
+--
+-- A negative permit count gives tokens back instead (capped at capacity); it undoes
+-- an earlier grant when buckets of one request live on different shards and a
+-- later shard denies.
+--
+-- KEYS[i]      = bucket key
+-- ARGV[1]      = now_millis
+-- ARGV[2]      = permits requested (>= 1), or tokens to give back (< 0)
+-- ARGV[2i + 1] = capacity of KEYS[i] in micro-tokens
+-- ARGV[2i + 2] = refill of KEYS[i] in micro-tokens per millisecond
+--
+-- Returns integer array:
+--   {granted_permits, min_remaining_tokens, max_retry_after_millis, denying_bucket}
+-- retry_after is 0 and denying_bucket is 0 when every permit was granted; otherwise
+-- denying_bucket is the 1-based index of the bucket with the longest wait.
+
+local SCALE = 1000000
+
+local now = tonumber(ARGV[1])
+local permits = tonumber(ARGV[2])
+local n = #KEYS
+
+if permits < 0 then
+  local min_remaining = nil
+  for i = 1, n do
+    local capacity = tonumber(ARGV[2 * i + 1])
+    local refill = tonumber(ARGV[2 * i + 2])
+    local new_tokens = read_bucket(KEYS[i], capacity, refill, now) - permits * SCALE
+    if new_tokens > capacity then
+      new_tokens = capacity
+    end
+    write_bucket(KEYS[i], new_tokens, capacity, refill, now)
+
+    local remaining_int = math.floor(new_tokens / SCALE)
+    if min_remaining == nil or remaining_int < min_remaining then
+      min_remaining = remaining_int
+    end
+  end
+  return {permits, min_remaining, 0, 0}
+end
+
+local tokens = {}
+local granted = permits
+
+for i = 1, n do
+  local new_tokens = read_bucket(KEYS[i], tonumber(ARGV[2 * i + 1]), tonumber(ARGV[2 * i + 2]), now)
+  tokens[i] = new_tokens
+
+  local whole = math.floor(new_tokens / SCALE)
+  if whole < granted then
+    granted = whole
+  end
+end
+
+local min_remaining = nil
+local retry_after = 0
+local denied = 0
+for i = 1, n do
+  local capacity = tonumber(ARGV[2 * i + 1])
+  local refill = tonumber(ARGV[2 * i + 2])
+  local new_tokens = tokens[i]
+  if granted > 0 then
+    new_tokens = new_tokens - granted * SCALE
+    write_bucket(KEYS[i], new_tokens, capacity, refill, now)
+  end
+
+  if granted < permits and new_tokens < SCALE then
+    local wait = 60000
+    if refill > 0 then
+      wait = math.ceil((SCALE - new_tokens) / refill)
+    end
+    if wait > retry_after then
+      retry_after = wait
+      denied = i
+    end
+  end
+
+  local remaining_int = math.floor(new_tokens / SCALE)
+  if min_remaining == nil or remaining_int < min_remaining then
+    min_remaining = remaining_int
+  end
+end
+
+if min_remaining == nil then
+  min_remaining = 0
+end
+
+return {granted, min_remaining, retry_after, denied}
@@ -0,0 +1,12 @@
+-- Adds hits to a sliding-window counter and returns the windowed count, in one
+-- atomic call (see lib/sliding_window.lua, prepended to this script).
+--
+-- KEYS[1] = counter key
+--
+-- ARGV[1] = now_millis (long)
+-- ARGV[2] = window millis
+-- ARGV[3] = hits to add
+--
+-- Returns integer array: {estimated_count}
+
+return {sliding_window_add(KEYS[1], tonumber(ARGV[1]), tonumber(ARGV[2]), tonumber(ARGV[3]))}
@@ -0,0 +1,48 @@
+-- Token lease: reserve a batch of whole tokens from a bucket for node-local use,
+-- optionally returning unused tokens of the previous lease in the same call.
+--
+-- Bucket state goes through read_bucket / write_bucket of the limiter engine
+-- library prepended to this script (see redis/engine/*.lua).
+--
+-- KEYS[1] = bucket key
+-- ARGV[1] = now_millis
+-- ARGV[2] = capacity in micro-tokens
+-- ARGV[3] = refill in micro-tokens per millisecond
+-- ARGV[4] = whole tokens returned from an expired lease (>= 0)
+-- ARGV[5] = whole tokens requested (>= 0)
+--
+-- Returns integer array: {granted_tokens, remaining_tokens, retry_after_millis}
+
+local SCALE = 1000000
+
+local key = KEYS[1]
+local now = tonumber(ARGV[1])
+local capacity = tonumber(ARGV[2])
+local refill = tonumber(ARGV[3])
+local returned = tonumber(ARGV[4])
+local requested = tonumber(ARGV[5])
+
+local new_tokens = read_bucket(key, capacity, refill, now) + returned * SCALE
+if new_tokens > capacity then
+  new_tokens = capacity
+end
+
+local granted = math.floor(new_tokens / SCALE)
+if granted > requested then
+  granted = requested
+end
+new_tokens = new_tokens - granted * SCALE
+
+local retry_after = 0
+if granted == 0 and requested > 0 then
+  retry_after = 60000
+  if refill > 0 then
+    retry_after = math.ceil((SCALE - new_tokens) / refill)
+  end
+end
+
+if granted > 0 or returned > 0 then
+  write_bucket(key, new_tokens, capacity, refill, now)
+end
+
+return {granted, math.floor(new_tokens / SCALE), retry_after}
@@ -1,17 +1,25 @@
 package com.github.dimitryivaniuta.gateway.botdefense;
 
 import com.github.dimitryivaniuta.gateway.botdefense.kafka.BotDefenseEventPublisher;
+import com.github.dimitryivaniuta.gateway.botdefense.net.CidrBlock;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.BucketKeys;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.FusedDecisionRedisClient;
 import com.github.dimitryivaniuta.gateway.botdefense.testsupport.Containers;
+import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
-import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.http.*;
 import org.springframework.test.context.DynamicPropertyRegistry;
 import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -26,7 +34,7 @@ class AdaptiveRateLimiterIT {
     @Autowired
     TestRestTemplate rest;
 
-    @MockBean
+    @MockitoBean
     BotDefenseEventPublisher publisher;
 
     @DynamicPropertySource
@@ -54,7 +62,7 @@ class AdaptiveRateLimiterIT {
                     new HttpEntity<>(h),
                     String.class
             );
-            lastStatus = resp.getStatusCodeValue();
+            lastStatus = resp.getStatusCode().value();
             if (lastStatus == 429) {
                 break;
             }
@@ -73,16 +81,16 @@ class AdaptiveRateLimiterIT {
         ResponseEntity<String> last = null;
         for (int i = 0; i < 20; i++) {
             last = rest.postForEntity("/api/auth/login", new HttpEntity<>(body, h), String.class);
-            if (last.getStatusCodeValue() == 403) {
+            if (last.getStatusCode().value() == 403) {
                 break;
             }
         }
 
         assertThat(last).isNotNull();
-        assertThat(last.getStatusCodeValue()).isIn(401, 403);
+        assertThat(last.getStatusCode().value()).isIn(401, 403);
 
         // When 403 happens, publisher must be called.
-        if (last.getStatusCodeValue() == 403) {
+        if (last.getStatusCode().value() == 403) {
             Mockito.verify(publisher, Mockito.atLeastOnce()).publishStepUpRequired(
                     anyString(), anyString(), any(), any(), anyString(), anyInt(), anyString(), anyString()
             );
@@ -92,4 +100,122 @@ class AdaptiveRateLimiterIT {
             );
         }
     }
+
+    /**
+     * {@code decision.mode=FUSED}: signals, tier and buckets evaluated by {@code fused_decision.lua}.
+     */
+    @Nested
+    @TestPropertySource(properties = "botdefense.decision.mode=FUSED")
+    class Fused {
+
+        @MockitoSpyBean
+        FusedDecisionRedisClient fused;
+
+        @Test
+        void shouldRateLimitUserBucketInOneScriptCall() {
+            HttpHeaders h = new HttpHeaders();
+            // The test client (127.0.0.1) is allowlisted but a trusted proxy: act for another client.
+            h.set("X-Forwarded-For", "198.51.100.20");
+            h.set("X-Tenant-Id", "fused-tenant");
+            h.set("X-User-Id", "fused-user");
+
+            // The user bucket (30 tokens) is the smallest of the buckets involved.
+            int allowed = 0;
+            ResponseEntity<String> last = null;
+            for (int i = 0; i < 45; i++) {
+                last = rest.exchange("/api/public/ping", HttpMethod.GET, new HttpEntity<>(h), String.class);
+                if (last.getStatusCode().value() != 200) {
+                    break;
+                }
+                allowed++;
+            }
+
+            assertThat(last.getStatusCode().value()).isEqualTo(429);
+            assertThat(last.getHeaders().getFirst("Retry-After")).isNotNull();
+            assertThat(allowed).isBetween(1, 30);
+            assertThat(Mockito.mockingDetails(fused).getInvocations()).isNotEmpty();
+        }
+    }
+
+    /**
+     * {@code decision.async=true}: the filter releases the request thread and applies the
+     * decision on the async dispatch.
+     */
+    @Nested
+    @TestPropertySource(properties = "botdefense.decision.async=true")
+    class Async {
+
+        @Test
+        void shouldRateLimitOnAsyncDispatch() {
+            HttpHeaders h = new HttpHeaders();
+            h.set("X-Forwarded-For", "198.51.100.30");
+            h.set("X-Tenant-Id", "async-tenant");
+            h.set("X-User-Id", "async-user");
+
+            ResponseEntity<String> first = rest.exchange("/api/public/ping", HttpMethod.GET, new HttpEntity<>(h), String.class);
+            assertThat(first.getStatusCode().value()).isEqualTo(200);
+            assertThat(first.getHeaders().getFirst("X-RateLimit-Remaining")).isNotNull();
+
+            ResponseEntity<String> last = first;
+            for (int i = 0; i < 45 && last.getStatusCode().value() == 200; i++) {
+                last = rest.exchange("/api/public/ping", HttpMethod.GET, new HttpEntity<>(h), String.class);
+            }
+            assertThat(last.getStatusCode().value()).isEqualTo(429);
+            assertThat(last.getBody()).contains("RATE_LIMITED");
+        }
+    }
+
+    /**
+     * IPv6 clients are also limited per /64 ({@code botdefense.ip.ipv6AggregatePrefix}).
+     */
+    @Nested
+    @TestPropertySource(properties = {
+            "botdefense.limits.subnet.capacity=20",
+            "botdefense.limits.subnet.refillPerSecond=0.1"
+    })
+    class SubnetAggregation {
+
+        @Autowired
+        StringRedisTemplate redis;
+
+        @Autowired
+        BucketKeys bucketKeys;
+
+        @Test
+        void shouldDenyAddressesSprayedAcrossOneSlash64() {
+            // Every request comes from a fresh address: no per-IP bucket ever runs low.
+            int allowed = 0;
+            ResponseEntity<String> last = null;
+            for (int i = 1; i <= 40; i++) {
+                last = rest.exchange("/api/public/ping", HttpMethod.GET,
+                        new HttpEntity<>(from("2001:db8:25::" + Integer.toHexString(i))), String.class);
+                if (last.getStatusCode().value() != 200) {
+                    break;
+                }
+                allowed++;
+            }
+
+            assertThat(last.getStatusCode().value()).isEqualTo(429);
+            // The full JSON error body is written, not a bare status from a failed serialization.
+            assertThat(last.getBody()).contains("\"code\":\"RATE_LIMITED\"").doesNotContain("stepUpAction");
+            assertThat(last.getHeaders().getFirst("Retry-After")).isNotNull();
+            assertThat(allowed).isBetween(1, 20);
+            byte[] subnetKey = bucketKeys.subnet(CidrBlock.parse("2001:db8:25::/64"), "public");
+            assertThat(redis.hasKey(new String(subnetKey, StandardCharsets.US_ASCII))).isTrue();
+
+            // Denied by the rl:s: bucket: a fresh address in the same /64 is limited, one in another /64 is not.
+            ResponseEntity<String> sameSubnet = rest.exchange("/api/public/ping", HttpMethod.GET,
+                    new HttpEntity<>(from("2001:db8:25::ffff")), String.class);
+            ResponseEntity<String> otherSubnet = rest.exchange("/api/public/ping", HttpMethod.GET,
+                    new HttpEntity<>(from("2001:db8:26::1")), String.class);
+            assertThat(sameSubnet.getStatusCode().value()).isEqualTo(429);
+            assertThat(otherSubnet.getStatusCode().value()).isEqualTo(200);
+        }
+
+        private HttpHeaders from(String ip) {
+            HttpHeaders h = new HttpHeaders();
+            h.set("X-Forwarded-For", ip);
+            return h;
+        }
+    }
 }
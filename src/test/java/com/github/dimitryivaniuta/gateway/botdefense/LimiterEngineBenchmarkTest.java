@@ -0,0 +1,112 @@
+package com.github.dimitryivaniuta.gateway.botdefense;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.BucketLimit;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.GcraEngine;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.LimiterEngine;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.RedisScriptBatcher;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.RedisShards;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.TokenBucketEngine;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.TokenBucketRedisClient;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.TokenLeaseManager;
+import com.github.dimitryivaniuta.gateway.botdefense.testsupport.Containers;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Side-by-side comparison of the limiter engines: throughput of the multi-bucket
+ * script and memory per bucket key.
+ *
+ * <p>Excluded from {@code test}; run with {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class LimiterEngineBenchmarkTest {
+
+    private static final int KEYS = 1_000;
+    private static final int WARMUP = 2_000;
+    private static final int CALLS = 20_000;
+
+    @Test
+    void compareTokenBucketAndGcra(TestReporter reporter) {
+        LettuceConnectionFactory cf = new LettuceConnectionFactory(Containers.REDIS.getHost(), Containers.REDIS.getMappedPort(6379));
+        cf.afterPropertiesSet();
+        StringRedisTemplate tpl = new StringRedisTemplate(cf);
+        tpl.afterPropertiesSet();
+
+        Result tokenBucket = run(tpl, new TokenBucketEngine());
+        Result gcra = run(tpl, new GcraEngine());
+
+        for (Result r : List.of(tokenBucket, gcra)) {
+            reporter.publishEntry(r.engine(), String.format("%.0f calls/s, %.1f bytes/key", r.callsPerSecond(), r.bytesPerKey()));
+            assertThat(r.callsPerSecond()).isPositive();
+            assertThat(r.bytesPerKey()).isPositive();
+        }
+
+        assertThat(gcra.bytesPerKey()).isLessThanOrEqualTo(tokenBucket.bytesPerKey());
+
+        cf.destroy();
+    }
+
+    private static Result run(StringRedisTemplate tpl, LimiterEngine engine) {
+        BotDefenseProperties props = new BotDefenseProperties();
+        TokenLeaseManager leases = new TokenLeaseManager(new RedisShards(tpl, props), engine.script("redis/token_lease.lua"), props);
+        RedisScriptBatcher batcher = new RedisScriptBatcher(tpl, props, new SimpleMeterRegistry());
+        TokenBucketRedisClient client = new TokenBucketRedisClient(new RedisShards(tpl, props), TokenBucketRedisClientTest.reactive(tpl), engine.script("redis/multi_token_bucket.lua"), leases, batcher, props,
+                ForkJoinPool.commonPool());
+
+        BucketLimit limit = BucketLimit.of(60, 1.0);
+        List<List<TokenBucketRedisClient.BucketSpec>> requests = new ArrayList<>(KEYS);
+        List<String> keys = new ArrayList<>(KEYS * 3);
+        for (int i = 0; i < KEYS; i++) {
+            String ip = "bench:" + engine.name() + ":ip:" + i;
+            String user = "bench:" + engine.name() + ":user:" + i;
+            String tenant = "bench:" + engine.name() + ":tenant:" + (i % 10);
+            keys.add(ip);
+            keys.add(user);
+            keys.add(tenant);
+            requests.add(List.of(spec(ip, limit), spec(user, limit), spec(tenant, limit)));
+        }
+        tpl.delete(keys);
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < WARMUP; i++) {
+            client.consumeAll(requests.get(i % KEYS), now + i);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < CALLS; i++) {
+            client.consumeAll(requests.get(i % KEYS), now + WARMUP + i);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long bytes = 0;
+        for (int i = 0; i < KEYS; i++) {
+            byte[] key = keys.get(i * 3).getBytes(StandardCharsets.UTF_8);
+            Long usage = tpl.execute((RedisCallback<Long>) c ->
+                    (Long) c.execute("MEMORY", "USAGE".getBytes(StandardCharsets.US_ASCII), key));
+            bytes += usage == null ? 0 : usage;
+        }
+
+        tpl.delete(keys);
+        leases.close();
+        return new Result(engine.name(), CALLS / seconds, (double) bytes / KEYS);
+    }
+
+    private static TokenBucketRedisClient.BucketSpec spec(String key, BucketLimit limit) {
+        return new TokenBucketRedisClient.BucketSpec(key.getBytes(StandardCharsets.UTF_8), limit);
+    }
+
+    private record Result(String engine, double callsPerSecond, double bytesPerKey) {
+    }
+}
@@ -1,11 +1,22 @@
 package com.github.dimitryivaniuta.gateway.botdefense;
 
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
 import com.github.dimitryivaniuta.gateway.botdefense.model.RequestContext;
+import com.github.dimitryivaniuta.gateway.botdefense.net.IpResolverProperties;
+import com.github.dimitryivaniuta.gateway.botdefense.net.SubnetAggregator;
+import com.github.dimitryivaniuta.gateway.botdefense.risk.LoginFailureSignal;
+import com.github.dimitryivaniuta.gateway.botdefense.risk.RequestRateSignal;
 import com.github.dimitryivaniuta.gateway.botdefense.risk.RiskScoringService;
+import com.github.dimitryivaniuta.gateway.botdefense.risk.RiskSignal;
 import com.github.dimitryivaniuta.gateway.botdefense.risk.RiskSignalStore;
+import com.github.dimitryivaniuta.gateway.botdefense.risk.UserAgentClassifier;
+import com.github.dimitryivaniuta.gateway.botdefense.risk.UserAgentSignal;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
 /**
@@ -18,9 +29,65 @@ class RiskScoringServiceTest {
         RiskSignalStore store = Mockito.mock(RiskSignalStore.class);
         Mockito.when(store.incrementIpRequestRate("1.2.3.4")).thenReturn(1L);
 
-        RiskScoringService svc = new RiskScoringService(store);
+        RiskScoringService svc = scorer(store);
         RequestContext ctx = new RequestContext("c", "1.2.3.4", "GET", "/api/public/ping", "public", "t1", "u1", "curl/8.0");
         int score = svc.score(ctx);
         assertThat(score).isGreaterThanOrEqualTo(20);
     }
+
+    @Test
+    void shouldCountTheRequestEvenWhenTheOutcomeIsDecided() {
+        RiskSignalStore store = Mockito.mock(RiskSignalStore.class);
+        Mockito.when(store.getLoginFailures("t1", "u1", "1.2.3.4")).thenReturn(50L);
+        Mockito.when(store.getLoginFailuresAsync("t1", "u1", "1.2.3.4")).thenReturn(CompletableFuture.completedFuture(50L));
+        Mockito.when(store.incrementIpRequestRateAsync("1.2.3.4")).thenReturn(CompletableFuture.completedFuture(1L));
+
+        RiskScoringService svc = scorer(store);
+        RequestContext ctx = new RequestContext("c", "1.2.3.4", "POST", "/api/auth/login", "login", "t1", "u1", "curl/8.0");
+
+        // UA (20) + login failures (80) already reach the cap, but the request must still be counted.
+        assertThat(svc.score(ctx)).isEqualTo(100);
+        Mockito.verify(store).incrementIpRequestRate("1.2.3.4");
+
+        assertThat(svc.scoreAsync(ctx).join()).isEqualTo(100);
+        Mockito.verify(store).incrementIpRequestRateAsync("1.2.3.4");
+    }
+
+    @Test
+    void shouldSkipReadsThatCannotChangeTheOutcome() {
+        RiskSignal read = Mockito.mock(RiskSignal.class);
+        Mockito.when(read.cost()).thenReturn(RiskSignal.Cost.REDIS_READ);
+        Mockito.when(read.maxScore()).thenReturn(50);
+        Mockito.when(read.appliesTo(Mockito.any())).thenReturn(true);
+        RiskSignal write = Mockito.mock(RiskSignal.class);
+        Mockito.when(write.cost()).thenReturn(RiskSignal.Cost.REDIS_WRITE);
+        Mockito.when(write.maxScore()).thenReturn(50);
+        Mockito.when(write.appliesTo(Mockito.any())).thenReturn(true);
+        Mockito.when(write.scoreAsync(Mockito.any())).thenReturn(CompletableFuture.completedFuture(0));
+        RiskSignal local = Mockito.mock(RiskSignal.class);
+        Mockito.when(local.cost()).thenReturn(RiskSignal.Cost.LOCAL);
+        Mockito.when(local.maxScore()).thenReturn(100);
+        Mockito.when(local.appliesTo(Mockito.any())).thenReturn(true);
+        Mockito.when(local.score(Mockito.any())).thenReturn(100);
+        Mockito.when(local.scoreAsync(Mockito.any())).thenReturn(CompletableFuture.completedFuture(100));
+
+        BotDefenseProperties props = new BotDefenseProperties();
+        RiskScoringService svc = new RiskScoringService(List.of(write, read, local), props);
+        RequestContext ctx = new RequestContext("c", "1.2.3.4", "GET", "/api/public/ping", "public", "t1", "u1", "x");
+
+        assertThat(svc.score(ctx)).isEqualTo(100);
+        assertThat(svc.scoreAsync(ctx).join()).isEqualTo(100);
+        Mockito.verify(read, Mockito.never()).score(Mockito.any());
+        Mockito.verify(read, Mockito.never()).scoreAsync(Mockito.any());
+        Mockito.verify(write).score(ctx);
+        Mockito.verify(write).scoreAsync(ctx);
+    }
+
+    private static RiskScoringService scorer(RiskSignalStore store) {
+        BotDefenseProperties props = new BotDefenseProperties();
+        return new RiskScoringService(List.of(
+                new RequestRateSignal(store, new SubnetAggregator(new IpResolverProperties())),
+                new LoginFailureSignal(store),
+                new UserAgentSignal(new UserAgentClassifier(props), props)), props);
+    }
 }
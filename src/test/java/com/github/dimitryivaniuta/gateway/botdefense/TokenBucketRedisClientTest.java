@@ -1,13 +1,37 @@
 package com.github.dimitryivaniuta.gateway.botdefense;
 
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.BucketLimit;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.GcraEngine;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.LimiterEngine;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.RedisScriptBatcher;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.RedisShards;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.TokenBucketEngine;
 import com.github.dimitryivaniuta.gateway.botdefense.redis.TokenBucketRedisClient;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.TokenLeaseManager;
 import com.github.dimitryivaniuta.gateway.botdefense.testsupport.Containers;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
-import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
 import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -16,11 +40,25 @@ import static org.assertj.core.api.Assertions.assertThat;
  */
 class TokenBucketRedisClientTest {
 
+    /**
+     * Shards, lease managers, batchers and other background workers created by the tests;
+     * closed in reverse order of creation.
+     */
+    private final List<AutoCloseable> resources = new ArrayList<>();
+
     @AfterAll
     static void cleanup() {
         // Leave containers running for other tests.
     }
 
+    @AfterEach
+    void closeResources() throws Exception {
+        for (int i = resources.size() - 1; i >= 0; i--) {
+            resources.get(i).close();
+        }
+        resources.clear();
+    }
+
     @Test
     void shouldConsumeAndThenDenyWhenEmpty() {
         LettuceConnectionFactory cf = new LettuceConnectionFactory(Containers.REDIS.getHost(), Containers.REDIS.getMappedPort(6379));
@@ -28,11 +66,7 @@ class TokenBucketRedisClientTest {
         StringRedisTemplate tpl = new StringRedisTemplate(cf);
         tpl.afterPropertiesSet();
 
-        DefaultRedisScript<String> script = new DefaultRedisScript<>();
-        script.setLocation(new ClassPathResource("redis/token_bucket.lua"));
-        script.setResultType(String.class);
-
-        TokenBucketRedisClient client = new TokenBucketRedisClient(tpl, script);
+        TokenBucketRedisClient client = client(tpl, new BotDefenseProperties());
 
         String key = "test:bucket";
         tpl.delete(key);
@@ -48,4 +82,351 @@ class TokenBucketRedisClientTest {
 
         cf.destroy();
     }
+
+    @Test
+    void multiBucketShouldNotDebitWhenAnyBucketDenies() {
+        LettuceConnectionFactory cf = new LettuceConnectionFactory(Containers.REDIS.getHost(), Containers.REDIS.getMappedPort(6379));
+        cf.afterPropertiesSet();
+        StringRedisTemplate tpl = new StringRedisTemplate(cf);
+        tpl.afterPropertiesSet();
+
+        TokenBucketRedisClient client = client(tpl, new BotDefenseProperties());
+
+        String ipKey = "test:multi:ip";
+        String tenantKey = "test:multi:tenant";
+        tpl.delete(List.of(ipKey, tenantKey));
+
+        long now = System.currentTimeMillis();
+        TokenBucketRedisClient.BucketSpec ip = spec(ipKey, 5, 0);
+        List<TokenBucketRedisClient.BucketSpec> specs = List.of(ip, spec(tenantKey, 1, 0));
+
+        TokenBucketRedisClient.BucketResult first = client.consumeAll(specs, now);
+        assertThat(first.allowed()).isTrue();
+        assertThat(first.remainingTokens()).isZero();
+
+        // Tenant bucket is empty: the IP bucket must keep its 4 tokens.
+        for (int i = 0; i < 3; i++) {
+            TokenBucketRedisClient.BucketResult denied = client.consumeAll(specs, now);
+            assertThat(denied.allowed()).isFalse();
+            assertThat(denied.retryAfterMillis()).isPositive();
+        }
+        TokenBucketRedisClient.BucketResult ipOnly = client.consumeAll(List.of(ip), now);
+        assertThat(ipOnly.allowed()).isTrue();
+        assertThat(ipOnly.remainingTokens()).isEqualTo(3);
+
+        cf.destroy();
+    }
+
+    @Test
+    void shouldRecoverFromNoScript() {
+        LettuceConnectionFactory cf = new LettuceConnectionFactory(Containers.REDIS.getHost(), Containers.REDIS.getMappedPort(6379));
+        cf.afterPropertiesSet();
+        StringRedisTemplate tpl = new StringRedisTemplate(cf);
+        tpl.afterPropertiesSet();
+
+        TokenBucketRedisClient client = client(tpl, new BotDefenseProperties());
+        String key = "test:noscript";
+        tpl.delete(key);
+
+        tpl.execute((RedisCallback<Void>) c -> {
+            c.scriptingCommands().scriptFlush();
+            return null;
+        });
+
+        long now = System.currentTimeMillis();
+        TokenBucketRedisClient.BucketResult r = client.consumeAll(List.of(spec(key, 2, 1.0)), now);
+        assertThat(r.allowed()).isTrue();
+        assertThat(r.remainingTokens()).isEqualTo(1);
+
+        cf.destroy();
+    }
+
+    @Test
+    void leasedBucketShouldNotAdmitMoreThanCapacity() {
+        LettuceConnectionFactory cf = new LettuceConnectionFactory(Containers.REDIS.getHost(), Containers.REDIS.getMappedPort(6379));
+        cf.afterPropertiesSet();
+        StringRedisTemplate tpl = new StringRedisTemplate(cf);
+        tpl.afterPropertiesSet();
+
+        BotDefenseProperties props = new BotDefenseProperties();
+        props.getRedis().getLeasing().setEnabled(true);
+        props.getRedis().getLeasing().setKeyPrefixes(List.of("test:lease:"));
+        props.getRedis().getLeasing().setLeaseMillis(60_000);
+        TokenBucketRedisClient client = client(tpl, props);
+
+        String key = "test:lease:tenant";
+        tpl.delete(key);
+
+        long now = System.currentTimeMillis();
+        List<TokenBucketRedisClient.BucketSpec> specs = List.of(spec(key, 10, 0));
+        int admitted = 0;
+        for (int i = 0; i < 15; i++) {
+            if (client.consumeAll(specs, now + i).allowed()) {
+                admitted++;
+            }
+        }
+        assertThat(admitted).isEqualTo(10);
+
+        cf.destroy();
+    }
+
+    @Test
+    void gcraEngineShouldMatchTokenBucketDecisions() {
+        LettuceConnectionFactory cf = new LettuceConnectionFactory(Containers.REDIS.getHost(), Containers.REDIS.getMappedPort(6379));
+        cf.afterPropertiesSet();
+        StringRedisTemplate tpl = new StringRedisTemplate(cf);
+        tpl.afterPropertiesSet();
+
+        TokenBucketRedisClient hash = client(tpl, new BotDefenseProperties(), new TokenBucketEngine());
+        TokenBucketRedisClient gcra = client(tpl, new BotDefenseProperties(), new GcraEngine());
+        String hashKey = "test:engine:hash";
+        String gcraKey = "test:engine:gcra";
+        tpl.delete(List.of(hashKey, gcraKey));
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 40; i++) {
+            // 5 tokens, 2 tokens/s, one request every 100 ms: drains, then admits every 5th request.
+            long t = now + i * 100L;
+            TokenBucketRedisClient.BucketResult a = hash.consumeAll(List.of(spec(hashKey, 5, 2.0)), t);
+            TokenBucketRedisClient.BucketResult b = gcra.consumeAll(List.of(spec(gcraKey, 5, 2.0)), t);
+            assertThat(b).isEqualTo(a);
+        }
+        assertThat(tpl.type(gcraKey).code()).isEqualTo("string");
+
+        cf.destroy();
+    }
+
+    @Test
+    void batchedCallsShouldKeepPerCallerResults() throws Exception {
+        LettuceConnectionFactory cf = new LettuceConnectionFactory(Containers.REDIS.getHost(), Containers.REDIS.getMappedPort(6379));
+        cf.afterPropertiesSet();
+        StringRedisTemplate tpl = new StringRedisTemplate(cf);
+        tpl.afterPropertiesSet();
+
+        BotDefenseProperties props = new BotDefenseProperties();
+        props.getRedis().getBatching().setEnabled(true);
+        props.getRedis().getBatching().setMaxWaitMicros(2_000);
+        SimpleMeterRegistry metrics = new SimpleMeterRegistry();
+        RedisShards shards = new RedisShards(tpl, props);
+        resources.add(shards);
+        TokenLeaseManager leases = new TokenLeaseManager(shards, new TokenBucketEngine().script("redis/token_lease.lua"), props);
+        resources.add(leases);
+        try (RedisScriptBatcher batcher = new RedisScriptBatcher(tpl, props, metrics)) {
+            TokenBucketRedisClient client = new TokenBucketRedisClient(shards, reactive(tpl),
+                    new TokenBucketEngine().script("redis/multi_token_bucket.lua"), leases, batcher, props,
+                ForkJoinPool.commonPool());
+
+            String key = "test:batch";
+            tpl.delete(key);
+            List<TokenBucketRedisClient.BucketSpec> specs = List.of(spec(key, 100, 0));
+            long now = System.currentTimeMillis();
+
+            ExecutorService pool = Executors.newFixedThreadPool(16);
+            List<Future<Boolean>> calls = new ArrayList<>();
+            for (int i = 0; i < 160; i++) {
+                calls.add(pool.submit(() -> client.consumeAll(specs, now).allowed()));
+            }
+            int admitted = 0;
+            for (Future<Boolean> f : calls) {
+                if (f.get()) {
+                    admitted++;
+                }
+            }
+            pool.shutdown();
+
+            assertThat(admitted).isEqualTo(100);
+            assertThat(metrics.get("botdefense.redis.batch.size").summary().max()).isGreaterThan(1.0);
+        }
+
+        cf.destroy();
+    }
+
+    @Test
+    void combinedCallsShouldSplitGrantedPermits() throws Exception {
+        LettuceConnectionFactory cf = new LettuceConnectionFactory(Containers.REDIS.getHost(), Containers.REDIS.getMappedPort(6379));
+        cf.afterPropertiesSet();
+        StringRedisTemplate tpl = new StringRedisTemplate(cf);
+        tpl.afterPropertiesSet();
+
+        BotDefenseProperties props = new BotDefenseProperties();
+        props.getRedis().getCombining().setEnabled(true);
+        TokenBucketRedisClient client = client(tpl, props);
+
+        String key = "test:combine";
+        tpl.delete(key);
+        List<TokenBucketRedisClient.BucketSpec> specs = List.of(spec(key, 50, 0));
+        long now = System.currentTimeMillis();
+        long scriptCallsBefore = scriptCalls(tpl);
+
+        ExecutorService pool = Executors.newFixedThreadPool(32);
+        List<Future<TokenBucketRedisClient.BucketResult>> calls = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            calls.add(pool.submit(() -> client.consumeAll(specs, now)));
+        }
+        int admitted = 0;
+        for (Future<TokenBucketRedisClient.BucketResult> f : calls) {
+            TokenBucketRedisClient.BucketResult r = f.get();
+            if (r.allowed()) {
+                admitted++;
+            } else {
+                assertThat(r.retryAfterMillis()).isPositive();
+            }
+        }
+        pool.shutdown();
+
+        assertThat(admitted).isEqualTo(50);
+        // Callers queued behind an in-flight call were merged into multi-permit calls.
+        assertThat(scriptCalls(tpl) - scriptCallsBefore).isPositive().isLessThan(200);
+
+        cf.destroy();
+    }
+
+    @Test
+    void asyncConsumeShouldMatchBlockingConsume() {
+        LettuceConnectionFactory cf = new LettuceConnectionFactory(Containers.REDIS.getHost(), Containers.REDIS.getMappedPort(6379));
+        cf.afterPropertiesSet();
+        StringRedisTemplate tpl = new StringRedisTemplate(cf);
+        tpl.afterPropertiesSet();
+
+        TokenBucketRedisClient client = client(tpl, new BotDefenseProperties());
+
+        String key = "test:async";
+        tpl.delete(key);
+        List<TokenBucketRedisClient.BucketSpec> specs = List.of(spec(key, 2, 0));
+        long now = System.currentTimeMillis();
+
+        assertThat(client.consumeAllAsync(specs, now).join().allowed()).isTrue();
+        assertThat(client.consumeAll(specs, now).allowed()).isTrue();
+        TokenBucketRedisClient.BucketResult denied = client.consumeAllAsync(specs, now).join();
+        assertThat(denied.allowed()).isFalse();
+        assertThat(denied.deniedBucket()).isZero();
+
+        cf.destroy();
+    }
+
+    @Test
+    void asyncConsumeShouldHandBlockingCallsToTheExecutor() throws Exception {
+        LettuceConnectionFactory cf = new LettuceConnectionFactory(Containers.REDIS.getHost(), Containers.REDIS.getMappedPort(6379));
+        cf.afterPropertiesSet();
+        StringRedisTemplate tpl = new StringRedisTemplate(cf);
+        tpl.afterPropertiesSet();
+
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        resources.add(pool);
+        AtomicInteger handedOff = new AtomicInteger();
+        Executor executor = task -> {
+            handedOff.incrementAndGet();
+            pool.execute(task);
+        };
+
+        BotDefenseProperties combining = new BotDefenseProperties();
+        combining.getRedis().getCombining().setEnabled(true);
+        TokenBucketRedisClient combined = client(tpl, combining, new TokenBucketEngine(), executor);
+        TokenBucketRedisClient reactive = client(tpl, new BotDefenseProperties(), new TokenBucketEngine(), executor);
+
+        String key = "test:async:executor";
+        tpl.delete(key);
+        List<TokenBucketRedisClient.BucketSpec> specs = List.of(spec(key, 5, 0));
+        long now = System.currentTimeMillis();
+
+        // Combined calls block on the leader's Redis call: never on the caller's (possibly I/O) thread.
+        CompletableFuture<TokenBucketRedisClient.BucketResult> viaExecutor = combined.consumeAllAsync(specs, now);
+        assertThat(viaExecutor.get(5, TimeUnit.SECONDS).remainingTokens()).isEqualTo(4);
+        assertThat(handedOff).hasValue(1);
+
+        // Plain calls stay on the reactive connection.
+        assertThat(reactive.consumeAllAsync(specs, now).get(5, TimeUnit.SECONDS).remainingTokens()).isEqualTo(3);
+        assertThat(handedOff).hasValue(1);
+
+        cf.destroy();
+    }
+
+    @Test
+    void bucketsOnDifferentShardsShouldBeRefundedOnDenial() {
+        LettuceConnectionFactory cf = new LettuceConnectionFactory(Containers.REDIS.getHost(), Containers.REDIS.getMappedPort(6379));
+        cf.afterPropertiesSet();
+        StringRedisTemplate tpl = new StringRedisTemplate(cf);
+        tpl.afterPropertiesSet();
+
+        // Two logical databases of the test Redis stand in for two shards.
+        String node = "redis://" + Containers.REDIS.getHost() + ":" + Containers.REDIS.getMappedPort(6379);
+        BotDefenseProperties props = new BotDefenseProperties();
+        props.getRedis().getSharding().setNodes(List.of(node + "/0", node + "/1"));
+        TokenBucketRedisClient client = client(tpl, props);
+
+        try (RedisShards shards = new RedisShards(tpl, props)) {
+            String ipKey = "test:shard:{ip}";
+            String tenantKey = null;
+            for (int i = 0; tenantKey == null; i++) {
+                String candidate = "test:shard:{tenant-" + i + "}";
+                if (shards.groupOf(bytes(candidate)) != shards.groupOf(bytes(ipKey))) {
+                    tenantKey = candidate;
+                }
+            }
+            shards.forKey(ipKey).delete(ipKey);
+            shards.forKey(tenantKey).delete(tenantKey);
+
+            List<TokenBucketRedisClient.BucketSpec> specs = List.of(spec(ipKey, 5, 0), spec(tenantKey, 1, 0));
+            long now = System.currentTimeMillis();
+
+            assertThat(client.consumeAll(specs, now).allowed()).isTrue();
+            TokenBucketRedisClient.BucketResult denied = client.consumeAll(specs, now);
+            assertThat(denied.allowed()).isFalse();
+            assertThat(denied.deniedBucket()).isEqualTo(1);
+
+            // The IP token taken before the tenant shard denied was given back.
+            assertThat(client.consumeAll(List.of(spec(ipKey, 5, 0)), now).remainingTokens()).isEqualTo(3);
+        }
+
+        cf.destroy();
+    }
+
+    /**
+     * Script executions served by the test Redis so far.
+     */
+    private static long scriptCalls(StringRedisTemplate tpl) {
+        Properties stats = tpl.execute((RedisCallback<Properties>) c -> c.serverCommands().info("commandstats"));
+        long calls = 0;
+        for (String command : List.of("cmdstat_evalsha", "cmdstat_eval")) {
+            String value = stats == null ? null : stats.getProperty(command);
+            if (value != null) {
+                // calls=<n>,usec=...
+                calls += Long.parseLong(value.substring("calls=".length(), value.indexOf(',')));
+            }
+        }
+        return calls;
+    }
+
+    private static byte[] bytes(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private TokenBucketRedisClient client(StringRedisTemplate tpl, BotDefenseProperties props) {
+        return client(tpl, props, new TokenBucketEngine());
+    }
+
+    private TokenBucketRedisClient client(StringRedisTemplate tpl, BotDefenseProperties props, LimiterEngine engine) {
+        return client(tpl, props, engine, ForkJoinPool.commonPool());
+    }
+
+    private TokenBucketRedisClient client(StringRedisTemplate tpl, BotDefenseProperties props, LimiterEngine engine,
+                                          Executor executor) {
+        RedisShards shards = new RedisShards(tpl, props);
+        resources.add(shards);
+        TokenLeaseManager leases = new TokenLeaseManager(shards, engine.script("redis/token_lease.lua"), props);
+        resources.add(leases);
+        RedisScriptBatcher batcher = new RedisScriptBatcher(tpl, props, new SimpleMeterRegistry());
+        resources.add(batcher);
+        return new TokenBucketRedisClient(shards, reactive(tpl), engine.script("redis/multi_token_bucket.lua"), leases, batcher, props,
+                executor);
+    }
+
+    static ReactiveStringRedisTemplate reactive(StringRedisTemplate tpl) {
+        return new ReactiveStringRedisTemplate((ReactiveRedisConnectionFactory) tpl.getRequiredConnectionFactory());
+    }
+
+    private static TokenBucketRedisClient.BucketSpec spec(String key, double capacity, double refillPerSecond) {
+        return new TokenBucketRedisClient.BucketSpec(key.getBytes(StandardCharsets.UTF_8),
+                BucketLimit.of(capacity, refillPerSecond));
+    }
 }
@@ -0,0 +1,34 @@
+package com.github.dimitryivaniuta.gateway.botdefense.api;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import com.github.dimitryivaniuta.gateway.botdefense.model.RequestContext;
+import com.github.dimitryivaniuta.gateway.botdefense.risk.HeavyHitters;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HeavyHittersEndpointTest {
+
+    @Test
+    void listsEveryDimensionWithRequestsAndDenials() {
+        HeavyHitters hitters = new HeavyHitters(new BotDefenseProperties());
+        for (int ip = 0; ip < 30; ip++) {
+            hitters.record(new RequestContext("c", "10.0.0." + ip, "GET", "/api/x", "public", "t1", "u1", "ua"),
+                    ip == 0, 1_000);
+        }
+        HeavyHittersEndpoint endpoint = new HeavyHittersEndpoint(hitters);
+
+        Map<String, Map<String, List<HeavyHitters.HeavyHitter>>> all = endpoint.heavyHitters(null);
+        assertEquals(List.of("ip", "user", "tenant", "routeGroup"), List.copyOf(all.keySet()));
+        assertEquals(List.of("requests", "denials"), List.copyOf(all.get("ip").keySet()));
+        // Default limit.
+        assertEquals(20, all.get("ip").get("requests").size());
+        assertEquals("10.0.0.0", all.get("ip").get("denials").get(0).key());
+
+        assertEquals(5, endpoint.heavyHitters(5).get("ip").get("requests").size());
+        assertEquals(20, endpoint.heavyHitters(0).get("ip").get("requests").size());
+    }
+}
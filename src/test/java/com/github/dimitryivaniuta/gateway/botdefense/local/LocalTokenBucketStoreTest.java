@@ -0,0 +1,62 @@
+package com.github.dimitryivaniuta.gateway.botdefense.local;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.BucketLimit;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.TokenBucketRedisClient;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalTokenBucketStoreTest {
+
+    @Test
+    void deniesAllOrNothingAndRefills() {
+        LocalTokenBucketStore store = store(new BotDefenseProperties());
+        TokenBucketRedisClient.BucketSpec ip = spec("ip", 5, 1);
+        TokenBucketRedisClient.BucketSpec tenant = spec("tenant", 1, 1);
+
+        TokenBucketRedisClient.BucketResult first = store.consumeAll(List.of(ip, tenant), 1_000);
+        assertTrue(first.allowed());
+        assertEquals(0, first.remainingTokens());
+
+        TokenBucketRedisClient.BucketResult denied = store.consumeAll(List.of(ip, tenant), 1_000);
+        assertFalse(denied.allowed());
+        assertEquals(1, denied.deniedBucket());
+        assertEquals(1_000, denied.retryAfterMillis());
+
+        // The tenant denial must not have drained the IP bucket.
+        assertEquals(3, store.consumeAll(List.of(ip), 1_000).remainingTokens());
+        assertTrue(store.consumeAll(List.of(ip, tenant), 2_000).allowed());
+    }
+
+    @Test
+    void offHeapTableEvictsWhenFull() {
+        BotDefenseProperties props = new BotDefenseProperties();
+        props.getLocal().setMaxBuckets(64);
+        props.getLocal().setStripes(4);
+        props.getLocal().setOffHeap(true);
+        LocalTokenBucketStore store = store(props);
+
+        for (int i = 0; i < 1_000; i++) {
+            assertTrue(store.consumeAll(List.of(spec("ip:" + i, 2, 0)), i).allowed());
+        }
+
+        LocalBucketTable table = store.table();
+        assertEquals(64, table.slots());
+        assertTrue(table.size() <= table.slots());
+        assertTrue(table.evictions() > 0);
+    }
+
+    private static LocalTokenBucketStore store(BotDefenseProperties props) {
+        return new LocalTokenBucketStore(props, new SimpleMeterRegistry());
+    }
+
+    private static TokenBucketRedisClient.BucketSpec spec(String key, double capacity, double refillPerSecond) {
+        return new TokenBucketRedisClient.BucketSpec(key.getBytes(StandardCharsets.UTF_8),
+                BucketLimit.of(capacity, refillPerSecond));
+    }
+}
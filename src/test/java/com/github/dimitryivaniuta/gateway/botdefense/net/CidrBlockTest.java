@@ -19,4 +19,16 @@ class CidrBlockTest {
         assertTrue(c.contains("2001:db8:abcd::1"));
         assertFalse(c.contains("2001:db9::1"));
     }
+
+    @Test
+    void matchesLiteralsOnlyAndKeepsFamiliesApart() {
+        CidrBlock c = CidrBlock.parse("192.168.0.0/23");
+        assertTrue(c.contains("192.168.1.255"));
+        assertTrue(c.contains("::ffff:192.168.0.1"));
+        assertFalse(c.contains("192.168.2.0"));
+        assertFalse(c.contains("localhost"));
+        assertFalse(CidrBlock.parse("::/0").contains("10.0.0.1"));
+        assertTrue(CidrBlock.parse("0.0.0.0/0").contains("10.0.0.1"));
+        assertTrue(CidrBlock.parse("::ffff:10.0.0.0/104").contains("10.20.30.40"));
+    }
 }
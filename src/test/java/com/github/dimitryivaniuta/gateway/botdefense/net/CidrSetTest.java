@@ -0,0 +1,81 @@
+package com.github.dimitryivaniuta.gateway.botdefense.net;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CidrSetTest {
+
+    @Test
+    void returnsLongestMatchPerFamily() {
+        CidrSet set = CidrSet.parse(List.of("10.0.0.0/8", "10.1.0.0/16", "10.1.2.3/32", "2001:db8::/32",
+                "2001:db8:1::/48", "bogus", "10.1.0.0/16"));
+        assertEquals(5, set.size());
+
+        assertEquals("10.1.2.3/32", set.longestMatch(IpAddress.parse("10.1.2.3")).toString());
+        assertEquals("10.1.0.0/16", set.longestMatch(IpAddress.parse("10.1.9.9")).toString());
+        assertEquals("10.0.0.0/8", set.longestMatch(IpAddress.parse("10.200.0.1")).toString());
+        assertNull(set.longestMatch(IpAddress.parse("11.0.0.1")));
+
+        assertEquals("2001:db8:1::/48", set.longestMatch(IpAddress.parse("2001:db8:1::7")).toString());
+        assertEquals("2001:db8::/32", set.longestMatch(IpAddress.parse("2001:db8:2::7")).toString());
+        assertFalse(set.contains(IpAddress.parse("2001:db9::1")));
+        assertFalse(set.contains(null));
+    }
+
+    @Test
+    void keepsFamiliesApart() {
+        CidrSet set = CidrSet.parse(List.of("::/0"));
+        assertTrue(set.contains(IpAddress.parse("::1")));
+        assertFalse(set.contains(IpAddress.parse("192.0.2.1")));
+        assertTrue(CidrSet.parse(List.of("0.0.0.0/0")).contains(IpAddress.parse("::ffff:192.0.2.1")));
+    }
+
+    @Test
+    void agreesWithALinearScanOnRandomBlocks() {
+        Random random = new Random(20_240_611);
+        int[] v4Prefixes = {10 << 24, 172 << 24 | 16 << 16, 192 << 24 | 168 << 16, 203 << 24};
+        long[] v6Prefixes = {0x2001_0db8_0000_0000L, 0x2001_0db8_0001_0000L, 0x2a00_1450_0000_0000L};
+
+        List<CidrBlock> blocks = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            if (random.nextBoolean()) {
+                // Clustered around a few networks so that blocks nest and overlap.
+                int addr = v4Prefixes[random.nextInt(v4Prefixes.length)] | random.nextInt(1 << 16);
+                blocks.add(CidrBlock.of(IpAddress.ofIpv4(addr), 4 + random.nextInt(29)));
+            } else {
+                long high = v6Prefixes[random.nextInt(v6Prefixes.length)] | (random.nextLong() & 0xffff_ffffL);
+                blocks.add(CidrBlock.of(IpAddress.ofIpv6(high, random.nextLong()), 16 + random.nextInt(113)));
+            }
+        }
+        CidrSet set = CidrSet.of(blocks);
+
+        for (int i = 0; i < 50_000; i++) {
+            IpAddress addr;
+            if (random.nextBoolean()) {
+                int bits = random.nextInt(4) == 0 ? random.nextInt()
+                        : v4Prefixes[random.nextInt(v4Prefixes.length)] | random.nextInt(1 << 16);
+                addr = IpAddress.ofIpv4(bits);
+            } else {
+                long high = random.nextInt(4) == 0 ? random.nextLong()
+                        : v6Prefixes[random.nextInt(v6Prefixes.length)] | (random.nextLong() & 0xffff_ffffL);
+                addr = IpAddress.ofIpv6(high, random.nextLong());
+            }
+
+            CidrBlock expected = null;
+            for (CidrBlock b : blocks) {
+                if (b.contains(addr) && (expected == null || b.prefix() > expected.prefix())) {
+                    expected = b;
+                }
+            }
+            CidrBlock actual = set.longestMatch(addr);
+            assertEquals(expected == null ? null : expected.toString(), actual == null ? null : actual.toString(),
+                    addr.toString());
+            assertEquals(expected != null, set.contains(addr), addr.toString());
+        }
+    }
+}
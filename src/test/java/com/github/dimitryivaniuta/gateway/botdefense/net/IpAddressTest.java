@@ -0,0 +1,31 @@
+package com.github.dimitryivaniuta.gateway.botdefense.net;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IpAddressTest {
+
+    @Test
+    void parsesAndCanonicalisesLiterals() {
+        assertEquals("192.0.2.1", IpAddress.parse("192.0.2.1").toString());
+        assertEquals("2001:db8::1", IpAddress.parse("2001:0DB8:0:0:0:0:0:0001").toString());
+        assertEquals("2001:db8:0:1::1", IpAddress.parse("[2001:db8:0:1:0:0:0:1]").toString());
+        assertEquals("::", IpAddress.parse("::").toString());
+        assertEquals("fe80::1", IpAddress.parse("fe80::1%eth0").toString());
+        assertEquals("::102:304", IpAddress.parse("::1.2.3.4").toString());
+
+        IpAddress mapped = IpAddress.parse("::ffff:10.0.0.1");
+        assertTrue(mapped.isIpv4());
+        assertEquals(IpAddress.parse("10.0.0.1"), mapped);
+        assertEquals("10.0.0.1", mapped.toString());
+    }
+
+    @Test
+    void rejectsNonLiterals() {
+        for (String bad : new String[]{"", "localhost", "example.com", "1.2.3", "1.2.3.4.5", "256.0.0.1",
+                "01.2.3.4", "1::2::3", "1:2:3:4:5:6:7:8:9", "12345::", ":1::", "1:", "::1.2.3.4:5"}) {
+            assertNull(IpAddress.parse(bad), bad);
+        }
+    }
+}
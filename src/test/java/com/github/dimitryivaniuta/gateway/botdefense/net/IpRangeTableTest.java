@@ -0,0 +1,175 @@
+package com.github.dimitryivaniuta.gateway.botdefense.net;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IpRangeTableTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void flattensOverlappingBlocksToStrongestValue() throws Exception {
+        Path file = dir.resolve("reputation.iprt");
+        new IpRangeTable.Builder()
+                .add(CidrBlock.parse("10.0.0.0/8"), 20)
+                .add(CidrBlock.parse("10.1.0.0/16"), IpRangeTable.BLOCK)
+                .add(CidrBlock.parse("10.1.2.0/24"), 40)
+                .add(CidrBlock.parse("255.255.255.255/32"), 5)
+                .add(CidrBlock.parse("2001:db8::/32"), 30)
+                .add(CidrBlock.parse("2001:db8:1::/48"), 50)
+                .write(file, 42);
+
+        IpRangeTable table = IpRangeTable.open(file);
+        assertEquals(42, table.fingerprint());
+        assertEquals(20, table.lookup(IpAddress.parse("10.200.0.1")));
+        assertEquals(IpRangeTable.BLOCK, table.lookup(IpAddress.parse("10.1.2.3")));
+        assertEquals(IpRangeTable.BLOCK, table.lookup(IpAddress.parse("10.1.3.3")));
+        assertEquals(0, table.lookup(IpAddress.parse("11.0.0.1")));
+        assertEquals(5, table.lookup(IpAddress.parse("255.255.255.255")));
+        assertEquals(50, table.lookup(IpAddress.parse("2001:db8:1::1")));
+        assertEquals(30, table.lookup(IpAddress.parse("2001:db8:2::1")));
+        assertEquals(0, table.lookup(IpAddress.parse("2001:db9::1")));
+        assertEquals(0, table.lookup(null));
+    }
+
+    @Test
+    void rewriteReplacesTableAtomically() throws Exception {
+        Path file = dir.resolve("reputation.iprt");
+        new IpRangeTable.Builder().add(CidrBlock.parse("192.0.2.0/24"), 10).write(file, 1);
+        IpRangeTable first = IpRangeTable.open(file);
+
+        new IpRangeTable.Builder().add(CidrBlock.parse("198.51.100.0/24"), 10).write(file, 2);
+        IpRangeTable second = IpRangeTable.open(file);
+
+        assertEquals(10, first.lookup(IpAddress.parse("192.0.2.1")));
+        assertEquals(0, second.lookup(IpAddress.parse("192.0.2.1")));
+        assertEquals(10, second.lookup(IpAddress.parse("198.51.100.1")));
+    }
+
+    @Test
+    void mostSpecificBlockWinsAndRangesAreSplitIntoCidrs() throws Exception {
+        Path file = dir.resolve("asn.iprt");
+        new IpRangeTable.Builder(IpRangeTable.Overlap.MOST_SPECIFIC)
+                .add(CidrBlock.parse("203.0.113.0/24"), 64500)
+                .add(CidrBlock.parse("203.0.113.128/25"), 64501)
+                .addRange(IpAddress.parse("198.51.100.7"), IpAddress.parse("198.51.101.2"), 64502)
+                .addRange(IpAddress.parse("2001:db8::"), IpAddress.parse("2001:db8::ff"), 64503)
+                .write(file, 7);
+
+        IpRangeTable table = IpRangeTable.open(file);
+        assertEquals(64500, table.lookup(IpAddress.parse("203.0.113.1")));
+        assertEquals(64501, table.lookup(IpAddress.parse("203.0.113.200")));
+        assertEquals(0, table.lookup(IpAddress.parse("198.51.100.6")));
+        assertEquals(64502, table.lookup(IpAddress.parse("198.51.100.7")));
+        assertEquals(64502, table.lookup(IpAddress.parse("198.51.101.2")));
+        assertEquals(0, table.lookup(IpAddress.parse("198.51.101.3")));
+        assertEquals(64503, table.lookup(IpAddress.parse("2001:db8::ff")));
+        assertEquals(0, table.lookup(IpAddress.parse("2001:db8::100")));
+    }
+
+    @Test
+    void agreesWithANaiveScanOnRandomBlocksAndRanges() throws Exception {
+        Random random = new Random(20_240_612);
+        int[] v4Prefixes = {10 << 24, 192 << 24 | 168 << 16, 203 << 24};
+        long v6Prefix = 0x2001_0db8_0000_0000L;
+
+        List<CidrBlock> blocks = new ArrayList<>();
+        List<Integer> blockValues = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        while (blocks.size() < 400) {
+            // Clustered around a few networks so that blocks nest.
+            CidrBlock block = random.nextBoolean()
+                    ? CidrBlock.of(IpAddress.ofIpv4(v4Prefixes[random.nextInt(v4Prefixes.length)]
+                            | random.nextInt(1 << 16)), 8 + random.nextInt(25))
+                    : CidrBlock.of(IpAddress.ofIpv6(v6Prefix | (random.nextLong() & 0xffffL), random.nextLong()),
+                            32 + random.nextInt(97));
+            // Equal blocks with different values have no most specific one.
+            if (seen.add(block.toString())) {
+                blocks.add(block);
+                blockValues.add(1 + random.nextInt(70_000));
+            }
+        }
+        List<IpAddress[]> ranges = new ArrayList<>();
+        List<Integer> rangeValues = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            if (random.nextBoolean()) {
+                int from = v4Prefixes[random.nextInt(v4Prefixes.length)] | random.nextInt(1 << 16);
+                ranges.add(new IpAddress[]{IpAddress.ofIpv4(from), IpAddress.ofIpv4(from + random.nextInt(5_000))});
+            } else {
+                long high = v6Prefix | (random.nextLong() & 0xffffL);
+                long from = random.nextLong() >>> 1;
+                ranges.add(new IpAddress[]{IpAddress.ofIpv6(high, from),
+                        IpAddress.ofIpv6(high, from + random.nextInt(1 << 20))});
+            }
+            rangeValues.add(1 + random.nextInt(70_000));
+        }
+
+        IpRangeTable.Builder mostSpecific = new IpRangeTable.Builder(IpRangeTable.Overlap.MOST_SPECIFIC);
+        IpRangeTable.Builder strongest = new IpRangeTable.Builder(IpRangeTable.Overlap.STRONGEST);
+        for (int i = 0; i < blocks.size(); i++) {
+            mostSpecific.add(blocks.get(i), blockValues.get(i));
+            strongest.add(blocks.get(i), blockValues.get(i));
+        }
+        for (int i = 0; i < ranges.size(); i++) {
+            strongest.addRange(ranges.get(i)[0], ranges.get(i)[1], rangeValues.get(i));
+        }
+        mostSpecific.write(dir.resolve("specific.iprt"), 1);
+        strongest.write(dir.resolve("strongest.iprt"), 2);
+        IpRangeTable specificTable = IpRangeTable.open(dir.resolve("specific.iprt"));
+        IpRangeTable strongestTable = IpRangeTable.open(dir.resolve("strongest.iprt"));
+
+        for (int i = 0; i < 20_000; i++) {
+            IpAddress addr;
+            if (random.nextInt(4) == 0) {
+                // Near the edges of a range.
+                IpAddress[] range = ranges.get(random.nextInt(ranges.size()));
+                IpAddress edge = range[random.nextInt(2)];
+                long low = edge.low() + random.nextInt(3) - 1;
+                addr = edge.isIpv4() ? IpAddress.ofIpv4((int) low) : IpAddress.ofIpv6(edge.high(), low);
+            } else if (random.nextBoolean()) {
+                addr = IpAddress.ofIpv4(v4Prefixes[random.nextInt(v4Prefixes.length)] | random.nextInt(1 << 16));
+            } else {
+                addr = IpAddress.ofIpv6(v6Prefix | (random.nextLong() & 0xffffL), random.nextLong());
+            }
+
+            int specific = 0;
+            int specificPrefix = -1;
+            int strongestValue = 0;
+            for (int b = 0; b < blocks.size(); b++) {
+                if (blocks.get(b).contains(addr)) {
+                    if (blocks.get(b).prefix() > specificPrefix) {
+                        specificPrefix = blocks.get(b).prefix();
+                        specific = blockValues.get(b);
+                    }
+                    strongestValue = Math.max(strongestValue, blockValues.get(b));
+                }
+            }
+            for (int r = 0; r < ranges.size(); r++) {
+                if (within(addr, ranges.get(r)[0], ranges.get(r)[1])) {
+                    strongestValue = Math.max(strongestValue, rangeValues.get(r));
+                }
+            }
+            assertEquals(specific, specificTable.lookup(addr), addr.toString());
+            assertEquals(strongestValue, strongestTable.lookup(addr), addr.toString());
+        }
+    }
+
+    private static boolean within(IpAddress addr, IpAddress from, IpAddress to) {
+        return compare(from, addr) <= 0 && compare(addr, to) <= 0;
+    }
+
+    private static int compare(IpAddress a, IpAddress b) {
+        int c = Long.compareUnsigned(a.high(), b.high());
+        return c != 0 ? c : Long.compareUnsigned(a.low(), b.low());
+    }
+}
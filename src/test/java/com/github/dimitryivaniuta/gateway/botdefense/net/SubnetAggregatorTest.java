@@ -0,0 +1,35 @@
+package com.github.dimitryivaniuta.gateway.botdefense.net;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SubnetAggregatorTest {
+
+    @Test
+    void aggregatesIpv6PerSlash64ByDefault() {
+        SubnetAggregator aggregator = new SubnetAggregator(new IpResolverProperties());
+        IpAddress a = IpAddress.parse("2001:db8:1:2:aaaa::1");
+        IpAddress b = IpAddress.parse("2001:db8:1:2:ffff:ffff:ffff:ffff");
+
+        assertEquals("2001:db8:1:2::/64", aggregator.subnet(a).toString());
+        assertEquals(aggregator.counterIdentity("x", a), aggregator.counterIdentity("y", b));
+        assertNotEquals(aggregator.counterIdentity("x", a),
+                aggregator.counterIdentity("x", IpAddress.parse("2001:db8:1:3::1")));
+    }
+
+    @Test
+    void ipv4IsOnlyAggregatedWhenConfigured() {
+        IpAddress v4 = IpAddress.parse("192.0.2.77");
+
+        SubnetAggregator defaults = new SubnetAggregator(new IpResolverProperties());
+        assertFalse(defaults.isAggregated(v4));
+        assertNull(defaults.subnet(v4));
+        assertEquals("192.0.2.77", defaults.counterIdentity("192.0.2.77", v4));
+        assertEquals("unknown", defaults.counterIdentity("unknown", null));
+
+        SubnetAggregator slash24 = new SubnetAggregator(24, 128);
+        assertEquals("192.0.2.0/24", slash24.counterIdentity("192.0.2.77", v4));
+        assertFalse(slash24.isAggregated(IpAddress.parse("2001:db8::1")));
+    }
+}
@@ -0,0 +1,78 @@
+package com.github.dimitryivaniuta.gateway.botdefense.redis;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import com.github.dimitryivaniuta.gateway.botdefense.net.CidrBlock;
+import io.lettuce.core.cluster.SlotHash;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BucketKeysTest {
+
+    @Test
+    void keysHaveFixedWidthAndNumericGroup() {
+        BucketKeys keys = new BucketKeys(props());
+
+        String shortUser = ascii(keys.user("t1", "u", "login"));
+        String longUser = ascii(keys.user("t1", "u".repeat(4096), "login"));
+
+        assertTrue(shortUser.matches("rl:u:\\{[A-Za-z0-9_-]{11}\\}[A-Za-z0-9_-]{11}:1"), shortUser);
+        assertEquals(shortUser.length(), longUser.length());
+        assertNotEquals(shortUser, longUser);
+        assertTrue(ascii(keys.ip("10.0.0.1", "public")).matches("rl:i:\\{[A-Za-z0-9_-]{11}\\}:7"));
+        assertTrue(ascii(keys.tenant("t1", "login")).startsWith(BucketKeys.TENANT_PREFIX));
+        assertTrue(ascii(keys.asn(64500, "login")).matches("rl:a:\\{[A-Za-z0-9_-]{11}\\}:1"));
+        assertTrue(ascii(keys.subnet(CidrBlock.parse("2001:db8::/64"), "login")).matches("rl:s:\\{[A-Za-z0-9_-]{11}\\}:1"));
+        assertNotEquals(ascii(keys.subnet(CidrBlock.parse("10.0.0.0/24"), "login")),
+                ascii(keys.subnet(CidrBlock.parse("10.0.0.0/16"), "login")));
+    }
+
+    @Test
+    void nestedBucketsShareTheTagOfTheirEnclosingBucket() {
+        BucketKeys keys = new BucketKeys(props());
+        CidrBlock subnet = CidrBlock.parse("2001:db8::/64");
+
+        byte[] ip = keys.ip("2001:db8::1", subnet, "login");
+        byte[] user = keys.user("t1", "u1", "login");
+        assertTrue(ascii(ip).matches("rl:i:\\{[A-Za-z0-9_-]{11}\\}[A-Za-z0-9_-]{11}:1"), ascii(ip));
+        assertEquals(SlotHash.getSlot(keys.subnet(subnet, "login")), SlotHash.getSlot(ip));
+        assertEquals(SlotHash.getSlot(keys.tenant("t1", "login")), SlotHash.getSlot(user));
+
+        // Still one bucket per address and per user.
+        assertNotEquals(ascii(ip), ascii(keys.ip("2001:db8::2", subnet, "login")));
+        assertNotEquals(ascii(user), ascii(keys.user("t1", "u2", "login")));
+        // Not aggregated, or no tenant: the identity is its own tag.
+        assertTrue(ascii(keys.ip("10.0.0.1", null, "login")).matches("rl:i:\\{[A-Za-z0-9_-]{11}\\}:1"));
+        assertTrue(ascii(keys.user(null, "u1", "login")).matches("rl:u:\\{[A-Za-z0-9_-]{11}\\}:1"));
+    }
+
+    @Test
+    void dimensionsAndSeedsDoNotCollide() {
+        BucketKeys keys = new BucketKeys(props());
+
+        assertNotEquals(ascii(keys.user("a", "bc", "login")), ascii(keys.user("ab", "c", "login")));
+        assertNotEquals(ascii(keys.ip("x", "login")), ascii(keys.ip("x", "public")));
+
+        BotDefenseProperties seeded = props();
+        seeded.getRedis().setKeyHashSeed(42);
+        assertNotEquals(ascii(keys.ip("x", "login")), ascii(new BucketKeys(seeded).ip("x", "login")));
+    }
+
+    private static BotDefenseProperties props() {
+        BotDefenseProperties.RouteGroup login = new BotDefenseProperties.RouteGroup();
+        login.setName("login");
+        BotDefenseProperties.RouteGroup pub = new BotDefenseProperties.RouteGroup();
+        pub.setName("public");
+        pub.setId(7);
+        BotDefenseProperties props = new BotDefenseProperties();
+        props.setRouteGroups(List.of(login, pub));
+        return props;
+    }
+
+    private static String ascii(byte[] key) {
+        return new String(key, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.dimitryivaniuta.gateway.botdefense.redis;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RedisCircuitBreakerTest {
+
+    @Test
+    void opensAfterConsecutiveFailuresAndClosesAfterProbe() {
+        RedisCircuitBreaker breaker = breaker();
+
+        breaker.onFailure(0);
+        breaker.onFailure(0);
+        breaker.onSuccess(1, 0);
+        breaker.onFailure(0);
+        breaker.onFailure(0);
+        assertEquals(RedisCircuitBreaker.State.CLOSED, breaker.state());
+
+        // Slow calls count as failures.
+        breaker.onSuccess(500, 10);
+        assertEquals(RedisCircuitBreaker.State.OPEN, breaker.state());
+        assertFalse(breaker.tryAcquire(500));
+
+        assertTrue(breaker.tryAcquire(1_010));
+        assertEquals(RedisCircuitBreaker.State.HALF_OPEN, breaker.state());
+        assertFalse(breaker.tryAcquire(1_011), "only one probe at a time");
+
+        breaker.onSuccess(1, 1_020);
+        assertEquals(RedisCircuitBreaker.State.CLOSED, breaker.state());
+        assertTrue(breaker.tryAcquire(1_021));
+    }
+
+    @Test
+    void failedProbeReopens() {
+        RedisCircuitBreaker breaker = breaker();
+        for (int i = 0; i < 3; i++) {
+            breaker.onFailure(0);
+        }
+
+        assertTrue(breaker.tryAcquire(1_000));
+        breaker.onFailure(1_005);
+        assertEquals(RedisCircuitBreaker.State.OPEN, breaker.state());
+        assertFalse(breaker.tryAcquire(1_500));
+        assertTrue(breaker.tryAcquire(2_005));
+    }
+
+    private static RedisCircuitBreaker breaker() {
+        BotDefenseProperties props = new BotDefenseProperties();
+        props.getRedis().getBreaker().setFailureThreshold(3);
+        props.getRedis().getBreaker().setSlowCallMillis(100);
+        props.getRedis().getBreaker().setOpenMillis(1_000);
+        return new RedisCircuitBreaker(props, new SimpleMeterRegistry());
+    }
+}
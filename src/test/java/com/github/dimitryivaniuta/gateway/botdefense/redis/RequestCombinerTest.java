@@ -0,0 +1,86 @@
+package com.github.dimitryivaniuta.gateway.botdefense.redis;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestCombinerTest {
+
+    private static final byte[] GROUP = "rl:i:{x}:1".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    void callersQueuedBehindTheLeaderShareOneCall() throws Exception {
+        RequestCombiner combiner = new RequestCombiner(64);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> calls = new CopyOnWriteArrayList<>();
+        AtomicInteger tokens = new AtomicInteger(10);
+        RequestCombiner.Call call = permits -> {
+            calls.add(permits);
+            await(release);
+            int granted = Math.min(permits, tokens.get());
+            tokens.addAndGet(-granted);
+            return new RequestCombiner.Grant(granted, tokens.get(), granted < permits ? 500 : 0, granted < permits ? 0 : -1);
+        };
+
+        ExecutorService pool = Executors.newFixedThreadPool(21);
+        try {
+            List<Thread> threads = new CopyOnWriteArrayList<>();
+            List<Future<TokenBucketRedisClient.BucketResult>> results = new ArrayList<>();
+            results.add(pool.submit(() -> {
+                threads.add(Thread.currentThread());
+                return combiner.consume(GROUP, call);
+            }));
+            while (calls.isEmpty()) {
+                Thread.onSpinWait();
+            }
+            for (int i = 0; i < 20; i++) {
+                results.add(pool.submit(() -> {
+                    threads.add(Thread.currentThread());
+                    return combiner.consume(GROUP, call);
+                }));
+            }
+            // Wait until all 20 followers are parked behind the in-flight call.
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (threads.size() < 21
+                    || threads.stream().skip(1).anyMatch(t -> t.getState() != Thread.State.WAITING)) {
+                assertTrue(System.nanoTime() < deadline, "followers did not queue up");
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            int admitted = 0;
+            for (Future<TokenBucketRedisClient.BucketResult> f : results) {
+                TokenBucketRedisClient.BucketResult r = f.get(5, TimeUnit.SECONDS);
+                if (r.allowed()) {
+                    admitted++;
+                } else {
+                    assertEquals(500, r.retryAfterMillis());
+                }
+            }
+
+            assertEquals(List.of(1, 20), calls);
+            assertEquals(10, admitted);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.dimitryivaniuta.gateway.botdefense.redis;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+
+/**
+ * Lease bookkeeping with the reservation script replaced by a stub granting what is asked.
+ */
+class TokenLeaseManagerTest {
+
+    private static final byte[] KEY = "rl:t:{t1}:public".getBytes(StandardCharsets.US_ASCII);
+
+    private final StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+    private final List<byte[][]> reservations = new CopyOnWriteArrayList<>();
+    private volatile CountDownLatch firstReply = new CountDownLatch(0);
+    private TokenLeaseManager leases;
+
+    @BeforeEach
+    void setUp() {
+        LuaScript script = Mockito.mock(LuaScript.class);
+        Mockito.when(script.execute(any(), any(), Mockito.anyInt(), any(byte[][].class))).thenAnswer(inv -> {
+            byte[][] keysAndArgs = (byte[][]) inv.getRawArguments()[3];
+            reservations.add(keysAndArgs);
+            if (reservations.size() == 1) {
+                firstReply.await(30, TimeUnit.SECONDS);
+            }
+            long requested = Long.parseLong(new String(keysAndArgs[5], StandardCharsets.US_ASCII));
+            return List.of(requested, 50L, 0L);
+        });
+        Mockito.when(redis.execute(any(RedisCallback.class))).thenAnswer(inv ->
+                inv.<RedisCallback<?>>getArgument(0).doInRedis(Mockito.mock(RedisConnection.class)));
+        RedisShards shards = Mockito.mock(RedisShards.class);
+        Mockito.when(shards.forKey(any(byte[].class))).thenReturn(redis);
+
+        BotDefenseProperties props = new BotDefenseProperties();
+        props.getRedis().getLeasing().setEnabled(true);
+        props.getRedis().getLeasing().setMinTokens(5);
+        leases = new TokenLeaseManager(shards, script, props);
+    }
+
+    @AfterEach
+    void tearDown() {
+        leases.close();
+    }
+
+    @Test
+    void tighterLimitIsNotServedFromALooserLease() {
+        BucketLimit normal = BucketLimit.of(100, 10);
+        BucketLimit tightened = BucketLimit.of(10, 1);
+        long now = System.currentTimeMillis();
+
+        assertTrue(leases.acquire(new TokenBucketRedisClient.BucketSpec(KEY, normal), now).allowed());
+        assertTrue(leases.acquire(new TokenBucketRedisClient.BucketSpec(KEY, tightened), now).allowed());
+
+        // The tightened request reserved its own tokens, with its own capacity, although the
+        // first lease still holds 4.
+        assertEquals(2, reservations.size());
+        assertArrayEquals(normal.capacityArg(), reservations.get(0)[2]);
+        assertArrayEquals(tightened.capacityArg(), reservations.get(1)[2]);
+    }
+
+    @Test
+    void reservationDoesNotHoldUpOtherRequestsForTheKey() throws Exception {
+        TokenBucketRedisClient.BucketSpec spec = new TokenBucketRedisClient.BucketSpec(KEY, BucketLimit.of(100, 10));
+        long now = System.currentTimeMillis();
+        firstReply = new CountDownLatch(1);
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<TokenLeaseManager.Grant> slow = pool.submit(() -> leases.acquire(spec, now));
+            while (reservations.isEmpty()) {
+                Thread.onSpinWait();
+            }
+            // The first reservation is still waiting for Redis; the second one is not queued behind it.
+            Future<TokenLeaseManager.Grant> next = pool.submit(() -> leases.acquire(spec, now));
+            assertTrue(next.get(2, TimeUnit.SECONDS).allowed());
+            assertFalse(slow.isDone());
+
+            firstReply.countDown();
+            assertTrue(slow.get(5, TimeUnit.SECONDS).allowed());
+            assertEquals(2, reservations.size());
+        } finally {
+            firstReply.countDown();
+            pool.shutdownNow();
+        }
+    }
+}
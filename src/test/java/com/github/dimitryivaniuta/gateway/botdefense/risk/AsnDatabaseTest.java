@@ -0,0 +1,105 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import com.github.dimitryivaniuta.gateway.botdefense.net.IpAddress;
+import com.github.dimitryivaniuta.gateway.botdefense.net.IpRangeTable;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsnDatabaseTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void parsesCidrAndRangeLines() throws IOException {
+        IpRangeTable.Builder builder = new IpRangeTable.Builder(IpRangeTable.Overlap.MOST_SPECIFIC);
+
+        assertTrue(AsnDatabase.addLine(builder, "203.0.113.0/24 64500"));
+        assertTrue(AsnDatabase.addLine(builder, "  203.0.113.128/25\tAS64501  Example Hosting"));
+        assertTrue(AsnDatabase.addLine(builder, "198.51.100.7\t198.51.101.2\t64502\tZZ\tExample ISP"));
+        assertTrue(AsnDatabase.addLine(builder, "2001:db8::/32 as64503"));
+        // The range is split into 8 CIDR blocks.
+        assertEquals(11, builder.size());
+
+        IpRangeTable table = table(builder);
+        assertEquals(64500, table.lookup(IpAddress.parse("203.0.113.1")));
+        assertEquals(64501, table.lookup(IpAddress.parse("203.0.113.200")));
+        assertEquals(64502, table.lookup(IpAddress.parse("198.51.100.255")));
+        assertEquals(0, table.lookup(IpAddress.parse("198.51.101.3")));
+        assertEquals(64503, table.lookup(IpAddress.parse("2001:db8::1")));
+    }
+
+    @Test
+    void skipsCommentsAndUnroutedSpace() {
+        IpRangeTable.Builder builder = new IpRangeTable.Builder(IpRangeTable.Overlap.MOST_SPECIFIC);
+
+        assertTrue(AsnDatabase.addLine(builder, ""));
+        assertTrue(AsnDatabase.addLine(builder, "# range_start range_end AS_number"));
+        assertTrue(AsnDatabase.addLine(builder, "10.0.0.0/8 0"));
+        assertTrue(AsnDatabase.addLine(builder, "0.0.0.0\t0.255.255.255\t0\tNone\tNot routed"));
+        assertEquals(0, builder.size());
+    }
+
+    @Test
+    void rejectsMalformedLines() {
+        IpRangeTable.Builder builder = new IpRangeTable.Builder(IpRangeTable.Overlap.MOST_SPECIFIC);
+
+        assertFalse(AsnDatabase.addLine(builder, "203.0.113.0/24"));
+        assertFalse(AsnDatabase.addLine(builder, "203.0.113.0/24 ASX"));
+        assertFalse(AsnDatabase.addLine(builder, "203.0.113.0/24 -5"));
+        // Above 2^31: private-use 32-bit AS numbers are not tracked.
+        assertFalse(AsnDatabase.addLine(builder, "203.0.113.0/24 4294967294"));
+        assertFalse(AsnDatabase.addLine(builder, "203.0.113.0/33 64500"));
+        assertFalse(AsnDatabase.addLine(builder, "198.51.100.7 198.51.101.2"));
+        assertFalse(AsnDatabase.addLine(builder, "bogus 198.51.101.2 64500"));
+        assertFalse(AsnDatabase.addLine(builder, "198.51.101.2 198.51.100.7 64500"));
+        assertFalse(AsnDatabase.addLine(builder, "198.51.100.7 2001:db8::1 64500"));
+        assertEquals(0, builder.size());
+    }
+
+    @Test
+    void looksUpTheCompiledDatabase() throws IOException {
+        Path database = Files.writeString(dir.resolve("ip2asn.tsv"), """
+                203.0.113.0\t203.0.113.255\t64500\tUS\tExample Hosting
+                203.0.113.0/26 64501
+                not a line
+                """);
+        BotDefenseProperties props = new BotDefenseProperties();
+        props.getAsn().setEnabled(true);
+        props.getAsn().setDatabasePath(database.toString());
+        props.getAsn().setTablePath(dir.resolve("asn.iprt").toString());
+
+        try (AsnDatabase asns = new AsnDatabase(props, new SimpleMeterRegistry())) {
+            assertTrue(asns.isEnabled());
+            assertEquals(64501, asns.asn(IpAddress.parse("203.0.113.9")));
+            assertEquals(64500, asns.asn(IpAddress.parse("203.0.113.99")));
+            assertEquals(0, asns.asn(IpAddress.parse("192.0.2.1")));
+            assertEquals(0, asns.asn(null));
+        }
+    }
+
+    @Test
+    void withoutADatabaseEveryAddressIsUnknown() {
+        BotDefenseProperties props = new BotDefenseProperties();
+        props.getAsn().setEnabled(true);
+
+        try (AsnDatabase asns = new AsnDatabase(props, new SimpleMeterRegistry())) {
+            assertFalse(asns.isEnabled());
+            assertEquals(0, asns.asn(IpAddress.parse("203.0.113.9")));
+        }
+    }
+
+    private IpRangeTable table(IpRangeTable.Builder builder) throws IOException {
+        Path file = dir.resolve("asn.iprt");
+        builder.write(file, 1);
+        return IpRangeTable.open(file);
+    }
+}
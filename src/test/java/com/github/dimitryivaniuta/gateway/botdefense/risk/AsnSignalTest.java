@@ -0,0 +1,77 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import com.github.dimitryivaniuta.gateway.botdefense.model.RequestContext;
+import com.github.dimitryivaniuta.gateway.botdefense.net.IpAddress;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsnSignalTest {
+
+    private final AsnDatabase database = Mockito.mock(AsnDatabase.class);
+
+    @Test
+    void scoresTheGroupsOfTheAnnouncingAs() {
+        Mockito.when(database.isEnabled()).thenReturn(true);
+        Mockito.when(database.asn(IpAddress.parse("203.0.113.9"))).thenReturn(64500);
+        Mockito.when(database.asn(IpAddress.parse("198.51.100.9"))).thenReturn(64501);
+        Mockito.when(database.asn(IpAddress.parse("192.0.2.9"))).thenReturn(64999);
+        AsnSignal signal = new AsnSignal(database, props(group("hosting", 20, 64500, 64501), group("vpn", 35, 64501)));
+
+        assertEquals(RiskSignal.Cost.LOCAL, signal.cost());
+        assertEquals(35, signal.maxScore());
+        assertEquals(20, signal.score(request("203.0.113.9")));
+        // Listed in both groups: the highest score wins.
+        assertEquals(35, signal.score(request("198.51.100.9")));
+        assertEquals(0, signal.score(request("192.0.2.9")));
+        // Not in the database.
+        assertEquals(0, signal.score(request("192.0.2.10")));
+        assertTrue(signal.appliesTo(request("203.0.113.9")));
+        assertFalse(signal.appliesTo(request("unknown")));
+    }
+
+    @Test
+    void scoresAreCappedAt100() {
+        Mockito.when(database.isEnabled()).thenReturn(true);
+        Mockito.when(database.asn(IpAddress.parse("203.0.113.9"))).thenReturn(64500);
+        AsnSignal signal = new AsnSignal(database, props(group("abuse", 150, 64500)));
+
+        assertEquals(100, signal.maxScore());
+        assertEquals(100, signal.score(request("203.0.113.9")));
+    }
+
+    @Test
+    void doesNotApplyWithoutADatabaseOrScores() {
+        Mockito.when(database.isEnabled()).thenReturn(false);
+        assertFalse(new AsnSignal(database, props(group("hosting", 20, 64500))).appliesTo(request("203.0.113.9")));
+
+        // A group that only configures a bucket scores nothing.
+        Mockito.when(database.isEnabled()).thenReturn(true);
+        AsnSignal bucketOnly = new AsnSignal(database, props(group("hosting", 0, 64500)));
+        assertEquals(0, bucketOnly.maxScore());
+        assertFalse(bucketOnly.appliesTo(request("203.0.113.9")));
+    }
+
+    private static BotDefenseProperties.Asn.Group group(String name, int score, Integer... asns) {
+        BotDefenseProperties.Asn.Group group = new BotDefenseProperties.Asn.Group();
+        group.setName(name);
+        group.setScore(score);
+        group.setAsns(List.of(asns));
+        return group;
+    }
+
+    private static BotDefenseProperties props(BotDefenseProperties.Asn.Group... groups) {
+        BotDefenseProperties props = new BotDefenseProperties();
+        props.getAsn().setEnabled(true);
+        props.getAsn().setGroups(List.of(groups));
+        return props;
+    }
+
+    private static RequestContext request(String ip) {
+        return new RequestContext("c", ip, "GET", "/api/x", "public", "t1", "u1", "Mozilla/5.0");
+    }
+}
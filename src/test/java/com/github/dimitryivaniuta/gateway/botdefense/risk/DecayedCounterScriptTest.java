@@ -0,0 +1,77 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import com.github.dimitryivaniuta.gateway.botdefense.redis.LuaScript;
+import com.github.dimitryivaniuta.gateway.botdefense.testsupport.Containers;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * {@code redis/decayed_counter.lua} against a real Redis.
+ */
+class DecayedCounterScriptTest {
+
+    private static final LuaScript SCRIPT = new LuaScript("redis/lib/decayed_counter.lua", "redis/decayed_counter.lua");
+    private static final String KEY = "test:decayed";
+
+    private LettuceConnectionFactory cf;
+    private StringRedisTemplate tpl;
+
+    @BeforeEach
+    void connect() {
+        cf = new LettuceConnectionFactory(Containers.REDIS.getHost(), Containers.REDIS.getMappedPort(6379));
+        cf.afterPropertiesSet();
+        tpl = new StringRedisTemplate(cf);
+        tpl.afterPropertiesSet();
+        tpl.delete(KEY);
+    }
+
+    @AfterEach
+    void disconnect() {
+        cf.destroy();
+    }
+
+    @Test
+    void constantRateSettlesAtWindowedCount() {
+        long halfLife = DecayedCounter.halfLifeMillis(60);
+        long value = 0;
+        // 5 requests per second for 10 minutes: 300 per window.
+        for (int i = 0; i < 3_000; i++) {
+            value = add(1_000_000L + i * 200L, halfLife);
+        }
+        assertThat(value).isBetween(297L, 303L);
+        // Plain GET readers see the same value as the script.
+        assertThat(DecayedCounter.estimate(tpl.opsForValue().get(KEY), 1_000_000L + 2_999 * 200L)).isEqualTo(value);
+    }
+
+    @Test
+    void valueHalvesEveryHalfLife() {
+        add(1_000, 10_000, 80);
+
+        assertThat(add(11_000, 10_000, 0)).isEqualTo(40);
+        assertThat(add(21_000, 10_000, 0)).isEqualTo(20);
+    }
+
+    private long add(long now, long halfLifeMillis) {
+        return add(now, halfLifeMillis, 1);
+    }
+
+    private long add(long now, long halfLifeMillis, long amount) {
+        List<Object> reply = tpl.execute((RedisCallback<List<Object>>) connection ->
+                SCRIPT.execute(connection, ReturnType.MULTI, 1, bytes(KEY), bytes(now), bytes(amount), bytes(halfLifeMillis)));
+        return (Long) reply.get(0);
+    }
+
+    private static byte[] bytes(Object value) {
+        return String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,20 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DecayedCounterTest {
+
+    @Test
+    void halvesEveryHalfLife() {
+        String value = "10000:80:1000";
+
+        assertEquals(80, DecayedCounter.estimate(value, 1_000));
+        assertEquals(40, DecayedCounter.estimate(value, 11_000));
+        assertEquals(20, DecayedCounter.estimate(value, 21_000));
+        // A reader with a clock behind the writer sees the stored value.
+        assertEquals(80, DecayedCounter.estimate(value, 500));
+        assertEquals(0, DecayedCounter.estimate("60000:10:7:40", 1_000));
+    }
+}
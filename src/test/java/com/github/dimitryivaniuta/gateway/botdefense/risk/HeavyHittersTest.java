@@ -0,0 +1,68 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import com.github.dimitryivaniuta.gateway.botdefense.model.RequestContext;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HeavyHittersTest {
+
+    @Test
+    void ranksEveryDimensionByRequestsAndDenials() {
+        HeavyHitters hitters = new HeavyHitters(new BotDefenseProperties());
+        for (int i = 0; i < 30; i++) {
+            hitters.record(request("10.0.0.1", "u1"), i % 3 == 0, 1_000);
+        }
+        for (int i = 0; i < 10; i++) {
+            hitters.record(request("10.0.0.2", "u2"), false, 1_000);
+        }
+
+        List<HeavyHitters.HeavyHitter> ips = hitters.top(HeavyHitters.Dimension.IP, false, 5);
+        assertEquals(List.of("10.0.0.1", "10.0.0.2"), ips.stream().map(HeavyHitters.HeavyHitter::key).toList());
+        assertEquals(30, ips.get(0).count());
+        assertEquals(0, ips.get(0).error());
+
+        List<HeavyHitters.HeavyHitter> denied = hitters.top(HeavyHitters.Dimension.IP, true, 5);
+        assertEquals(1, denied.size());
+        assertEquals(10, denied.get(0).count());
+
+        assertEquals("u1", hitters.top(HeavyHitters.Dimension.USER, false, 1).get(0).key());
+        assertEquals(40, hitters.top(HeavyHitters.Dimension.TENANT, false, 1).get(0).count());
+        assertEquals("public", hitters.top(HeavyHitters.Dimension.ROUTE_GROUP, false, 1).get(0).key());
+    }
+
+    @Test
+    void countsAreHalvedEveryWindow() {
+        BotDefenseProperties props = new BotDefenseProperties();
+        props.getHeavyHitters().setWindowSeconds(60);
+        HeavyHitters hitters = new HeavyHitters(props);
+        for (int i = 0; i < 40; i++) {
+            hitters.record(request("10.0.0.1", "u1"), false, 1_000);
+        }
+
+        // Two windows later: a quarter of the old count plus the new request.
+        hitters.record(request("10.0.0.1", "u1"), false, 121_000);
+        assertEquals(11, hitters.top(HeavyHitters.Dimension.IP, false, 1).get(0).count());
+    }
+
+    @Test
+    void blankKeysAndDisabledRankingAreIgnored() {
+        HeavyHitters hitters = new HeavyHitters(new BotDefenseProperties());
+        hitters.record(request("10.0.0.1", " "), false, 1_000);
+        assertTrue(hitters.top(HeavyHitters.Dimension.USER, false, 5).isEmpty());
+
+        BotDefenseProperties props = new BotDefenseProperties();
+        props.getHeavyHitters().setEnabled(false);
+        HeavyHitters disabled = new HeavyHitters(props);
+        disabled.record(request("10.0.0.1", "u1"), true, 1_000);
+        assertFalse(disabled.isEnabled());
+        assertTrue(disabled.top(HeavyHitters.Dimension.IP, false, 5).isEmpty());
+    }
+
+    private static RequestContext request(String ip, String user) {
+        return new RequestContext("c", ip, "GET", "/api/public/ping", "public", "t1", user, "Mozilla/5.0");
+    }
+}
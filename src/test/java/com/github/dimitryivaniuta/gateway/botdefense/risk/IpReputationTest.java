@@ -0,0 +1,119 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import com.github.dimitryivaniuta.gateway.botdefense.net.IpAddress;
+import com.github.dimitryivaniuta.gateway.botdefense.net.IpRangeTable;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IpReputationTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void parsesAddressesRangesAndComments() {
+        assertEquals("192.0.2.1/32", IpReputation.parseLine("192.0.2.1").toString());
+        assertEquals("198.51.100.0/24", IpReputation.parseLine("  198.51.100.0/24   # hosting").toString());
+        assertEquals("2001:db8::/32", IpReputation.parseLine("2001:db8::/32\tspamhaus").toString());
+        assertEquals(128, IpReputation.parseLine("::1").prefix());
+
+        assertNull(IpReputation.parseLine(""));
+        assertNull(IpReputation.parseLine("# 203.0.113.0/24"));
+        assertNull(IpReputation.parseLine("bogus"));
+        assertNull(IpReputation.parseLine("10.0.0.0/33"));
+    }
+
+    @Test
+    void scoresAndBlocksListedAddresses() throws IOException {
+        Path scored = write("scored.txt", "198.51.100.0/24\n203.0.113.7\n");
+        Path blocked = write("blocked.txt", "# drop list\n203.0.113.7\n");
+        SimpleMeterRegistry metrics = new SimpleMeterRegistry();
+
+        try (IpReputation reputation = new IpReputation(props(feed(scored, BotDefenseProperties.Reputation.Action.SCORE, 40),
+                feed(blocked, BotDefenseProperties.Reputation.Action.BLOCK, 0)), metrics)) {
+            assertEquals(40, reputation.lookup(IpAddress.parse("198.51.100.9")));
+            assertEquals(0, reputation.lookup(IpAddress.parse("192.0.2.1")));
+            // Listed by both feeds: the strongest verdict wins.
+            assertEquals(IpRangeTable.BLOCK, reputation.lookup(IpAddress.parse("203.0.113.7")));
+
+            assertFalse(reputation.isBlocked(IpAddress.parse("198.51.100.9")));
+            assertTrue(reputation.isBlocked(IpAddress.parse("203.0.113.7")));
+            assertEquals(1.0, metrics.counter("botdefense.reputation.blocked").count());
+        }
+    }
+
+    @Test
+    void reloadsOnlyWhenTheFeedChanges() throws Exception {
+        Path feed = write("feed.txt", "198.51.100.0/24\n");
+        SimpleMeterRegistry metrics = new SimpleMeterRegistry();
+
+        try (IpReputation reputation = new IpReputation(props(feed(feed, BotDefenseProperties.Reputation.Action.SCORE, 30)),
+                metrics)) {
+            IpAddress added = IpAddress.parse("192.0.2.1");
+            assertEquals(0, reputation.lookup(added));
+
+            // Same fingerprint (size and modification time): nothing is recompiled.
+            Thread.sleep(1_500);
+            assertEquals(1.0, metrics.counter("botdefense.reputation.reloads").count());
+
+            Files.writeString(feed, "198.51.100.0/24\n192.0.2.0/24\n");
+            Files.setLastModifiedTime(feed, FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+            for (int i = 0; i < 50 && metrics.counter("botdefense.reputation.reloads").count() < 2; i++) {
+                Thread.sleep(100);
+            }
+            assertEquals(30, reputation.lookup(added));
+            assertEquals(2.0, metrics.counter("botdefense.reputation.reloads").count());
+        }
+    }
+
+    @Test
+    void failsOpenWithoutAFeed() throws Exception {
+        Path missing = dir.resolve("missing.txt");
+        try (IpReputation reputation = new IpReputation(props(feed(missing, BotDefenseProperties.Reputation.Action.BLOCK, 0)),
+                new SimpleMeterRegistry())) {
+            assertEquals(0, reputation.lookup(IpAddress.parse("203.0.113.7")));
+            assertFalse(reputation.isBlocked(IpAddress.parse("203.0.113.7")));
+        }
+
+        // A feed that disappears after loading keeps the previous table.
+        Path feed = write("gone.txt", "203.0.113.7\n");
+        try (IpReputation reputation = new IpReputation(props(feed(feed, BotDefenseProperties.Reputation.Action.BLOCK, 0)),
+                new SimpleMeterRegistry())) {
+            Files.delete(feed);
+            Thread.sleep(1_500);
+            assertTrue(reputation.isBlocked(IpAddress.parse("203.0.113.7")));
+        }
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.writeString(dir.resolve(name), content);
+    }
+
+    private BotDefenseProperties props(BotDefenseProperties.Reputation.Feed... feeds) {
+        BotDefenseProperties props = new BotDefenseProperties();
+        props.getReputation().setEnabled(true);
+        props.getReputation().setReloadSeconds(1);
+        props.getReputation().setTablePath(dir.resolve("reputation-" + System.nanoTime() + ".iprt").toString());
+        props.getReputation().setFeeds(List.of(feeds));
+        return props;
+    }
+
+    static BotDefenseProperties.Reputation.Feed feed(Path path, BotDefenseProperties.Reputation.Action action, int score) {
+        BotDefenseProperties.Reputation.Feed feed = new BotDefenseProperties.Reputation.Feed();
+        feed.setName(path.getFileName().toString());
+        feed.setPath(path.toString());
+        feed.setAction(action);
+        feed.setScore(score);
+        return feed;
+    }
+}
@@ -0,0 +1,60 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import com.github.dimitryivaniuta.gateway.botdefense.model.RequestContext;
+import com.github.dimitryivaniuta.gateway.botdefense.net.IpAddress;
+import com.github.dimitryivaniuta.gateway.botdefense.net.IpRangeTable;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReputationSignalTest {
+
+    private final IpReputation reputation = Mockito.mock(IpReputation.class);
+
+    @Test
+    void scoresListedAddressesUpToTheStrongestFeed() {
+        BotDefenseProperties props = new BotDefenseProperties();
+        props.getReputation().setEnabled(true);
+        props.getReputation().setFeeds(List.of(
+                IpReputationTest.feed(Path.of("a"), BotDefenseProperties.Reputation.Action.SCORE, 40),
+                IpReputationTest.feed(Path.of("b"), BotDefenseProperties.Reputation.Action.SCORE, 25)));
+        ReputationSignal signal = new ReputationSignal(reputation, props);
+        Mockito.when(reputation.lookup(IpAddress.parse("198.51.100.9"))).thenReturn(25);
+
+        assertEquals(RiskSignal.Cost.LOCAL, signal.cost());
+        assertEquals(40, signal.maxScore());
+        assertEquals(25, signal.score(request("198.51.100.9")));
+        assertEquals(0, signal.score(request("192.0.2.1")));
+        assertFalse(signal.appliesTo(request("unknown")));
+    }
+
+    @Test
+    void blockListedAddressesScoreTheMaximum() {
+        BotDefenseProperties props = new BotDefenseProperties();
+        props.getReputation().setEnabled(true);
+        props.getReputation().setFeeds(List.of(
+                IpReputationTest.feed(Path.of("a"), BotDefenseProperties.Reputation.Action.BLOCK, 0)));
+        ReputationSignal signal = new ReputationSignal(reputation, props);
+        Mockito.when(reputation.lookup(IpAddress.parse("203.0.113.7"))).thenReturn(IpRangeTable.BLOCK);
+
+        assertEquals(100, signal.maxScore());
+        assertEquals(100, signal.score(request("203.0.113.7")));
+    }
+
+    @Test
+    void disabledReputationDoesNotApply() {
+        ReputationSignal signal = new ReputationSignal(reputation, new BotDefenseProperties());
+
+        assertEquals(0, signal.maxScore());
+        assertFalse(signal.appliesTo(request("203.0.113.7")));
+    }
+
+    private static RequestContext request(String ip) {
+        return new RequestContext("c", ip, "GET", "/api/x", "public", "t1", "u1", "Mozilla/5.0");
+    }
+}
@@ -0,0 +1,33 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestRateSketchTest {
+
+    @Test
+    void neverUndercountsAndHalvesEveryWindow() {
+        BotDefenseProperties props = new BotDefenseProperties();
+        props.getSignals().getPrefilter().setEnabled(true);
+        props.getSignals().getPrefilter().setWidth(1_024);
+        RequestRateSketch sketch = new RequestRateSketch(props);
+
+        for (int i = 0; i < 200; i++) {
+            sketch.add("10.0.0.1", 1_000);
+        }
+        for (int ip = 0; ip < 2_000; ip++) {
+            sketch.add("192.168." + (ip >> 8) + "." + (ip & 255), 1_000);
+        }
+
+        int heavy = sketch.estimate("10.0.0.1");
+        assertTrue(heavy >= 200 && heavy < 220, "estimate " + heavy);
+        assertTrue(sketch.estimate("172.16.0.1") < 10);
+
+        // One window (60 s) later the counts are halved, two windows later quartered.
+        assertEquals(heavy / 2 + 1, sketch.add("10.0.0.1", 61_000));
+        sketch.add("10.0.0.2", 181_000);
+        assertTrue(sketch.estimate("10.0.0.1") <= (heavy / 2 + 1) / 4);
+    }
+}
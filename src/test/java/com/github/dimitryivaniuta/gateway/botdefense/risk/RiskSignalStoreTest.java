@@ -0,0 +1,88 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.LuaScript;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.RedisShards;
+import com.github.dimitryivaniuta.gateway.botdefense.testsupport.Containers;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RiskSignalStoreTest {
+
+    private LettuceConnectionFactory cf;
+    private RedisShards shards;
+    private SignalReader reader;
+
+    @AfterEach
+    void disconnect() {
+        reader.close();
+        shards.close();
+        cf.destroy();
+    }
+
+    @Test
+    void handedOverIpKeepsBeingCountedInRedis() throws InterruptedException {
+        BotDefenseProperties props = new BotDefenseProperties();
+        props.getSignals().setRequestRateWindowSeconds(1);
+        props.getSignals().getPrefilter().setEnabled(true);
+        // Cut-off: 5 requests.
+        props.getSignals().getPrefilter().setFraction(0.05);
+        SimpleMeterRegistry metrics = new SimpleMeterRegistry();
+        RiskSignalStore store = store(props, metrics);
+        String ip = "198.51.100.17";
+
+        for (int i = 1; i < 5; i++) {
+            assertThat(store.incrementIpRequestRate(ip)).isEqualTo(i);
+        }
+        // Crossing the cut-off seeds Redis with the local count.
+        assertThat(store.incrementIpRequestRate(ip)).isEqualTo(5);
+
+        // Two requests per second: the sketch halves every second and drops back below
+        // the cut-off, but the IP stays in Redis and is never seeded a second time.
+        int sent = 5;
+        for (int i = 0; i < 6; i++) {
+            Thread.sleep(500);
+            long count = store.incrementIpRequestRate(ip);
+            sent++;
+            assertThat(count).isPositive().isLessThanOrEqualTo(sent);
+        }
+        assertThat(metrics.counter("botdefense.signals.prefiltered").count()).isEqualTo(4);
+    }
+
+    @Test
+    void ipIsSeededOnceUntilIdle() {
+        HandedOverIps handedOver = new HandedOverIps(1_000, 2_000);
+
+        assertThat(handedOver.touch("10.0.0.1", 1_000)).isFalse();
+        assertThat(handedOver.handOver("10.0.0.1", 1_000)).isTrue();
+        // A concurrent request that also saw the crossing must not seed again.
+        assertThat(handedOver.handOver("10.0.0.1", 1_001)).isFalse();
+
+        assertThat(handedOver.touch("10.0.0.1", 2_500)).isTrue();
+        assertThat(handedOver.touch("10.0.0.1", 4_400)).isTrue();
+        // Idle for as long as the Redis counter lives: forgotten.
+        assertThat(handedOver.touch("10.0.0.1", 6_400)).isFalse();
+        assertThat(handedOver.handOver("10.0.0.1", 6_400)).isTrue();
+    }
+
+    private RiskSignalStore store(BotDefenseProperties props, SimpleMeterRegistry metrics) {
+        cf = new LettuceConnectionFactory(Containers.REDIS.getHost(), Containers.REDIS.getMappedPort(6379));
+        cf.afterPropertiesSet();
+        StringRedisTemplate tpl = new StringRedisTemplate(cf);
+        tpl.afterPropertiesSet();
+        shards = new RedisShards(tpl, props);
+        reader = new SignalReader(tpl, shards, props, metrics);
+        RiskSignalStore store = new RiskSignalStore(shards, reader, new ReactiveStringRedisTemplate(cf),
+                new LuaScript("redis/lib/sliding_window.lua", "redis/sliding_window.lua"),
+                new LuaScript("redis/lib/decayed_counter.lua", "redis/decayed_counter.lua"),
+                new RequestRateSketch(props), props, metrics, Runnable::run);
+        tpl.delete(store.requestRateKey("198.51.100.17"));
+        return store;
+    }
+}
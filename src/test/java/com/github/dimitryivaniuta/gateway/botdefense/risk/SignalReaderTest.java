@@ -0,0 +1,134 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.RedisShards;
+import com.github.dimitryivaniuta.gateway.botdefense.testsupport.Containers;
+import io.lettuce.core.ReadFrom;
+import io.lettuce.core.SslVerifyMode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SignalReaderTest {
+
+    private final List<AutoCloseable> resources = new ArrayList<>();
+
+    @AfterEach
+    void closeResources() throws Exception {
+        for (int i = resources.size() - 1; i >= 0; i--) {
+            resources.get(i).close();
+        }
+        resources.clear();
+    }
+
+    @Test
+    void readConnectionKeepsTheMainClientSettings() {
+        LettuceClientConfiguration main = LettuceClientConfiguration.builder()
+                .commandTimeout(Duration.ofMillis(750))
+                .clientName("gateway")
+                .useSsl().disablePeerVerification().and()
+                .build();
+
+        LettuceClientConfiguration read = SignalReader.readClientConfiguration(main, ReadFrom.REPLICA_PREFERRED, false);
+
+        assertThat(read.getReadFrom()).contains(ReadFrom.REPLICA_PREFERRED);
+        assertThat(read.getCommandTimeout()).isEqualTo(Duration.ofMillis(750));
+        assertThat(read.getClientName()).contains("gateway");
+        assertThat(read.isUseSsl()).isTrue();
+        assertThat(read.getVerifyMode()).isEqualTo(SslVerifyMode.NONE);
+    }
+
+    @Test
+    void readFromRoutesReadsThroughTheReplicaConnection() {
+        StringRedisTemplate tpl = template();
+        BotDefenseProperties props = new BotDefenseProperties();
+        props.getRedis().getReads().setReadFrom("replicaPreferred");
+        props.getRedis().getReads().setNodes(List.of(
+                "redis://" + Containers.REDIS.getHost() + ":" + Containers.REDIS.getMappedPort(6379)));
+        SignalReader reader = reader(tpl, props);
+
+        tpl.opsForValue().set("test:signal:routed", "7");
+
+        // No replica is running: replicaPreferred falls back to the primary node.
+        assertThat(reader.isRouted()).isTrue();
+        assertThat(reader.get("test:signal:routed")).isEqualTo("7");
+    }
+
+    @Test
+    void withoutRoutingReadsUseThePrimaryConnection() {
+        StringRedisTemplate tpl = template();
+        SignalReader reader = reader(tpl, new BotDefenseProperties());
+
+        tpl.opsForValue().set("test:signal:plain", "3");
+
+        assertThat(reader.isRouted()).isFalse();
+        assertThat(reader.get("test:signal:plain")).isEqualTo("3");
+    }
+
+    @Test
+    void cachedReadsAreInvalidatedByWrites() throws InterruptedException {
+        StringRedisTemplate tpl = template();
+        BotDefenseProperties props = new BotDefenseProperties();
+        props.getRedis().getReads().setClientSideCaching(true);
+        SignalReader reader = reader(tpl, props);
+
+        tpl.opsForValue().set("test:signal:cached", "1");
+        assertThat(reader.isRouted()).isTrue();
+        assertThat(reader.get("test:signal:cached")).isEqualTo("1");
+
+        tpl.opsForValue().set("test:signal:cached", "2");
+        String value = reader.get("test:signal:cached");
+        for (int i = 0; i < 50 && !"2".equals(value); i++) {
+            Thread.sleep(20);
+            value = reader.get("test:signal:cached");
+        }
+        assertThat(value).isEqualTo("2");
+    }
+
+    @Test
+    void shardedReadsAreNotCachedAndGoToTheKeysShard() {
+        StringRedisTemplate tpl = template();
+        String node = "redis://" + Containers.REDIS.getHost() + ":" + Containers.REDIS.getMappedPort(6379);
+        BotDefenseProperties props = new BotDefenseProperties();
+        props.getRedis().getSharding().setNodes(List.of(node + "/1", node + "/2"));
+        props.getRedis().getReads().setClientSideCaching(true);
+        props.getRedis().getReads().setReadFrom("replicaPreferred");
+        RedisShards shards = new RedisShards(tpl, props);
+        resources.add(shards);
+        SignalReader reader = new SignalReader(tpl, shards, props, new SimpleMeterRegistry());
+        resources.add(reader);
+
+        shards.forKey("test:signal:sharded").opsForValue().set("test:signal:sharded", "5");
+
+        assertThat(reader.isRouted()).isFalse();
+        assertThat(reader.get("test:signal:sharded")).isEqualTo("5");
+    }
+
+    private StringRedisTemplate template() {
+        LettuceConnectionFactory cf = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration(Containers.REDIS.getHost(), Containers.REDIS.getMappedPort(6379)));
+        cf.afterPropertiesSet();
+        resources.add(cf::destroy);
+        StringRedisTemplate tpl = new StringRedisTemplate(cf);
+        tpl.afterPropertiesSet();
+        return tpl;
+    }
+
+    private SignalReader reader(StringRedisTemplate tpl, BotDefenseProperties props) {
+        RedisShards shards = new RedisShards(tpl, props);
+        resources.add(shards);
+        SignalReader reader = new SignalReader(tpl, shards, props, new SimpleMeterRegistry());
+        resources.add(reader);
+        return reader;
+    }
+}
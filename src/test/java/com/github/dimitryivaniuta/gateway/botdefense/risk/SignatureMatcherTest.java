@@ -0,0 +1,23 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SignatureMatcherTest {
+
+    @Test
+    void matchesOverlappingSignaturesCaseInsensitively() {
+        SignatureMatcher matcher = new SignatureMatcher(List.of(
+                List.of("he", "hers"),
+                List.of("she"),
+                List.of("his", "Ünï")));
+
+        assertEquals(0b011, matcher.match("uSHErs"));
+        assertEquals(0b001, matcher.match("ahe"));
+        assertEquals(0b100, matcher.match("xÜNÏx"));
+        assertEquals(0, matcher.match("hs h e"));
+    }
+}
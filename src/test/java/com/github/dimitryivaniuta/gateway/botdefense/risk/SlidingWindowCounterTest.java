@@ -0,0 +1,30 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SlidingWindowCounterTest {
+
+    @Test
+    void weighsPreviousWindowByRemainingTime() {
+        // 60 s windows; window 10 = [600 000, 660 000).
+        String value = "60000:10:7:40";
+
+        assertEquals(47, SlidingWindowCounter.estimate(value, 600_000));
+        assertEquals(27, SlidingWindowCounter.estimate(value, 630_000));
+        assertEquals(7, SlidingWindowCounter.estimate(value, 659_999));
+
+        // Next window: the stored current count becomes the previous one.
+        assertEquals(3, SlidingWindowCounter.estimate(value, 690_000));
+        // Two windows later nothing is left.
+        assertEquals(0, SlidingWindowCounter.estimate(value, 720_000));
+    }
+
+    @Test
+    void absentOrForeignValuesCountAsZero() {
+        assertEquals(0, SlidingWindowCounter.estimate(null, 1_000));
+        assertEquals(0, SlidingWindowCounter.estimate("12", 1_000));
+        assertEquals(0, SlidingWindowCounter.estimate("0:1:2:3", 1_000));
+    }
+}
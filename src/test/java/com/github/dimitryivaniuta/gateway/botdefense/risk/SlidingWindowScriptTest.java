@@ -0,0 +1,91 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import com.github.dimitryivaniuta.gateway.botdefense.redis.LuaScript;
+import com.github.dimitryivaniuta.gateway.botdefense.testsupport.Containers;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * {@code redis/sliding_window.lua} against a real Redis.
+ */
+class SlidingWindowScriptTest {
+
+    private static final LuaScript SCRIPT = new LuaScript("redis/lib/sliding_window.lua", "redis/sliding_window.lua");
+    private static final String KEY = "test:sw";
+
+    private LettuceConnectionFactory cf;
+    private StringRedisTemplate tpl;
+
+    @BeforeEach
+    void connect() {
+        cf = new LettuceConnectionFactory(Containers.REDIS.getHost(), Containers.REDIS.getMappedPort(6379));
+        cf.afterPropertiesSet();
+        tpl = new StringRedisTemplate(cf);
+        tpl.afterPropertiesSet();
+        tpl.delete(KEY);
+    }
+
+    @AfterEach
+    void disconnect() {
+        cf.destroy();
+    }
+
+    @Test
+    void windowRollsOverIntoThePreviousCount() {
+        // 60 s windows; window 10 = [600 000, 660 000).
+        assertThat(add(600_000, 60_000, 5)).isEqualTo(5);
+        assertThat(add(630_000, 60_000, 2)).isEqualTo(7);
+
+        // Window 11, half elapsed: half of the previous 7 hits still count.
+        assertThat(add(690_000, 60_000, 1)).isEqualTo(1 + 3);
+        assertThat(tpl.opsForValue().get(KEY)).isEqualTo("60000:11:1:7");
+        // Plain GET readers see the same estimate as the script.
+        assertThat(SlidingWindowCounter.estimate(tpl.opsForValue().get(KEY), 690_000)).isEqualTo(4);
+
+        // Two windows later nothing of the old hits is left.
+        assertThat(add(810_000, 60_000, 1)).isEqualTo(1);
+    }
+
+    @Test
+    void ttlEndsWhenBothWindowsAreOver() {
+        add(630_000, 60_000, 1);
+
+        // Window 10 ends at 660 000, the following one at 720 000.
+        assertThat(tpl.getExpire(KEY, TimeUnit.MILLISECONDS)).isBetween(89_000L, 90_000L);
+
+        // A later hit in the same window does not extend the life of the key.
+        add(650_000, 60_000, 1);
+        assertThat(tpl.getExpire(KEY, TimeUnit.MILLISECONDS)).isBetween(69_000L, 70_000L);
+    }
+
+    @Test
+    void keyExpiresInRedis() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        add(now, 100, 3);
+        assertThat(tpl.hasKey(KEY)).isTrue();
+
+        Thread.sleep((now / 100 + 2) * 100 - now + 50);
+        assertThat(tpl.hasKey(KEY)).isFalse();
+    }
+
+    private long add(long now, long windowMillis, long hits) {
+        List<Object> reply = tpl.execute((RedisCallback<List<Object>>) connection ->
+                SCRIPT.execute(connection, ReturnType.MULTI, 1, bytes(KEY), bytes(now), bytes(windowMillis), bytes(hits)));
+        return (Long) reply.get(0);
+    }
+
+    private static byte[] bytes(Object value) {
+        return String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpaceSavingTest {
+
+    @Test
+    void keepsHeavyKeysAmongManyLightOnes() {
+        SpaceSaving summary = new SpaceSaving(64, 42);
+        for (int round = 0; round < 100; round++) {
+            summary.add("10.0.0.1", 5);
+            summary.add("10.0.0.2", 3);
+            for (int i = 0; i < 50; i++) {
+                summary.add("192.168.0." + (round * 50 + i) % 1_000, 1);
+            }
+        }
+
+        List<HeavyHitters.HeavyHitter> top = summary.top(2);
+        assertEquals("10.0.0.1", top.get(0).key());
+        assertEquals("10.0.0.2", top.get(1).key());
+        for (HeavyHitters.HeavyHitter h : top) {
+            long expected = h.key().endsWith(".1") ? 500 : 300;
+            assertTrue(h.count() >= expected && h.count() - h.error() <= expected, h.toString());
+        }
+
+        summary.halve(1);
+        assertTrue(summary.top(1).get(0).count() >= 250);
+    }
+
+    @Test
+    void concurrentTakeoversNeverReportAKeyTwice() throws InterruptedException {
+        // One set of 8 slots and 16 keys: every add of an untracked key is a takeover.
+        SpaceSaving summary = new SpaceSaving(SpaceSaving.WAYS, 7);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int offset = t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    summary.add("k" + (i + offset) % 16, 1);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        List<HeavyHitters.HeavyHitter> top = summary.top(SpaceSaving.WAYS);
+        Set<String> keys = new HashSet<>();
+        for (HeavyHitters.HeavyHitter h : top) {
+            assertTrue(keys.add(h.key()), "duplicate " + h.key());
+            assertTrue(h.error() <= h.count(), h.toString());
+        }
+    }
+}
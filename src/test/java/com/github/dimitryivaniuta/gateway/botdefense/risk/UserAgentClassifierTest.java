@@ -0,0 +1,48 @@
+package com.github.dimitryivaniuta.gateway.botdefense.risk;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserAgentClassifierTest {
+
+    @Test
+    void scoresDefaultCategoriesAndCachesResults() {
+        UserAgentClassifier classifier = new UserAgentClassifier(new BotDefenseProperties());
+
+        assertEquals(15, classifier.classify(null).score());
+        assertEquals(List.of("scripted"), classifier.classify("curl/8.0").categories());
+        assertEquals(List.of("crawler"),
+                classifier.classify("Mozilla/5.0 (compatible; Googlebot/2.1)").categories());
+
+        String browser = "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 Chrome/120.0 Safari/537.36";
+        assertEquals(0, classifier.classify(browser).score());
+        assertSame(classifier.classify(browser), classifier.classify(browser));
+        assertEquals(3, classifier.cacheSize());
+    }
+
+    @Test
+    void sdkUserAgentsAreNotFlaggedByDefault() {
+        UserAgentClassifier classifier = new UserAgentClassifier(new BotDefenseProperties());
+
+        assertEquals(0, classifier.classify("okhttp/4.12.0").score());
+        assertEquals(0, classifier.classify("Go-http-client/2.0").score());
+        assertEquals(0, classifier.classify("Java/21.0.2").score());
+    }
+
+    @Test
+    void optInCategoriesAddSignatures() {
+        BotDefenseProperties props = new BotDefenseProperties();
+        props.getSignals().getUserAgent().getCategories().add(
+                new BotDefenseProperties.Signals.UserAgent.Category("tooling", 10, List.of("okhttp", "go-http-client")));
+        UserAgentClassifier classifier = new UserAgentClassifier(props);
+
+        assertEquals(List.of("tooling"), classifier.classify("okhttp/4.12.0").categories());
+        assertEquals(10, classifier.classify("Go-http-client/2.0").score());
+        // The highest score among matched categories wins.
+        assertEquals(20, classifier.classify("okhttp curl/8.0").score());
+    }
+}
@@ -0,0 +1,285 @@
+package com.github.dimitryivaniuta.gateway.botdefense.service;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import com.github.dimitryivaniuta.gateway.botdefense.kafka.BotDefenseEventPublisher;
+import com.github.dimitryivaniuta.gateway.botdefense.local.LocalTokenBucketStore;
+import com.github.dimitryivaniuta.gateway.botdefense.model.RateLimitDecision;
+import com.github.dimitryivaniuta.gateway.botdefense.model.RequestContext;
+import com.github.dimitryivaniuta.gateway.botdefense.model.RiskTier;
+import com.github.dimitryivaniuta.gateway.botdefense.net.CidrBlock;
+import com.github.dimitryivaniuta.gateway.botdefense.net.IpResolverProperties;
+import com.github.dimitryivaniuta.gateway.botdefense.net.SubnetAggregator;
+import com.github.dimitryivaniuta.gateway.botdefense.persistence.RateLimitDecisionRepository;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.BucketKeys;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.FusedDecisionRedisClient;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.RedisCircuitBreaker;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.RedisShards;
+import com.github.dimitryivaniuta.gateway.botdefense.redis.TokenBucketRedisClient;
+import com.github.dimitryivaniuta.gateway.botdefense.risk.AsnDatabase;
+import com.github.dimitryivaniuta.gateway.botdefense.risk.HeavyHitters;
+import com.github.dimitryivaniuta.gateway.botdefense.risk.LoginFailureSignal;
+import com.github.dimitryivaniuta.gateway.botdefense.risk.RequestRateSignal;
+import com.github.dimitryivaniuta.gateway.botdefense.risk.RiskScoringService;
+import com.github.dimitryivaniuta.gateway.botdefense.risk.RiskSignalStore;
+import com.github.dimitryivaniuta.gateway.botdefense.risk.UserAgentClassifier;
+import com.github.dimitryivaniuta.gateway.botdefense.risk.UserAgentSignal;
+import io.lettuce.core.RedisCommandInterruptedException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.redis.RedisSystemException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Decision logic with Redis clients replaced by mocks.
+ */
+class AdaptiveRateLimiterServiceTest {
+
+    private static final TokenBucketRedisClient.BucketResult DENIED =
+            new TokenBucketRedisClient.BucketResult(false, 0, 1_000, 0);
+
+    private final BotDefenseProperties props = new BotDefenseProperties();
+    private final RiskSignalStore store = Mockito.mock(RiskSignalStore.class);
+    private final TokenBucketRedisClient buckets = Mockito.mock(TokenBucketRedisClient.class);
+    private final FusedDecisionRedisClient fused = Mockito.mock(FusedDecisionRedisClient.class);
+    private final RedisShards shards = Mockito.mock(RedisShards.class);
+    private final SimpleMeterRegistry metrics = new SimpleMeterRegistry();
+
+    @BeforeEach
+    void redis() {
+        when(store.incrementIpRequestRateAsync(anyString())).thenReturn(CompletableFuture.completedFuture(0L));
+        when(store.getLoginFailuresAsync(any(), any(), anyString())).thenReturn(CompletableFuture.completedFuture(0L));
+        when(buckets.consumeAll(anyList(), anyLong())).thenReturn(DENIED);
+        when(buckets.consumeAllAsync(anyList(), anyLong())).thenReturn(CompletableFuture.completedFuture(DENIED));
+    }
+
+    @Test
+    void cachedDenialDoesNotReportTheRiskOfWhoEmptiedTheBucket() {
+        AdaptiveRateLimiterService service = service();
+
+        RateLimitDecision first = service.check(request("public", "curl/8.0"));
+        assertThat(first.allowed()).isFalse();
+        assertThat(first.riskScore()).isPositive();
+
+        RateLimitDecision cached = service.check(request("public", "Mozilla/5.0"));
+        assertThat(cached.allowed()).isFalse();
+        assertThat(cached.retryAfterMillis()).isPositive();
+        assertThat(cached.riskScore()).isZero();
+        assertThat(cached.riskTier()).isEqualTo(RiskTier.NORMAL);
+        assertThat(bucketCalls()).isEqualTo(1);
+    }
+
+    @Test
+    void sharedBucketIsOnlyCachedWhenDeniedAtTheNormalTier() {
+        // Buckets: ip, user, tenant; the tenant bucket denies.
+        when(buckets.consumeAll(anyList(), anyLong())).thenReturn(new TokenBucketRedisClient.BucketResult(false, 0, 1_000, 2));
+        props.getRisk().setTightenMediumAt(1);
+        AdaptiveRateLimiterService service = service();
+
+        RateLimitDecision tightened = service.check(request("203.0.113.9", "public", "curl/8.0"));
+        assertThat(tightened.allowed()).isFalse();
+        assertThat(tightened.riskTier()).isNotEqualTo(RiskTier.NORMAL);
+
+        // The tightened retry-after is not applied to a normal client of the same tenant.
+        RateLimitDecision normal = service.check(request("203.0.113.10", "public", "Mozilla/5.0"));
+        assertThat(normal.allowed()).isFalse();
+        assertThat(normal.riskTier()).isEqualTo(RiskTier.NORMAL);
+        assertThat(bucketCalls()).isEqualTo(2);
+
+        // Denied at the NORMAL tier: cached for the whole tenant.
+        assertThat(service.check(request("203.0.113.11", "public", "Mozilla/5.0")).allowed()).isFalse();
+        assertThat(bucketCalls()).isEqualTo(2);
+    }
+
+    @Test
+    void stepUpRoutesBypassTheDenyCache() {
+        AdaptiveRateLimiterService service = service();
+
+        service.check(request("login", "Mozilla/5.0"));
+        service.check(request("login", "Mozilla/5.0"));
+
+        // Both reached Redis: a high-risk retry must still be able to get its step-up challenge.
+        assertThat(bucketCalls()).isEqualTo(2);
+    }
+
+    @Test
+    void checkAsyncCompletesWhenRedisReplies() {
+        CompletableFuture<TokenBucketRedisClient.BucketResult> reply = new CompletableFuture<>();
+        when(buckets.consumeAllAsync(anyList(), anyLong())).thenReturn(reply);
+
+        CompletableFuture<RateLimitDecision> decision = service().checkAsync(request("public", "Mozilla/5.0"));
+        assertThat(decision).isNotDone();
+
+        reply.complete(new TokenBucketRedisClient.BucketResult(true, 7, 0, -1));
+        assertThat(decision).isCompletedWithValueMatching(d -> d.allowed() && d.remainingTokens() == 7);
+    }
+
+    @Test
+    void redisCommandTimeoutFallsBackOnTheCallerThread() {
+        AtomicReference<Thread> redisThread = new AtomicReference<>();
+        when(buckets.consumeAll(anyList(), anyLong())).thenAnswer(inv -> {
+            redisThread.set(Thread.currentThread());
+            throw new QueryTimeoutException("Redis command timed out");
+        });
+
+        RateLimitDecision decision = service().check(request("public", "Mozilla/5.0"));
+
+        assertThat(decision.allowed()).isTrue();
+        assertThat(fallbacks("timeout")).isEqualTo(1);
+        // No hand-off to a shared pool: the request thread makes the bounded Redis call.
+        assertThat(redisThread.get()).isSameAs(Thread.currentThread());
+        verify(buckets, never()).consumeAllAsync(anyList(), anyLong());
+    }
+
+    @Test
+    void signalsUsingUpTheDeadlineSkipTheRedisBuckets() {
+        props.getDecision().setDeadlineMillis(20);
+        when(store.incrementIpRequestRate(anyString())).thenAnswer(inv -> {
+            Thread.sleep(40);
+            return 1L;
+        });
+
+        RateLimitDecision decision = service().check(request("public", "Mozilla/5.0"));
+
+        assertThat(decision.allowed()).isTrue();
+        assertThat(fallbacks("timeout")).isEqualTo(1);
+        // Only the local fallback debits the request.
+        verify(buckets, never()).consumeAll(anyList(), anyLong());
+    }
+
+    @Test
+    void failingRedisFallsBackToLocalBuckets() {
+        when(buckets.consumeAll(anyList(), anyLong())).thenThrow(new IllegalStateException("connection reset"));
+
+        RateLimitDecision decision = service().check(request("public", "Mozilla/5.0"));
+
+        assertThat(decision.allowed()).isTrue();
+        assertThat(fallbacks("error")).isEqualTo(1);
+    }
+
+    @Test
+    void interruptedCallerCountsAsARedisFailure() {
+        props.getRedis().getBreaker().setFailureThreshold(1);
+        when(buckets.consumeAll(anyList(), anyLong())).thenThrow(new RedisSystemException("interrupted",
+                new RedisCommandInterruptedException(new InterruptedException())));
+        RedisCircuitBreaker breaker = new RedisCircuitBreaker(props, metrics);
+
+        RateLimitDecision decision = service(breaker).check(request("public", "Mozilla/5.0"));
+
+        assertThat(Thread.interrupted()).isTrue();
+        assertThat(decision.allowed()).isTrue();
+        assertThat(fallbacks("interrupted")).isEqualTo(1);
+        assertThat(breaker.state()).isEqualTo(RedisCircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void onlyAsGroupsWithABucketGetAnAsnBucket(@TempDir Path dir) throws IOException {
+        Path database = Files.writeString(dir.resolve("ip2asn.tsv"), "203.0.113.0/24 64500\n198.51.100.0/24 64501\n");
+        props.getAsn().setEnabled(true);
+        props.getAsn().setDatabasePath(database.toString());
+        props.getAsn().setTablePath(dir.resolve("asn.iprt").toString());
+        BotDefenseProperties.Asn.Group hosting = asnGroup("hosting", 64500);
+        hosting.setBucket(new BotDefenseProperties.Bucket(90, 1.5));
+        BotDefenseProperties.Asn.Group isp = asnGroup("isp", 64501);
+        isp.setScore(10);
+        props.getAsn().setGroups(List.of(hosting, isp));
+        when(buckets.consumeAll(anyList(), anyLong()))
+                .thenReturn(new TokenBucketRedisClient.BucketResult(true, 5, 0, -1));
+        AdaptiveRateLimiterService service = service();
+
+        service.check(request("203.0.113.9", "public", "Mozilla/5.0"));
+        service.check(request("198.51.100.9", "public", "Mozilla/5.0"));
+
+        ArgumentCaptor<List<TokenBucketRedisClient.BucketSpec>> specs = ArgumentCaptor.captor();
+        verify(buckets, times(2)).consumeAll(specs.capture(), anyLong());
+        // ip, user, tenant and the bucket of the hosting group.
+        List<TokenBucketRedisClient.BucketSpec> hosted = specs.getAllValues().get(0);
+        assertThat(hosted).hasSize(4);
+        assertThat(hosted.get(3).key()).isEqualTo(new BucketKeys(props).asn(64500, "public"));
+        assertThat(hosted.get(3).limit().capacity()).isEqualTo(90);
+        // The ISP group only scores.
+        assertThat(specs.getAllValues().get(1)).hasSize(3);
+    }
+
+    @Test
+    void fusedScriptCountsASprayedSubnetUnderOneKey() {
+        props.getDecision().setMode(BotDefenseProperties.Decision.Mode.FUSED);
+        when(store.requestRateKey(anyString())).thenAnswer(inv -> "sig:reqRate:" + inv.getArgument(0));
+        AdaptiveRateLimiterService service = service();
+
+        service.check(request("2001:db8:25::1", "public", "Mozilla/5.0"));
+        service.check(request("2001:db8:25:0:a:b:c:d", "public", "Mozilla/5.0"));
+
+        ArgumentCaptor<FusedDecisionRedisClient.FusedRequest> requests = ArgumentCaptor.captor();
+        verify(fused, times(2)).evaluate(requests.capture(), anyLong());
+        byte[] subnetBucket = new BucketKeys(props).subnet(CidrBlock.parse("2001:db8:25::/64"), "public");
+        for (FusedDecisionRedisClient.FusedRequest r : requests.getAllValues()) {
+            // KEYS[1] is the request-rate counter of the /64, not of the address.
+            assertThat(r.requestRateKey()).isEqualTo("sig:reqRate:2001:db8:25::/64");
+            assertThat(r.buckets()).hasSize(4);
+            assertThat(r.buckets().get(1).key()).isEqualTo(subnetBucket);
+        }
+    }
+
+    private static BotDefenseProperties.Asn.Group asnGroup(String name, Integer... asns) {
+        BotDefenseProperties.Asn.Group group = new BotDefenseProperties.Asn.Group();
+        group.setName(name);
+        group.setAsns(List.of(asns));
+        return group;
+    }
+
+    private double fallbacks(String reason) {
+        return metrics.counter("botdefense.decisions.fallback", "reason", reason).count();
+    }
+
+    private long bucketCalls() {
+        return Mockito.mockingDetails(buckets).getInvocations().stream()
+                .filter(i -> i.getMethod().getName().startsWith("consumeAll"))
+                .count();
+    }
+
+    private AdaptiveRateLimiterService service() {
+        return service(new RedisCircuitBreaker(props, metrics));
+    }
+
+    private AdaptiveRateLimiterService service(RedisCircuitBreaker breaker) {
+        SubnetAggregator aggregator = new SubnetAggregator(new IpResolverProperties());
+        RiskScoringService scoring = new RiskScoringService(List.of(
+                new RequestRateSignal(store, aggregator),
+                new LoginFailureSignal(store),
+                new UserAgentSignal(new UserAgentClassifier(props), props)), props);
+        return new AdaptiveRateLimiterService(props, scoring, store, buckets,
+                new LocalTokenBucketStore(props, metrics), new BucketKeys(props), new LocalDenyCache(props),
+                fused, breaker, shards, new HeavyHitters(props), aggregator,
+                new AsnDatabase(props, metrics), Mockito.mock(BotDefenseEventPublisher.class),
+                Mockito.mock(RateLimitDecisionRepository.class), metrics, Runnable::run);
+    }
+
+    private static RequestContext request(String routeGroup, String userAgent) {
+        return request("203.0.113.9", routeGroup, userAgent);
+    }
+
+    private static RequestContext request(String ip, String routeGroup, String userAgent) {
+        return new RequestContext("c", ip, "GET", "/api/x", routeGroup, "t1", "u1", userAgent);
+    }
+}
@@ -0,0 +1,43 @@
+package com.github.dimitryivaniuta.gateway.botdefense.service;
+
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalDenyCacheTest {
+
+    @Test
+    void denialExpiresAfterRetryAfter() {
+        LocalDenyCache cache = new LocalDenyCache(new BotDefenseProperties());
+        byte[] key = {1, 2, 3};
+
+        cache.put(key, 1_000, 500);
+
+        LocalDenyCache.Denial d = cache.get(new byte[]{1, 2, 3}, 1_200);
+        assertNotNull(d);
+        assertEquals(1_500, d.deniedUntil());
+        assertNull(cache.get(key, 1_500));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void fullCacheEvictsLeastRecentlyUsed() {
+        BotDefenseProperties props = new BotDefenseProperties();
+        props.getDecision().getDenyCache().setMaxEntries(1_600);
+        LocalDenyCache cache = new LocalDenyCache(props);
+
+        for (int i = 0; i < 100_000; i++) {
+            cache.put(key(i), 0, 1_000);
+            // Keep the first key in use: it must survive the churn.
+            assertNotNull(cache.get(key(0), 1));
+        }
+
+        assertTrue(cache.size() <= 1_600, "size " + cache.size());
+        assertNotNull(cache.get(key(99_999), 1));
+    }
+
+    private static byte[] key(int i) {
+        return new byte[]{(byte) (i >>> 24), (byte) (i >>> 16), (byte) (i >>> 8), (byte) i};
+    }
+}
@@ -0,0 +1,145 @@
+package com.github.dimitryivaniuta.gateway.botdefense.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.dimitryivaniuta.gateway.botdefense.config.BotDefenseProperties;
+import com.github.dimitryivaniuta.gateway.botdefense.model.RateLimitDecision;
+import com.github.dimitryivaniuta.gateway.botdefense.model.RiskTier;
+import com.github.dimitryivaniuta.gateway.botdefense.net.IpResolverProperties;
+import com.github.dimitryivaniuta.gateway.botdefense.net.ProxyAwareIpResolver;
+import com.github.dimitryivaniuta.gateway.botdefense.risk.IpReputation;
+import com.github.dimitryivaniuta.gateway.botdefense.service.AdaptiveRateLimiterService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.DispatcherType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class AdaptiveRateLimitFilterTest {
+
+    private final BotDefenseProperties props = new BotDefenseProperties();
+    private final AdaptiveRateLimiterService limiter = Mockito.mock(AdaptiveRateLimiterService.class);
+
+    @Test
+    void asyncDecisionIsEnforcedOnTheAsyncDispatch() throws Exception {
+        props.getDecision().setAsync(true);
+        CompletableFuture<RateLimitDecision> pending = new CompletableFuture<>();
+        when(limiter.checkAsync(any())).thenReturn(pending);
+        AdaptiveRateLimitFilter filter = filter();
+
+        MockHttpServletRequest request = request();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(request, response, chain);
+
+        // The request thread is released while Redis decides.
+        assertThat(request.isAsyncStarted()).isTrue();
+        assertThat(chain.getRequest()).isNull();
+        verify(limiter, never()).check(any());
+
+        pending.complete(new RateLimitDecision(false, 10, RiskTier.NORMAL, 0, 2_000, false, null, "rate_limited"));
+        assertThat(request.getAsyncContext()).isNotNull();
+
+        // The container re-enters the filter on the dispatch.
+        request.setDispatcherType(DispatcherType.ASYNC);
+        MockFilterChain dispatchChain = new MockFilterChain();
+        filter.doFilter(request, response, dispatchChain);
+
+        assertThat(response.getStatus()).isEqualTo(429);
+        assertThat(response.getHeader("Retry-After")).isEqualTo("2");
+        assertThat(dispatchChain.getRequest()).isNull();
+    }
+
+    @Test
+    void failedAsyncDecisionFailsOpen() throws Exception {
+        props.getDecision().setAsync(true);
+        when(limiter.checkAsync(any())).thenReturn(CompletableFuture.failedFuture(new IllegalStateException("boom")));
+        AdaptiveRateLimitFilter filter = filter();
+
+        MockHttpServletRequest request = request();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+
+        request.setDispatcherType(DispatcherType.ASYNC);
+        MockFilterChain dispatchChain = new MockFilterChain();
+        filter.doFilter(request, response, dispatchChain);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(dispatchChain.getRequest()).isSameAs(request);
+    }
+
+    @Test
+    void asyncDecisionThrowingSynchronouslyStillDispatches() throws Exception {
+        props.getDecision().setAsync(true);
+        when(limiter.checkAsync(any())).thenThrow(new IllegalStateException("boom"));
+        AdaptiveRateLimitFilter filter = filter();
+
+        MockHttpServletRequest request = request();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+
+        assertThat(((MockAsyncContext) request.getAsyncContext()).getDispatchedPath()).isEqualTo("/api/public/ping");
+
+        request.setDispatcherType(DispatcherType.ASYNC);
+        MockFilterChain dispatchChain = new MockFilterChain();
+        filter.doFilter(request, response, dispatchChain);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(dispatchChain.getRequest()).isSameAs(request);
+    }
+
+    @Test
+    void blockListedAddressIsRejectedBeforeAnyRedisWork(@TempDir Path dir) throws Exception {
+        Path feed = Files.writeString(dir.resolve("drop.txt"), "203.0.113.0/24\n");
+        BotDefenseProperties.Reputation.Feed drop = new BotDefenseProperties.Reputation.Feed();
+        drop.setName("drop");
+        drop.setPath(feed.toString());
+        drop.setAction(BotDefenseProperties.Reputation.Action.BLOCK);
+        props.getReputation().setEnabled(true);
+        props.getReputation().setTablePath(dir.resolve("reputation.iprt").toString());
+        props.getReputation().setFeeds(List.of(drop));
+        AdaptiveRateLimitFilter filter = filter();
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(request(), response, chain);
+
+        assertThat(response.getStatus()).isEqualTo(403);
+        assertThat(response.getContentAsString()).contains("\"code\":\"BLOCKED\"").doesNotContain("stepUpAction");
+        assertThat(chain.getRequest()).isNull();
+        verifyNoInteractions(limiter);
+    }
+
+    private AdaptiveRateLimitFilter filter() {
+        BotDefenseProperties.RouteGroup pub = new BotDefenseProperties.RouteGroup();
+        pub.setName("public");
+        pub.setPaths(List.of("/api/public/**"));
+        pub.setMethods(List.of("GET"));
+        props.setRouteGroups(List.of(pub));
+        return new AdaptiveRateLimitFilter(new RouteGroupMatcher(props), new IpAllowlist(props),
+                new ProxyAwareIpResolver(new IpResolverProperties()), new IpReputation(props, new SimpleMeterRegistry()),
+                limiter, new ObjectMapper(), props);
+    }
+
+    private static MockHttpServletRequest request() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/public/ping");
+        request.setAsyncSupported(true);
+        request.setRemoteAddr("203.0.113.5");
+        return request;
+    }
+}